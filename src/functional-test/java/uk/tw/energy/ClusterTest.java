@@ -0,0 +1,84 @@
+package uk.tw.energy;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import uk.tw.energy.builders.MeterReadingsBuilder;
+import uk.tw.energy.domain.Meter;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Two nodes in one JVM, each on a port of its own, the second joining through the first.
+ */
+public class ClusterTest {
+
+    private static final int METERS = 20;
+
+    @Test
+    public void shouldAnswerForEveryMeterFromAnyNodeAsNodesJoinAndLeave() throws IOException {
+        int firstPort = freePort();
+        int secondPort = freePort();
+        try (ConfigurableApplicationContext first = start(firstPort, "");
+             ConfigurableApplicationContext second = start(secondPort, "http://localhost:" + firstPort)) {
+            TestRestTemplate viaFirst = new TestRestTemplate(new RestTemplateBuilder().rootUri("http://localhost:" + firstPort));
+            TestRestTemplate viaSecond = new TestRestTemplate(new RestTemplateBuilder().rootUri("http://localhost:" + secondPort));
+            Meter[] meters = new Meter[METERS];
+            for (int i = 0; i < METERS; i++) {
+                meters[i] = new MeterReadingsBuilder().setSmartMeterId("cluster-" + i).generateElectricityReadings(5).build();
+            }
+
+            assertThat(viaFirst.getForObject("/cluster/members", String[].class)).hasSize(2);
+            assertThat(viaSecond.postForEntity("/readings/store-batch", json(second.getBean(ObjectMapper.class), meters), String.class).getStatusCode()).isEqualTo(HttpStatus.OK);
+            for (int i = 0; i < METERS; i++) {
+                assertThat(viaFirst.getForEntity("/readings/read/cluster-" + i, String.class).getStatusCode()).isEqualTo(HttpStatus.OK);
+            }
+            String topConsumers = viaFirst.getForObject("/analytics/top-consumers?limit=1000", String.class);
+            for (int i = 0; i < METERS; i++) {
+                assertThat(topConsumers).contains("\"smartMeterId\":\"cluster-" + i + "\"");
+            }
+
+            ResponseEntity<String[]> left = viaSecond.exchange("/cluster/members?node=http://localhost:" + secondPort,
+                    HttpMethod.DELETE, null, String[].class);
+
+            assertThat(left.getBody()).containsExactly("http://localhost:" + firstPort);
+            assertThat(viaFirst.getForObject("/cluster/members", String[].class)).hasSize(1);
+            for (int i = 0; i < METERS; i++) {
+                assertThat(viaFirst.getForEntity("/readings/read/cluster-" + i, String.class).getStatusCode()).isEqualTo(HttpStatus.OK);
+            }
+        }
+    }
+
+    private static ConfigurableApplicationContext start(int port, String seeds) {
+        return new SpringApplicationBuilder(App.class).run(
+                "--server.port=" + port,
+                "--cluster.enabled=true",
+                "--cluster.node=http://localhost:" + port,
+                "--cluster.seeds=" + seeds);
+    }
+
+    private static HttpEntity<String> json(ObjectMapper mapper, Object body) throws JsonProcessingException {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        return new HttpEntity<>(mapper.writeValueAsString(body), headers);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -8,11 +8,22 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.web.client.TestRestTemplate;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import uk.tw.energy.builders.MeterReadingsBuilder;
+import uk.tw.energy.controller.ingest.ReadingsWireFormat;
 import uk.tw.energy.domain.Meter;
+import uk.tw.energy.domain.PricePlan;
+import uk.tw.energy.domain.PricePlanType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -34,6 +45,45 @@ public class EndpointTest {
         assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
     }
 
+    @Test
+    public void shouldStoreABatchOfMeters() throws JsonProcessingException {
+        Meter[] meters = {
+                new MeterReadingsBuilder().setSmartMeterId("batch-0").generateElectricityReadings().build(),
+                new MeterReadingsBuilder().setSmartMeterId("batch-1").generateElectricityReadings().build()
+        };
+        HttpEntity<String> entity = getStringHttpEntity(meters);
+
+        ResponseEntity<String> response = restTemplate.postForEntity("/readings/store-batch", entity, String.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(restTemplate.getForEntity("/readings/read/batch-1", String.class).getStatusCode()).isEqualTo(HttpStatus.OK);
+    }
+
+    @Test
+    public void shouldStoreAndReadBinaryReadings() throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        ReadingsWireFormat.Encoder encoder = new ReadingsWireFormat.Encoder(payload);
+        encoder.meter("binary-0", new long[]{1606636800, 1606636860}, new long[]{50300, 1000000}, 2);
+        encoder.flush();
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.valueOf(ReadingsWireFormat.MEDIA_TYPE_VALUE));
+        headers.setAccept(List.of(MediaType.valueOf(ReadingsWireFormat.MEDIA_TYPE_VALUE)));
+
+        ResponseEntity<String> stored = restTemplate.postForEntity("/readings/store", new HttpEntity<>(payload.toByteArray(), headers), String.class);
+        ResponseEntity<byte[]> response = restTemplate.exchange("/readings/read/binary-0", HttpMethod.GET, new HttpEntity<>(headers), byte[].class);
+
+        assertThat(stored.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        List<Long> readings = new ArrayList<>();
+        new ReadingsWireFormat().parse(new ByteArrayInputStream(response.getBody()), (smartMeterId, epochSeconds, values, count) -> {
+            for (int i = 0; i < count; i++) {
+                readings.add(values[i]);
+            }
+        });
+        assertThat(readings).containsExactly(50300L, 1000000L);
+        assertThat(restTemplate.getForObject("/readings/read/binary-0", String.class)).contains("\"reading\":0.0503");
+    }
+
     @Test
     public void givenMeterIdShouldReturnAMeterReadingAssociatedWithMeterId() throws JsonProcessingException {
         String smartMeterId = "bob";
@@ -63,6 +113,37 @@ public class EndpointTest {
         assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
     }
 
+    @Test
+    public void shouldStreamRecommendationsForEveryMeter() throws JsonProcessingException {
+        populateMeterReadingsForMeter("bob");
+
+        ResponseEntity<String> response = restTemplate.getForEntity("/price-plans/recommend-all?limit=1", String.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody()).contains("\"smartMeterId\":\"bob\"");
+    }
+
+    @Test
+    public void shouldSimulateCandidatePricePlansAcrossTheFleet() throws JsonProcessingException {
+        populateMeterReadingsForMeter("bob");
+        PricePlan[] candidates = {new PricePlan("candidate", "supplier", BigDecimal.ONE, PricePlanType.STANDARD_PRICE_PLAN)};
+
+        ResponseEntity<String> response = restTemplate.postForEntity("/price-plans/simulate", getStringHttpEntity(candidates), String.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody()).contains("\"pricePlanId\":\"candidate\"");
+    }
+
+    @Test
+    public void shouldListTopConsumers() throws JsonProcessingException {
+        populateMeterReadingsForMeter("carol");
+
+        ResponseEntity<String> response = restTemplate.getForEntity("/analytics/top-consumers?limit=1000", String.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody()).contains("\"smartMeterId\":\"carol\"");
+    }
+
     private HttpEntity<String> getStringHttpEntity(Object object) throws JsonProcessingException {
         HttpHeaders headers = new HttpHeaders();
         headers.setContentType(MediaType.APPLICATION_JSON);
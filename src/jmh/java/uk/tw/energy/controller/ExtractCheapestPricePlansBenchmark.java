@@ -0,0 +1,53 @@
+package uk.tw.energy.controller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExtractCheapestPricePlansBenchmark {
+
+    @Param({"3", "30", "300"})
+    public int planCount;
+
+    @Param({"2"})
+    public int limit;
+
+    private PricePlanComparatorController controller;
+    private Map<String, BigDecimal> consumptionsForPricePlans;
+
+    @Setup
+    public void setUp() {
+        controller = new PricePlanComparatorController(null, null, null, null, null, null);
+        Random random = new Random(42);
+        consumptionsForPricePlans = new HashMap<>();
+        for (int i = 0; i < planCount; i++) {
+            consumptionsForPricePlans.put("price-plan-" + i, BigDecimal.valueOf(random.nextInt(1_000_000), 4));
+        }
+    }
+
+    @Benchmark
+    public List<Map.Entry<String, BigDecimal>> extractCheapestPricePlans() {
+        return controller.extractCheapestPricePlans(consumptionsForPricePlans, limit);
+    }
+}
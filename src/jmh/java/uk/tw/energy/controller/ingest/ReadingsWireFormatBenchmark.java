@@ -0,0 +1,78 @@
+package uk.tw.energy.controller.ingest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import uk.tw.energy.configuration.generator.ElectricityReadingsGenerator;
+import uk.tw.energy.domain.ElectricityReading;
+import uk.tw.energy.domain.Meter;
+import uk.tw.energy.store.FixedPoint;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing the same meter's readings as JSON and in the binary wire format, each straight into batches of longs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReadingsWireFormatBenchmark {
+
+    @Param({"1", "100", "10000"})
+    public int historyLength;
+
+    private final MeterBatchParser meterBatchParser = new MeterBatchParser();
+    private final ReadingsWireFormat readingsWireFormat = new ReadingsWireFormat();
+    private byte[] json;
+    private byte[] binary;
+
+    @Setup
+    public void setUp() throws IOException {
+        ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        objectMapper.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
+        List<ElectricityReading> readings = new ElectricityReadingsGenerator().generate(historyLength);
+        json = objectMapper.writeValueAsBytes(new Meter("smart-meter-0", readings));
+        long[] epochSeconds = new long[historyLength];
+        long[] values = new long[historyLength];
+        for (int i = 0; i < historyLength; i++) {
+            epochSeconds[i] = readings.get(i).getTime().getEpochSecond();
+            values[i] = FixedPoint.toFixed(readings.get(i).getReadingInKW());
+        }
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        ReadingsWireFormat.Encoder encoder = new ReadingsWireFormat.Encoder(payload);
+        encoder.meter("smart-meter-0", epochSeconds, values, historyLength);
+        encoder.flush();
+        binary = payload.toByteArray();
+    }
+
+    @Benchmark
+    public int parseJson(Blackhole blackhole) throws IOException {
+        return meterBatchParser.parse(new ByteArrayInputStream(json),
+                (smartMeterId, epochSeconds, readings, count) -> blackhole.consume(readings[count - 1]));
+    }
+
+    @Benchmark
+    public int parseBinary(Blackhole blackhole) throws IOException {
+        return readingsWireFormat.parse(new ByteArrayInputStream(binary),
+                (smartMeterId, epochSeconds, readings, count) -> blackhole.consume(readings[count - 1]));
+    }
+}
@@ -0,0 +1,71 @@
+package uk.tw.energy.domain;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import uk.tw.energy.configuration.generator.ElectricityReadingsGenerator;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * (De)serialisation of the request and response bodies with the same mapper configuration as the application.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JacksonBenchmark {
+
+    @Param({"1", "100", "10000"})
+    public int historyLength;
+
+    private ObjectMapper objectMapper;
+    private Meter meter;
+    private ElectricityReading reading;
+    private String meterJson;
+    private String readingJson;
+
+    @Setup
+    public void setUp() throws JsonProcessingException {
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        objectMapper.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
+        meter = new Meter("smart-meter-0", new ElectricityReadingsGenerator().generate(historyLength));
+        reading = meter.getElectricityReadings().get(0);
+        meterJson = objectMapper.writeValueAsString(meter);
+        readingJson = objectMapper.writeValueAsString(reading);
+    }
+
+    @Benchmark
+    public String serializeMeter() throws JsonProcessingException {
+        return objectMapper.writeValueAsString(meter);
+    }
+
+    @Benchmark
+    public Meter deserializeMeter() throws JsonProcessingException {
+        return objectMapper.readValue(meterJson, Meter.class);
+    }
+
+    @Benchmark
+    public String serializeElectricityReading() throws JsonProcessingException {
+        return objectMapper.writeValueAsString(reading);
+    }
+
+    @Benchmark
+    public ElectricityReading deserializeElectricityReading() throws JsonProcessingException {
+        return objectMapper.readValue(readingJson, ElectricityReading.class);
+    }
+}
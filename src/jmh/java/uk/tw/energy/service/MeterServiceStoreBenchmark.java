@@ -0,0 +1,95 @@
+package uk.tw.energy.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.tw.energy.configuration.generator.ElectricityReadingsGenerator;
+import uk.tw.energy.store.FixedPoint;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Each invocation has {@code threads} writers store {@link #BATCHES_PER_THREAD} batches each, spread over
+ * {@code meters} meters; a single meter means every writer contends on the same history. Every batch is later than
+ * those before it from the same writer, so that it is stored rather than dropped as a resend.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MeterServiceStoreBenchmark {
+
+    static final int BATCHES_PER_THREAD = 100;
+
+    @Param({"1", "4", "8"})
+    public int threads;
+
+    @Param({"1", "1000"})
+    public int meters;
+
+    @Param({"10"})
+    public int readingsPerBatch;
+
+    private ExecutorService executor;
+    private long[] readings;
+    private MeterService meterService;
+    private long invocations;
+
+    @Setup
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(threads);
+        readings = new ElectricityReadingsGenerator().generate(readingsPerBatch).stream()
+                .mapToLong(reading -> FixedPoint.toFixed(reading.getReadingInKW()))
+                .toArray();
+    }
+
+    @Setup(Level.Iteration)
+    public void resetStore() {
+        meterService = new MeterService(new HashMap<>());
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public void storeReadings() throws Exception {
+        long firstBatch = invocations++ * BATCHES_PER_THREAD * threads;
+        List<Future<?>> writers = new ArrayList<>(threads);
+        for (int thread = 0; thread < threads; thread++) {
+            int offset = thread;
+            writers.add(executor.submit(() -> {
+                long[] epochSeconds = new long[readingsPerBatch];
+                for (int i = 0; i < BATCHES_PER_THREAD; i++) {
+                    long batch = firstBatch + (long) i * threads + offset;
+                    for (int j = 0; j < readingsPerBatch; j++) {
+                        epochSeconds[j] = 1606694400L + 10L * (batch * readingsPerBatch + j);
+                    }
+                    meterService.storeReadings("smart-meter-" + (offset + i * threads) % meters, epochSeconds, readings, readingsPerBatch);
+                }
+            }));
+        }
+        for (Future<?> writer : writers) {
+            writer.get();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package uk.tw.energy.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.tw.energy.configuration.generator.ElectricityReadingsGenerator;
+import uk.tw.energy.domain.ElectricityReading;
+import uk.tw.energy.domain.PricePlan;
+import uk.tw.energy.domain.PricePlanType;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PricePlanServiceBenchmark {
+
+    static final String SMART_METER_ID = "smart-meter-0";
+
+    @Param({"100", "10000", "1000000"})
+    public int historyLength;
+
+    @Param({"3", "30"})
+    public int planCount;
+
+    private PricePlanService pricePlanService;
+
+    @Setup
+    public void setUp() {
+        List<ElectricityReading> readings = new ElectricityReadingsGenerator().generate(historyLength);
+        Map<String, List<ElectricityReading>> seed = new HashMap<>();
+        seed.put(SMART_METER_ID, readings);
+        pricePlanService = new PricePlanService(pricePlans(planCount), new MeterService(seed));
+    }
+
+    @Benchmark
+    public Optional<Map<String, BigDecimal>> getAllPricePlanCostsForMeter() {
+        return pricePlanService.getAllPricePlanCostsForMeter(SMART_METER_ID);
+    }
+
+    static List<PricePlan> pricePlans(int planCount) {
+        PricePlanType[] types = PricePlanType.values();
+        return IntStream.range(0, planCount)
+                .mapToObj(i -> new PricePlan("price-plan-" + i, "supplier-" + i, BigDecimal.valueOf(i + 1), types[i % types.length]))
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,109 @@
+package uk.tw.energy.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.tw.energy.store.ReadingJournal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Each invocation has {@code producers} threads queue {@link #BATCHES_PER_PRODUCER} batches each, spread over
+ * {@link #METERS} meters, and waits for the partition writers to store all of them. Every meter is fed by one
+ * producer with readings later than the last, so the writers always take the append path. With the producers kept
+ * constant, throughput should grow with {@code partitions} up to the number of free cores.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReadingIngestQueueBenchmark {
+
+    static final int BATCHES_PER_PRODUCER = 1_000;
+    static final int METERS = 10_000;
+
+    @Param({"1", "2", "4", "8"})
+    public int partitions;
+
+    @Param({"4"})
+    public int producers;
+
+    @Param({"10"})
+    public int readingsPerBatch;
+
+    private ExecutorService executor;
+    private long[] readings;
+    private ReadingIngestQueue readingIngestQueue;
+    private long invocations;
+
+    @Setup
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(producers);
+        readings = new long[readingsPerBatch];
+        for (int i = 0; i < readingsPerBatch; i++) {
+            readings[i] = 500_000 + i;
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void startQueue() {
+        MeterService meterService = new MeterService(new HashMap<>(), ReadingJournal.NONE, new SimpleMeterRegistry(), partitions);
+        readingIngestQueue = new ReadingIngestQueue(meterService, true, 10_000_000, new SimpleMeterRegistry());
+    }
+
+    @TearDown(Level.Iteration)
+    public void stopQueue() throws InterruptedException {
+        readingIngestQueue.shutdown();
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public void queueAndStoreReadings() throws Exception {
+        long firstBatch = invocations++ * BATCHES_PER_PRODUCER;
+        List<Future<?>> producing = new ArrayList<>(producers);
+        for (int producer = 0; producer < producers; producer++) {
+            int offset = producer;
+            producing.add(executor.submit(() -> {
+                long[] epochSeconds = new long[readingsPerBatch];
+                for (int i = 0; i < BATCHES_PER_PRODUCER; i++) {
+                    String smartMeterId = "smart-meter-" + (offset + i * producers) % METERS;
+                    for (int j = 0; j < readingsPerBatch; j++) {
+                        epochSeconds[j] = 1606694400L + 10L * ((firstBatch + i) * readingsPerBatch + j);
+                    }
+                    while (!readingIngestQueue.offer(smartMeterId, epochSeconds, readings, readingsPerBatch)) {
+                        Thread.onSpinWait();
+                    }
+                }
+            }));
+        }
+        for (Future<?> producer : producing) {
+            producer.get();
+        }
+        while (readingIngestQueue.queuedReadings() > 0) {
+            Thread.onSpinWait();
+        }
+    }
+}
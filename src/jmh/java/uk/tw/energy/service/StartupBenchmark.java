@@ -0,0 +1,78 @@
+package uk.tw.energy.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.tw.energy.configuration.generator.FleetGenerator;
+import uk.tw.energy.store.IdDictionary;
+import uk.tw.energy.store.ReadingJournal;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Time for the reading store to be ready to serve {@code meters} meters holding a day of readings a minute apart:
+ * either seeded from the generator, which encodes every reading afresh, or loaded from a snapshot written once in
+ * setup. The snapshot is in the page cache after the first load, so this measures the cost of rebuilding the store
+ * rather than of the disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class StartupBenchmark {
+
+    static final int READINGS_PER_METER = 1440;
+
+    @Param({"10000", "100000"})
+    public int meters;
+
+    private FleetGenerator generator;
+    private Path snapshotDirectory;
+
+    @Setup
+    public void setUp() throws IOException {
+        generator = new FleetGenerator(42, 1606694400L, 60, READINGS_PER_METER);
+        snapshotDirectory = Files.createTempDirectory("startup-benchmark");
+        seedFleet().writeSnapshot(snapshotDirectory);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(snapshotDirectory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public MeterService seedFleet() {
+        MeterService meterService = new MeterService(new HashMap<>());
+        generator.generate(meters, 0, meterService::restoreReadings);
+        return meterService;
+    }
+
+    @Benchmark
+    public MeterService loadSnapshot() {
+        return new MeterService(new HashMap<>(), new IdDictionary(), ReadingJournal.NONE, new SimpleMeterRegistry(), 0,
+                snapshotDirectory.toString());
+    }
+}
@@ -0,0 +1,249 @@
+package uk.tw.energy.loadtest;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import uk.tw.energy.configuration.generator.FleetGenerator;
+import uk.tw.energy.store.FixedPoint;
+
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives a running application at a fixed request rate and reports latency percentiles per endpoint.
+ * <p>
+ * Requests are sent on a fixed schedule whether or not earlier ones have been answered, and each latency is measured
+ * from the time the request was due to be sent rather than when it actually went out. A stalled server therefore
+ * shows up as every request it held back being slow, rather than as one slow request followed by a quiet spell, which
+ * is what a client waiting for each answer before sending the next would report (coordinated omission). The time
+ * from the actual send is reported next to it; the two part ways when the driver itself falls behind, for instance
+ * with {@code max-in-flight} requests outstanding.
+ * <p>
+ * Meters are named as {@link FleetGenerator} names them, so that against an application started with
+ * {@code --seed.fleet.meters} the price plan requests hit meters with readings and accounts. Readings sent to
+ * {@code /readings/store} start from the time the test starts and follow each meter's generated daily profile.
+ */
+public class LoadTest {
+
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(10);
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99};
+    private static final String[] PERCENTILE_LABELS = {"p50", "p90", "p99", "p99.9", "p99.99"};
+
+    private final URI baseUri;
+    private final int rate;
+    private final int durationSeconds;
+    private final int warmupSeconds;
+    private final int meters;
+    private final int readingsPerRequest;
+    private final int intervalSeconds;
+    private final int[] mix;
+    private final SplittableRandom random;
+    private final long[] nextEpochSeconds;
+    private final long seed;
+    private final Semaphore inFlight;
+    private final int maxInFlight;
+    private final HttpClient client;
+    private final Map<Endpoint, Results> results = new HashMap<>();
+
+    LoadTest(Map<String, String> options) {
+        this.baseUri = URI.create(options.getOrDefault("url", "http://localhost:8080"));
+        this.rate = Integer.parseInt(options.getOrDefault("rate", "1000"));
+        this.durationSeconds = Integer.parseInt(options.getOrDefault("duration", "60"));
+        this.warmupSeconds = Integer.parseInt(options.getOrDefault("warmup", "10"));
+        this.meters = Integer.parseInt(options.getOrDefault("meters", "1000"));
+        this.readingsPerRequest = Integer.parseInt(options.getOrDefault("readings-per-request", "10"));
+        this.intervalSeconds = Integer.parseInt(options.getOrDefault("interval", "10"));
+        this.mix = parseMix(options.getOrDefault("mix", "80:10:10"));
+        this.seed = Long.parseLong(options.getOrDefault("seed", "42"));
+        this.random = new SplittableRandom(seed);
+        this.maxInFlight = Integer.parseInt(options.getOrDefault("max-in-flight", "10000"));
+        this.inFlight = new Semaphore(maxInFlight);
+        this.nextEpochSeconds = new long[meters];
+        long now = Instant.now().getEpochSecond();
+        for (int i = 0; i < meters; i++) {
+            nextEpochSeconds[i] = now;
+        }
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        for (Endpoint endpoint : Endpoint.values()) {
+            results.put(endpoint, new Results());
+        }
+    }
+
+    /**
+     * Options are given as {@code --name=value}: {@code url}, {@code rate} (requests per second), {@code duration}
+     * and {@code warmup} (seconds), {@code meters}, {@code readings-per-request}, {@code interval} (seconds between
+     * a meter's readings), {@code mix} (store:compare-all:recommend weights), {@code max-in-flight} and {@code seed}.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --name=value but got " + arg);
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        new LoadTest(options).run(System.out);
+    }
+
+    void run(PrintStream out) throws InterruptedException {
+        out.printf("Sending %d requests/s to %s for %d s after a %d s warm-up%n", rate, baseUri, durationSeconds, warmupSeconds);
+        long periodNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long requests = (long) rate * (warmupSeconds + durationSeconds);
+        long warmupRequests = (long) rate * warmupSeconds;
+        long start = System.nanoTime();
+        for (long i = 0; i < requests; i++) {
+            long intendedStart = start + i * periodNanos;
+            long delay;
+            while ((delay = intendedStart - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(delay);
+            }
+            // blocking here delays later sends, but their latency still counts from when they were due
+            inFlight.acquire();
+            send(nextRequest(), intendedStart, i >= warmupRequests);
+        }
+        if (!inFlight.tryAcquire(maxInFlight, 1, TimeUnit.MINUTES)) {
+            out.println("Gave up waiting for outstanding requests");
+        }
+        double seconds = (System.nanoTime() - start) / 1e9 - warmupSeconds;
+        report(out, seconds);
+    }
+
+    private Request nextRequest() {
+        int meterIndex = random.nextInt(meters);
+        String smartMeterId = FleetGenerator.smartMeterId(meterIndex);
+        int pick = random.nextInt(mix[0] + mix[1] + mix[2]);
+        if (pick < mix[0]) {
+            return new Request(Endpoint.STORE, HttpRequest.newBuilder(baseUri.resolve("/readings/store"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(storeBody(meterIndex, smartMeterId))));
+        }
+        Endpoint endpoint = pick < mix[0] + mix[1] ? Endpoint.COMPARE_ALL : Endpoint.RECOMMEND;
+        return new Request(endpoint, HttpRequest.newBuilder(baseUri.resolve(endpoint.path + smartMeterId)).GET());
+    }
+
+    private String storeBody(int meterIndex, String smartMeterId) {
+        long[] epochSeconds = new long[readingsPerRequest];
+        long[] readings = new long[readingsPerRequest];
+        new FleetGenerator(seed, nextEpochSeconds[meterIndex], intervalSeconds, readingsPerRequest)
+                .generate(meterIndex, epochSeconds, readings);
+        nextEpochSeconds[meterIndex] += (long) readingsPerRequest * intervalSeconds;
+
+        StringBuilder body = new StringBuilder(64 + 48 * readingsPerRequest)
+                .append("{\"smartMeterId\":\"").append(smartMeterId).append("\",\"electricityReadings\":[");
+        for (int i = 0; i < readingsPerRequest; i++) {
+            body.append(i == 0 ? "" : ",")
+                    .append("{\"time\":").append(epochSeconds[i])
+                    .append(",\"reading\":").append(FixedPoint.toBigDecimal(readings[i]).toPlainString()).append('}');
+        }
+        return body.append("]}").toString();
+    }
+
+    private void send(Request request, long intendedStart, boolean measured) {
+        long actualStart = System.nanoTime();
+        HttpRequest httpRequest = request.builder.timeout(Duration.ofSeconds(30)).build();
+        client.sendAsync(httpRequest, HttpResponse.BodyHandlers.discarding()).whenComplete((response, failure) -> {
+            long end = System.nanoTime();
+            if (measured) {
+                Results endpointResults = results.get(request.endpoint);
+                endpointResults.record(intendedStart, actualStart, end);
+                if (failure != null || response.statusCode() >= 300) {
+                    endpointResults.errors.incrementAndGet();
+                }
+            }
+            inFlight.release();
+        });
+    }
+
+    private void report(PrintStream out, double seconds) {
+        Histogram all = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+        long errors = 0;
+        for (Results endpointResults : results.values()) {
+            all.add(endpointResults.latency);
+            errors += endpointResults.errors.get();
+        }
+        out.printf(Locale.ROOT, "Achieved %.1f requests/s with %d errors%n", all.getTotalCount() / seconds, errors);
+        out.println();
+        out.println("Latency from intended send time (ms)");
+        printTable(out, true);
+        out.println();
+        out.println("Latency from actual send time (ms)");
+        printTable(out, false);
+    }
+
+    private void printTable(PrintStream out, boolean corrected) {
+        out.printf(Locale.ROOT, "%-12s %9s %7s", "endpoint", "count", "errors");
+        for (String label : PERCENTILE_LABELS) {
+            out.printf(Locale.ROOT, " %9s", label);
+        }
+        out.printf(Locale.ROOT, " %9s%n", "max");
+        for (Endpoint endpoint : Endpoint.values()) {
+            Results endpointResults = results.get(endpoint);
+            Histogram histogram = corrected ? endpointResults.latency : endpointResults.serviceTime;
+            out.printf(Locale.ROOT, "%-12s %9d %7d", endpoint.label, histogram.getTotalCount(), endpointResults.errors.get());
+            for (double percentile : PERCENTILES) {
+                out.printf(Locale.ROOT, " %9.3f", histogram.getValueAtPercentile(percentile) / 1000.0);
+            }
+            out.printf(Locale.ROOT, " %9.3f%n", histogram.getMaxValue() / 1000.0);
+        }
+    }
+
+    private static int[] parseMix(String mix) {
+        String[] weights = mix.split(":");
+        if (weights.length != 3) {
+            throw new IllegalArgumentException("Expected store:compare-all:recommend weights but got " + mix);
+        }
+        return new int[]{Integer.parseInt(weights[0]), Integer.parseInt(weights[1]), Integer.parseInt(weights[2])};
+    }
+
+    private enum Endpoint {
+        STORE("store", "/readings/store"),
+        COMPARE_ALL("compare-all", "/price-plans/compare-all/"),
+        RECOMMEND("recommend", "/price-plans/recommend/");
+
+        private final String label;
+        private final String path;
+
+        Endpoint(String label, String path) {
+            this.label = label;
+            this.path = path;
+        }
+    }
+
+    private static final class Request {
+
+        private final Endpoint endpoint;
+        private final HttpRequest.Builder builder;
+
+        Request(Endpoint endpoint, HttpRequest.Builder builder) {
+            this.endpoint = endpoint;
+            this.builder = builder;
+        }
+    }
+
+    private static final class Results {
+
+        private final Histogram latency = new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 3);
+        private final Histogram serviceTime = new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 3);
+        private final AtomicLong errors = new AtomicLong();
+
+        void record(long intendedStart, long actualStart, long end) {
+            latency.recordValue(Math.min(HIGHEST_TRACKABLE_MICROS, TimeUnit.NANOSECONDS.toMicros(end - intendedStart)));
+            serviceTime.recordValue(Math.min(HIGHEST_TRACKABLE_MICROS, TimeUnit.NANOSECONDS.toMicros(end - actualStart)));
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package uk.tw.energy.configuration;
+
+import uk.tw.energy.domain.PricePlan;
+import uk.tw.energy.domain.PricePlanType;
+import uk.tw.energy.service.AccountService;
+import uk.tw.energy.service.MeterService;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.DayOfWeek;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * The directory the application's state is written to when it stops and read back from when it starts, instead of
+ * being seeded: price plans, accounts, and every meter's readings as {@link uk.tw.energy.store.ReadingStoreFile}s.
+ * Price plans and accounts are small next to the readings and are plain data streams.
+ * <p>
+ * A snapshot is written into a sibling directory and only swapped in once complete, so the directory always holds
+ * either the previous snapshot or the new one.
+ */
+public class ApplicationSnapshot {
+
+    private static final int FORMAT_VERSION = 1;
+    private static final String PRICE_PLANS = "price-plans.bin";
+    private static final String ACCOUNTS = "accounts.bin";
+
+    private final Path directory;
+
+    /**
+     * @param directory where the snapshot lives, or empty to turn snapshots off
+     */
+    public ApplicationSnapshot(String directory) {
+        this.directory = directory.isEmpty() ? null : Paths.get(directory).toAbsolutePath();
+    }
+
+    public boolean isEnabled() {
+        return directory != null;
+    }
+
+    public boolean exists() {
+        return isEnabled() && Files.isRegularFile(directory.resolve(ACCOUNTS));
+    }
+
+    public void write(List<PricePlan> pricePlans, AccountService accountService, MeterService meterService) throws IOException {
+        Path staging = directory.resolveSibling(directory.getFileName() + ".tmp");
+        Path previous = directory.resolveSibling(directory.getFileName() + ".old");
+        deleteDirectory(staging);
+        Files.createDirectories(staging);
+        meterService.writeSnapshot(staging);
+        writePricePlans(staging.resolve(PRICE_PLANS), pricePlans);
+        writeAccounts(staging.resolve(ACCOUNTS), accountService);
+
+        deleteDirectory(previous);
+        if (Files.exists(directory)) {
+            Files.move(directory, previous, StandardCopyOption.ATOMIC_MOVE);
+        }
+        Files.move(staging, directory, StandardCopyOption.ATOMIC_MOVE);
+        deleteDirectory(previous);
+    }
+
+    public List<PricePlan> readPricePlans() throws IOException {
+        try (DataInputStream input = open(directory.resolve(PRICE_PLANS))) {
+            int count = input.readInt();
+            List<PricePlan> pricePlans = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String planName = input.readUTF();
+                String energySupplier = input.readUTF();
+                BigDecimal unitRate = new BigDecimal(input.readUTF());
+                PricePlanType pricePlanType = PricePlanType.valueOf(input.readUTF());
+                int rateCount = input.readInt();
+                List<PricePlan.TimeOfUseRate> rates = new ArrayList<>(rateCount);
+                for (int j = 0; j < rateCount; j++) {
+                    Set<DayOfWeek> days = EnumSet.noneOf(DayOfWeek.class);
+                    int dayBits = input.readInt();
+                    for (DayOfWeek day : DayOfWeek.values()) {
+                        if ((dayBits & 1 << day.ordinal()) != 0) {
+                            days.add(day);
+                        }
+                    }
+                    LocalTime from = LocalTime.ofNanoOfDay(input.readLong());
+                    LocalTime to = LocalTime.ofNanoOfDay(input.readLong());
+                    rates.add(new PricePlan.TimeOfUseRate(days, from, to, new BigDecimal(input.readUTF())));
+                }
+                pricePlans.add(new PricePlan(planName, energySupplier, unitRate, pricePlanType, rates));
+            }
+            return pricePlans;
+        }
+    }
+
+    /**
+     * Accounts keyed by smart meter id, every account on a plan sharing one instance of the plan id.
+     */
+    public Map<String, String> readAccounts() throws IOException {
+        try (DataInputStream input = open(directory.resolve(ACCOUNTS))) {
+            String[] pricePlanIds = new String[input.readInt()];
+            for (int i = 0; i < pricePlanIds.length; i++) {
+                pricePlanIds[i] = input.readUTF();
+            }
+            int count = input.readInt();
+            Map<String, String> accounts = new HashMap<>(count * 4 / 3 + 1);
+            for (int i = 0; i < count; i++) {
+                accounts.put(input.readUTF(), pricePlanIds[input.readInt()]);
+            }
+            return accounts;
+        }
+    }
+
+    private static void writePricePlans(Path file, List<PricePlan> pricePlans) throws IOException {
+        try (DataOutputStream output = create(file)) {
+            output.writeInt(pricePlans.size());
+            for (PricePlan pricePlan : pricePlans) {
+                output.writeUTF(pricePlan.getPlanName());
+                output.writeUTF(pricePlan.getEnergySupplier());
+                output.writeUTF(pricePlan.getUnitPricePerKWh().toString());
+                output.writeUTF(pricePlan.getPricePlanType().name());
+                output.writeInt(pricePlan.getTimeOfUseRates().size());
+                for (PricePlan.TimeOfUseRate rate : pricePlan.getTimeOfUseRates()) {
+                    int dayBits = 0;
+                    for (DayOfWeek day : rate.getDays()) {
+                        dayBits |= 1 << day.ordinal();
+                    }
+                    output.writeInt(dayBits);
+                    output.writeLong(rate.getFrom().toNanoOfDay());
+                    output.writeLong(rate.getTo().toNanoOfDay());
+                    output.writeUTF(rate.getUnitRate().toString());
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes {@code [int plans][plan ids][int accounts]} and then each account as its smart meter id and the index of
+     * its plan id.
+     */
+    private static void writeAccounts(Path file, AccountService accountService) throws IOException {
+        Map<String, Integer> pricePlanIndexes = new LinkedHashMap<>();
+        Set<String> smartMeterIds = accountService.getSmartMeterIds();
+        for (String smartMeterId : smartMeterIds) {
+            pricePlanIndexes.putIfAbsent(accountService.getPricePlanIdForSmartMeterId(smartMeterId), pricePlanIndexes.size());
+        }
+        try (DataOutputStream output = create(file)) {
+            output.writeInt(pricePlanIndexes.size());
+            for (String pricePlanId : pricePlanIndexes.keySet()) {
+                output.writeUTF(pricePlanId);
+            }
+            output.writeInt(smartMeterIds.size());
+            for (String smartMeterId : smartMeterIds) {
+                output.writeUTF(smartMeterId);
+                output.writeInt(pricePlanIndexes.get(accountService.getPricePlanIdForSmartMeterId(smartMeterId)));
+            }
+        }
+    }
+
+    private static DataOutputStream create(Path file) throws IOException {
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+        output.writeInt(FORMAT_VERSION);
+        return output;
+    }
+
+    private static DataInputStream open(Path file) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+        int version = input.readInt();
+        if (version != FORMAT_VERSION) {
+            input.close();
+            throw new IOException(file + " has format version " + version + " rather than " + FORMAT_VERSION);
+        }
+        return input;
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+}
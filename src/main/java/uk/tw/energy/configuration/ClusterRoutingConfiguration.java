@@ -0,0 +1,23 @@
+package uk.tw.energy.configuration;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import uk.tw.energy.controller.ClusterRoutingInterceptor;
+import uk.tw.energy.service.ClusterService;
+
+@Configuration
+public class ClusterRoutingConfiguration implements WebMvcConfigurer {
+
+    private final ClusterService clusterService;
+
+    public ClusterRoutingConfiguration(ClusterService clusterService) {
+        this.clusterService = clusterService;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new ClusterRoutingInterceptor(clusterService))
+                .addPathPatterns("/readings/read/**", "/price-plans/compare-all/**", "/price-plans/recommend/**");
+    }
+}
@@ -0,0 +1,47 @@
+package uk.tw.energy.configuration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import uk.tw.energy.configuration.generator.FleetGenerator;
+import uk.tw.energy.service.MeterService;
+
+import java.time.Clock;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fills the store with a synthetic fleet at startup, when {@code seed.fleet.meters} is positive, so that capacity can
+ * be measured against a realistically sized store. The fleet covers the {@code seed.fleet.days} whole days before
+ * today (UTC), and its meters are given accounts by {@link SeedingApplicationDataConfiguration}. Nothing is seeded
+ * when an {@link ApplicationSnapshot} is loaded instead.
+ */
+@Component
+public class FleetSeeder {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FleetSeeder.class);
+    private static final long SECONDS_PER_DAY = 86_400;
+
+    public FleetSeeder(MeterService meterService, ApplicationSnapshot applicationSnapshot,
+                       @Value("${seed.fleet.meters:0}") int meters,
+                       @Value("${seed.fleet.days:1}") int days,
+                       @Value("${seed.fleet.interval-seconds:60}") int intervalSeconds,
+                       @Value("${seed.fleet.seed:42}") long seed) {
+        if (meters <= 0 || applicationSnapshot.exists()) {
+            return;
+        }
+        long today = Math.floorDiv(Clock.systemUTC().instant().getEpochSecond(), SECONDS_PER_DAY) * SECONDS_PER_DAY;
+        int readingsPerMeter = (int) (days * SECONDS_PER_DAY / intervalSeconds);
+        FleetGenerator generator = new FleetGenerator(seed, today - days * SECONDS_PER_DAY, intervalSeconds, readingsPerMeter);
+
+        long started = System.nanoTime();
+        AtomicLong readings = new AtomicLong();
+        generator.generate(meters, 0, (smartMeterId, epochSeconds, values, count) -> {
+            meterService.restoreReadings(smartMeterId, epochSeconds, values, count);
+            readings.addAndGet(count);
+        });
+        double seconds = (System.nanoTime() - started) / 1e9;
+        LOGGER.info("Seeded {} readings for {} fleet meters in {} s ({} readings/s)",
+                readings.get(), meters, String.format("%.3f", seconds), Math.round(readings.get() / seconds));
+    }
+}
@@ -0,0 +1,25 @@
+package uk.tw.energy.configuration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import uk.tw.energy.store.MappedSegmentJournal;
+import uk.tw.energy.store.ReadingJournal;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+@Configuration
+public class ReadingJournalConfiguration {
+
+    @Bean(destroyMethod = "close")
+    public ReadingJournal readingJournal(@Value("${readings.journal.enabled:false}") boolean enabled,
+                                         @Value("${readings.journal.directory:journal}") String directory,
+                                         @Value("${readings.journal.segment-size-bytes:67108864}") int segmentSize,
+                                         @Value("${readings.journal.sync-interval-ms:0}") long syncIntervalMillis) throws IOException {
+        if (!enabled) {
+            return ReadingJournal.NONE;
+        }
+        return new MappedSegmentJournal(Paths.get(directory), segmentSize, syncIntervalMillis);
+    }
+}
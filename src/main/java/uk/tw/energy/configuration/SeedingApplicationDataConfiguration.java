@@ -2,15 +2,19 @@ package uk.tw.energy.configuration;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
 import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
 import uk.tw.energy.configuration.generator.ElectricityReadingsGenerator;
+import uk.tw.energy.configuration.generator.FleetGenerator;
 import uk.tw.energy.domain.ElectricityReading;
 import uk.tw.energy.domain.PricePlan;
 import uk.tw.energy.domain.PricePlanType;
+import uk.tw.energy.store.IdDictionary;
 
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -25,7 +29,20 @@ public class SeedingApplicationDataConfiguration {
     private static final String STANDARD_PRICE_PLAN_ID = "price-plan-2";
 
     @Bean
-    public List<PricePlan> pricePlans() {
+    public ApplicationSnapshot applicationSnapshot(@Value("${snapshot.directory:}") String directory) {
+        return new ApplicationSnapshot(directory);
+    }
+
+    @Bean
+    public IdDictionary smartMeterIds() {
+        return new IdDictionary();
+    }
+
+    @Bean
+    public List<PricePlan> pricePlans(ApplicationSnapshot applicationSnapshot) throws IOException {
+        if (applicationSnapshot.exists()) {
+            return applicationSnapshot.readPricePlans();
+        }
         final List<PricePlan> pricePlans = new ArrayList<>();
         pricePlans.add(new PricePlan(MOST_EVIL_PRICE_PLAN_ID, "Dr Evil's Dark Energy", BigDecimal.TEN, PricePlanType.STANDARD_PRICE_PLAN));
         pricePlans.add(new PricePlan(RENEWABLES_PRICE_PLAN_ID, "The Green Eco", BigDecimal.valueOf(2), PricePlanType.ECO_PRICE_PLAN));
@@ -34,17 +51,33 @@ public class SeedingApplicationDataConfiguration {
     }
 
     @Bean
-    public Map<String, List<ElectricityReading>> perMeterElectricityReadings() {
+    public Map<String, List<ElectricityReading>> perMeterElectricityReadings(ApplicationSnapshot applicationSnapshot) {
         final Map<String, List<ElectricityReading>> readings = new HashMap<>();
+        if (applicationSnapshot.exists()) {
+            return readings;
+        }
         final ElectricityReadingsGenerator electricityReadingsGenerator = new ElectricityReadingsGenerator();
-        smartMeterToPricePlanAccounts()
+        demoAccounts()
                 .keySet()
                 .forEach(smartMeterId -> readings.put(smartMeterId, electricityReadingsGenerator.generate(20)));
         return readings;
     }
 
     @Bean
-    public Map<String, String> smartMeterToPricePlanAccounts() {
+    public Map<String, String> smartMeterToPricePlanAccounts(ApplicationSnapshot applicationSnapshot,
+                                                             @Value("${seed.fleet.meters:0}") int fleetMeters) throws IOException {
+        if (applicationSnapshot.exists()) {
+            return applicationSnapshot.readAccounts();
+        }
+        final Map<String, String> smartMeterToPricePlanAccounts = new HashMap<>(demoAccounts());
+        final List<String> pricePlanIds = List.of(MOST_EVIL_PRICE_PLAN_ID, RENEWABLES_PRICE_PLAN_ID, STANDARD_PRICE_PLAN_ID);
+        for (int meterIndex = 0; meterIndex < fleetMeters; meterIndex++) {
+            smartMeterToPricePlanAccounts.put(FleetGenerator.smartMeterId(meterIndex), pricePlanIds.get(meterIndex % pricePlanIds.size()));
+        }
+        return smartMeterToPricePlanAccounts;
+    }
+
+    private static Map<String, String> demoAccounts() {
         final Map<String, String> smartMeterToPricePlanAccounts = new HashMap<>();
         smartMeterToPricePlanAccounts.put("smart-meter-0", MOST_EVIL_PRICE_PLAN_ID);
         smartMeterToPricePlanAccounts.put("smart-meter-1", RENEWABLES_PRICE_PLAN_ID);
@@ -0,0 +1,54 @@
+package uk.tw.energy.configuration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import uk.tw.energy.domain.PricePlan;
+import uk.tw.energy.service.AccountService;
+import uk.tw.energy.service.MeterService;
+import uk.tw.energy.service.ReadingIngestQueue;
+import uk.tw.energy.store.ReadingJournal;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Writes the {@link ApplicationSnapshot}, if there is one, when the application stops: after the web server has
+ * stopped taking requests and the ingest queue has been drained. The journal is then emptied, as everything in it is
+ * now part of the snapshot; from there on it only has to cover readings stored since.
+ */
+@Component
+public class SnapshotWriter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SnapshotWriter.class);
+
+    private final ApplicationSnapshot applicationSnapshot;
+    private final List<PricePlan> pricePlans;
+    private final AccountService accountService;
+    private final MeterService meterService;
+    private final ReadingIngestQueue readingIngestQueue;
+    private final ReadingJournal readingJournal;
+
+    public SnapshotWriter(ApplicationSnapshot applicationSnapshot, List<PricePlan> pricePlans, AccountService accountService,
+                          MeterService meterService, ReadingIngestQueue readingIngestQueue, ReadingJournal readingJournal) {
+        this.applicationSnapshot = applicationSnapshot;
+        this.pricePlans = pricePlans;
+        this.accountService = accountService;
+        this.meterService = meterService;
+        this.readingIngestQueue = readingIngestQueue;
+        this.readingJournal = readingJournal;
+    }
+
+    @PreDestroy
+    public void writeSnapshot() throws IOException, InterruptedException {
+        if (!applicationSnapshot.isEnabled()) {
+            return;
+        }
+        readingIngestQueue.shutdown();
+        long started = System.nanoTime();
+        applicationSnapshot.write(pricePlans, accountService, meterService);
+        readingJournal.truncate();
+        LOGGER.info("Wrote the snapshot in {} s", String.format("%.3f", (System.nanoTime() - started) / 1e9));
+    }
+}
@@ -0,0 +1,136 @@
+package uk.tw.energy.configuration.generator;
+
+import uk.tw.energy.store.FixedPoint;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Generates readings for a synthetic fleet of households, for seeding capacity tests. Every meter has its own base
+ * load and morning and evening peaks at slightly different hours, with noise and the odd appliance spike on top, so
+ * consumption follows a daily cycle rather than being independent noise around a constant.
+ * <p>
+ * A meter's readings depend only on the seed and the meter's index, so the same fleet is generated whatever the
+ * order or the number of threads its meters are generated on.
+ */
+public class FleetGenerator {
+
+    private static final long SECONDS_PER_DAY = 86_400;
+    private static final double MINIMUM_KW = 0.01;
+
+    private final long seed;
+    private final long firstEpochSecond;
+    private final int intervalSeconds;
+    private final int readingsPerMeter;
+
+    /**
+     * @param firstEpochSecond time of every meter's first reading
+     * @param intervalSeconds  gap between a meter's readings
+     * @param readingsPerMeter readings generated for each meter
+     */
+    public FleetGenerator(long seed, long firstEpochSecond, int intervalSeconds, int readingsPerMeter) {
+        if (intervalSeconds <= 0) {
+            throw new IllegalArgumentException("intervalSeconds must be positive");
+        }
+        this.seed = seed;
+        this.firstEpochSecond = firstEpochSecond;
+        this.intervalSeconds = intervalSeconds;
+        this.readingsPerMeter = readingsPerMeter;
+    }
+
+    public static String smartMeterId(int meterIndex) {
+        return "fleet-meter-" + meterIndex;
+    }
+
+    public int readingsPerMeter() {
+        return readingsPerMeter;
+    }
+
+    /**
+     * Generates meters {@code [0, meters)} on {@code parallelism} threads (0 for one per available core), handing
+     * each meter's readings to the consumer from whichever thread generated them. The consumer may keep the arrays.
+     */
+    public void generate(int meters, int parallelism, MeterReadingsConsumer consumer) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+        try {
+            pool.submit(() -> IntStream.range(0, meters).parallel().forEach(meterIndex -> {
+                long[] epochSeconds = new long[readingsPerMeter];
+                long[] readings = new long[readingsPerMeter];
+                generate(meterIndex, epochSeconds, readings);
+                consumer.accept(smartMeterId(meterIndex), epochSeconds, readings, readingsPerMeter);
+            })).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while generating the fleet", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not generate the fleet", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Fills the first {@link #readingsPerMeter()} entries of both arrays with one meter's readings, in fixed point.
+     */
+    public void generate(int meterIndex, long[] epochSeconds, long[] readings) {
+        Household household = new Household(new SplittableRandom(seed + meterIndex * 0x9E3779B97F4A7C15L));
+        for (int i = 0; i < readingsPerMeter; i++) {
+            long epochSecond = firstEpochSecond + (long) i * intervalSeconds;
+            epochSeconds[i] = epochSecond;
+            readings[i] = Math.round(household.kilowattsAt(epochSecond) * FixedPoint.ONE);
+        }
+    }
+
+    @FunctionalInterface
+    public interface MeterReadingsConsumer {
+        void accept(String smartMeterId, long[] epochSeconds, long[] readings, int count);
+    }
+
+    private static final class Household {
+
+        private final SplittableRandom random;
+        private final double baseKilowatts;
+        private final double morningPeakHour;
+        private final double morningPeakKilowatts;
+        private final double eveningPeakHour;
+        private final double eveningPeakKilowatts;
+
+        Household(SplittableRandom random) {
+            this.random = random;
+            // base loads are skewed: most homes idle at a few hundred watts, a few at well over a kilowatt
+            this.baseKilowatts = 0.25 * Math.exp(0.5 * gaussian());
+            this.morningPeakHour = 7.5 + 0.75 * gaussian();
+            this.morningPeakKilowatts = 0.8 * random.nextDouble();
+            this.eveningPeakHour = 19 + gaussian();
+            this.eveningPeakKilowatts = 0.5 + 1.5 * random.nextDouble();
+        }
+
+        double kilowattsAt(long epochSecond) {
+            double hour = Math.floorMod(epochSecond, SECONDS_PER_DAY) / 3600.0;
+            double kilowatts = baseKilowatts
+                    + morningPeakKilowatts * bump(hour, morningPeakHour, 1.0)
+                    + eveningPeakKilowatts * bump(hour, eveningPeakHour, 1.75);
+            kilowatts *= 1 + 0.1 * gaussian();
+            if (random.nextInt(200) == 0) {
+                kilowatts += 1 + 2 * random.nextDouble();
+            }
+            return Math.max(MINIMUM_KW, kilowatts);
+        }
+
+        /**
+         * A bell around {@code peakHour} that wraps around midnight.
+         */
+        private static double bump(double hour, double peakHour, double widthHours) {
+            double distance = Math.abs(hour - peakHour);
+            distance = Math.min(distance, 24 - distance);
+            return Math.exp(-distance * distance / (2 * widthHours * widthHours));
+        }
+
+        private double gaussian() {
+            double u = 1 - random.nextDouble();
+            return Math.sqrt(-2 * Math.log(u)) * Math.cos(2 * Math.PI * random.nextDouble());
+        }
+    }
+}
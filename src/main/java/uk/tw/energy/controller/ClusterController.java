@@ -0,0 +1,89 @@
+package uk.tw.energy.controller;
+
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import uk.tw.energy.controller.exceptions.InvalidClusterMemberException;
+import uk.tw.energy.service.ClusterService;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.List;
+
+/**
+ * Membership of the cluster, and the endpoint members hand meters over through. Joining or leaving through any
+ * member tells the rest.
+ */
+@RestController
+@RequestMapping("/cluster")
+public class ClusterController {
+
+    private final ClusterService clusterService;
+
+    public ClusterController(ClusterService clusterService) {
+        this.clusterService = clusterService;
+    }
+
+    @GetMapping("/members")
+    public ResponseEntity<List<String>> members() {
+        if (!clusterService.isEnabled()) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(clusterService.members());
+    }
+
+    @PostMapping("/members")
+    public ResponseEntity<List<String>> join(@RequestParam("node") String node,
+                                             @RequestHeader(value = ClusterService.FORWARDED_HEADER, required = false) String forwardedBy) {
+        if (!clusterService.isEnabled()) {
+            return ResponseEntity.notFound().build();
+        }
+        validate(node);
+        return ResponseEntity.ok(clusterService.join(node, forwardedBy != null));
+    }
+
+    /**
+     * Answers once {@code node} has been taken off the ring and, if it is this node, its meters handed over.
+     */
+    @DeleteMapping("/members")
+    public ResponseEntity<List<String>> leave(@RequestParam("node") String node,
+                                              @RequestHeader(value = ClusterService.FORWARDED_HEADER, required = false) String forwardedBy) {
+        if (!clusterService.isEnabled()) {
+            return ResponseEntity.notFound().build();
+        }
+        validate(node);
+        try {
+            clusterService.leave(node, forwardedBy != null);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidClusterMemberException(e.getMessage());
+        }
+        return ResponseEntity.ok(clusterService.members());
+    }
+
+    @PostMapping(value = "/handoff", consumes = "application/octet-stream")
+    public ResponseEntity<Integer> adopt(@RequestBody byte[] image) throws IOException {
+        if (!clusterService.isEnabled()) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(clusterService.adopt(image));
+    }
+
+    private void validate(String node) {
+        try {
+            URI uri = new URI(node.trim());
+            if (("http".equals(uri.getScheme()) || "https".equals(uri.getScheme())) && uri.getHost() != null) {
+                return;
+            }
+        } catch (URISyntaxException e) {
+            // reported below, as for any other URI that is not a base URL
+        }
+        throw new InvalidClusterMemberException("node must be a member's base URL, such as http://localhost:8081");
+    }
+}
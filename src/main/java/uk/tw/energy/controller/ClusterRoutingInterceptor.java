@@ -0,0 +1,60 @@
+package uk.tw.energy.controller;
+
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+import uk.tw.energy.controller.exceptions.ClusterNodeUnavailableException;
+import uk.tw.energy.service.ClusterService;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In cluster mode, answers a request for one meter, one whose path has a {@code {smartMeterId}}, by forwarding it
+ * to the meter's owner and copying back the status, content type, {@value MeterReadingController#NEXT_CURSOR_HEADER}
+ * and body, which is streamed through rather than held.
+ */
+public class ClusterRoutingInterceptor implements HandlerInterceptor {
+
+    private static final String SMART_METER_ID = "smartMeterId";
+    private static final List<String> COPIED_HEADERS = List.of("Content-Type", MeterReadingController.NEXT_CURSOR_HEADER);
+
+    private final ClusterService clusterService;
+
+    public ClusterRoutingInterceptor(ClusterService clusterService) {
+        this.clusterService = clusterService;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws IOException {
+        if (!clusterService.isEnabled() || request.getHeader(ClusterService.FORWARDED_HEADER) != null) {
+            return true;
+        }
+        Map<String, String> variables = (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        String smartMeterId = variables != null ? variables.get(SMART_METER_ID) : null;
+        if (smartMeterId == null || clusterService.isLocal(smartMeterId)) {
+            return true;
+        }
+        String owner = clusterService.ownerOf(smartMeterId);
+        String pathAndQuery = request.getRequestURI() + (request.getQueryString() != null ? "?" + request.getQueryString() : "");
+        HttpResponse<InputStream> forwarded;
+        try {
+            forwarded = clusterService.get(owner, pathAndQuery, request.getHeader("Accept"));
+        } catch (IOException e) {
+            throw new ClusterNodeUnavailableException("Could not reach " + owner + ", which holds " + smartMeterId + ": " + e.getMessage());
+        }
+        response.setStatus(forwarded.statusCode());
+        for (String header : COPIED_HEADERS) {
+            forwarded.headers().firstValue(header).ifPresent(value -> response.setHeader(header, value));
+        }
+        try (InputStream body = forwarded.body()) {
+            body.transferTo(response.getOutputStream());
+        }
+        return false;
+    }
+}
@@ -0,0 +1,146 @@
+package uk.tw.energy.controller;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import uk.tw.energy.controller.exceptions.ClusterNodeUnavailableException;
+import uk.tw.energy.controller.exceptions.InvalidAnalyticsQueryException;
+import uk.tw.energy.domain.ConsumptionDistribution;
+import uk.tw.energy.domain.MeterConsumption;
+import uk.tw.energy.domain.PricePlanTotals;
+import uk.tw.energy.service.ClusterService;
+import uk.tw.energy.service.FleetAnalyticsService;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In cluster mode each query asks every other member for its share of the fleet and merges the answers: the top
+ * consumers by re-ranking each member's own top {@code limit}, the percentiles by merging the members' sketches, and
+ * the price plan totals by adding them up. A member asked on another's behalf answers for its own meters only.
+ */
+@RestController
+@RequestMapping("/analytics")
+public class FleetAnalyticsController {
+
+    private static final int DEFAULT_LIMIT = 10;
+    private static final double[] DEFAULT_PERCENTILES = {50, 90, 99};
+
+    private final FleetAnalyticsService fleetAnalyticsService;
+    private final ClusterService clusterService;
+    private final ObjectMapper objectMapper;
+
+    public FleetAnalyticsController(FleetAnalyticsService fleetAnalyticsService, ClusterService clusterService, ObjectMapper objectMapper) {
+        this.fleetAnalyticsService = fleetAnalyticsService;
+        this.clusterService = clusterService;
+        this.objectMapper = objectMapper;
+    }
+
+    @GetMapping("/top-consumers")
+    public ResponseEntity<List<MeterConsumption>> topConsumers(@RequestParam(value = "limit", required = false) Integer limit) {
+        int count = validateLimit(limit);
+        List<MeterConsumption> topConsumers = fleetAnalyticsService.topConsumers(count);
+        if (!clusterService.isEnabled()) {
+            return ResponseEntity.ok(topConsumers);
+        }
+        List<MeterConsumption> merged = new ArrayList<>(topConsumers);
+        for (byte[] body : gather("/analytics/top-consumers?limit=" + count)) {
+            merged.addAll(read(body, new TypeReference<List<MeterConsumption>>() {
+            }));
+        }
+        merged.sort(Comparator.comparing(MeterConsumption::getConsumption).reversed().thenComparing(MeterConsumption::getSmartMeterId));
+        return ResponseEntity.ok(merged.subList(0, Math.min(count, merged.size())));
+    }
+
+    @GetMapping(value = "/top-consumers", headers = ClusterService.FORWARDED_HEADER)
+    public ResponseEntity<List<MeterConsumption>> localTopConsumers(@RequestParam(value = "limit", required = false) Integer limit) {
+        return ResponseEntity.ok(fleetAnalyticsService.topConsumers(validateLimit(limit)));
+    }
+
+    @GetMapping("/daily-consumption")
+    public ResponseEntity<ConsumptionDistribution> dailyConsumption(@RequestParam(value = "percentiles", required = false) double[] percentiles) {
+        if (percentiles == null || percentiles.length == 0) {
+            percentiles = DEFAULT_PERCENTILES;
+        }
+        for (double percentile : percentiles) {
+            if (!(percentile >= 0 && percentile <= 100)) {
+                throw new InvalidAnalyticsQueryException("percentiles must be between 0 and 100");
+            }
+        }
+        if (!clusterService.isEnabled()) {
+            return ResponseEntity.ok(fleetAnalyticsService.dailyConsumption(percentiles));
+        }
+        List<long[]> sketches = new ArrayList<>();
+        for (byte[] body : gather("/analytics/daily-consumption/sketch")) {
+            sketches.add(read(body, new TypeReference<long[]>() {
+            }));
+        }
+        return ResponseEntity.ok(fleetAnalyticsService.dailyConsumption(percentiles, sketches));
+    }
+
+    /**
+     * This node's daily consumption sketch, for the member answering {@link #dailyConsumption} for the cluster.
+     */
+    @GetMapping("/daily-consumption/sketch")
+    public ResponseEntity<long[]> dailyConsumptionSketch() {
+        return ResponseEntity.ok(fleetAnalyticsService.dailyConsumptionSketch());
+    }
+
+    @GetMapping("/price-plans")
+    public ResponseEntity<List<PricePlanTotals>> pricePlanTotals() {
+        List<PricePlanTotals> totals = fleetAnalyticsService.pricePlanTotals();
+        if (!clusterService.isEnabled()) {
+            return ResponseEntity.ok(totals);
+        }
+        Map<String, PricePlanTotals> merged = new LinkedHashMap<>();
+        totals.forEach(planTotals -> merged.merge(planTotals.getPricePlanId(), planTotals, FleetAnalyticsController::add));
+        for (byte[] body : gather("/analytics/price-plans")) {
+            for (PricePlanTotals planTotals : read(body, new TypeReference<List<PricePlanTotals>>() {
+            })) {
+                merged.merge(planTotals.getPricePlanId(), planTotals, FleetAnalyticsController::add);
+            }
+        }
+        return ResponseEntity.ok(new ArrayList<>(merged.values()));
+    }
+
+    @GetMapping(value = "/price-plans", headers = ClusterService.FORWARDED_HEADER)
+    public ResponseEntity<List<PricePlanTotals>> localPricePlanTotals() {
+        return ResponseEntity.ok(fleetAnalyticsService.pricePlanTotals());
+    }
+
+    private int validateLimit(Integer limit) {
+        if (limit != null && (limit < 1 || limit > fleetAnalyticsService.getCapacity())) {
+            throw new InvalidAnalyticsQueryException("limit must be between 1 and " + fleetAnalyticsService.getCapacity());
+        }
+        return limit != null ? limit : Math.min(DEFAULT_LIMIT, fleetAnalyticsService.getCapacity());
+    }
+
+    private List<byte[]> gather(String pathAndQuery) {
+        try {
+            return clusterService.gather(pathAndQuery);
+        } catch (IOException e) {
+            throw new ClusterNodeUnavailableException("Could not gather " + pathAndQuery + " from the cluster: " + e.getMessage());
+        }
+    }
+
+    private <T> T read(byte[] body, TypeReference<T> type) {
+        try {
+            return objectMapper.readValue(body, type);
+        } catch (IOException e) {
+            throw new ClusterNodeUnavailableException("A member answered with something other than analytics: " + e.getMessage());
+        }
+    }
+
+    private static PricePlanTotals add(PricePlanTotals a, PricePlanTotals b) {
+        return new PricePlanTotals(a.getPricePlanId(), a.getMeters() + b.getMeters(), a.getConsumption().add(b.getConsumption()),
+                a.getCost() == null || b.getCost() == null ? null : a.getCost().add(b.getCost()));
+    }
+}
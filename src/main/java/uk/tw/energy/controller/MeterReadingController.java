@@ -1,6 +1,7 @@
 package uk.tw.energy.controller;
 
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.util.CollectionUtils;
 import org.springframework.util.StringUtils;
@@ -9,11 +10,24 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import uk.tw.energy.controller.exceptions.IngestQueueFullException;
+import uk.tw.energy.controller.ingest.MeterBatchParser;
+import uk.tw.energy.controller.ingest.ReadingsWireFormat;
 import uk.tw.energy.domain.ElectricityReading;
 import uk.tw.energy.domain.Meter;
+import uk.tw.energy.service.ClusterService;
 import uk.tw.energy.service.MeterService;
+import uk.tw.energy.service.ReadingIngestQueue;
+import uk.tw.energy.store.FixedPoint;
+import uk.tw.energy.store.ReadingCursor;
+import uk.tw.energy.store.ReadingSnapshot;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.List;
 import java.util.Optional;
 
@@ -21,28 +35,155 @@ import java.util.Optional;
 @RequestMapping("/readings")
 public class MeterReadingController {
 
+    public static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+    public static final String NEXT_CURSOR_HEADER = "Next-Cursor";
+
     private final MeterService meterService;
+    private final ReadingIngestQueue readingIngestQueue;
+    private final ClusterService clusterService;
+    private final MeterBatchParser meterBatchParser = new MeterBatchParser();
+    private final ReadingsWireFormat readingsWireFormat = new ReadingsWireFormat();
 
-    public MeterReadingController(MeterService meterService) {
+    public MeterReadingController(MeterService meterService, ReadingIngestQueue readingIngestQueue, ClusterService clusterService) {
         this.meterService = meterService;
+        this.readingIngestQueue = readingIngestQueue;
+        this.clusterService = clusterService;
     }
 
     @PostMapping("/store")
-    public ResponseEntity storeReadings(@RequestBody Meter meter) {
+    public ResponseEntity storeReadings(@RequestBody Meter meter) throws IOException {
         if (!isMeterValid(meter)) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
+        if (clusterService.isEnabled()) {
+            // routed as the batch endpoints route it, through the ingest queue here or to the owner's
+            List<ElectricityReading> electricityReadings = meter.getElectricityReadings();
+            long[] epochSeconds = new long[electricityReadings.size()];
+            long[] readings = new long[electricityReadings.size()];
+            for (int i = 0; i < electricityReadings.size(); i++) {
+                epochSeconds[i] = electricityReadings.get(i).getTime().getEpochSecond();
+                readings[i] = FixedPoint.toFixed(electricityReadings.get(i).getReadingInKW());
+            }
+            return store(consumer -> consumer.accept(meter.getSmartMeterId(), epochSeconds, readings, epochSeconds.length));
+        }
+        if (readingIngestQueue.isEnabled()) {
+            if (!readingIngestQueue.offer(meter.getSmartMeterId(), meter.getElectricityReadings())) {
+                throw new IngestQueueFullException("Too many readings waiting to be stored");
+            }
+            return ResponseEntity.accepted().build();
+        }
         meterService.storeReadings(meter.getSmartMeterId(), meter.getElectricityReadings());
         return ResponseEntity.ok().build();
     }
 
+    @PostMapping(value = "/store-batch", consumes = {MediaType.APPLICATION_JSON_VALUE, APPLICATION_NDJSON_VALUE})
+    public ResponseEntity storeReadingsBatch(InputStream meters) throws IOException {
+        return store(consumer -> meterBatchParser.parse(meters, consumer));
+    }
+
+    /**
+     * Either endpoint takes any number of meters in the binary format.
+     */
+    @PostMapping(value = {"/store", "/store-batch"}, consumes = ReadingsWireFormat.MEDIA_TYPE_VALUE)
+    public ResponseEntity storeBinaryReadings(InputStream meters) throws IOException {
+        return store(consumer -> readingsWireFormat.parse(meters, consumer));
+    }
+
+    /**
+     * What another node forwards: stored here whoever the ring says owns the meters, so a request never bounces between
+     * nodes that disagree about membership. Readings of a meter owned elsewhere are handed on by the rebalance that
+     * storing them schedules.
+     */
+    @PostMapping(value = "/store-batch", consumes = ReadingsWireFormat.MEDIA_TYPE_VALUE, headers = ClusterService.FORWARDED_HEADER)
+    public ResponseEntity storeForwardedReadings(InputStream meters) throws IOException {
+        return storeLocally(consumer -> readingsWireFormat.parse(meters, consumer));
+    }
+
+    /**
+     * In cluster mode readings of meters owned elsewhere are forwarded to their owners, and this answers once they
+     * have them.
+     */
+    private ResponseEntity store(Parse parse) throws IOException {
+        if (!clusterService.isEnabled()) {
+            return storeLocally(parse);
+        }
+        return storeLocally(consumer -> {
+            ReadingsRouter router = new ReadingsRouter(clusterService, consumer);
+            parse.into(router);
+            router.finish();
+        });
+    }
+
+    private ResponseEntity storeLocally(Parse parse) throws IOException {
+        if (readingIngestQueue.isEnabled()) {
+            parse.into((smartMeterId, epochSeconds, readings, count) -> {
+                if (!readingIngestQueue.offer(smartMeterId, epochSeconds, readings, count)) {
+                    throw new IngestQueueFullException("Too many readings waiting to be stored");
+                }
+            });
+            return ResponseEntity.accepted().build();
+        }
+        parse.into(meterService::storeReadings);
+        return ResponseEntity.ok().build();
+    }
+
+    private interface Parse {
+        void into(MeterBatchParser.ReadingsConsumer consumer) throws IOException;
+    }
+
+    /**
+     * Writes the readings straight from the store to the response as they are encoded, so that memory stays flat
+     * and the first byte goes out as soon however long the history.
+     */
     @GetMapping("/read/{smartMeterId}")
-    public ResponseEntity readReadings(@PathVariable String smartMeterId) {
-        Optional<List<ElectricityReading>> readings = meterService.getReadings(smartMeterId);
+    public ResponseEntity<StreamingResponseBody> readReadings(@PathVariable String smartMeterId,
+                                                              @RequestParam(value = "from", required = false) Long from,
+                                                              @RequestParam(value = "to", required = false) Long to,
+                                                              @RequestParam(value = "limit", required = false) Integer limit,
+                                                              @RequestParam(value = "cursor", required = false) Long cursor) {
+        return readRange(smartMeterId, from, to, limit, cursor, MediaType.APPLICATION_JSON,
+                (outputStream, readings, count) -> ReadingsJsonWriter.write(outputStream, readings, count));
+    }
+
+    /**
+     * The same readings as {@link #readReadings}, in the binary format.
+     */
+    @GetMapping(value = "/read/{smartMeterId}", produces = ReadingsWireFormat.MEDIA_TYPE_VALUE)
+    public ResponseEntity<StreamingResponseBody> readBinaryReadings(@PathVariable String smartMeterId,
+                                                                    @RequestParam(value = "from", required = false) Long from,
+                                                                    @RequestParam(value = "to", required = false) Long to,
+                                                                    @RequestParam(value = "limit", required = false) Integer limit,
+                                                                    @RequestParam(value = "cursor", required = false) Long cursor) {
+        return readRange(smartMeterId, from, to, limit, cursor, MediaType.valueOf(ReadingsWireFormat.MEDIA_TYPE_VALUE),
+                (outputStream, readings, count) -> {
+                    ReadingsWireFormat.Encoder encoder = new ReadingsWireFormat.Encoder(outputStream);
+                    encoder.meter(smartMeterId, readings, count);
+                    encoder.flush();
+                });
+    }
+
+    private ResponseEntity<StreamingResponseBody> readRange(String smartMeterId, Long from, Long to, Integer limit, Long cursor,
+                                                            MediaType contentType, RangeWriter rangeWriter) {
+        if (limit != null && limit < 0) {
+            return ResponseEntity.badRequest().build();
+        }
+        Optional<ReadingSnapshot> snapshot = meterService.getSnapshot(smartMeterId);
+        if (!snapshot.isPresent()) {
+            return ResponseEntity.notFound().build();
+        }
+        int fromIndex = snapshot.get().lowerBound(cursor != null ? cursor : from != null ? from : Long.MIN_VALUE);
+        int toIndex = Math.max(fromIndex, snapshot.get().lowerBound(to != null ? to : Long.MAX_VALUE));
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().contentType(contentType);
+        if (limit != null && limit < toIndex - fromIndex) {
+            toIndex = fromIndex + limit;
+            response.header(NEXT_CURSOR_HEADER, String.valueOf(snapshot.get().epochSecondAt(toIndex)));
+        }
+        int count = toIndex - fromIndex;
+        return response.body(outputStream -> rangeWriter.write(outputStream, snapshot.get().cursor(fromIndex), count));
+    }
 
-        return readings.isPresent()
-                ? ResponseEntity.ok(readings.get())
-                : ResponseEntity.notFound().build();
+    private interface RangeWriter {
+        void write(OutputStream outputStream, ReadingCursor readings, int count) throws IOException;
     }
 
     private boolean isMeterValid(Meter meter) {
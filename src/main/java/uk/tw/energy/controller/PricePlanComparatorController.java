@@ -1,22 +1,44 @@
 package uk.tw.energy.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import uk.tw.energy.controller.exceptions.ClusterNodeUnavailableException;
+import uk.tw.energy.controller.exceptions.InvalidPricePlanException;
 import uk.tw.energy.controller.exceptions.NoConsumptionException;
+import uk.tw.energy.domain.CacheStats;
+import uk.tw.energy.domain.MeterRecommendation;
+import uk.tw.energy.domain.PricePlan;
+import uk.tw.energy.domain.PricePlanSimulation;
 import uk.tw.energy.service.AccountService;
+import uk.tw.energy.service.ClusterService;
+import uk.tw.energy.service.FleetRecommendationService;
 import uk.tw.energy.service.PricePlanService;
+import uk.tw.energy.service.PricePlanSimulationService;
+import uk.tw.energy.store.FixedPoint;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.net.http.HttpResponse;
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 @RestController
 @RequestMapping("/price-plans")
@@ -26,17 +48,32 @@ public class PricePlanComparatorController {
     public final static String PRICE_PLAN_COMPARISONS_KEY = "pricePlanComparisons";
     private final PricePlanService pricePlanService;
     private final AccountService accountService;
+    private final FleetRecommendationService fleetRecommendationService;
+    private final PricePlanSimulationService pricePlanSimulationService;
+    private final ClusterService clusterService;
+    private final ObjectMapper objectMapper;
 
-    public PricePlanComparatorController(PricePlanService pricePlanService, AccountService accountService) {
+    public PricePlanComparatorController(PricePlanService pricePlanService, AccountService accountService,
+                                         FleetRecommendationService fleetRecommendationService,
+                                         PricePlanSimulationService pricePlanSimulationService, ClusterService clusterService,
+                                         ObjectMapper objectMapper) {
         this.pricePlanService = pricePlanService;
         this.accountService = accountService;
+        this.fleetRecommendationService = fleetRecommendationService;
+        this.pricePlanSimulationService = pricePlanSimulationService;
+        this.clusterService = clusterService;
+        this.objectMapper = objectMapper;
     }
 
     @GetMapping("/compare-all/{smartMeterId}")
-    public ResponseEntity<Map<String, Object>> calculatedCostForEachPricePlan(@PathVariable String smartMeterId) throws NoConsumptionException {
+    public ResponseEntity<Map<String, Object>> calculatedCostForEachPricePlan(@PathVariable String smartMeterId,
+                                                                              @RequestParam(value = "from", required = false) Long from,
+                                                                              @RequestParam(value = "to", required = false) Long to) throws NoConsumptionException {
         String pricePlanId = accountService.getPricePlanIdForSmartMeterId(smartMeterId);
 
-        Map<String, BigDecimal> consumptionsForPricePlans = getConsumptionsForPricePlans(smartMeterId);
+        Map<String, BigDecimal> consumptionsForPricePlans = from == null && to == null
+                ? getConsumptionsForPricePlans(smartMeterId)
+                : getConsumptionsForPricePlans(smartMeterId, from != null ? from : Long.MIN_VALUE, to != null ? to : Long.MAX_VALUE);
 
         Map<String, Object> pricePlanComparisons = new HashMap<>();
         pricePlanComparisons.put(PRICE_PLAN_ID_KEY, pricePlanId);
@@ -55,6 +92,153 @@ public class PricePlanComparatorController {
         return ResponseEntity.ok(cheapestPricePlans);
     }
 
+    /**
+     * In cluster mode this node's meters come first, then each other member's, streamed through as they arrive.
+     */
+    @GetMapping(value = "/recommend-all", produces = MeterReadingController.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> recommendCheapestPricePlansForAllMeters(@RequestParam(value = "limit", required = false) Integer limit) {
+        StreamingResponseBody recommendations = outputStream -> {
+            fleetRecommendationService.recommendAll(limit, recommendation -> writeLine(outputStream, recommendation));
+            if (clusterService.isEnabled()) {
+                for (String node : clusterService.others()) {
+                    copyRecommendations(node, limit, outputStream);
+                }
+            }
+        };
+        return ResponseEntity.ok(recommendations);
+    }
+
+    /**
+     * What another member asks for when gathering {@link #recommendCheapestPricePlansForAllMeters}: this node's meters only.
+     */
+    @GetMapping(value = "/recommend-all", produces = MeterReadingController.APPLICATION_NDJSON_VALUE, headers = ClusterService.FORWARDED_HEADER)
+    public ResponseEntity<StreamingResponseBody> recommendCheapestPricePlansForLocalMeters(@RequestParam(value = "limit", required = false) Integer limit) {
+        StreamingResponseBody recommendations = outputStream ->
+                fleetRecommendationService.recommendAll(limit, recommendation -> writeLine(outputStream, recommendation));
+        return ResponseEntity.ok(recommendations);
+    }
+
+    private void copyRecommendations(String node, Integer limit, OutputStream outputStream) throws IOException {
+        HttpResponse<InputStream> response = clusterService.get(node, "/price-plans/recommend-all" + (limit != null ? "?limit=" + limit : ""),
+                MeterReadingController.APPLICATION_NDJSON_VALUE);
+        try (InputStream recommendations = response.body()) {
+            if (response.statusCode() != 200) {
+                throw new IOException(node + " answered " + response.statusCode() + " to recommend-all");
+            }
+            recommendations.transferTo(outputStream);
+        }
+    }
+
+    private void writeLine(OutputStream outputStream, MeterRecommendation recommendation) {
+        try {
+            outputStream.write(objectMapper.writeValueAsBytes(recommendation));
+            outputStream.write('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * In cluster mode every other member simulates the candidates over its own meters and the totals are added up; see
+     * {@link PricePlanSimulation}.
+     */
+    @PostMapping("/simulate")
+    public ResponseEntity<PricePlanSimulation> simulatePricePlans(@RequestBody List<PricePlan> candidates,
+                                                                  @RequestParam(value = "from", required = false) Long from,
+                                                                  @RequestParam(value = "to", required = false) Long to) {
+        validateCandidates(candidates);
+        long fromEpochSecond = from != null ? from : Long.MIN_VALUE;
+        long toEpochSecond = to != null ? to : Long.MAX_VALUE;
+        PricePlanSimulation simulation = pricePlanSimulationService.simulate(candidates, fromEpochSecond, toEpochSecond);
+        if (!clusterService.isEnabled()) {
+            return ResponseEntity.ok(simulation);
+        }
+        String pathAndQuery = "/price-plans/simulate?from=" + fromEpochSecond + "&to=" + toEpochSecond;
+        for (byte[] body : gatherSimulations(pathAndQuery, candidates)) {
+            simulation = add(simulation, readSimulation(body));
+        }
+        return ResponseEntity.ok(simulation);
+    }
+
+    /**
+     * What another member asks for when gathering {@link #simulatePricePlans}: this node's meters only.
+     */
+    @PostMapping(value = "/simulate", headers = ClusterService.FORWARDED_HEADER)
+    public ResponseEntity<PricePlanSimulation> simulatePricePlansForLocalMeters(@RequestBody List<PricePlan> candidates,
+                                                                                @RequestParam(value = "from", required = false) Long from,
+                                                                                @RequestParam(value = "to", required = false) Long to) {
+        validateCandidates(candidates);
+        return ResponseEntity.ok(pricePlanSimulationService.simulate(candidates,
+                from != null ? from : Long.MIN_VALUE, to != null ? to : Long.MAX_VALUE));
+    }
+
+    private List<byte[]> gatherSimulations(String pathAndQuery, List<PricePlan> candidates) {
+        try {
+            return clusterService.gather(pathAndQuery, "application/json", objectMapper.writeValueAsBytes(candidates));
+        } catch (IOException e) {
+            throw new ClusterNodeUnavailableException("Could not gather " + pathAndQuery + " from the cluster: " + e.getMessage());
+        }
+    }
+
+    private PricePlanSimulation readSimulation(byte[] body) {
+        try {
+            return objectMapper.readValue(body, PricePlanSimulation.class);
+        } catch (IOException e) {
+            throw new ClusterNodeUnavailableException("A member answered with something other than a simulation: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Two members' simulations of the same candidates, in the same order, added up. The average cost is worked out
+     * again from the totals, as {@link PricePlanSimulationService} works it out; the percentiles are left empty.
+     */
+    private static PricePlanSimulation add(PricePlanSimulation a, PricePlanSimulation b) {
+        long meters = a.getMeters() + b.getMeters();
+        List<PricePlanSimulation.Candidate> candidates = new ArrayList<>(a.getPricePlans().size());
+        for (int i = 0; i < a.getPricePlans().size(); i++) {
+            PricePlanSimulation.Candidate x = a.getPricePlans().get(i);
+            PricePlanSimulation.Candidate y = b.getPricePlans().get(i);
+            BigDecimal totalCost = x.getTotalCost().add(y.getTotalCost());
+            BigDecimal averageCost = meters == 0
+                    ? BigDecimal.ZERO
+                    : totalCost.divide(BigDecimal.valueOf(meters), FixedPoint.SCALE, RoundingMode.HALF_UP);
+            candidates.add(new PricePlanSimulation.Candidate(x.getPricePlanId(), totalCost, averageCost, Map.of(),
+                    x.getTotalChange().add(y.getTotalChange()), Map.of(), x.getWinners() + y.getWinners(),
+                    x.getLosers() + y.getLosers(), x.getUnchanged() + y.getUnchanged()));
+        }
+        return new PricePlanSimulation(meters, a.getMetersWithoutCurrentPlan() + b.getMetersWithoutCurrentPlan(),
+                a.getCurrentTotalCost().add(b.getCurrentTotalCost()), candidates);
+    }
+
+    private void validateCandidates(List<PricePlan> candidates) {
+        if (candidates == null || candidates.isEmpty()) {
+            throw new InvalidPricePlanException("Give at least one candidate price plan");
+        }
+        if (candidates.size() > pricePlanSimulationService.getMaxCandidates()) {
+            throw new InvalidPricePlanException("Give at most " + pricePlanSimulationService.getMaxCandidates() + " candidate price plans");
+        }
+        Set<String> planNames = new HashSet<>();
+        for (PricePlan candidate : candidates) {
+            if (!StringUtils.hasText(candidate.getPlanName()) || !planNames.add(candidate.getPlanName())) {
+                throw new InvalidPricePlanException("Each candidate price plan needs a planName of its own");
+            }
+            if (candidate.getUnitPricePerKWh() == null || candidate.getUnitPricePerKWh().signum() < 0
+                    || candidate.getPricePlanType() == null) {
+                throw new InvalidPricePlanException("Price plan " + candidate.getPlanName() + " needs a pricePlanType and a unitPricePerKWh of at least zero");
+            }
+            for (PricePlan.TimeOfUseRate rate : candidate.getTimeOfUseRates()) {
+                if (rate.getFrom() == null || rate.getTo() == null || rate.getUnitRate() == null || rate.getUnitRate().signum() < 0) {
+                    throw new InvalidPricePlanException("Each time of use rate of " + candidate.getPlanName() + " needs a from, a to and a unitRate of at least zero");
+                }
+            }
+        }
+    }
+
+    @GetMapping("/cache-stats")
+    public ResponseEntity<CacheStats> cacheStats() {
+        return ResponseEntity.ok(pricePlanService.getCacheStats());
+    }
+
     private Map<String, BigDecimal> getConsumptionsForPricePlans(String smartMeterId) {
         Optional<Map<String, BigDecimal>> consumptionsForPricePlans =
                 pricePlanService.getAllPricePlanCostsForMeter(smartMeterId);
@@ -65,13 +249,17 @@ public class PricePlanComparatorController {
         return consumptionsForPricePlans.get();
     }
 
-    private List<Map.Entry<String, BigDecimal>> extractCheapestPricePlans(Map<String, BigDecimal> consumptionsForPricePlans, Integer limit) {
-        List<Map.Entry<String, BigDecimal>> pricePlans = new ArrayList<>(consumptionsForPricePlans.entrySet());
-        pricePlans.sort(Comparator.comparing(Map.Entry::getValue));
+    private Map<String, BigDecimal> getConsumptionsForPricePlans(String smartMeterId, long fromEpochSecond, long toEpochSecond) {
+        Optional<Map<String, BigDecimal>> consumptionsForPricePlans =
+                pricePlanService.getAllPricePlanCostsForMeter(smartMeterId, fromEpochSecond, toEpochSecond);
 
-        if (limit != null && limit < pricePlans.size()) {
-            pricePlans = pricePlans.subList(0, limit);
+        if (!consumptionsForPricePlans.isPresent()) {
+            throw new NoConsumptionException("Could not find any usage on the price plan in that period");
         }
-        return pricePlans;
+        return consumptionsForPricePlans.get();
+    }
+
+    List<Map.Entry<String, BigDecimal>> extractCheapestPricePlans(Map<String, BigDecimal> consumptionsForPricePlans, Integer limit) {
+        return PricePlanService.cheapestPricePlans(consumptionsForPricePlans, limit);
     }
 }
\ No newline at end of file
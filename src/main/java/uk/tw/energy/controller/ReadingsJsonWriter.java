@@ -0,0 +1,146 @@
+package uk.tw.energy.controller;
+
+import uk.tw.energy.store.FixedPoint;
+import uk.tw.energy.store.ReadingCursor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Instant;
+
+/**
+ * Writes readings as the same JSON array Jackson makes of a {@code List<ElectricityReading>}, ISO-8601 times and
+ * plain decimal readings included, but straight from a {@link ReadingCursor} into a small buffer. Nothing is
+ * allocated per reading and the buffer goes out every {@link #BUFFER_BYTES}, so a response costs the same memory and
+ * starts as soon however long the history.
+ */
+final class ReadingsJsonWriter {
+
+    static final int BUFFER_BYTES = 8192;
+    // {"time":"+1000000000-12-31T23:59:59Z","reading":-9223372036854.775808}, with room to spare
+    private static final int MAX_READING_BYTES = 96;
+    private static final long SECONDS_PER_DAY = 86_400;
+    private static final long DAYS_PER_ERA = 146_097;
+    // 0000-03-01, the start of the era the civil date arithmetic counts from, relative to 1970-01-01
+    private static final long DAYS_TO_ERA_START = 719_468;
+
+    private final OutputStream outputStream;
+    private final byte[] buffer = new byte[BUFFER_BYTES];
+    private int position;
+
+    private ReadingsJsonWriter(OutputStream outputStream) {
+        this.outputStream = outputStream;
+    }
+
+    /**
+     * Writes the next {@code count} readings of {@code cursor} as a JSON array and flushes.
+     */
+    static void write(OutputStream outputStream, ReadingCursor cursor, int count) throws IOException {
+        ReadingsJsonWriter writer = new ReadingsJsonWriter(outputStream);
+        writer.buffer[writer.position++] = '[';
+        for (int i = 0; i < count; i++) {
+            cursor.next();
+            if (writer.position + MAX_READING_BYTES > BUFFER_BYTES) {
+                writer.drain();
+            }
+            if (i > 0) {
+                writer.buffer[writer.position++] = ',';
+            }
+            writer.ascii("{\"time\":\"");
+            writer.instant(cursor.epochSecond());
+            writer.ascii("\",\"reading\":");
+            writer.decimal(cursor.reading());
+            writer.buffer[writer.position++] = '}';
+        }
+        writer.buffer[writer.position++] = ']';
+        writer.drain();
+        outputStream.flush();
+    }
+
+    private void drain() throws IOException {
+        outputStream.write(buffer, 0, position);
+        position = 0;
+    }
+
+    private void ascii(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            buffer[position++] = (byte) text.charAt(i);
+        }
+    }
+
+    /**
+     * {@code yyyy-MM-ddTHH:mm:ssZ} as {@link Instant#toString()} writes whole seconds, worked out with the civil
+     * calendar arithmetic of H. Hinnant's {@code civil_from_days}; years outside 0 to 9999 are left to
+     * {@link Instant}.
+     */
+    private void instant(long epochSecond) {
+        long days = Math.floorDiv(epochSecond, SECONDS_PER_DAY);
+        long secondOfDay = Math.floorMod(epochSecond, SECONDS_PER_DAY);
+        long z = days + DAYS_TO_ERA_START;
+        long era = Math.floorDiv(z, DAYS_PER_ERA);
+        long dayOfEra = z - era * DAYS_PER_ERA;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long shiftedMonth = (5 * dayOfYear + 2) / 153;
+        long day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        long month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        if (year < 0 || year > 9999) {
+            ascii(Instant.ofEpochSecond(epochSecond).toString());
+            return;
+        }
+        digits(year, 4);
+        buffer[position++] = '-';
+        digits(month, 2);
+        buffer[position++] = '-';
+        digits(day, 2);
+        buffer[position++] = 'T';
+        digits(secondOfDay / 3600, 2);
+        buffer[position++] = ':';
+        digits(secondOfDay / 60 % 60, 2);
+        buffer[position++] = ':';
+        digits(secondOfDay % 60, 2);
+        buffer[position++] = 'Z';
+    }
+
+    /**
+     * A fixed point reading as {@link FixedPoint#toBigDecimal} prints: plain, without trailing zeros.
+     */
+    private void decimal(long fixed) {
+        if (fixed == Long.MIN_VALUE) {
+            ascii(FixedPoint.toBigDecimal(fixed).toString());
+            return;
+        }
+        if (fixed < 0) {
+            buffer[position++] = '-';
+            fixed = -fixed;
+        }
+        long whole = fixed / FixedPoint.ONE;
+        long fraction = fixed % FixedPoint.ONE;
+        int wholeDigits = 1;
+        for (long bound = 10; wholeDigits < 19 && whole >= bound; bound *= 10) {
+            wholeDigits++;
+        }
+        digits(whole, wholeDigits);
+        if (fraction == 0) {
+            return;
+        }
+        int fractionDigits = FixedPoint.SCALE;
+        while (fraction % 10 == 0) {
+            fraction /= 10;
+            fractionDigits--;
+        }
+        buffer[position++] = '.';
+        digits(fraction, fractionDigits);
+    }
+
+    /**
+     * The last {@code width} digits of a non-negative value, zero padded.
+     */
+    private void digits(long value, int width) {
+        for (int i = position + width - 1; i >= position; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        position += width;
+    }
+}
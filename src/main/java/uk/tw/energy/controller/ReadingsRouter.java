@@ -0,0 +1,104 @@
+package uk.tw.energy.controller;
+
+import org.springframework.http.HttpStatus;
+import uk.tw.energy.controller.exceptions.ClusterNodeUnavailableException;
+import uk.tw.energy.controller.exceptions.IngestQueueFullException;
+import uk.tw.energy.controller.ingest.MeterBatchParser;
+import uk.tw.energy.controller.ingest.ReadingsWireFormat;
+import uk.tw.energy.service.ClusterService;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.http.HttpResponse;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Splits parsed readings between this node and the rest of the cluster: readings of meters this node owns go
+ * straight on to the local consumer, and the rest are encoded in the binary wire format for their owners, each
+ * owner's share sent to its {@code /readings/store-batch} whenever it reaches {@link #FORWARD_BYTES} and what is left
+ * at {@link #finish()}.
+ */
+final class ReadingsRouter implements MeterBatchParser.ReadingsConsumer {
+
+    private static final int FORWARD_BYTES = 1 << 20;
+
+    private final ClusterService clusterService;
+    private final MeterBatchParser.ReadingsConsumer local;
+    private final Map<String, Forward> forwards = new HashMap<>();
+
+    ReadingsRouter(ClusterService clusterService, MeterBatchParser.ReadingsConsumer local) {
+        this.clusterService = clusterService;
+        this.local = local;
+    }
+
+    @Override
+    public void accept(String smartMeterId, long[] epochSeconds, long[] readings, int count) {
+        String owner = clusterService.ownerOf(smartMeterId);
+        if (owner.equals(clusterService.self())) {
+            local.accept(smartMeterId, epochSeconds, readings, count);
+            return;
+        }
+        Forward forward = forwards.computeIfAbsent(owner, Forward::new);
+        try {
+            forward.encoder.meter(smartMeterId, epochSeconds, readings, count);
+            forward.meters++;
+            if (forward.payload.size() >= FORWARD_BYTES) {
+                forward.send();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Sends every owner what is left of its share.
+     *
+     * @throws IngestQueueFullException        if an owner's ingest queue is full
+     * @throws ClusterNodeUnavailableException if an owner cannot be reached or turns the readings down
+     */
+    void finish() {
+        try {
+            for (Forward forward : forwards.values()) {
+                forward.send();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private final class Forward {
+
+        private final String owner;
+        private final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        private ReadingsWireFormat.Encoder encoder;
+        private int meters;
+
+        Forward(String owner) {
+            this.owner = owner;
+            this.encoder = new ReadingsWireFormat.Encoder(payload);
+        }
+
+        void send() throws IOException {
+            if (meters > 0) {
+                encoder.flush();
+                HttpResponse<byte[]> response;
+                try {
+                    response = clusterService.post(owner, "/readings/store-batch", ReadingsWireFormat.MEDIA_TYPE_VALUE, payload.toByteArray());
+                } catch (IOException e) {
+                    throw new ClusterNodeUnavailableException("Could not forward readings to " + owner + ": " + e.getMessage());
+                }
+                if (response.statusCode() == HttpStatus.SERVICE_UNAVAILABLE.value()) {
+                    throw new IngestQueueFullException("Too many readings waiting to be stored on " + owner);
+                }
+                if (response.statusCode() / 100 != 2) {
+                    throw new ClusterNodeUnavailableException(owner + " answered " + response.statusCode() + " to forwarded readings");
+                }
+            }
+            payload.reset();
+            encoder = new ReadingsWireFormat.Encoder(payload);
+            meters = 0;
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package uk.tw.energy.controller.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class IngestQueueFullException extends RuntimeException {
+    public IngestQueueFullException(String s) {
+        super(s);
+    }
+}
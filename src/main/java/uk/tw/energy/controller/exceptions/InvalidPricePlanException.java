@@ -0,0 +1,11 @@
+package uk.tw.energy.controller.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+public class InvalidPricePlanException extends RuntimeException {
+    public InvalidPricePlanException(String s) {
+        super(s);
+    }
+}
@@ -0,0 +1,184 @@
+package uk.tw.energy.controller.ingest;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import uk.tw.energy.controller.exceptions.InvalidReadingsException;
+import uk.tw.energy.store.FixedPoint;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+
+/**
+ * Reads meters from either a JSON array or newline-delimited JSON with the Jackson streaming API, handing
+ * readings on in batches of at most {@link #BATCH_SIZE} as soon as the meter they belong to is known. Only
+ * one batch is buffered at a time, so memory does not grow with the size of the payload as long as each
+ * meter's {@code smartMeterId} precedes its readings.
+ */
+public class MeterBatchParser {
+
+    public static final int BATCH_SIZE = 1024;
+
+    private static final String SMART_METER_ID_FIELD = "smartMeterId";
+    private static final String ELECTRICITY_READINGS_FIELD = "electricityReadings";
+    private static final String TIME_FIELD = "time";
+    private static final String READING_FIELD = "reading";
+
+    private final JsonFactory jsonFactory;
+
+    public MeterBatchParser() {
+        this(new JsonFactory());
+    }
+
+    public MeterBatchParser(JsonFactory jsonFactory) {
+        this.jsonFactory = jsonFactory;
+    }
+
+    public interface ReadingsConsumer {
+        void accept(String smartMeterId, long[] epochSeconds, long[] readings, int count);
+    }
+
+    /**
+     * @return the number of meters read
+     */
+    public int parse(InputStream inputStream, ReadingsConsumer consumer) throws IOException {
+        int meters = 0;
+        Batch batch = new Batch(consumer);
+        try (JsonParser parser = jsonFactory.createParser(inputStream)) {
+            JsonToken token = parser.nextToken();
+            boolean array = token == JsonToken.START_ARRAY;
+            if (array) {
+                token = parser.nextToken();
+            }
+            while (token != null && token != JsonToken.END_ARRAY) {
+                expect(parser, token, JsonToken.START_OBJECT);
+                parseMeter(parser, batch);
+                meters++;
+                token = parser.nextToken();
+            }
+            if (array && token != JsonToken.END_ARRAY) {
+                throw new InvalidReadingsException("Unterminated array of meters");
+            }
+        } catch (JsonProcessingException | DateTimeParseException | ArithmeticException e) {
+            throw new InvalidReadingsException(e.getMessage());
+        }
+        return meters;
+    }
+
+    private void parseMeter(JsonParser parser, Batch batch) throws IOException {
+        batch.start();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (SMART_METER_ID_FIELD.equals(field)) {
+                batch.smartMeterId(parser.getValueAsString());
+            } else if (ELECTRICITY_READINGS_FIELD.equals(field) && value == JsonToken.START_ARRAY) {
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    parseReading(parser, batch);
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        batch.finish();
+    }
+
+    private void parseReading(JsonParser parser, Batch batch) throws IOException {
+        expect(parser, parser.currentToken(), JsonToken.START_OBJECT);
+        long epochSecond = 0;
+        long reading = 0;
+        boolean hasTime = false;
+        boolean hasReading = false;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (TIME_FIELD.equals(field)) {
+                epochSecond = value == JsonToken.VALUE_STRING
+                        ? Instant.parse(parser.getText()).getEpochSecond()
+                        : parser.getDecimalValue().longValue();
+                hasTime = true;
+            } else if (READING_FIELD.equals(field)) {
+                reading = FixedPoint.toFixed(parser.getDecimalValue());
+                hasReading = true;
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (!hasTime || !hasReading) {
+            throw new InvalidReadingsException("Each reading needs a time and a reading");
+        }
+        batch.add(epochSecond, reading);
+    }
+
+    private static void expect(JsonParser parser, JsonToken actual, JsonToken expected) {
+        if (actual != expected) {
+            throw new InvalidReadingsException("Expected " + expected + " but found " + actual
+                    + " at " + parser.getCurrentLocation());
+        }
+    }
+
+    private static class Batch {
+
+        private final ReadingsConsumer consumer;
+        private long[] epochSeconds = new long[16];
+        private long[] readings = new long[16];
+        private int count;
+        private int total;
+        private String smartMeterId;
+
+        Batch(ReadingsConsumer consumer) {
+            this.consumer = consumer;
+        }
+
+        void start() {
+            smartMeterId = null;
+            count = 0;
+            total = 0;
+        }
+
+        void smartMeterId(String smartMeterId) {
+            if (smartMeterId == null || smartMeterId.isEmpty()) {
+                throw new InvalidReadingsException("Meter has no smartMeterId");
+            }
+            this.smartMeterId = smartMeterId;
+            if (count >= BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        void add(long epochSecond, long reading) {
+            if (count == epochSeconds.length) {
+                epochSeconds = Arrays.copyOf(epochSeconds, count * 2);
+                readings = Arrays.copyOf(readings, count * 2);
+            }
+            epochSeconds[count] = epochSecond;
+            readings[count] = reading;
+            count++;
+            total++;
+            if (smartMeterId != null && count == BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        void finish() {
+            if (smartMeterId == null) {
+                throw new InvalidReadingsException("Meter has no smartMeterId");
+            }
+            if (total == 0) {
+                throw new InvalidReadingsException("Meter " + smartMeterId + " has no readings");
+            }
+            if (count > 0) {
+                flush();
+            }
+        }
+
+        private void flush() {
+            consumer.accept(smartMeterId, epochSeconds, readings, count);
+            count = 0;
+        }
+    }
+}
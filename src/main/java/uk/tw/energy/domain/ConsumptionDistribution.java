@@ -0,0 +1,27 @@
+package uk.tw.energy.domain;
+
+import java.math.BigDecimal;
+import java.util.Map;
+
+/**
+ * Percentiles of the fleet's daily consumption in kWh, keyed {@code p50}, {@code p99.9} and so on, each within the
+ * sketch's relative accuracy of a meter's actual figure.
+ */
+public class ConsumptionDistribution {
+
+    private final long meters;
+    private final Map<String, BigDecimal> percentiles;
+
+    public ConsumptionDistribution(long meters, Map<String, BigDecimal> percentiles) {
+        this.meters = meters;
+        this.percentiles = percentiles;
+    }
+
+    public long getMeters() {
+        return meters;
+    }
+
+    public Map<String, BigDecimal> getPercentiles() {
+        return percentiles;
+    }
+}
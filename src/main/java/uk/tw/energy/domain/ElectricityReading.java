@@ -1,5 +1,7 @@
 package uk.tw.energy.domain;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
+
 import java.math.BigDecimal;
 import java.time.Instant;
 
@@ -13,6 +15,7 @@ public class ElectricityReading {
         this.readingInKW = reading;
     }
 
+    @JsonProperty("reading")
     public BigDecimal getReadingInKW() {
         return readingInKW;
     }
@@ -0,0 +1,37 @@
+package uk.tw.energy.domain;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.math.BigDecimal;
+
+/**
+ * A meter's consumption in kWh over all the readings held for it, and the same spread over a day.
+ */
+public class MeterConsumption {
+
+    private final String smartMeterId;
+    private final BigDecimal consumption;
+    private final BigDecimal dailyConsumption;
+
+    @JsonCreator
+    public MeterConsumption(@JsonProperty("smartMeterId") String smartMeterId,
+                            @JsonProperty("consumption") BigDecimal consumption,
+                            @JsonProperty("dailyConsumption") BigDecimal dailyConsumption) {
+        this.smartMeterId = smartMeterId;
+        this.consumption = consumption;
+        this.dailyConsumption = dailyConsumption;
+    }
+
+    public String getSmartMeterId() {
+        return smartMeterId;
+    }
+
+    public BigDecimal getConsumption() {
+        return consumption;
+    }
+
+    public BigDecimal getDailyConsumption() {
+        return dailyConsumption;
+    }
+}
@@ -0,0 +1,30 @@
+package uk.tw.energy.domain;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+public class MeterRecommendation {
+
+    private final String smartMeterId;
+    private final String pricePlanId;
+    private final List<Map.Entry<String, BigDecimal>> recommendations;
+
+    public MeterRecommendation(String smartMeterId, String pricePlanId, List<Map.Entry<String, BigDecimal>> recommendations) {
+        this.smartMeterId = smartMeterId;
+        this.pricePlanId = pricePlanId;
+        this.recommendations = recommendations;
+    }
+
+    public String getSmartMeterId() {
+        return smartMeterId;
+    }
+
+    public String getPricePlanId() {
+        return pricePlanId;
+    }
+
+    public List<Map.Entry<String, BigDecimal>> getRecommendations() {
+        return recommendations;
+    }
+}
@@ -1,9 +1,17 @@
 package uk.tw.energy.domain;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
 import java.math.BigDecimal;
 import java.time.DayOfWeek;
 import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 
 public class PricePlan {
 
@@ -11,12 +19,27 @@ public class PricePlan {
     private final String planName;
     private final BigDecimal unitPricePerKWh;
     private final PricePlanType pricePlanType;
+    private final List<TimeOfUseRate> timeOfUseRates;
 
     public PricePlan(String planName, String energySupplier, BigDecimal unitRate, PricePlanType pricePlanType) {
+        this(planName, energySupplier, unitRate, pricePlanType, Collections.emptyList());
+    }
+
+    /**
+     * A plan charging {@code unitRate} except where one of {@code timeOfUseRates} applies; the first matching rate
+     * wins. Rates are in UTC. Plans read from JSON use the same property names as they are written with.
+     */
+    @JsonCreator
+    public PricePlan(@JsonProperty("planName") String planName,
+                     @JsonProperty("energySupplier") String energySupplier,
+                     @JsonProperty("unitPricePerKWh") BigDecimal unitRate,
+                     @JsonProperty("pricePlanType") PricePlanType pricePlanType,
+                     @JsonProperty("timeOfUseRates") List<TimeOfUseRate> timeOfUseRates) {
         this.planName = planName;
         this.energySupplier = energySupplier;
         this.unitPricePerKWh = unitRate;
         this.pricePlanType = pricePlanType;
+        this.timeOfUseRates = timeOfUseRates == null ? Collections.emptyList() : List.copyOf(timeOfUseRates);
     }
 
     public String getEnergySupplier() {
@@ -34,4 +57,70 @@ public class PricePlan {
     public PricePlanType getPricePlanType() {
         return pricePlanType;
     }
+
+    public List<TimeOfUseRate> getTimeOfUseRates() {
+        return timeOfUseRates;
+    }
+
+    @JsonIgnore
+    public boolean isTimeOfUse() {
+        return !timeOfUseRates.isEmpty();
+    }
+
+    public BigDecimal getUnitPrice(LocalDateTime dateTime) {
+        return timeOfUseRates.stream()
+                .filter(rate -> rate.appliesTo(dateTime))
+                .findFirst()
+                .map(TimeOfUseRate::getUnitRate)
+                .orElse(unitPricePerKWh);
+    }
+
+    /**
+     * A unit rate charged from {@code from} until {@code to} on the given days. A band whose end is not after its
+     * start runs past midnight into the following day.
+     */
+    public static class TimeOfUseRate {
+
+        private final Set<DayOfWeek> days;
+        private final LocalTime from;
+        private final LocalTime to;
+        private final BigDecimal unitRate;
+
+        @JsonCreator
+        public TimeOfUseRate(@JsonProperty("days") Set<DayOfWeek> days,
+                             @JsonProperty("from") LocalTime from,
+                             @JsonProperty("to") LocalTime to,
+                             @JsonProperty("unitRate") BigDecimal unitRate) {
+            this.days = days == null || days.isEmpty() ? EnumSet.noneOf(DayOfWeek.class) : EnumSet.copyOf(days);
+            this.from = from;
+            this.to = to;
+            this.unitRate = unitRate;
+        }
+
+        public Set<DayOfWeek> getDays() {
+            return Collections.unmodifiableSet(days);
+        }
+
+        public LocalTime getFrom() {
+            return from;
+        }
+
+        public LocalTime getTo() {
+            return to;
+        }
+
+        public BigDecimal getUnitRate() {
+            return unitRate;
+        }
+
+        public boolean appliesTo(LocalDateTime dateTime) {
+            LocalTime time = dateTime.toLocalTime();
+            DayOfWeek day = dateTime.getDayOfWeek();
+            if (from.isBefore(to)) {
+                return days.contains(day) && !time.isBefore(from) && time.isBefore(to);
+            }
+            return (days.contains(day) && !time.isBefore(from))
+                    || (days.contains(day.minus(1)) && time.isBefore(to));
+        }
+    }
 }
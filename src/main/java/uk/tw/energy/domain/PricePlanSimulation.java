@@ -0,0 +1,125 @@
+package uk.tw.energy.domain;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What candidate price plans would have cost every meter with readings, next to what the meters' current plans cost.
+ * Meters whose account is missing, or on a plan that is not configured, are costed on the candidates but left out of
+ * every comparison with the current plan.
+ * <p>
+ * A simulation gathered from every member of a cluster adds up the members' totals and counts; its percentiles,
+ * which cannot be added up, are left empty.
+ */
+public class PricePlanSimulation {
+
+    private final long meters;
+    private final long metersWithoutCurrentPlan;
+    private final BigDecimal currentTotalCost;
+    private final List<Candidate> pricePlans;
+
+    @JsonCreator
+    public PricePlanSimulation(@JsonProperty("meters") long meters,
+                               @JsonProperty("metersWithoutCurrentPlan") long metersWithoutCurrentPlan,
+                               @JsonProperty("currentTotalCost") BigDecimal currentTotalCost,
+                               @JsonProperty("pricePlans") List<Candidate> pricePlans) {
+        this.meters = meters;
+        this.metersWithoutCurrentPlan = metersWithoutCurrentPlan;
+        this.currentTotalCost = currentTotalCost;
+        this.pricePlans = pricePlans;
+    }
+
+    public long getMeters() {
+        return meters;
+    }
+
+    public long getMetersWithoutCurrentPlan() {
+        return metersWithoutCurrentPlan;
+    }
+
+    public BigDecimal getCurrentTotalCost() {
+        return currentTotalCost;
+    }
+
+    public List<Candidate> getPricePlans() {
+        return pricePlans;
+    }
+
+    /**
+     * One candidate's fleet totals. Cost percentiles cover every meter; the change, candidate cost less current cost,
+     * and the winners (who would pay less) and losers (who would pay more) only cover meters with a current plan.
+     */
+    public static class Candidate {
+
+        private final String pricePlanId;
+        private final BigDecimal totalCost;
+        private final BigDecimal averageCost;
+        private final Map<String, BigDecimal> costPercentiles;
+        private final BigDecimal totalChange;
+        private final Map<String, BigDecimal> changePercentiles;
+        private final long winners;
+        private final long losers;
+        private final long unchanged;
+
+        @JsonCreator
+        public Candidate(@JsonProperty("pricePlanId") String pricePlanId,
+                         @JsonProperty("totalCost") BigDecimal totalCost,
+                         @JsonProperty("averageCost") BigDecimal averageCost,
+                         @JsonProperty("costPercentiles") Map<String, BigDecimal> costPercentiles,
+                         @JsonProperty("totalChange") BigDecimal totalChange,
+                         @JsonProperty("changePercentiles") Map<String, BigDecimal> changePercentiles,
+                         @JsonProperty("winners") long winners,
+                         @JsonProperty("losers") long losers,
+                         @JsonProperty("unchanged") long unchanged) {
+            this.pricePlanId = pricePlanId;
+            this.totalCost = totalCost;
+            this.averageCost = averageCost;
+            this.costPercentiles = costPercentiles;
+            this.totalChange = totalChange;
+            this.changePercentiles = changePercentiles;
+            this.winners = winners;
+            this.losers = losers;
+            this.unchanged = unchanged;
+        }
+
+        public String getPricePlanId() {
+            return pricePlanId;
+        }
+
+        public BigDecimal getTotalCost() {
+            return totalCost;
+        }
+
+        public BigDecimal getAverageCost() {
+            return averageCost;
+        }
+
+        public Map<String, BigDecimal> getCostPercentiles() {
+            return costPercentiles;
+        }
+
+        public BigDecimal getTotalChange() {
+            return totalChange;
+        }
+
+        public Map<String, BigDecimal> getChangePercentiles() {
+            return changePercentiles;
+        }
+
+        public long getWinners() {
+            return winners;
+        }
+
+        public long getLosers() {
+            return losers;
+        }
+
+        public long getUnchanged() {
+            return unchanged;
+        }
+    }
+}
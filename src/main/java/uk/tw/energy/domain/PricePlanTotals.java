@@ -0,0 +1,45 @@
+package uk.tw.energy.domain;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.math.BigDecimal;
+
+/**
+ * Totals over the meters whose accounts are on one price plan. The cost is {@code null} when the plan is not
+ * configured.
+ */
+public class PricePlanTotals {
+
+    private final String pricePlanId;
+    private final long meters;
+    private final BigDecimal consumption;
+    private final BigDecimal cost;
+
+    @JsonCreator
+    public PricePlanTotals(@JsonProperty("pricePlanId") String pricePlanId,
+                           @JsonProperty("meters") long meters,
+                           @JsonProperty("consumption") BigDecimal consumption,
+                           @JsonProperty("cost") BigDecimal cost) {
+        this.pricePlanId = pricePlanId;
+        this.meters = meters;
+        this.consumption = consumption;
+        this.cost = cost;
+    }
+
+    public String getPricePlanId() {
+        return pricePlanId;
+    }
+
+    public long getMeters() {
+        return meters;
+    }
+
+    public BigDecimal getConsumption() {
+        return consumption;
+    }
+
+    public BigDecimal getCost() {
+        return cost;
+    }
+}
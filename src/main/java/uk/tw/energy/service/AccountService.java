@@ -1,19 +1,74 @@
 package uk.tw.energy.service;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import uk.tw.energy.store.IdDictionary;
 
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
+/**
+ * Each account's price plan, kept as an index into the handful of distinct price plan ids in an array indexed by
+ * the meter's id in the smart meter {@link IdDictionary}.
+ */
 @Service
 public class AccountService {
 
-    private final Map<String, String> smartMeterToPricePlanAccounts;
+    private final IdDictionary smartMeterIds;
+    private final IdDictionary pricePlanIds = new IdDictionary();
+    private final int[] pricePlanOfMeter;
 
     public AccountService(Map<String, String> smartMeterToPricePlanAccounts) {
-        this.smartMeterToPricePlanAccounts = smartMeterToPricePlanAccounts;
+        this(smartMeterToPricePlanAccounts, new IdDictionary());
+    }
+
+    @Autowired
+    public AccountService(Map<String, String> smartMeterToPricePlanAccounts, IdDictionary smartMeterIds) {
+        this.smartMeterIds = smartMeterIds;
+        smartMeterToPricePlanAccounts.keySet().forEach(smartMeterIds::intern);
+        this.pricePlanOfMeter = new int[smartMeterIds.size()];
+        Arrays.fill(pricePlanOfMeter, IdDictionary.ABSENT);
+        smartMeterToPricePlanAccounts.forEach((smartMeterId, pricePlanId) ->
+                pricePlanOfMeter[smartMeterIds.find(smartMeterId)] = pricePlanIds.intern(pricePlanId));
     }
 
     public String getPricePlanIdForSmartMeterId(String smartMeterId) {
-        return smartMeterToPricePlanAccounts.get(smartMeterId);
+        int meterId = smartMeterIds.find(smartMeterId);
+        return meterId == IdDictionary.ABSENT ? null : getPricePlanId(meterId);
+    }
+
+    /**
+     * The price plan of the meter with this id in the smart meter dictionary, or {@code null} if it has no account.
+     */
+    public String getPricePlanId(int meterId) {
+        int pricePlan = getPricePlan(meterId);
+        return pricePlan == IdDictionary.ABSENT ? null : pricePlanIds.name(pricePlan);
+    }
+
+    /**
+     * The meter's price plan as an id in {@link #pricePlanIds()}, or {@link IdDictionary#ABSENT} if it has no
+     * account.
+     */
+    public int getPricePlan(int meterId) {
+        return meterId < pricePlanOfMeter.length ? pricePlanOfMeter[meterId] : IdDictionary.ABSENT;
+    }
+
+    /**
+     * Every price plan id some account is on.
+     */
+    public IdDictionary pricePlanIds() {
+        return pricePlanIds;
+    }
+
+    public Set<String> getSmartMeterIds() {
+        Set<String> ids = new HashSet<>();
+        for (int meterId = 0; meterId < pricePlanOfMeter.length; meterId++) {
+            if (pricePlanOfMeter[meterId] != IdDictionary.ABSENT) {
+                ids.add(smartMeterIds.name(meterId));
+            }
+        }
+        return ids;
     }
 }
@@ -0,0 +1,528 @@
+package uk.tw.energy.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import uk.tw.energy.store.IdDictionary;
+import uk.tw.energy.store.ReadingSnapshot;
+import uk.tw.energy.store.ReadingStoreFile;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
+/**
+ * Cluster mode: smart meter ids are split between nodes by a {@link ConsistentHashRing}, each node holding the
+ * readings of the meters it owns. Nodes are named by their base URL. The web layer asks {@link #ownerOf} where a
+ * meter's requests belong and uses the HTTP helpers here to forward them, or to gather a fleet-wide answer from every
+ * member; a request that has been forwarded once carries {@link #FORWARDED_HEADER} and is always answered locally, so
+ * two nodes briefly disagreeing about membership cannot bounce a request between them.
+ * <p>
+ * A starting node joins through the first of its seeds that answers, which tells the other members. Whenever the
+ * membership changes each node rebalances in the background: the histories of meters it no longer owns are sent to
+ * their owners, whole and rolled-up tiers included, as {@link ReadingStoreFile} images, and dropped here once the owner
+ * has them. A meter that took readings meanwhile is kept and sent again straight away, and anything still held for
+ * another member once that settles, because its owner could not be reached or readings kept coming, is tried again
+ * after a pause until nothing is left. Readings stored here for a meter owned elsewhere, forwarded by a member that had
+ * not yet heard of a change or still in flight when the meter moved, schedule such a retry too. A node asked to leave
+ * takes itself off the ring, tells the others and hands every meter over before answering.
+ * <p>
+ * Membership is only what the nodes have told each other: a node that stops without leaving keeps its meters, and
+ * requests for them fail, until it comes back.
+ */
+@Service
+public class ClusterService {
+
+    public static final String FORWARDED_HEADER = "X-Cluster-Forwarded";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ClusterService.class);
+    // what one handoff request carries, give or take a meter
+    private static final long HANDOFF_BYTES = 16 << 20;
+    // passes over the meters that took readings while being handed over, before leaving them to the next retry
+    private static final int MAX_HANDOFF_PASSES = 8;
+    private static final String HANDOFF_CONTENT_TYPE = "application/octet-stream";
+
+    private final boolean enabled;
+    private final String self;
+    private final List<String> seeds;
+    private final Duration timeout;
+    private final Duration retryDelay;
+    private final MeterService meterService;
+    private final ObjectMapper objectMapper;
+    private final HttpClient httpClient;
+    private final ScheduledExecutorService rebalancer;
+    private final Object handOffLock = new Object();
+    private final AtomicBoolean rebalanceScheduled = new AtomicBoolean();
+    private volatile ConsistentHashRing ring;
+
+    public ClusterService(@Value("${cluster.enabled:false}") boolean enabled,
+                          @Value("${cluster.node:http://localhost:${server.port:8080}}") String node,
+                          @Value("${cluster.seeds:}") String[] seeds,
+                          @Value("${cluster.virtual-nodes:128}") int virtualNodes,
+                          @Value("${cluster.timeout-ms:10000}") long timeoutMillis,
+                          @Value("${cluster.handoff-retry-ms:1000}") long retryMillis,
+                          MeterService meterService, ObjectMapper objectMapper) {
+        this.enabled = enabled;
+        this.self = normalise(node);
+        this.seeds = Arrays.stream(seeds).filter(seed -> !seed.isBlank()).map(ClusterService::normalise).collect(Collectors.toList());
+        this.timeout = Duration.ofMillis(timeoutMillis);
+        this.retryDelay = Duration.ofMillis(retryMillis);
+        this.meterService = meterService;
+        this.objectMapper = objectMapper;
+        this.ring = new ConsistentHashRing(List.of(self), virtualNodes);
+        this.httpClient = HttpClient.newBuilder().connectTimeout(timeout).build();
+        this.rebalancer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cluster-rebalancer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (enabled) {
+            meterService.addReadingsListener((partition, meterId, snapshot) -> {
+                if (!rebalanceScheduled.get() && !ring.owner(meterService.smartMeterIds().name(meterId)).equals(self)) {
+                    rebalanceLater();
+                }
+            });
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * This node's base URL.
+     */
+    public String self() {
+        return self;
+    }
+
+    /**
+     * Every member, this node included unless it has left, in name order.
+     */
+    public List<String> members() {
+        return ring.nodes();
+    }
+
+    public String ownerOf(String smartMeterId) {
+        return ring.owner(smartMeterId);
+    }
+
+    /**
+     * Whether this node answers for the meter: always when cluster mode is off.
+     */
+    public boolean isLocal(String smartMeterId) {
+        return !enabled || ownerOf(smartMeterId).equals(self);
+    }
+
+    /**
+     * Joins through the first seed that answers, then hands over any meters that now belong elsewhere; with no seed
+     * answering the node starts a cluster of its own.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        for (String seed : seeds) {
+            if (seed.equals(self)) {
+                continue;
+            }
+            try {
+                HttpResponse<byte[]> response = post(seed, "/cluster/members?node=" + encode(self), false, HANDOFF_CONTENT_TYPE, new byte[0]);
+                if (response.statusCode() / 100 != 2) {
+                    throw new IOException(seed + " answered " + response.statusCode());
+                }
+                addMembers(Arrays.asList(objectMapper.readValue(response.body(), String[].class)));
+                LOGGER.info("{} joined the cluster through {}: {}", self, seed, members());
+                break;
+            } catch (IOException e) {
+                LOGGER.warn("Could not join the cluster through {}: {}", seed, e.getMessage());
+            }
+        }
+        rebalance();
+    }
+
+    /**
+     * Adds {@code node} to the ring and, unless the request was itself {@code forwarded}, tells the other members.
+     *
+     * @return the members after the join
+     */
+    public List<String> join(String node, boolean forwarded) {
+        node = normalise(node);
+        List<String> others = others(node);
+        addMembers(List.of(node));
+        if (!forwarded) {
+            announce(others, "POST", node);
+        }
+        rebalance();
+        return members();
+    }
+
+    /**
+     * Takes {@code node} off the ring and, unless the request was itself {@code forwarded}, tells the other members,
+     * the leaving node included. When this node is the one leaving it hands every meter over before returning.
+     *
+     * @throws IllegalArgumentException if {@code node} is not a member, or is the only one
+     */
+    public void leave(String node, boolean forwarded) {
+        node = normalise(node);
+        List<String> others;
+        synchronized (this) {
+            if (!ring.contains(node)) {
+                throw new IllegalArgumentException(node + " is not a member of the cluster");
+            }
+            if (ring.nodes().size() == 1) {
+                throw new IllegalArgumentException(node + " is the only member of the cluster");
+            }
+            others = others(self);
+            ring = ring.without(node);
+        }
+        if (!forwarded) {
+            announce(others, "DELETE", node);
+        }
+        if (node.equals(self)) {
+            Pass handedOff = handOffUntilSettled();
+            LOGGER.info("{} left the cluster, handing over {} meters", self, handedOff.handedOver);
+            if (handedOff.kept > 0) {
+                // still answering until it stops, so keep at it: meters can also come in late from requests in flight
+                rebalanceLater();
+            }
+        } else {
+            rebalance();
+        }
+    }
+
+    /**
+     * Hands over, in the background, the meters that belong to other members, and tries again later while any are
+     * still held here.
+     */
+    public void rebalance() {
+        if (enabled) {
+            rebalancer.execute(() -> {
+                boolean settled = false;
+                try {
+                    settled = handOffUntilSettled().kept == 0;
+                } catch (RuntimeException e) {
+                    LOGGER.warn("Could not rebalance the cluster", e);
+                }
+                if (!settled) {
+                    rebalanceLater();
+                }
+            });
+        }
+    }
+
+    /**
+     * Sends the history of every meter held here but owned by another member to its owner, in batches of about
+     * {@link #HANDOFF_BYTES}, and drops the ones the owner took. A meter that took readings while it was being sent is
+     * sent again, for up to {@link #MAX_HANDOFF_PASSES} passes; a member that cannot be reached keeps its meters here
+     * until a later rebalance.
+     *
+     * @return the meters handed over
+     */
+    public int handOff() {
+        return handOffUntilSettled().handedOver;
+    }
+
+    private Pass handOffUntilSettled() {
+        synchronized (handOffLock) {
+            Pass total = new Pass();
+            for (int passes = 0; passes < MAX_HANDOFF_PASSES; passes++) {
+                Pass pass = handOffOnce();
+                total.handedOver += pass.handedOver;
+                total.kept = pass.kept;
+                if (pass.changed == 0) {
+                    break;
+                }
+            }
+            return total;
+        }
+    }
+
+    private Pass handOffOnce() {
+        ConsistentHashRing current = ring;
+        Pass pass = new Pass();
+        if (current.nodes().isEmpty()) {
+            return pass;
+        }
+        IdDictionary smartMeterIds = meterService.smartMeterIds();
+        Map<String, Handoff> handoffs = new HashMap<>();
+        for (int meterId = 0; meterId < smartMeterIds.size(); meterId++) {
+            String smartMeterId = smartMeterIds.name(meterId);
+            String owner = current.owner(smartMeterId);
+            Optional<ReadingSnapshot> snapshot = owner.equals(self) ? Optional.empty() : meterService.getSnapshot(meterId);
+            if (snapshot.isPresent()) {
+                Handoff handoff = handoffs.computeIfAbsent(owner, Handoff::new);
+                handoff.add(meterId, smartMeterId, snapshot.get());
+                if (handoff.bytes >= HANDOFF_BYTES) {
+                    handoff.send(pass);
+                }
+            }
+        }
+        for (Handoff handoff : handoffs.values()) {
+            handoff.send(pass);
+        }
+        return pass;
+    }
+
+    private void rebalanceLater() {
+        if (!rebalanceScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            rebalancer.schedule(() -> {
+                rebalanceScheduled.set(false);
+                rebalance();
+            }, retryDelay.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // shutting down
+        }
+    }
+
+    /**
+     * Takes over the histories in an image another member handed over.
+     *
+     * @return the meters adopted
+     */
+    public int adopt(byte[] image) throws IOException {
+        AtomicInteger meters = new AtomicInteger();
+        ReadingStoreFile.read(image, (smartMeterId, history) -> {
+            meterService.adoptHistory(smartMeterId, history);
+            meters.incrementAndGet();
+        });
+        return meters.get();
+    }
+
+    /**
+     * Forwards a request to {@code node} as a {@link #FORWARDED_HEADER forwarded} request.
+     *
+     * @param pathAndQuery the request's path and query string, already encoded
+     * @param accept       the {@code Accept} header to send, or {@code null} for none
+     */
+    public HttpResponse<InputStream> get(String node, String pathAndQuery, String accept) throws IOException {
+        HttpRequest.Builder request = request(node, pathAndQuery, true).GET();
+        if (accept != null) {
+            request.header("Accept", accept);
+        }
+        return send(node, request.build(), HttpResponse.BodyHandlers.ofInputStream());
+    }
+
+    public HttpResponse<byte[]> post(String node, String pathAndQuery, String contentType, byte[] body) throws IOException {
+        return post(node, pathAndQuery, true, contentType, body);
+    }
+
+    /**
+     * Asks every other member for {@code pathAndQuery} at once, as a forwarded request.
+     *
+     * @return each member's response body
+     * @throws IOException if a member cannot be reached or does not answer 200
+     */
+    public List<byte[]> gather(String pathAndQuery) throws IOException {
+        return gather(pathAndQuery, HttpRequest.Builder::GET);
+    }
+
+    /**
+     * Posts {@code body} to every other member at once, as a forwarded request.
+     *
+     * @return each member's response body
+     * @throws IOException if a member cannot be reached or does not answer 200
+     */
+    public List<byte[]> gather(String pathAndQuery, String contentType, byte[] body) throws IOException {
+        return gather(pathAndQuery, request -> request.header("Content-Type", contentType)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body)));
+    }
+
+    private List<byte[]> gather(String pathAndQuery, UnaryOperator<HttpRequest.Builder> method) throws IOException {
+        List<String> others = others(self);
+        List<CompletableFuture<HttpResponse<byte[]>>> responses = new ArrayList<>(others.size());
+        for (String node : others) {
+            responses.add(httpClient.sendAsync(method.apply(request(node, pathAndQuery, true)).build(),
+                    HttpResponse.BodyHandlers.ofByteArray()));
+        }
+        List<byte[]> bodies = new ArrayList<>(others.size());
+        for (int i = 0; i < others.size(); i++) {
+            HttpResponse<byte[]> response;
+            try {
+                response = responses.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for " + others.get(i));
+            } catch (ExecutionException e) {
+                throw new IOException("Could not reach " + others.get(i), e.getCause());
+            }
+            if (response.statusCode() != 200) {
+                throw new IOException(others.get(i) + " answered " + response.statusCode() + " to " + pathAndQuery);
+            }
+            bodies.add(response.body());
+        }
+        return bodies;
+    }
+
+    /**
+     * Every member but this one, in name order.
+     */
+    public List<String> others() {
+        return others(self);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        rebalancer.shutdownNow();
+    }
+
+    private synchronized void addMembers(List<String> nodes) {
+        ConsistentHashRing grown = ring;
+        for (String node : nodes) {
+            grown = grown.with(normalise(node));
+        }
+        ring = grown;
+    }
+
+    private List<String> others(String excluded) {
+        return ring.nodes().stream().filter(node -> !node.equals(excluded)).collect(Collectors.toList());
+    }
+
+    private void announce(List<String> nodes, String method, String member) {
+        for (String node : nodes) {
+            if (node.equals(self)) {
+                continue;
+            }
+            try {
+                HttpRequest request = request(node, "/cluster/members?node=" + encode(member), true)
+                        .method(method, HttpRequest.BodyPublishers.noBody())
+                        .build();
+                int status = send(node, request, HttpResponse.BodyHandlers.discarding()).statusCode();
+                if (status / 100 != 2) {
+                    LOGGER.warn("{} answered {} when told of {}", node, status, member);
+                }
+            } catch (IOException e) {
+                LOGGER.warn("Could not tell {} of {}: {}", node, member, e.getMessage());
+            }
+        }
+    }
+
+    private HttpResponse<byte[]> post(String node, String pathAndQuery, boolean forwarded, String contentType, byte[] body) throws IOException {
+        HttpRequest request = request(node, pathAndQuery, forwarded)
+                .header("Content-Type", contentType)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+        return send(node, request, HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private HttpRequest.Builder request(String node, String pathAndQuery, boolean forwarded) {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(node + pathAndQuery)).timeout(timeout);
+        return forwarded ? request.header(FORWARDED_HEADER, self) : request;
+    }
+
+    private <T> HttpResponse<T> send(String node, HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler) throws IOException {
+        try {
+            return httpClient.send(request, bodyHandler);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for " + node);
+        }
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    private static String normalise(String node) {
+        String trimmed = node.trim();
+        return trimmed.endsWith("/") ? trimmed.substring(0, trimmed.length() - 1) : trimmed;
+    }
+
+    /**
+     * What one pass over the meters did: the meters handed over, the meters still held here for other members, and
+     * of those the ones that took readings while being sent, which are worth another pass straight away.
+     */
+    private static final class Pass {
+
+        private int handedOver;
+        private int kept;
+        private int changed;
+    }
+
+    /**
+     * The meters waiting to go to one member.
+     */
+    private final class Handoff {
+
+        private final String owner;
+        private final List<Integer> meterIds = new ArrayList<>();
+        private final List<String> smartMeterIds = new ArrayList<>();
+        private final List<ReadingSnapshot> snapshots = new ArrayList<>();
+        private long bytes;
+
+        Handoff(String owner) {
+            this.owner = owner;
+        }
+
+        void add(int meterId, String smartMeterId, ReadingSnapshot snapshot) {
+            meterIds.add(meterId);
+            smartMeterIds.add(smartMeterId);
+            snapshots.add(snapshot);
+            bytes += snapshot.estimatedBytes();
+        }
+
+        /**
+         * Sends the meters waiting and counts in {@code pass} those dropped here after the owner took them and those
+         * kept.
+         */
+        void send(Pass pass) {
+            if (meterIds.isEmpty()) {
+                return;
+            }
+            try {
+                HttpResponse<byte[]> response = post(owner, "/cluster/handoff", HANDOFF_CONTENT_TYPE,
+                        ReadingStoreFile.image(smartMeterIds, snapshots));
+                if (response.statusCode() / 100 != 2) {
+                    throw new IOException(owner + " answered " + response.statusCode());
+                }
+                for (int i = 0; i < meterIds.size(); i++) {
+                    if (meterService.removeHistory(meterIds.get(i), snapshots.get(i).version())) {
+                        pass.handedOver++;
+                    } else {
+                        pass.kept++;
+                        pass.changed++;
+                    }
+                }
+            } catch (IOException e) {
+                LOGGER.warn("Could not hand {} meters over to {}: {}", meterIds.size(), owner, e.getMessage());
+                pass.kept += meterIds.size();
+            }
+            meterIds.clear();
+            smartMeterIds.clear();
+            snapshots.clear();
+            bytes = 0;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package uk.tw.energy.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Assigns smart meter ids to cluster nodes. Each node is hashed onto a ring of 64-bit positions at
+ * {@code virtualNodes} points, and a meter belongs to the node at the first point at or after its own hash, wrapping
+ * round. A node joining takes about {@code 1/n} of the meters, a share from each of the others, and a node leaving
+ * spreads its meters across the rest in the same way; every other meter stays where it was.
+ * <p>
+ * Immutable: membership changes build a new ring. The points are held as a sorted {@code long[]} with the node at
+ * each point alongside, so a lookup is a hash and a binary search.
+ */
+final class ConsistentHashRing {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final List<String> nodes;
+    private final int virtualNodes;
+    private final long[] points;
+    private final String[] owners;
+
+    ConsistentHashRing(Collection<String> nodes, int virtualNodes) {
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("virtualNodes must be at least 1");
+        }
+        this.nodes = List.copyOf(new TreeSet<>(nodes));
+        this.virtualNodes = virtualNodes;
+        long[][] ring = new long[this.nodes.size() * virtualNodes][];
+        for (int node = 0; node < this.nodes.size(); node++) {
+            for (int point = 0; point < virtualNodes; point++) {
+                ring[node * virtualNodes + point] = new long[]{hash(this.nodes.get(node) + "#" + point), node};
+            }
+        }
+        // ties, vanishingly rare, go to the node first in name order, so every member builds the same ring
+        Arrays.sort(ring, (a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+        this.points = new long[ring.length];
+        this.owners = new String[ring.length];
+        for (int i = 0; i < ring.length; i++) {
+            points[i] = ring[i][0];
+            owners[i] = this.nodes.get((int) ring[i][1]);
+        }
+    }
+
+    /**
+     * The members, in name order.
+     */
+    List<String> nodes() {
+        return nodes;
+    }
+
+    boolean contains(String node) {
+        return nodes.contains(node);
+    }
+
+    ConsistentHashRing with(String node) {
+        TreeSet<String> members = new TreeSet<>(nodes);
+        return members.add(node) ? new ConsistentHashRing(members, virtualNodes) : this;
+    }
+
+    ConsistentHashRing without(String node) {
+        TreeSet<String> members = new TreeSet<>(nodes);
+        return members.remove(node) ? new ConsistentHashRing(members, virtualNodes) : this;
+    }
+
+    /**
+     * @throws IllegalStateException if the ring has no members
+     */
+    String owner(String smartMeterId) {
+        if (points.length == 0) {
+            throw new IllegalStateException("The cluster has no members");
+        }
+        int index = Arrays.binarySearch(points, hash(smartMeterId));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return owners[index == points.length ? 0 : index];
+    }
+
+    /**
+     * FNV-1a over the UTF-8 bytes, finished with the SplitMix64 mixer so that ids differing only in their last
+     * characters still land far apart.
+     */
+    static long hash(String key) {
+        long hash = FNV_OFFSET_BASIS;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xFF)) * FNV_PRIME;
+        }
+        hash = (hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94d049bb133111ebL;
+        return hash ^ (hash >>> 31);
+    }
+}
@@ -0,0 +1,464 @@
+package uk.tw.energy.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import uk.tw.energy.domain.ConsumptionDistribution;
+import uk.tw.energy.domain.MeterConsumption;
+import uk.tw.energy.domain.PricePlan;
+import uk.tw.energy.domain.PricePlanTotals;
+import uk.tw.energy.store.FixedPoint;
+import uk.tw.energy.store.IdDictionary;
+import uk.tw.energy.store.ReadingAggregates;
+import uk.tw.energy.store.ReadingSnapshot;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Fleet-wide figures kept up to date as readings are stored, so that asking for them never scans the fleet. Each
+ * meter's consumption over all its readings, its daily consumption and its cost on its account's plan are worked out
+ * once per ingestion, on the thread that stored the readings, and folded into the shard for the meter's
+ * {@link MeterService#partitionOf partition}:
+ * <ul>
+ *     <li>a min-heap of the shard's {@code capacity} biggest consumers,</li>
+ *     <li>a {@link QuantileSketch} of daily consumption, and</li>
+ *     <li>meter, consumption and cost totals per account price plan.</li>
+ * </ul>
+ * Queries merge the shards, so they cost {@code partitions * capacity} for the top consumers and a sketch's size for
+ * the percentiles, however many meters there are.
+ * <p>
+ * A consumer whose figure falls can drop below a meter outside its shard's heap; the shard then rebuilds its heap from
+ * its own meters at the next query. Costing a time-of-use plan walks the meter's readings, so ingestion for meters on
+ * such plans costs in proportion to the readings held rather than a few multiplications.
+ * <p>
+ * The latest figures are held in {@code long}s by meter id, 40 bytes a meter. A meter handed to another node in
+ * cluster mode leaves its shard, and each node answers for the meters it holds;
+ * {@link #dailyConsumption(double[], List)} takes the other nodes' sketches so percentiles can cover the cluster.
+ */
+@Service
+public class FleetAnalyticsService {
+
+    private static final int PAGE_BITS = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    // offsets of a meter's figures within its page; the version is negated once the meter is handed to another node
+    private static final int VERSION = 0;
+    private static final int CONSUMPTION = 1;
+    private static final int DAILY_CONSUMPTION = 2;
+    private static final int COST = 3;
+    private static final int HEAP_POSITION = 4;
+    private static final int FIELDS = 5;
+
+    private static final long SECONDS_PER_HOUR = 3600;
+    private static final long HOURS_PER_DAY = 24;
+
+    private final MeterService meterService;
+    private final AccountService accountService;
+    private final PricePlanCostCalculator costCalculator;
+    private final int[] configuredPlans;
+    private final int capacity;
+    private final double relativeAccuracy;
+    private final Shard[] shards;
+    // copied whenever a page is added, like MeterService's pages
+    private volatile long[][] pages = new long[0][];
+
+    public FleetAnalyticsService(List<PricePlan> pricePlans, MeterService meterService, AccountService accountService,
+                                 @Value("${analytics.top-consumers.capacity:1000}") int capacity,
+                                 @Value("${analytics.sketch.relative-accuracy:0.01}") double relativeAccuracy) {
+        this.meterService = meterService;
+        this.accountService = accountService;
+        this.costCalculator = new PricePlanCostCalculator(pricePlans);
+        this.configuredPlans = configuredPlanIndexes(pricePlans, accountService.pricePlanIds());
+        this.capacity = capacity;
+        this.relativeAccuracy = relativeAccuracy;
+        this.shards = new Shard[meterService.partitionCount()];
+        for (int partition = 0; partition < shards.length; partition++) {
+            shards[partition] = new Shard();
+        }
+        meterService.addReadingsListener(new MeterService.ReadingsListener() {
+            @Override
+            public void readingsChanged(int partition, int meterId, ReadingSnapshot snapshot) {
+                update(partition, meterId, snapshot);
+            }
+
+            @Override
+            public void readingsRemoved(int partition, int meterId, long version) {
+                remove(partition, meterId, version);
+            }
+        });
+        // meters stored before the listener was added; any stored since are skipped or overtaken by version
+        IdDictionary smartMeterIds = meterService.smartMeterIds();
+        for (int meterId = 0; meterId < smartMeterIds.size(); meterId++) {
+            int partition = meterService.partitionOf(smartMeterIds.name(meterId));
+            int id = meterId;
+            meterService.getSnapshot(meterId).ifPresent(snapshot -> update(partition, id, snapshot));
+        }
+    }
+
+    /**
+     * The most consumers {@link #topConsumers} will list.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * The {@code limit} meters, at most {@link #getCapacity()}, that have consumed the most over all their readings,
+     * biggest first.
+     */
+    public List<MeterConsumption> topConsumers(int limit) {
+        if (limit > capacity) {
+            throw new IllegalArgumentException("Only the top " + capacity + " consumers are tracked");
+        }
+        List<long[]> ranked = new ArrayList<>();
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                if (shard.stale) {
+                    shard.rebuild();
+                }
+                for (int position = 0; position < shard.heapSize; position++) {
+                    int meterId = shard.heap[position];
+                    long[] page = page(meterId);
+                    int base = (meterId & PAGE_MASK) * FIELDS;
+                    ranked.add(new long[]{meterId, page[base + CONSUMPTION], page[base + DAILY_CONSUMPTION]});
+                }
+            }
+        }
+        ranked.sort(Comparator.<long[]>comparingLong(figures -> -figures[1]).thenComparingLong(figures -> figures[0]));
+        List<MeterConsumption> topConsumers = new ArrayList<>(Math.min(limit, ranked.size()));
+        for (long[] figures : ranked.subList(0, Math.min(limit, ranked.size()))) {
+            topConsumers.add(new MeterConsumption(meterService.smartMeterIds().name((int) figures[0]),
+                    FixedPoint.toBigDecimal(figures[1]), FixedPoint.toBigDecimal(figures[2])));
+        }
+        return topConsumers;
+    }
+
+    /**
+     * Daily consumption at each of {@code percentiles}, from 0 to 100, across every meter with readings. A meter
+     * whose average reading is negative counts as consuming nothing.
+     */
+    public ConsumptionDistribution dailyConsumption(double[] percentiles) {
+        return dailyConsumption(percentiles, List.of());
+    }
+
+    /**
+     * As {@link #dailyConsumption(double[])}, over this node's meters and those counted by other nodes'
+     * {@link #dailyConsumptionSketch() sketches}.
+     *
+     * @throws IllegalArgumentException if a sketch was kept at a different accuracy
+     */
+    public ConsumptionDistribution dailyConsumption(double[] percentiles, List<long[]> sketches) {
+        QuantileSketch fleet = new QuantileSketch(relativeAccuracy);
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                fleet.merge(shard.dailyConsumption);
+            }
+        }
+        for (long[] sketch : sketches) {
+            fleet.merge(sketch);
+        }
+        Map<String, BigDecimal> values = new LinkedHashMap<>();
+        if (fleet.count() > 0) {
+            for (double percentile : percentiles) {
+                values.put("p" + BigDecimal.valueOf(percentile).stripTrailingZeros().toPlainString(),
+                        FixedPoint.toBigDecimal(fleet.valueAt(percentile)));
+            }
+        }
+        return new ConsumptionDistribution(fleet.count(), values);
+    }
+
+    /**
+     * The counts behind this node's daily consumption percentiles, for the node answering for the cluster.
+     */
+    public long[] dailyConsumptionSketch() {
+        QuantileSketch node = new QuantileSketch(relativeAccuracy);
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                node.merge(shard.dailyConsumption);
+            }
+        }
+        return node.toCounts();
+    }
+
+    /**
+     * Totals for every price plan some account is on, over the meters of those accounts that have readings.
+     */
+    public List<PricePlanTotals> pricePlanTotals() {
+        IdDictionary pricePlanIds = accountService.pricePlanIds();
+        long[] meters = new long[pricePlanIds.size()];
+        long[] consumption = new long[pricePlanIds.size()];
+        long[] cost = new long[pricePlanIds.size()];
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                for (int plan = 0; plan < meters.length; plan++) {
+                    meters[plan] += shard.planMeters[plan];
+                    consumption[plan] += shard.planConsumption[plan];
+                    cost[plan] += shard.planCost[plan];
+                }
+            }
+        }
+        List<PricePlanTotals> totals = new ArrayList<>(meters.length);
+        for (int plan = 0; plan < meters.length; plan++) {
+            totals.add(new PricePlanTotals(pricePlanIds.name(plan), meters[plan], FixedPoint.toBigDecimal(consumption[plan]),
+                    configuredPlans[plan] == IdDictionary.ABSENT ? null : FixedPoint.toBigDecimal(cost[plan])));
+        }
+        return totals;
+    }
+
+    private void update(int partition, int meterId, ReadingSnapshot snapshot) {
+        ReadingAggregates aggregates = snapshot.aggregates();
+        if (aggregates.isEmpty()) {
+            return;
+        }
+        long averageReading = PricePlanCostCalculator.averageReading(aggregates);
+        long consumption = kWh(averageReading, PricePlanCostCalculator.elapsedSeconds(aggregates));
+        long dailyConsumption = kWh(averageReading, HOURS_PER_DAY * SECONDS_PER_HOUR);
+        int plan = accountService.getPricePlan(meterId);
+        int configuredPlan = plan == IdDictionary.ABSENT ? IdDictionary.ABSENT : configuredPlans[plan];
+        long cost = configuredPlan == IdDictionary.ABSENT
+                ? 0
+                : costCalculator.cost(configuredPlan, snapshot, aggregates, Long.MIN_VALUE, Long.MAX_VALUE);
+        long[] page = page(meterId);
+        Shard shard = shards[partition];
+        synchronized (shard) {
+            int base = (meterId & PAGE_MASK) * FIELDS;
+            if (Math.abs(page[base + VERSION]) > snapshot.version()) {
+                return;
+            }
+            shard.update(meterId, page, base, plan, consumption, dailyConsumption, cost);
+            page[base + VERSION] = snapshot.version() + 1;
+        }
+    }
+
+    private void remove(int partition, int meterId, long version) {
+        long[] page = page(meterId);
+        Shard shard = shards[partition];
+        synchronized (shard) {
+            int base = (meterId & PAGE_MASK) * FIELDS;
+            if (page[base + VERSION] > 0 && page[base + VERSION] <= version + 1) {
+                shard.remove(meterId, page, base, accountService.getPricePlan(meterId));
+                page[base + VERSION] = -(version + 1);
+            }
+        }
+    }
+
+    /**
+     * Energy used at {@code averageReading} micro-kW over {@code seconds}, in micro-kWh rounded half-up; a figure too
+     * big for a {@code long} is capped.
+     */
+    private static long kWh(long averageReading, long seconds) {
+        try {
+            return PricePlanCostCalculator.divideHalfUp(Math.multiplyExact(averageReading, seconds), SECONDS_PER_HOUR);
+        } catch (ArithmeticException overflow) {
+            return averageReading < 0 ? Long.MIN_VALUE : Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * For each plan id in {@code accountPlans}, its index among the configured plans, or {@link IdDictionary#ABSENT}.
+     */
+    private static int[] configuredPlanIndexes(List<PricePlan> pricePlans, IdDictionary accountPlans) {
+        int[] indexes = new int[accountPlans.size()];
+        for (int accountPlan = 0; accountPlan < indexes.length; accountPlan++) {
+            indexes[accountPlan] = IdDictionary.ABSENT;
+            for (int plan = 0; plan < pricePlans.size(); plan++) {
+                if (pricePlans.get(plan).getPlanName().equals(accountPlans.name(accountPlan))) {
+                    indexes[accountPlan] = plan;
+                    break;
+                }
+            }
+        }
+        return indexes;
+    }
+
+    private long[] page(int meterId) {
+        int page = meterId >>> PAGE_BITS;
+        long[][] current = pages;
+        if (page < current.length) {
+            return current[page];
+        }
+        synchronized (this) {
+            current = pages;
+            if (page >= current.length) {
+                long[][] grown = Arrays.copyOf(current, page + 1);
+                for (int i = current.length; i < grown.length; i++) {
+                    grown[i] = new long[PAGE_SIZE * FIELDS];
+                }
+                pages = grown;
+                current = grown;
+            }
+            return current[page];
+        }
+    }
+
+    /**
+     * One partition's share of the figures; guarded by its own monitor, which also guards its meters' entries in the
+     * pages.
+     */
+    private final class Shard {
+
+        private final QuantileSketch dailyConsumption = new QuantileSketch(relativeAccuracy);
+        private final long[] planMeters = new long[configuredPlans.length];
+        private final long[] planConsumption = new long[configuredPlans.length];
+        private final long[] planCost = new long[configuredPlans.length];
+        private int[] members = new int[16];
+        private int memberCount;
+        // min-heap of meter ids by consumption, with the consumption alongside
+        private final int[] heap = new int[capacity];
+        private final long[] heapConsumption = new long[capacity];
+        private int heapSize;
+        // no meter outside the heap has consumed more than this
+        private long outsideBound = Long.MIN_VALUE;
+        private boolean stale;
+
+        void update(int meterId, long[] page, int base, int plan, long consumption, long dailyConsumption, long cost) {
+            if (page[base + VERSION] <= 0) {
+                if (memberCount == members.length) {
+                    members = Arrays.copyOf(members, memberCount * 2);
+                }
+                members[memberCount++] = meterId;
+                if (plan != IdDictionary.ABSENT) {
+                    planMeters[plan]++;
+                }
+            } else {
+                this.dailyConsumption.remove(Math.max(0, page[base + DAILY_CONSUMPTION]));
+                if (plan != IdDictionary.ABSENT) {
+                    planConsumption[plan] -= page[base + CONSUMPTION];
+                    planCost[plan] -= page[base + COST];
+                }
+            }
+            this.dailyConsumption.add(Math.max(0, dailyConsumption));
+            if (plan != IdDictionary.ABSENT) {
+                planConsumption[plan] += consumption;
+                planCost[plan] += cost;
+            }
+            page[base + CONSUMPTION] = consumption;
+            page[base + DAILY_CONSUMPTION] = dailyConsumption;
+            page[base + COST] = cost;
+            rank(meterId, page, base, consumption);
+        }
+
+        void remove(int meterId, long[] page, int base, int plan) {
+            for (int i = 0; i < memberCount; i++) {
+                if (members[i] == meterId) {
+                    members[i] = members[--memberCount];
+                    break;
+                }
+            }
+            this.dailyConsumption.remove(Math.max(0, page[base + DAILY_CONSUMPTION]));
+            if (plan != IdDictionary.ABSENT) {
+                planMeters[plan]--;
+                planConsumption[plan] -= page[base + CONSUMPTION];
+                planCost[plan] -= page[base + COST];
+            }
+            int position = (int) page[base + HEAP_POSITION] - 1;
+            if (position >= 0) {
+                page[base + HEAP_POSITION] = 0;
+                if (position < --heapSize) {
+                    int moved = heap[heapSize];
+                    heap[position] = moved;
+                    heapConsumption[position] = heapConsumption[heapSize];
+                    setPosition(moved, position + 1);
+                    siftUp(position);
+                    siftDown((int) page(moved)[(moved & PAGE_MASK) * FIELDS + HEAP_POSITION] - 1);
+                }
+                // a meter left outside may now belong in the freed place
+                stale |= outsideBound > Long.MIN_VALUE;
+            }
+            page[base + CONSUMPTION] = 0;
+            page[base + DAILY_CONSUMPTION] = 0;
+            page[base + COST] = 0;
+        }
+
+        void rebuild() {
+            for (int position = 0; position < heapSize; position++) {
+                long[] page = page(heap[position]);
+                page[(heap[position] & PAGE_MASK) * FIELDS + HEAP_POSITION] = 0;
+            }
+            heapSize = 0;
+            outsideBound = Long.MIN_VALUE;
+            for (int i = 0; i < memberCount; i++) {
+                long[] page = page(members[i]);
+                int base = (members[i] & PAGE_MASK) * FIELDS;
+                rank(members[i], page, base, page[base + CONSUMPTION]);
+            }
+            stale = false;
+        }
+
+        private void rank(int meterId, long[] page, int base, long consumption) {
+            int position = (int) page[base + HEAP_POSITION] - 1;
+            if (position >= 0) {
+                long previous = heapConsumption[position];
+                heapConsumption[position] = consumption;
+                if (consumption >= previous) {
+                    siftDown(position);
+                } else {
+                    siftUp(position);
+                    stale |= consumption < outsideBound;
+                }
+            } else if (heapSize < capacity) {
+                heap[heapSize] = meterId;
+                heapConsumption[heapSize] = consumption;
+                page[base + HEAP_POSITION] = ++heapSize;
+                siftUp(heapSize - 1);
+            } else if (capacity > 0 && consumption > heapConsumption[0]) {
+                outsideBound = Math.max(outsideBound, heapConsumption[0]);
+                setPosition(heap[0], 0);
+                heap[0] = meterId;
+                heapConsumption[0] = consumption;
+                page[base + HEAP_POSITION] = 1;
+                siftDown(0);
+            } else {
+                outsideBound = Math.max(outsideBound, consumption);
+            }
+        }
+
+        private void siftUp(int position) {
+            while (position > 0) {
+                int parent = (position - 1) / 2;
+                if (heapConsumption[parent] <= heapConsumption[position]) {
+                    return;
+                }
+                swap(position, parent);
+                position = parent;
+            }
+        }
+
+        private void siftDown(int position) {
+            while (true) {
+                int smallest = position;
+                for (int child = 2 * position + 1; child <= 2 * position + 2 && child < heapSize; child++) {
+                    if (heapConsumption[child] < heapConsumption[smallest]) {
+                        smallest = child;
+                    }
+                }
+                if (smallest == position) {
+                    return;
+                }
+                swap(position, smallest);
+                position = smallest;
+            }
+        }
+
+        private void swap(int a, int b) {
+            int meterId = heap[a];
+            long consumption = heapConsumption[a];
+            heap[a] = heap[b];
+            heapConsumption[a] = heapConsumption[b];
+            heap[b] = meterId;
+            heapConsumption[b] = consumption;
+            setPosition(heap[a], a + 1);
+            setPosition(heap[b], b + 1);
+        }
+
+        private void setPosition(int meterId, long position) {
+            page(meterId)[(meterId & PAGE_MASK) * FIELDS + HEAP_POSITION] = position;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package uk.tw.energy.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import uk.tw.energy.domain.MeterRecommendation;
+
+import javax.annotation.PreDestroy;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Recommends the cheapest price plans for every known meter. The fleet is split recursively across a dedicated
+ * {@link ForkJoinPool}, and each result is handed to the caller's thread through a bounded queue as soon as it
+ * is ready, so a slow consumer holds the workers back instead of results piling up in memory.
+ */
+@Service
+public class FleetRecommendationService {
+
+    private static final int METERS_PER_TASK = 256;
+    private static final int QUEUE_CAPACITY = 4096;
+    private static final MeterRecommendation END = new MeterRecommendation(null, null, null);
+
+    private final PricePlanService pricePlanService;
+    private final MeterService meterService;
+    private final AccountService accountService;
+    private final ForkJoinPool pool;
+
+    public FleetRecommendationService(PricePlanService pricePlanService, MeterService meterService, AccountService accountService,
+                                      @Value("${price-plans.recommend-all.parallelism:0}") int parallelism) {
+        this.pricePlanService = pricePlanService;
+        this.meterService = meterService;
+        this.accountService = accountService;
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+    }
+
+    public void recommendAll(Integer limit, Consumer<MeterRecommendation> consumer) {
+        // every meter with readings or an account has an id below this
+        int meters = meterService.smartMeterIds().size();
+
+        Run run = new Run(limit);
+        ForkJoinTask<?> task = pool.submit(() -> {
+            try {
+                new RecommendTask(run, 0, meters).invoke();
+            } finally {
+                run.finish();
+            }
+        });
+        try {
+            MeterRecommendation recommendation;
+            while ((recommendation = run.results.take()) != END) {
+                consumer.accept(recommendation);
+            }
+            task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while recommending price plans", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not recommend price plans", e.getCause());
+        } finally {
+            run.abandoned = true;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    private Optional<MeterRecommendation> recommend(int meterId, Integer limit) {
+        return pricePlanService.calculateAllPricePlanCosts(meterId)
+                .map(costs -> recommendation(meterId, costs, limit));
+    }
+
+    private MeterRecommendation recommendation(int meterId, PricePlanCosts costs, Integer limit) {
+        return new MeterRecommendation(meterService.smartMeterIds().name(meterId), accountService.getPricePlanId(meterId),
+                costs.cheapest(limit));
+    }
+
+    private static class Run {
+
+        private final Integer limit;
+        private final BlockingQueue<MeterRecommendation> results = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private volatile boolean abandoned;
+
+        Run(Integer limit) {
+            this.limit = limit;
+        }
+
+        /**
+         * Waits for room in the queue, giving up once the consumer has gone away.
+         */
+        void publish(MeterRecommendation recommendation) {
+            try {
+                while (!abandoned) {
+                    if (results.offer(recommendation, 100, TimeUnit.MILLISECONDS)) {
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                abandoned = true;
+            }
+        }
+
+        void finish() {
+            publish(END);
+        }
+    }
+
+    private class RecommendTask extends RecursiveAction {
+
+        private final Run run;
+        private final int from;
+        private final int to;
+
+        RecommendTask(Run run, int from, int to) {
+            this.run = run;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > METERS_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new RecommendTask(run, from, middle), new RecommendTask(run, middle, to));
+                return;
+            }
+            for (int i = from; i < to && !run.abandoned; i++) {
+                recommend(i, run.limit).ifPresent(run::publish);
+            }
+        }
+    }
+}
@@ -1,30 +1,426 @@
 package uk.tw.energy.service;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import uk.tw.energy.domain.ElectricityReading;
+import uk.tw.energy.store.FixedPoint;
+import uk.tw.energy.store.IdDictionary;
+import uk.tw.energy.store.ReadingAggregates;
+import uk.tw.energy.store.ReadingCursor;
+import uk.tw.energy.store.ReadingHistory;
+import uk.tw.energy.store.ReadingJournal;
+import uk.tw.energy.store.ReadingSnapshot;
+import uk.tw.energy.store.ReadingStoreFile;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.IntStream;
 
+/**
+ * Holds every meter's {@link ReadingHistory} in pages of an array indexed by the meter's id in the smart meter
+ * {@link IdDictionary}, so that once a request's smart meter id has been looked up nothing else is keyed by string.
+ * Readers go straight to a meter's published snapshot. Writes may come from any thread, but meters are also split
+ * into partitions by a hash of the smart meter id, and {@link ReadingIngestQueue} gives each partition a single writer
+ * thread of its own, so that in async mode a meter's history is only ever written by one thread and its lock is never
+ * contended.
+ */
 @Service
 public class MeterService {
 
-    private final Map<String, List<ElectricityReading>> meterAssociatedReadings;
+    private static final Logger LOGGER = LoggerFactory.getLogger(MeterService.class);
+
+    private static final int PAGE_BITS = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private final IdDictionary smartMeterIds;
+    private final int partitions;
+    // copied whenever a page is added, so a page seen through this field is always fully set up
+    private volatile AtomicReferenceArray<ReadingHistory>[] pages = newPages(0);
+    private final ReadingJournal readingJournal;
+    private final List<ReadingsListener> readingsListeners = new CopyOnWriteArrayList<>();
+    private final Counter readingsIngested;
+    private final DistributionSummary historyLength;
 
     public MeterService(Map<String, List<ElectricityReading>> meterAssociatedReadings) {
-        this.meterAssociatedReadings = meterAssociatedReadings;
+        this(meterAssociatedReadings, new IdDictionary());
+    }
+
+    public MeterService(Map<String, List<ElectricityReading>> meterAssociatedReadings, IdDictionary smartMeterIds) {
+        this(meterAssociatedReadings, smartMeterIds, ReadingJournal.NONE, new SimpleMeterRegistry(), 0, "");
+    }
+
+    public MeterService(Map<String, List<ElectricityReading>> meterAssociatedReadings, ReadingJournal readingJournal,
+                        MeterRegistry meterRegistry, int partitions) {
+        this(meterAssociatedReadings, new IdDictionary(), readingJournal, meterRegistry, partitions, "");
+    }
+
+    /**
+     * @param smartMeterIds     assigns each meter the id its history is kept under
+     * @param partitions        how many ways to split the meters, or 0 for one partition per available core
+     * @param snapshotDirectory where a snapshot written by {@link #writeSnapshot} is loaded from before the seed
+     *                          readings and the journal are applied, or empty for none
+     */
+    @Autowired
+    public MeterService(Map<String, List<ElectricityReading>> meterAssociatedReadings, IdDictionary smartMeterIds,
+                        ReadingJournal readingJournal, MeterRegistry meterRegistry,
+                        @Value("${readings.partitions:0}") int partitions,
+                        @Value("${snapshot.directory:}") String snapshotDirectory) {
+        this.smartMeterIds = smartMeterIds;
+        this.partitions = partitions > 0 ? partitions : Runtime.getRuntime().availableProcessors();
+        this.readingJournal = readingJournal;
+        this.readingsIngested = Counter.builder("readings.ingested")
+                .description("Readings accepted by the store endpoints")
+                .baseUnit("readings")
+                .register(meterRegistry);
+        this.historyLength = DistributionSummary.builder("readings.history.length")
+                .description("Readings held for a meter, sampled after each ingestion")
+                .baseUnit("readings")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        Gauge.builder("readings.store.meters", this, MeterService::meterCount)
+                .description("Meters with a reading history")
+                .register(meterRegistry);
+        Gauge.builder("readings.store.size", this, MeterService::estimatedBytes)
+                .description("Estimated heap held by reading histories")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        if (!snapshotDirectory.isEmpty() && Files.isDirectory(Paths.get(snapshotDirectory))) {
+            loadSnapshot(Paths.get(snapshotDirectory));
+        }
+        meterAssociatedReadings.forEach((smartMeterId, electricityReadings) ->
+                restoreReadings(smartMeterId, toEpochSeconds(electricityReadings), toFixedPoint(electricityReadings), electricityReadings.size()));
+        replayJournal();
     }
 
     public Optional<List<ElectricityReading>> getReadings(String smartMeterId) {
-        return Optional.ofNullable(meterAssociatedReadings.get(smartMeterId));
+        return getSnapshot(smartMeterId).map(ReadingSnapshot::asList);
+    }
+
+    public Optional<List<ElectricityReading>> getReadings(String smartMeterId, long fromEpochSecond, long toEpochSecond) {
+        return getSnapshot(smartMeterId).map(snapshot -> snapshot.range(fromEpochSecond, toEpochSecond));
+    }
+
+    public Optional<ReadingAggregates> getAggregates(String smartMeterId) {
+        return getSnapshot(smartMeterId)
+                .map(ReadingSnapshot::aggregates)
+                .filter(aggregates -> !aggregates.isEmpty());
+    }
+
+    public Set<String> getSmartMeterIds() {
+        Set<String> ids = new HashSet<>();
+        for (int meterId = 0; meterId < smartMeterIds.size(); meterId++) {
+            if (history(meterId) != null) {
+                ids.add(smartMeterIds.name(meterId));
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * The dictionary the meters' ids come from, shared with the other services.
+     */
+    public IdDictionary smartMeterIds() {
+        return smartMeterIds;
+    }
+
+    /**
+     * Tells {@code listener} about every meter whose readings change from now on, stored or restored.
+     */
+    public void addReadingsListener(ReadingsListener listener) {
+        readingsListeners.add(listener);
+    }
+
+    public int partitionCount() {
+        return partitions;
+    }
+
+    /**
+     * The partition holding the meter's readings, in {@code [0, partitionCount())}.
+     */
+    public int partitionOf(String smartMeterId) {
+        int hash = smartMeterId.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), partitions);
     }
 
     public void storeReadings(String smartMeterId, List<ElectricityReading> electricityReadings) {
-        if (!meterAssociatedReadings.containsKey(smartMeterId)) {
-            meterAssociatedReadings.put(smartMeterId, new ArrayList<>());
+        storeReadings(smartMeterId, toEpochSeconds(electricityReadings), toFixedPoint(electricityReadings), electricityReadings.size());
+    }
+
+    public void storeReadings(String smartMeterId, long[] epochSeconds, long[] readings, int count) {
+        readingJournal.append(smartMeterId, epochSeconds, readings, count);
+        ReadingHistory history = append(smartMeterId, epochSeconds, readings, count);
+        readingsIngested.increment(count);
+        historyLength.record(history.snapshot().size());
+    }
+
+    /**
+     * Applies readings to the in-memory store without logging them, for seed data and journal replay.
+     */
+    public void restoreReadings(String smartMeterId, long[] epochSeconds, long[] readings, int count) {
+        append(smartMeterId, epochSeconds, readings, count);
+    }
+
+    /**
+     * Ages every meter's history down its rollup tiers; see {@link ReadingHistory#compact}.
+     */
+    public void compact(long rawBefore, long minutesBefore, long hoursBefore) {
+        for (int meterId = 0; meterId < smartMeterIds.size(); meterId++) {
+            ReadingHistory history = history(meterId);
+            if (history != null) {
+                history.compact(rawBefore, minutesBefore, hoursBefore);
+            }
         }
-        meterAssociatedReadings.get(smartMeterId).addAll(electricityReadings);
+    }
+
+    /**
+     * Estimated heap held by every meter's readings; walks all meters, so meant for scrapes rather than requests.
+     */
+    public long estimatedBytes() {
+        long bytes = 0;
+        for (int meterId = 0; meterId < smartMeterIds.size(); meterId++) {
+            ReadingHistory history = history(meterId);
+            if (history != null) {
+                bytes += history.snapshot().estimatedBytes();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes every meter's history into {@code directory} as {@link ReadingStoreFile}s, splitting the meter ids into
+     * one range per partition and writing the ranges in parallel. Readings stored meanwhile may or may not make it
+     * into the snapshot.
+     */
+    public void writeSnapshot(Path directory) throws IOException {
+        int meters = smartMeterIds.size();
+        try {
+            IntStream.range(0, partitions).parallel().forEach(partition -> {
+                int from = (int) ((long) meters * partition / partitions);
+                int to = (int) ((long) meters * (partition + 1) / partitions);
+                try {
+                    ReadingStoreFile.write(directory, "partition-" + partition, to - from,
+                            index -> smartMeterIds.name(from + index), index -> history(from + index));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Maps every {@link ReadingStoreFile} in {@code directory} in parallel, replacing the histories of the meters
+     * they hold. The snapshot may have been written with any number of partitions.
+     */
+    public void loadSnapshot(Path directory) {
+        long started = System.nanoTime();
+        try {
+            long readings = ReadingStoreFile.files(directory).parallelStream()
+                    .mapToLong(file -> {
+                        try {
+                            return ReadingStoreFile.read(file, (smartMeterId, history) -> {
+                                int meterId = smartMeterIds.intern(smartMeterId);
+                                page(meterId).set(meterId & PAGE_MASK, history);
+                            });
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    })
+                    .sum();
+            double seconds = (System.nanoTime() - started) / 1e9;
+            LOGGER.info("Loaded {} readings for {} meters from the snapshot in {} s ({} readings/s)",
+                    readings, meterCount(), String.format("%.3f", seconds), Math.round(readings / seconds));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not load the reading snapshot", e);
+        } catch (UncheckedIOException e) {
+            throw new UncheckedIOException("Could not load the reading snapshot", e.getCause());
+        }
+    }
+
+    private int meterCount() {
+        int meters = 0;
+        for (int meterId = 0; meterId < smartMeterIds.size(); meterId++) {
+            if (history(meterId) != null) {
+                meters++;
+            }
+        }
+        return meters;
+    }
+
+    private ReadingHistory append(String smartMeterId, long[] epochSeconds, long[] readings, int count) {
+        int meterId = smartMeterIds.intern(smartMeterId);
+        AtomicReferenceArray<ReadingHistory> page = page(meterId);
+        ReadingHistory history = page.get(meterId & PAGE_MASK);
+        while (true) {
+            if (history == null) {
+                page.compareAndSet(meterId & PAGE_MASK, null, new ReadingHistory());
+                history = page.get(meterId & PAGE_MASK);
+            }
+            history.appendAll(epochSeconds, readings, count);
+            ReadingHistory current = page.get(meterId & PAGE_MASK);
+            if (current == history) {
+                break;
+            }
+            // adopted or handed off while the readings went in; they belong with whatever holds the meter now
+            history = current;
+        }
+        notifyChanged(smartMeterId, meterId, history);
+        return history;
+    }
+
+    /**
+     * Takes over a meter's history from another node. Any raw readings already held here, stored since the meter
+     * moved, are added to it; readings stored meanwhile are appended again by {@link #append}, which sees the swap.
+     */
+    public void adoptHistory(String smartMeterId, ReadingHistory history) {
+        int meterId = smartMeterIds.intern(smartMeterId);
+        ReadingHistory previous = page(meterId).getAndSet(meterId & PAGE_MASK, history);
+        if (previous != null) {
+            ReadingSnapshot held = previous.snapshot();
+            long[] epochSeconds = new long[held.size()];
+            long[] readings = new long[held.size()];
+            ReadingCursor cursor = held.cursor(0);
+            for (int i = 0; i < held.size(); i++) {
+                cursor.next();
+                epochSeconds[i] = cursor.epochSecond();
+                readings[i] = cursor.reading();
+            }
+            history.appendAll(epochSeconds, readings, held.size());
+        }
+        notifyChanged(smartMeterId, meterId, history);
+    }
+
+    /**
+     * Drops a meter's history once another node has taken it over, unless readings have been stored since the
+     * snapshot at {@code version} was handed over.
+     *
+     * @return whether the history was dropped
+     */
+    public boolean removeHistory(int meterId, long version) {
+        ReadingHistory history = history(meterId);
+        if (history == null) {
+            return false;
+        }
+        // under the history's own lock, so no append can land between the version check and the swap; one that comes
+        // after it finds the meter gone and is appended again by append
+        synchronized (history) {
+            if (history.snapshot().version() != version
+                    || !page(meterId).compareAndSet(meterId & PAGE_MASK, history, null)) {
+                return false;
+            }
+        }
+        int partition = partitionOf(smartMeterIds.name(meterId));
+        for (ReadingsListener listener : readingsListeners) {
+            listener.readingsRemoved(partition, meterId, version);
+        }
+        return true;
+    }
+
+    private void notifyChanged(String smartMeterId, int meterId, ReadingHistory history) {
+        if (!readingsListeners.isEmpty()) {
+            ReadingSnapshot snapshot = history.snapshot();
+            int partition = partitionOf(smartMeterId);
+            for (ReadingsListener listener : readingsListeners) {
+                listener.readingsChanged(partition, meterId, snapshot);
+            }
+        }
+    }
+
+    private ReadingHistory history(int meterId) {
+        AtomicReferenceArray<ReadingHistory>[] current = pages;
+        int page = meterId >>> PAGE_BITS;
+        return page < current.length ? current[page].get(meterId & PAGE_MASK) : null;
+    }
+
+    private AtomicReferenceArray<ReadingHistory> page(int meterId) {
+        int page = meterId >>> PAGE_BITS;
+        AtomicReferenceArray<ReadingHistory>[] current = pages;
+        if (page < current.length) {
+            return current[page];
+        }
+        synchronized (this) {
+            current = pages;
+            if (page >= current.length) {
+                AtomicReferenceArray<ReadingHistory>[] grown = newPages(Math.max(page + 1, current.length * 2));
+                System.arraycopy(current, 0, grown, 0, current.length);
+                for (int i = current.length; i < grown.length; i++) {
+                    grown[i] = new AtomicReferenceArray<>(PAGE_SIZE);
+                }
+                pages = grown;
+                current = grown;
+            }
+            return current[page];
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static AtomicReferenceArray<ReadingHistory>[] newPages(int count) {
+        return (AtomicReferenceArray<ReadingHistory>[]) new AtomicReferenceArray[count];
+    }
+
+    private void replayJournal() {
+        long started = System.nanoTime();
+        try {
+            long readings = readingJournal.replay(this::restoreReadings);
+            if (readings > 0) {
+                double seconds = (System.nanoTime() - started) / 1e9;
+                LOGGER.info("Recovered {} readings for {} meters from the journal in {} s ({} readings/s)",
+                        readings, meterCount(), String.format("%.3f", seconds), Math.round(readings / seconds));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not replay the reading journal", e);
+        }
+    }
+
+    public Optional<ReadingSnapshot> getSnapshot(String smartMeterId) {
+        int meterId = smartMeterIds.find(smartMeterId);
+        return meterId == IdDictionary.ABSENT ? Optional.empty() : getSnapshot(meterId);
+    }
+
+    public Optional<ReadingSnapshot> getSnapshot(int meterId) {
+        return Optional.ofNullable(history(meterId)).map(ReadingHistory::snapshot);
+    }
+
+    /**
+     * Called on the thread that stored the readings, which in async mode is always the partition's writer; a history
+     * adopted or removed in a cluster rebalance is reported on the rebalancing thread.
+     */
+    @FunctionalInterface
+    public interface ReadingsListener {
+        void readingsChanged(int partition, int meterId, ReadingSnapshot snapshot);
+
+        /**
+         * The meter's history, last at {@code version}, has been handed to another node.
+         */
+        default void readingsRemoved(int partition, int meterId, long version) {
+        }
+    }
+
+    static long[] toEpochSeconds(List<ElectricityReading> electricityReadings) {
+        return electricityReadings.stream().mapToLong(reading -> reading.getTime().getEpochSecond()).toArray();
+    }
+
+    static long[] toFixedPoint(List<ElectricityReading> electricityReadings) {
+        return electricityReadings.stream().mapToLong(reading -> FixedPoint.toFixed(reading.getReadingInKW())).toArray();
     }
 }
@@ -0,0 +1,146 @@
+package uk.tw.energy.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import uk.tw.energy.domain.CacheStats;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of price plan costs per meter, held in pages of an array indexed by the meter's id in the smart meter
+ * dictionary, like {@link MeterService} holds histories. Each entry remembers the version of the reading snapshot it
+ * was calculated from and only counts as a hit while the meter is still at that version, so a result is never served
+ * once new readings have been stored.
+ * <p>
+ * Lookups and stores take no lock: a hit reads one slot and marks its entry as recently used. Once the cache holds
+ * more than its maximum, the store that tipped it over sweeps a clock hand over the slots, giving each recently used
+ * entry a second chance and evicting the first one that has not been used since the last sweep, so eviction
+ * approximates least-recently-used. One thread sweeps at a time; stores arriving meanwhile leave the eviction to it.
+ */
+@Component
+public class PricePlanCostCache {
+
+    private static final int PAGE_BITS = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private final int maxEntries;
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private volatile AtomicReferenceArray<Entry>[] pages = newPages(0);
+    private int clockHand;
+
+    public PricePlanCostCache(@Value("${price-plans.cache.max-entries:100000}") int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    PricePlanCosts get(int meterId, long version) {
+        AtomicReferenceArray<Entry>[] current = pages;
+        int page = meterId >>> PAGE_BITS;
+        Entry entry = page < current.length ? current[page].get(meterId & PAGE_MASK) : null;
+        if (entry == null || entry.version != version) {
+            misses.increment();
+            return null;
+        }
+        entry.referenced = true;
+        hits.increment();
+        return entry.costs;
+    }
+
+    void put(int meterId, long version, PricePlanCosts costs) {
+        if (maxEntries <= 0) {
+            return;
+        }
+        AtomicReferenceArray<Entry> page = page(meterId);
+        Entry entry = new Entry(version, costs);
+        while (true) {
+            Entry current = page.get(meterId & PAGE_MASK);
+            if (current != null && current.version >= version) {
+                return;
+            }
+            if (page.compareAndSet(meterId & PAGE_MASK, current, entry)) {
+                if (current == null && size.incrementAndGet() > maxEntries) {
+                    evict();
+                }
+                return;
+            }
+        }
+    }
+
+    public CacheStats getStats() {
+        return new CacheStats(hits.sum(), misses.sum(), evictions.sum(), size.get());
+    }
+
+    private void evict() {
+        if (!sweeping.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            while (size.get() > maxEntries) {
+                AtomicReferenceArray<Entry>[] current = pages;
+                int slots = current.length * PAGE_SIZE;
+                int meterId = clockHand;
+                clockHand = meterId + 1 < slots ? meterId + 1 : 0;
+                AtomicReferenceArray<Entry> page = current[meterId >>> PAGE_BITS];
+                Entry entry = page.get(meterId & PAGE_MASK);
+                if (entry == null) {
+                    continue;
+                }
+                if (entry.referenced) {
+                    entry.referenced = false;
+                } else if (page.compareAndSet(meterId & PAGE_MASK, entry, null)) {
+                    size.decrementAndGet();
+                    evictions.increment();
+                }
+            }
+        } finally {
+            sweeping.set(false);
+        }
+    }
+
+    private AtomicReferenceArray<Entry> page(int meterId) {
+        int page = meterId >>> PAGE_BITS;
+        AtomicReferenceArray<Entry>[] current = pages;
+        if (page < current.length) {
+            return current[page];
+        }
+        synchronized (this) {
+            current = pages;
+            if (page >= current.length) {
+                AtomicReferenceArray<Entry>[] grown = newPages(Math.max(page + 1, current.length * 2));
+                System.arraycopy(current, 0, grown, 0, current.length);
+                for (int i = current.length; i < grown.length; i++) {
+                    grown[i] = new AtomicReferenceArray<>(PAGE_SIZE);
+                }
+                pages = grown;
+                current = grown;
+            }
+            return current[page];
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static AtomicReferenceArray<Entry>[] newPages(int count) {
+        return (AtomicReferenceArray<Entry>[]) new AtomicReferenceArray[count];
+    }
+
+    private static class Entry {
+
+        private final long version;
+        private final PricePlanCosts costs;
+        // set by hits and cleared by the sweep without synchronisation: a lost update only gives an entry one chance
+        // more or less
+        private boolean referenced;
+
+        Entry(long version, PricePlanCosts costs) {
+            this.version = version;
+            this.costs = costs;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package uk.tw.energy.service;
+
+import uk.tw.energy.domain.PricePlan;
+import uk.tw.energy.domain.PricePlanType;
+import uk.tw.energy.store.FixedPoint;
+import uk.tw.energy.store.ReadingAggregates;
+import uk.tw.energy.store.ReadingSnapshot;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.List;
+
+/**
+ * Costs price plans with scaled {@code long} arithmetic. The average reading is rounded half-up to the readings' own
+ * scale, as the {@link BigDecimal} average always was, and the cost, {@code average * hours * unit price * multiplier},
+ * is worked out exactly and rounded half-up to {@link FixedPoint#SCALE} places. Each plan's unit price is kept as an unscaled
+ * {@code long} with its own decimal scale, so typical tariffs cost a handful of multiplications; a product that would
+ * overflow is redone in {@link BigDecimal} and still gives the same result. These are the costs fleet analytics add
+ * up and simulations compare.
+ * <p>
+ * The costs compare-all and recommend answer with are {@link #reportedCost}s instead: the figures the service has
+ * always reported, whose hours go through a {@code double} and which are never rounded, so they keep digits that the
+ * {@code long} cost has rounded away.
+ * <p>
+ * A time-of-use plan charges each band's share of the readings at that band's rate, i.e. the sum over bands of
+ * {@code band readings / all readings * average * hours * band rate * multiplier}, again rounded once. Its band
+ * rates share one scale so that the weighted sum stays in {@code long}s. Time-of-use plans report this rounded cost.
+ */
+final class PricePlanCostCalculator {
+
+    private static final long SECONDS_PER_HOUR = 3600;
+
+    private final BigDecimal[] prices;
+    private final BigDecimal[] reportedUnitPrices;
+    private final long[] unscaledPrices;
+    private final long[] divisors;
+    private final int[] multiplierNumerators;
+    private final int[] multiplierDenominators;
+    private final TimeOfUseSchedule[] schedules;
+    private final long[][] unscaledBandRates;
+
+    PricePlanCostCalculator(List<PricePlan> pricePlans) {
+        int size = pricePlans.size();
+        prices = new BigDecimal[size];
+        reportedUnitPrices = new BigDecimal[size];
+        unscaledPrices = new long[size];
+        divisors = new long[size];
+        multiplierNumerators = new int[size];
+        multiplierDenominators = new int[size];
+        schedules = new TimeOfUseSchedule[size];
+        unscaledBandRates = new long[size][];
+        for (int i = 0; i < size; i++) {
+            PricePlan pricePlan = pricePlans.get(i);
+            BigDecimal price = pricePlan.getUnitPricePerKWh().stripTrailingZeros();
+            if (price.scale() < 0) {
+                price = price.setScale(0);
+            }
+            prices[i] = price;
+            reportedUnitPrices[i] = pricePlan.getUnitPricePerKWh().multiply(getMultiplier(pricePlan.getPricePlanType()));
+            multiplierNumerators[i] = getMultiplierNumerator(pricePlan.getPricePlanType());
+            multiplierDenominators[i] = getMultiplierDenominator(pricePlan.getPricePlanType());
+            unscaledPrices[i] = unscaled(price);
+            divisors[i] = divisor(price.scale(), multiplierDenominators[i]);
+            if (pricePlan.isTimeOfUse()) {
+                schedules[i] = new TimeOfUseSchedule(pricePlan);
+                int scale = 0;
+                for (BigDecimal bandRate : schedules[i].getBandRates()) {
+                    scale = Math.max(scale, bandRate.stripTrailingZeros().scale());
+                }
+                unscaledBandRates[i] = unscaledBandRates(schedules[i].getBandRates(), scale);
+                divisors[i] = divisor(scale, multiplierDenominators[i]);
+            }
+        }
+    }
+
+    /**
+     * Average reading in micro-kW, rounded half-up to {@link ReadingAggregates#getScale} places.
+     */
+    static long averageReading(ReadingAggregates aggregates) {
+        long unit = FixedPoint.unit(aggregates.getScale());
+        return divideHalfUp(aggregates.getSum(), aggregates.getCount() * unit) * unit;
+    }
+
+    static long elapsedSeconds(ReadingAggregates aggregates) {
+        return aggregates.getLastEpochSecond() - aggregates.getFirstEpochSecond();
+    }
+
+    /**
+     * The elapsed time in hours as the reported costs have always had it, through a {@code double}.
+     */
+    static BigDecimal hours(long elapsedSeconds) {
+        return BigDecimal.valueOf(elapsedSeconds / 3600.0);
+    }
+
+    boolean isTimeOfUse(int planIndex) {
+        return schedules[planIndex] != null;
+    }
+
+    /**
+     * Cost of the flat rate plan at {@code planIndex} exactly as compare-all and recommend have always reported it:
+     * {@code average * hours * (unit price * multiplier)} with nothing rounded, so its scale follows the average's,
+     * which is the readings' {@code scale}, the price's and the hours'.
+     */
+    BigDecimal reportedCost(int planIndex, long averageReading, int scale, BigDecimal hours) {
+        return BigDecimal.valueOf(averageReading / FixedPoint.unit(scale), scale)
+                .multiply(hours)
+                .multiply(reportedUnitPrices[planIndex]);
+    }
+
+    /**
+     * Cost of the plan at {@code planIndex} for the readings in {@code snapshot} taken at or after
+     * {@code fromEpochSecond} and strictly before {@code toEpochSecond}, whose totals are {@code aggregates} and
+     * must not be empty.
+     */
+    long cost(int planIndex, ReadingSnapshot snapshot, ReadingAggregates aggregates, long fromEpochSecond, long toEpochSecond) {
+        if (schedules[planIndex] == null) {
+            return cost(planIndex, averageReading(aggregates), elapsedSeconds(aggregates));
+        }
+        TimeOfUseSchedule schedule = schedules[planIndex];
+        long[] bandSums = new long[schedule.bandCount()];
+        schedule.sumByBand(snapshot, fromEpochSecond, toEpochSecond, bandSums);
+        return timeOfUseCost(planIndex, bandSums, aggregates.getCount(), elapsedSeconds(aggregates));
+    }
+
+    /**
+     * Cost of the plan at {@code planIndex}, in millionths of the price's currency unit.
+     */
+    long cost(int planIndex, long averageReading, long elapsedSeconds) {
+        long unscaledPrice = unscaledPrices[planIndex];
+        long divisor = divisors[planIndex];
+        if (unscaledPrice != Long.MIN_VALUE && divisor != 0) {
+            try {
+                long numerator = Math.multiplyExact(Math.multiplyExact(Math.multiplyExact(
+                        averageReading, elapsedSeconds), unscaledPrice), multiplierNumerators[planIndex]);
+                return divideHalfUp(numerator, divisor);
+            } catch (ArithmeticException overflow) {
+                // fall through to the exact path
+            }
+        }
+        return exactCost(planIndex, averageReading, elapsedSeconds);
+    }
+
+    private long timeOfUseCost(int planIndex, long[] bandSums, long count, long elapsedSeconds) {
+        long[] bandRates = unscaledBandRates[planIndex];
+        long divisor = divisors[planIndex];
+        if (bandRates != null && divisor != 0) {
+            try {
+                long weightedSum = 0;
+                for (int band = 0; band < bandSums.length; band++) {
+                    weightedSum = Math.addExact(weightedSum, Math.multiplyExact(bandSums[band], bandRates[band]));
+                }
+                long numerator = Math.multiplyExact(Math.multiplyExact(
+                        weightedSum, elapsedSeconds), multiplierNumerators[planIndex]);
+                return divideHalfUp(numerator, Math.multiplyExact(divisor, count));
+            } catch (ArithmeticException overflow) {
+                // fall through to the exact path
+            }
+        }
+        return exactTimeOfUseCost(planIndex, bandSums, count, elapsedSeconds);
+    }
+
+    private long exactTimeOfUseCost(int planIndex, long[] bandSums, long count, long elapsedSeconds) {
+        BigDecimal[] bandRates = schedules[planIndex].getBandRates();
+        BigDecimal weightedSum = BigDecimal.ZERO;
+        for (int band = 0; band < bandSums.length; band++) {
+            weightedSum = weightedSum.add(BigDecimal.valueOf(bandSums[band], FixedPoint.SCALE).multiply(bandRates[band]));
+        }
+        return weightedSum
+                .multiply(BigDecimal.valueOf(elapsedSeconds))
+                .multiply(BigDecimal.valueOf(multiplierNumerators[planIndex]))
+                .divide(BigDecimal.valueOf(count * SECONDS_PER_HOUR * multiplierDenominators[planIndex]),
+                        FixedPoint.SCALE, RoundingMode.HALF_UP)
+                .unscaledValue()
+                .longValueExact();
+    }
+
+    private long exactCost(int planIndex, long averageReading, long elapsedSeconds) {
+        return BigDecimal.valueOf(averageReading, FixedPoint.SCALE)
+                .multiply(BigDecimal.valueOf(elapsedSeconds))
+                .multiply(prices[planIndex])
+                .multiply(BigDecimal.valueOf(multiplierNumerators[planIndex]))
+                .divide(BigDecimal.valueOf(SECONDS_PER_HOUR * multiplierDenominators[planIndex]),
+                        FixedPoint.SCALE, RoundingMode.HALF_UP)
+                .unscaledValue()
+                .longValueExact();
+    }
+
+    /**
+     * {@code dividend / divisor} rounded half away from zero, as {@link RoundingMode#HALF_UP}; the divisor must be
+     * positive.
+     */
+    static long divideHalfUp(long dividend, long divisor) {
+        long quotient = dividend / divisor;
+        long remainder = Math.abs(dividend % divisor);
+        if (remainder >= divisor - remainder) {
+            quotient += dividend < 0 ? -1 : 1;
+        }
+        return quotient;
+    }
+
+    private static long unscaled(BigDecimal price) {
+        BigInteger unscaled = price.unscaledValue();
+        return unscaled.bitLength() < Long.SIZE ? unscaled.longValue() : Long.MIN_VALUE;
+    }
+
+    /**
+     * Band rates as unscaled {@code long}s at a common {@code scale}, or {@code null} when one does not fit.
+     */
+    private static long[] unscaledBandRates(BigDecimal[] bandRates, int scale) {
+        long[] unscaled = new long[bandRates.length];
+        for (int band = 0; band < bandRates.length; band++) {
+            BigInteger value = bandRates[band].setScale(scale).unscaledValue();
+            if (value.bitLength() >= Long.SIZE) {
+                return null;
+            }
+            unscaled[band] = value.longValue();
+        }
+        return unscaled;
+    }
+
+    /**
+     * {@code 3600 * multiplier denominator * 10^scale}, or 0 when that does not fit a {@code long}.
+     */
+    private static long divisor(int priceScale, int multiplierDenominator) {
+        long divisor = SECONDS_PER_HOUR * multiplierDenominator;
+        try {
+            for (int i = 0; i < priceScale; i++) {
+                divisor = Math.multiplyExact(divisor, 10);
+            }
+            return divisor;
+        } catch (ArithmeticException overflow) {
+            return 0;
+        }
+    }
+
+    private static BigDecimal getMultiplier(PricePlanType pricePlanType) {
+        switch (pricePlanType) {
+            case ECO_PRICE_PLAN: return BigDecimal.valueOf(0.5);
+            case PREMIUM_PRICE_PLAN: return BigDecimal.valueOf(2);
+            default: return BigDecimal.ONE;
+        }
+    }
+
+    private static int getMultiplierNumerator(PricePlanType pricePlanType) {
+        return pricePlanType == PricePlanType.PREMIUM_PRICE_PLAN ? 2 : 1;
+    }
+
+    private static int getMultiplierDenominator(PricePlanType pricePlanType) {
+        return pricePlanType == PricePlanType.ECO_PRICE_PLAN ? 2 : 1;
+    }
+}
@@ -0,0 +1,153 @@
+package uk.tw.energy.service;
+
+import uk.tw.energy.store.FixedPoint;
+
+import java.math.BigDecimal;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * One meter's cost for every price plan, kept as fixed point {@code long}s indexed by the plan's position in the
+ * price plan list. It reads as an unmodifiable map from plan id to cost so that controllers can hand it straight to
+ * the response. The first read turns the costs into the {@link BigDecimal}s compare-all and recommend report, flat
+ * rate plans through {@link PricePlanCostCalculator#reportedCost}, and keeps them for later reads of the same
+ * (usually cached) costs.
+ */
+final class PricePlanCosts extends AbstractMap<String, BigDecimal> {
+
+    private final String[] pricePlanIds;
+    private final long[] costs;
+    private final PricePlanCostCalculator calculator;
+    private final long averageReading;
+    private final int scale;
+    private final long elapsedSeconds;
+    private volatile BigDecimal[] reportedCosts;
+
+    /**
+     * Costs that report as their fixed point values.
+     */
+    PricePlanCosts(String[] pricePlanIds, long[] costs) {
+        this(pricePlanIds, costs, null, 0, 0, 0);
+    }
+
+    PricePlanCosts(String[] pricePlanIds, long[] costs, PricePlanCostCalculator calculator, long averageReading,
+                   int scale, long elapsedSeconds) {
+        this.pricePlanIds = pricePlanIds;
+        this.costs = costs;
+        this.calculator = calculator;
+        this.averageReading = averageReading;
+        this.scale = scale;
+        this.elapsedSeconds = elapsedSeconds;
+    }
+
+    /**
+     * Fixed point cost of the plan at {@code pricePlan} in the price plan list.
+     */
+    long cost(int pricePlan) {
+        return costs[pricePlan];
+    }
+
+    /**
+     * The {@code limit} cheapest plans, or all of them if {@code limit} is {@code null}, cheapest first.
+     */
+    List<Map.Entry<String, BigDecimal>> cheapest(Integer limit) {
+        int size = limit != null && limit < costs.length ? limit : costs.length;
+        BigDecimal[] reported = reportedCosts();
+        // an insertion sort of plan indexes: plans are few, and ties keep their order in the price plan list
+        int[] byCost = new int[costs.length];
+        for (int pricePlan = 0; pricePlan < costs.length; pricePlan++) {
+            int i = pricePlan;
+            for (; i > 0 && reported[byCost[i - 1]].compareTo(reported[pricePlan]) > 0; i--) {
+                byCost[i] = byCost[i - 1];
+            }
+            byCost[i] = pricePlan;
+        }
+        List<Map.Entry<String, BigDecimal>> cheapest = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            cheapest.add(entry(byCost[i]));
+        }
+        return cheapest;
+    }
+
+    @Override
+    public int size() {
+        return costs.length;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public BigDecimal get(Object key) {
+        int pricePlan = indexOf(key);
+        return pricePlan < 0 ? null : reportedCosts()[pricePlan];
+    }
+
+    @Override
+    public Set<Map.Entry<String, BigDecimal>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Map.Entry<String, BigDecimal>> iterator() {
+                return new Iterator<>() {
+                    private int next;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < costs.length;
+                    }
+
+                    @Override
+                    public Map.Entry<String, BigDecimal> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        return entry(next++);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return costs.length;
+            }
+        };
+    }
+
+    private Map.Entry<String, BigDecimal> entry(int pricePlan) {
+        return new AbstractMap.SimpleImmutableEntry<>(pricePlanIds[pricePlan], reportedCosts()[pricePlan]);
+    }
+
+    /**
+     * Worked out at most a few times over if several threads read the costs at once, always to the same values.
+     */
+    private BigDecimal[] reportedCosts() {
+        BigDecimal[] reported = reportedCosts;
+        if (reported == null) {
+            reported = new BigDecimal[costs.length];
+            BigDecimal hours = calculator == null ? null : PricePlanCostCalculator.hours(elapsedSeconds);
+            for (int pricePlan = 0; pricePlan < costs.length; pricePlan++) {
+                reported[pricePlan] = calculator == null || calculator.isTimeOfUse(pricePlan)
+                        ? FixedPoint.toBigDecimal(costs[pricePlan])
+                        : calculator.reportedCost(pricePlan, averageReading, scale, hours);
+            }
+            reportedCosts = reported;
+        }
+        return reported;
+    }
+
+    /**
+     * Plans are few, so a scan beats hashing the key.
+     */
+    private int indexOf(Object key) {
+        return Arrays.asList(pricePlanIds).indexOf(key);
+    }
+}
@@ -1,83 +1,139 @@
 package uk.tw.energy.service;
 
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
-import uk.tw.energy.domain.ElectricityReading;
+import uk.tw.energy.domain.CacheStats;
 import uk.tw.energy.domain.PricePlan;
-import uk.tw.energy.domain.PricePlanType;
+import uk.tw.energy.store.IdDictionary;
+import uk.tw.energy.store.ReadingAggregates;
+import uk.tw.energy.store.ReadingSnapshot;
 
 import java.math.BigDecimal;
-import java.math.RoundingMode;
-import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
 @Service
 public class PricePlanService {
 
-    private final List<PricePlan> pricePlans;
+    private final String[] pricePlanIds;
     private final MeterService meterService;
+    private final PricePlanCostCache pricePlanCostCache;
+    private final PricePlanCostCalculator costCalculator;
+    private final Timer costCalculationTimer;
 
     public PricePlanService(List<PricePlan> pricePlans, MeterService meterService) {
-        this.pricePlans = pricePlans;
+        this(pricePlans, meterService, new PricePlanCostCache(0), new SimpleMeterRegistry());
+    }
+
+    @Autowired
+    public PricePlanService(List<PricePlan> pricePlans, MeterService meterService, PricePlanCostCache pricePlanCostCache,
+                            MeterRegistry meterRegistry) {
+        this.pricePlanIds = pricePlans.stream().map(PricePlan::getPlanName).toArray(String[]::new);
         this.meterService = meterService;
+        this.pricePlanCostCache = pricePlanCostCache;
+        this.costCalculator = new PricePlanCostCalculator(pricePlans);
+        this.costCalculationTimer = Timer.builder("price.plans.costs.calculation")
+                .description("Time to cost every price plan for one meter")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        FunctionCounter.builder("price.plans.cache.hits", pricePlanCostCache, cache -> cache.getStats().getHits())
+                .register(meterRegistry);
+        FunctionCounter.builder("price.plans.cache.misses", pricePlanCostCache, cache -> cache.getStats().getMisses())
+                .register(meterRegistry);
+        FunctionCounter.builder("price.plans.cache.evictions", pricePlanCostCache, cache -> cache.getStats().getEvictions())
+                .register(meterRegistry);
+        Gauge.builder("price.plans.cache.size", pricePlanCostCache, cache -> cache.getStats().getSize())
+                .register(meterRegistry);
     }
 
+    /**
+     * Costs for every price plan, served from {@link PricePlanCostCache} while the meter has no new readings.
+     */
     public Optional<Map<String, BigDecimal>> getAllPricePlanCostsForMeter(String smartMeterId) {
-        Optional<List<ElectricityReading>> electricityReadings = meterService.getReadings(smartMeterId);
-
-        if (!electricityReadings.isPresent()) {
+        int meterId = meterService.smartMeterIds().find(smartMeterId);
+        if (meterId == IdDictionary.ABSENT) {
             return Optional.empty();
         }
-        List<ElectricityReading> er = electricityReadings.get();
-
-        Optional<Map<String, BigDecimal>> allPricePlansForMeter = Optional.of(
-
-            pricePlans.stream().collect(
-                Collectors.toMap(PricePlan::getPlanName, pricePlan -> {
+        Optional<ReadingSnapshot> snapshot = meterService.getSnapshot(meterId)
+                .filter(readings -> !readings.aggregates().isEmpty());
 
-                    BigDecimal av = getAveReadingForPlanInKW(er);
-                    BigDecimal unitsUsedInPeriod = getAveUsageOverTimeInKW(er, av);
-                    BigDecimal unitPrice = pricePlan.getUnitPricePerKWh();
-                    BigDecimal multiplier = getMultiplier(pricePlan.getPricePlanType());
+        if (!snapshot.isPresent()) {
+            return Optional.empty();
+        }
+        long version = snapshot.get().version();
+        PricePlanCosts costs = pricePlanCostCache.get(meterId, version);
+        if (costs == null) {
+            costs = calculateCosts(snapshot.get());
+            pricePlanCostCache.put(meterId, version, costs);
+        }
+        return Optional.of(costs);
+    }
 
-                    return totalCostForPricePlan(unitsUsedInPeriod, unitPrice, multiplier);
-                })));
+    /**
+     * Costs for every price plan over readings taken at or after {@code fromEpochSecond} and strictly before
+     * {@code toEpochSecond}. Each reading tier contributes whatever it holds for the span, so older periods are
+     * costed from their hourly or per-minute rollups.
+     */
+    public Optional<Map<String, BigDecimal>> getAllPricePlanCostsForMeter(String smartMeterId, long fromEpochSecond, long toEpochSecond) {
+        Optional<ReadingSnapshot> snapshot = meterService.getSnapshot(smartMeterId);
+        if (!snapshot.isPresent()) {
+            return Optional.empty();
+        }
+        ReadingAggregates aggregates = snapshot.get().aggregates(fromEpochSecond, toEpochSecond);
+        if (aggregates.isEmpty()) {
+            return Optional.empty();
+        }
+        return Optional.of(calculateCosts(snapshot.get(), aggregates, fromEpochSecond, toEpochSecond));
+    }
 
-        return allPricePlansForMeter;
+    /**
+     * Costs for every price plan for the meter with this id in the smart meter dictionary, always calculated afresh;
+     * for fleet-wide scans that would only churn the cache.
+     */
+    Optional<PricePlanCosts> calculateAllPricePlanCosts(int meterId) {
+        return meterService.getSnapshot(meterId)
+                .filter(readings -> !readings.aggregates().isEmpty())
+                .map(this::calculateCosts);
     }
 
-    private BigDecimal getAveReadingForPlanInKW(List<ElectricityReading> er) {
-        BigDecimal summedReadings = er.stream()
-                .map(ElectricityReading::getReadingInKW)
-                .reduce(BigDecimal.ZERO, (reading, accumulator) -> reading.add(accumulator));
-        return summedReadings.divide(BigDecimal.valueOf(er.size()), RoundingMode.HALF_UP);
+    public CacheStats getCacheStats() {
+        return pricePlanCostCache.getStats();
     }
 
-    private BigDecimal getAveUsageOverTimeInKW(List<ElectricityReading> er, BigDecimal av) {
-        ElectricityReading first = er.stream()
-                .min(Comparator.comparing(ElectricityReading::getTime))
-                .get();
-        ElectricityReading last = er.stream()
-                .max(Comparator.comparing(ElectricityReading::getTime))
-                .get();
+    private PricePlanCosts calculateCosts(ReadingSnapshot snapshot) {
+        return calculateCosts(snapshot, snapshot.aggregates(), Long.MIN_VALUE, Long.MAX_VALUE);
+    }
 
-        BigDecimal elapsedTime = BigDecimal.valueOf(Duration.between(first.getTime(), last.getTime()).getSeconds() / 3600.0);
-        return av.multiply(elapsedTime);
+    private PricePlanCosts calculateCosts(ReadingSnapshot snapshot, ReadingAggregates aggregates,
+                                          long fromEpochSecond, long toEpochSecond) {
+        return costCalculationTimer.record(() -> calculateCostsUntimed(snapshot, aggregates, fromEpochSecond, toEpochSecond));
     }
 
-    private BigDecimal getMultiplier(PricePlanType pricePlanType) {
-        switch (pricePlanType) {
-            case STANDARD_PRICE_PLAN: return BigDecimal.ONE;
-            case ECO_PRICE_PLAN: return BigDecimal.valueOf(0.5);
-            case PREMIUM_PRICE_PLAN: return BigDecimal.valueOf(2);
+    private PricePlanCosts calculateCostsUntimed(ReadingSnapshot snapshot, ReadingAggregates aggregates,
+                                                 long fromEpochSecond, long toEpochSecond) {
+        long[] costs = new long[pricePlanIds.length];
+        for (int i = 0; i < costs.length; i++) {
+            costs[i] = costCalculator.cost(i, snapshot, aggregates, fromEpochSecond, toEpochSecond);
         }
-        return null;
+        return new PricePlanCosts(pricePlanIds, costs, costCalculator, PricePlanCostCalculator.averageReading(aggregates),
+                aggregates.getScale(), PricePlanCostCalculator.elapsedSeconds(aggregates));
     }
 
-    private BigDecimal totalCostForPricePlan(BigDecimal unitsUsedInPeriod, BigDecimal unitPrice, BigDecimal multiplier) {
-        return unitsUsedInPeriod.multiply(unitPrice.multiply(multiplier));
+    public static List<Map.Entry<String, BigDecimal>> cheapestPricePlans(Map<String, BigDecimal> consumptionsForPricePlans, Integer limit) {
+        List<Map.Entry<String, BigDecimal>> pricePlans = new ArrayList<>(consumptionsForPricePlans.entrySet());
+        pricePlans.sort(Comparator.comparing(Map.Entry::getValue));
+
+        if (limit != null && limit < pricePlans.size()) {
+            pricePlans = pricePlans.subList(0, limit);
+        }
+        return pricePlans;
     }
 }
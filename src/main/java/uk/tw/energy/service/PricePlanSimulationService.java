@@ -0,0 +1,227 @@
+package uk.tw.energy.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import uk.tw.energy.domain.PricePlan;
+import uk.tw.energy.domain.PricePlanSimulation;
+import uk.tw.energy.store.FixedPoint;
+import uk.tw.energy.store.IdDictionary;
+import uk.tw.energy.store.ReadingAggregates;
+import uk.tw.energy.store.ReadingSnapshot;
+
+import javax.annotation.PreDestroy;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Costs candidate price plans, which need not be configured, against every meter's readings and compares them with
+ * what each meter pays on its current plan. The fleet is scanned in parallel on a dedicated {@link ForkJoinPool},
+ * with each meter's costs written into arrays indexed by meter id so that the threads never contend; the arrays are
+ * then sorted for the percentiles.
+ * <p>
+ * Costs are held as fixed point {@code long}s, {@code candidates + 1} of them per meter, so a run over a million
+ * meters with the maximum of ten candidates needs about 100 MB while it runs.
+ */
+@Service
+public class PricePlanSimulationService {
+
+    private static final double[] PERCENTILES = {0, 10, 25, 50, 75, 90, 99, 100};
+    private static final String[] PERCENTILE_LABELS = {"min", "p10", "p25", "p50", "p75", "p90", "p99", "max"};
+
+    private static final byte NO_READINGS = 0;
+    private static final byte NO_CURRENT_PLAN = 1;
+    private static final byte ON_CURRENT_PLAN = 2;
+
+    private final List<PricePlan> pricePlans;
+    private final MeterService meterService;
+    private final AccountService accountService;
+    private final int maxCandidates;
+    private final ForkJoinPool pool;
+
+    public PricePlanSimulationService(List<PricePlan> pricePlans, MeterService meterService, AccountService accountService,
+                                      @Value("${price-plans.simulate.max-candidates:10}") int maxCandidates,
+                                      @Value("${price-plans.simulate.parallelism:0}") int parallelism) {
+        this.pricePlans = pricePlans;
+        this.meterService = meterService;
+        this.accountService = accountService;
+        this.maxCandidates = maxCandidates;
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+    }
+
+    public int getMaxCandidates() {
+        return maxCandidates;
+    }
+
+    /**
+     * Costs {@code candidates}, at most {@link #getMaxCandidates()} of them, over every meter's readings taken at or
+     * after {@code fromEpochSecond} and strictly before {@code toEpochSecond}. Meters without readings in that span
+     * are left out altogether.
+     */
+    public PricePlanSimulation simulate(List<PricePlan> candidates, long fromEpochSecond, long toEpochSecond) {
+        int meters = meterService.smartMeterIds().size();
+        List<PricePlan> plans = new ArrayList<>(pricePlans);
+        plans.addAll(candidates);
+        PricePlanCostCalculator costCalculator = new PricePlanCostCalculator(plans);
+        int[] currentPlans = currentPlanIndexes();
+
+        byte[] states = new byte[meters];
+        long[] currentCosts = new long[meters];
+        long[][] candidateCosts = new long[candidates.size()][meters];
+        scan(meters, meterId -> {
+            Optional<ReadingSnapshot> snapshot = meterService.getSnapshot(meterId);
+            if (!snapshot.isPresent()) {
+                return;
+            }
+            ReadingAggregates aggregates = snapshot.get().aggregates(fromEpochSecond, toEpochSecond);
+            if (aggregates.isEmpty()) {
+                return;
+            }
+            for (int candidate = 0; candidate < candidateCosts.length; candidate++) {
+                candidateCosts[candidate][meterId] = costCalculator.cost(pricePlans.size() + candidate,
+                        snapshot.get(), aggregates, fromEpochSecond, toEpochSecond);
+            }
+            int accountPlan = accountService.getPricePlan(meterId);
+            int currentPlan = accountPlan == IdDictionary.ABSENT ? IdDictionary.ABSENT : currentPlans[accountPlan];
+            if (currentPlan == IdDictionary.ABSENT) {
+                states[meterId] = NO_CURRENT_PLAN;
+                return;
+            }
+            currentCosts[meterId] = costCalculator.cost(currentPlan, snapshot.get(), aggregates, fromEpochSecond, toEpochSecond);
+            states[meterId] = ON_CURRENT_PLAN;
+        });
+
+        int costed = 0;
+        for (byte state : states) {
+            costed += state == NO_READINGS ? 0 : 1;
+        }
+        long[] onCurrentPlan = select(states, currentCosts, ON_CURRENT_PLAN);
+        List<PricePlanSimulation.Candidate> results = new ArrayList<>(candidates.size());
+        for (int candidate = 0; candidate < candidates.size(); candidate++) {
+            results.add(summarise(candidates.get(candidate).getPlanName(), states, candidateCosts[candidate], currentCosts));
+            // let the candidate's costs go before the next one's are sorted
+            candidateCosts[candidate] = null;
+        }
+        return new PricePlanSimulation(costed, costed - onCurrentPlan.length, total(onCurrentPlan), results);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * For each plan id in {@link AccountService#pricePlanIds()}, its index among the configured plans, or
+     * {@link IdDictionary#ABSENT} if no configured plan has that id.
+     */
+    private int[] currentPlanIndexes() {
+        IdDictionary accountPlans = accountService.pricePlanIds();
+        int[] indexes = new int[accountPlans.size()];
+        for (int accountPlan = 0; accountPlan < indexes.length; accountPlan++) {
+            indexes[accountPlan] = IdDictionary.ABSENT;
+            for (int plan = 0; plan < pricePlans.size(); plan++) {
+                if (pricePlans.get(plan).getPlanName().equals(accountPlans.name(accountPlan))) {
+                    indexes[accountPlan] = plan;
+                    break;
+                }
+            }
+        }
+        return indexes;
+    }
+
+    private void scan(int meters, IntConsumer meterConsumer) {
+        try {
+            pool.submit(() -> IntStream.range(0, meters).parallel().forEach(meterConsumer)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while simulating price plans", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not simulate price plans", e.getCause());
+        }
+    }
+
+    private PricePlanSimulation.Candidate summarise(String pricePlanId, byte[] states, long[] costs, long[] currentCosts) {
+        long[] candidateCosts = select(states, costs, NO_CURRENT_PLAN);
+        long[] changes = new long[candidateCosts.length];
+        int comparable = 0;
+        long winners = 0;
+        long losers = 0;
+        for (int meterId = 0; meterId < states.length; meterId++) {
+            if (states[meterId] == ON_CURRENT_PLAN) {
+                long change = costs[meterId] - currentCosts[meterId];
+                changes[comparable++] = change;
+                if (change < 0) {
+                    winners++;
+                } else if (change > 0) {
+                    losers++;
+                }
+            }
+        }
+        changes = Arrays.copyOf(changes, comparable);
+        BigDecimal totalCost = total(candidateCosts);
+        BigDecimal averageCost = candidateCosts.length == 0
+                ? BigDecimal.ZERO
+                : totalCost.divide(BigDecimal.valueOf(candidateCosts.length), FixedPoint.SCALE, RoundingMode.HALF_UP);
+        return new PricePlanSimulation.Candidate(pricePlanId, totalCost, averageCost, percentiles(candidateCosts),
+                total(changes), percentiles(changes), winners, losers, comparable - winners - losers);
+    }
+
+    /**
+     * Values of meters in at least {@code state}, in meter id order.
+     */
+    private static long[] select(byte[] states, long[] values, byte state) {
+        long[] selected = new long[values.length];
+        int count = 0;
+        for (int meterId = 0; meterId < states.length; meterId++) {
+            if (states[meterId] >= state) {
+                selected[count++] = values[meterId];
+            }
+        }
+        return Arrays.copyOf(selected, count);
+    }
+
+    /**
+     * Nearest-rank percentiles; sorts {@code values}.
+     */
+    private static Map<String, BigDecimal> percentiles(long[] values) {
+        Map<String, BigDecimal> percentiles = new LinkedHashMap<>();
+        if (values.length == 0) {
+            return percentiles;
+        }
+        Arrays.parallelSort(values);
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            int rank = (int) Math.ceil(PERCENTILES[i] / 100 * values.length);
+            percentiles.put(PERCENTILE_LABELS[i], FixedPoint.toBigDecimal(values[Math.max(0, rank - 1)]));
+        }
+        return percentiles;
+    }
+
+    /**
+     * Sum of fixed point values, switching to {@link BigInteger} should it overflow a {@code long}.
+     */
+    private static BigDecimal total(long[] values) {
+        long sum = 0;
+        for (int i = 0; i < values.length; i++) {
+            try {
+                sum = Math.addExact(sum, values[i]);
+            } catch (ArithmeticException overflow) {
+                BigInteger exact = BigInteger.valueOf(sum);
+                for (int j = i; j < values.length; j++) {
+                    exact = exact.add(BigInteger.valueOf(values[j]));
+                }
+                return new BigDecimal(exact, FixedPoint.SCALE);
+            }
+        }
+        return FixedPoint.toBigDecimal(sum);
+    }
+}
@@ -0,0 +1,80 @@
+package uk.tw.energy.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.time.Clock;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically ages every meter's readings down the rollup tiers: raw readings older than the raw retention become
+ * per-minute buckets, per-minute buckets older than the minute retention become hourly buckets, and hourly buckets
+ * older than the hour retention are dropped. A retention of 0 for hours keeps them indefinitely.
+ */
+@Service
+public class ReadingCompactor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReadingCompactor.class);
+    private static final long MINUTE = 60;
+    private static final long HOUR = 3600;
+
+    private final MeterService meterService;
+    private final Clock clock;
+    private final long rawRetentionSeconds;
+    private final long minuteRetentionSeconds;
+    private final long hourRetentionSeconds;
+    private final ScheduledExecutorService scheduler;
+
+    @Autowired
+    public ReadingCompactor(MeterService meterService,
+                            @Value("${readings.rollup.interval-ms:0}") long intervalMillis,
+                            @Value("${readings.retention.raw-hours:24}") long rawRetentionHours,
+                            @Value("${readings.retention.minutes-hours:168}") long minuteRetentionHours,
+                            @Value("${readings.retention.hours-days:0}") long hourRetentionDays) {
+        this(meterService, Clock.systemUTC(), rawRetentionHours * HOUR, minuteRetentionHours * HOUR, hourRetentionDays * 24 * HOUR);
+        if (intervalMillis > 0) {
+            scheduler.scheduleWithFixedDelay(this::compactQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    ReadingCompactor(MeterService meterService, Clock clock, long rawRetentionSeconds, long minuteRetentionSeconds,
+                     long hourRetentionSeconds) {
+        this.meterService = meterService;
+        this.clock = clock;
+        this.rawRetentionSeconds = rawRetentionSeconds;
+        this.minuteRetentionSeconds = minuteRetentionSeconds;
+        this.hourRetentionSeconds = hourRetentionSeconds;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "reading-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void compact() {
+        long now = clock.instant().getEpochSecond();
+        long rawBefore = Math.floorDiv(now - rawRetentionSeconds, MINUTE) * MINUTE;
+        long minutesBefore = Math.floorDiv(now - minuteRetentionSeconds, HOUR) * HOUR;
+        long hoursBefore = hourRetentionSeconds > 0 ? now - hourRetentionSeconds : Long.MIN_VALUE;
+        meterService.compact(rawBefore, minutesBefore, hoursBefore);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (RuntimeException e) {
+            LOGGER.warn("Could not compact meter readings", e);
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package uk.tw.energy.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import uk.tw.energy.domain.ElectricityReading;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Decouples accepting readings from storing them. When enabled, the store endpoints hand readings to this queue and
+ * answer straight away. There is one queue and one writer thread per {@link MeterService} partition: a batch goes to
+ * the queue of its meter's partition, so every meter is only ever written by the same thread, in the order its
+ * readings arrived, and writers never contend with each other. Each writer takes whatever has queued up, joins up
+ * the batches for each meter and applies them, so a burst of small requests turns into a few large appends.
+ * <p>
+ * Each partition's queue is bounded by the number of readings waiting, an equal share of the capacity, and refuses a
+ * batch that would overflow it so that callers can back off rather than the heap filling up.
+ * <p>
+ * Readings are only journalled once a writer applies them, so those still queued when the process dies are lost.
+ */
+@Service
+public class ReadingIngestQueue {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReadingIngestQueue.class);
+    private static final int MAX_BATCHES_PER_DRAIN = 256;
+    private static final long POLL_MILLIS = 100;
+
+    private final MeterService meterService;
+    private final boolean enabled;
+    private final long partitionCapacity;
+    private final Partition[] partitions;
+    private final ExecutorService writers;
+    private final Counter rejectedReadings;
+    private final DistributionSummary drainedReadings;
+    private final Timer lag;
+    private volatile boolean closed;
+
+    public ReadingIngestQueue(MeterService meterService,
+                              @Value("${readings.ingest.async:false}") boolean enabled,
+                              @Value("${readings.ingest.queue-capacity:1000000}") long capacity,
+                              MeterRegistry meterRegistry) {
+        this.meterService = meterService;
+        this.enabled = enabled;
+        this.partitions = new Partition[meterService.partitionCount()];
+        this.partitionCapacity = Math.max(1, capacity / partitions.length);
+        for (int i = 0; i < partitions.length; i++) {
+            partitions[i] = new Partition();
+        }
+        this.rejectedReadings = Counter.builder("readings.ingest.rejected")
+                .description("Readings refused because the ingest queue was full")
+                .baseUnit("readings")
+                .register(meterRegistry);
+        this.drainedReadings = DistributionSummary.builder("readings.ingest.batch.size")
+                .description("Readings applied by a writer in one pass over the ingest queue")
+                .baseUnit("readings")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.lag = Timer.builder("readings.ingest.lag")
+                .description("Time from a batch being queued to it being stored")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        Gauge.builder("readings.ingest.queue.depth", this, ReadingIngestQueue::queuedReadings)
+                .description("Readings accepted but not yet stored")
+                .baseUnit("readings")
+                .register(meterRegistry);
+        if (enabled) {
+            AtomicInteger threads = new AtomicInteger();
+            writers = Executors.newFixedThreadPool(partitions.length, runnable -> {
+                Thread thread = new Thread(runnable, "reading-writer-" + threads.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+            for (Partition partition : partitions) {
+                writers.execute(() -> write(partition));
+            }
+        } else {
+            writers = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Queues readings to be stored, or returns {@code false} if there is no room for them.
+     */
+    public boolean offer(String smartMeterId, List<ElectricityReading> electricityReadings) {
+        return enqueue(smartMeterId, MeterService.toEpochSeconds(electricityReadings),
+                MeterService.toFixedPoint(electricityReadings), electricityReadings.size());
+    }
+
+    /**
+     * Queues a copy of the first {@code count} readings, or returns {@code false} if there is no room for them.
+     */
+    public boolean offer(String smartMeterId, long[] epochSeconds, long[] readings, int count) {
+        return enqueue(smartMeterId, Arrays.copyOf(epochSeconds, count), Arrays.copyOf(readings, count), count);
+    }
+
+    /**
+     * Stops taking readings and waits for the writers to store those already queued.
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        closed = true;
+        if (writers != null) {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            writers.shutdown();
+            if (!writers.awaitTermination(30, TimeUnit.SECONDS)) {
+                LOGGER.warn("Gave up waiting for {} queued readings to be stored", queuedReadings());
+                return;
+            }
+            // batches from offers that reserved their room before seeing the queue closed, which may still be on their
+            // way into the queue after the writers have finished
+            for (Partition partition : partitions) {
+                List<Batch> remaining = new ArrayList<>();
+                while (partition.queuedReadings.get() > 0) {
+                    partition.queue.drainTo(remaining);
+                    if (!remaining.isEmpty()) {
+                        apply(partition, remaining);
+                        remaining.clear();
+                    } else if (System.nanoTime() - deadline > 0) {
+                        LOGGER.warn("Gave up waiting for {} queued readings to be stored", queuedReadings());
+                        return;
+                    } else {
+                        Thread.yield();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Readings accepted but not yet stored, across every partition.
+     */
+    public long queuedReadings() {
+        long queued = 0;
+        for (Partition partition : partitions) {
+            queued += partition.queuedReadings.get();
+        }
+        return queued;
+    }
+
+    private boolean enqueue(String smartMeterId, long[] epochSeconds, long[] readings, int count) {
+        Partition partition = partitions[meterService.partitionOf(smartMeterId)];
+        long queued;
+        do {
+            queued = partition.queuedReadings.get();
+            // an empty queue takes a batch of any size, so one larger than the capacity is not refused forever
+            if (closed || (queued > 0 && queued + count > partitionCapacity)) {
+                rejectedReadings.increment(count);
+                return false;
+            }
+        } while (!partition.queuedReadings.compareAndSet(queued, queued + count));
+        // shutdown closes the queue and then drains until nothing is reserved, so either it waits for this batch or,
+        // having already seen nothing reserved, it closed the queue before the reservation and this check sees that
+        if (closed) {
+            partition.queuedReadings.addAndGet(-count);
+            rejectedReadings.increment(count);
+            return false;
+        }
+        partition.queue.add(new Batch(smartMeterId, epochSeconds, readings, count, System.nanoTime()));
+        return true;
+    }
+
+    private void write(Partition partition) {
+        List<Batch> drained = new ArrayList<>();
+        while (!closed || !partition.queue.isEmpty()) {
+            try {
+                Batch first = partition.queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                drained.add(first);
+                partition.queue.drainTo(drained, MAX_BATCHES_PER_DRAIN - 1);
+                apply(partition, drained);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                drained.clear();
+            }
+        }
+    }
+
+    private void apply(Partition partition, List<Batch> drained) {
+        Map<String, List<Batch>> byMeter = new LinkedHashMap<>();
+        for (Batch batch : drained) {
+            byMeter.computeIfAbsent(batch.smartMeterId, id -> new ArrayList<>()).add(batch);
+        }
+        long applied = 0;
+        for (Map.Entry<String, List<Batch>> meter : byMeter.entrySet()) {
+            List<Batch> batches = meter.getValue();
+            int count = 0;
+            for (Batch batch : batches) {
+                count += batch.count;
+            }
+            try {
+                if (batches.size() == 1) {
+                    meterService.storeReadings(meter.getKey(), batches.get(0).epochSeconds, batches.get(0).readings, count);
+                } else {
+                    meterService.storeReadings(meter.getKey(), join(batches, count, batch -> batch.epochSeconds),
+                            join(batches, count, batch -> batch.readings), count);
+                }
+                applied += count;
+            } catch (RuntimeException e) {
+                LOGGER.warn("Could not store {} queued readings for meter {}", count, meter.getKey(), e);
+            } finally {
+                partition.queuedReadings.addAndGet(-count);
+            }
+            long now = System.nanoTime();
+            for (Batch batch : batches) {
+                lag.record(now - batch.enqueuedNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+        drainedReadings.record(applied);
+    }
+
+    private static long[] join(List<Batch> batches, int count, Function<Batch, long[]> column) {
+        long[] joined = new long[count];
+        int position = 0;
+        for (Batch batch : batches) {
+            System.arraycopy(column.apply(batch), 0, joined, position, batch.count);
+            position += batch.count;
+        }
+        return joined;
+    }
+
+    private static final class Partition {
+
+        private final BlockingQueue<Batch> queue = new LinkedBlockingQueue<>();
+        private final AtomicLong queuedReadings = new AtomicLong();
+    }
+
+    private static final class Batch {
+
+        private final String smartMeterId;
+        private final long[] epochSeconds;
+        private final long[] readings;
+        private final int count;
+        private final long enqueuedNanos;
+
+        Batch(String smartMeterId, long[] epochSeconds, long[] readings, int count, long enqueuedNanos) {
+            this.smartMeterId = smartMeterId;
+            this.epochSeconds = epochSeconds;
+            this.readings = readings;
+            this.count = count;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+    }
+}
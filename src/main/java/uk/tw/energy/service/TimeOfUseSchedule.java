@@ -0,0 +1,156 @@
+package uk.tw.energy.service;
+
+import uk.tw.energy.domain.PricePlan;
+import uk.tw.energy.store.ReadingCursor;
+import uk.tw.energy.store.ReadingSnapshot;
+import uk.tw.energy.store.Rollup;
+
+import java.math.BigDecimal;
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * A time-of-use plan's week, cut into segments at every band boundary ahead of time. Band 0 is the plan's flat
+ * unit rate and band {@code k} its {@code k}th time-of-use rate. Readings are assigned to bands by walking the
+ * segment boundaries alongside the time-ordered readings, so no calendar arithmetic happens per reading.
+ */
+final class TimeOfUseSchedule {
+
+    static final long SECONDS_PER_DAY = 86_400;
+    static final long SECONDS_PER_WEEK = 7 * SECONDS_PER_DAY;
+
+    /**
+     * 1970-01-05T00:00Z, the first Monday after the epoch.
+     */
+    private static final long FIRST_MONDAY = 4 * SECONDS_PER_DAY;
+    private static final LocalDateTime FIRST_MONDAY_DATE_TIME = LocalDateTime.ofEpochSecond(FIRST_MONDAY, 0, ZoneOffset.UTC);
+
+    private final BigDecimal[] bandRates;
+    private final long[] segmentStarts;
+    private final int[] segmentBands;
+
+    TimeOfUseSchedule(PricePlan pricePlan) {
+        List<PricePlan.TimeOfUseRate> rates = pricePlan.getTimeOfUseRates();
+        bandRates = new BigDecimal[rates.size() + 1];
+        bandRates[0] = pricePlan.getUnitPricePerKWh();
+        TreeSet<Long> boundaries = new TreeSet<>();
+        boundaries.add(0L);
+        for (int i = 0; i < rates.size(); i++) {
+            PricePlan.TimeOfUseRate rate = rates.get(i);
+            bandRates[i + 1] = rate.getUnitRate();
+            for (DayOfWeek day : rate.getDays()) {
+                long dayStart = (day.getValue() - 1) * SECONDS_PER_DAY;
+                long to = rate.getTo().toSecondOfDay();
+                boundaries.add(dayStart + rate.getFrom().toSecondOfDay());
+                boundaries.add((dayStart + (rate.getFrom().isBefore(rate.getTo()) ? to : SECONDS_PER_DAY + to)) % SECONDS_PER_WEEK);
+            }
+        }
+
+        long[] starts = new long[boundaries.size()];
+        int[] bands = new int[boundaries.size()];
+        int segments = 0;
+        for (long start : boundaries) {
+            int band = bandAt(pricePlan, FIRST_MONDAY_DATE_TIME.plusSeconds(start));
+            if (segments == 0 || bands[segments - 1] != band) {
+                starts[segments] = start;
+                bands[segments] = band;
+                segments++;
+            }
+        }
+        segmentStarts = Arrays.copyOf(starts, segments);
+        segmentBands = Arrays.copyOf(bands, segments);
+    }
+
+    BigDecimal[] getBandRates() {
+        return bandRates.clone();
+    }
+
+    int bandCount() {
+        return bandRates.length;
+    }
+
+    /**
+     * Adds every reading of the snapshot taken at or after {@code fromEpochSecond} and strictly before
+     * {@code toEpochSecond} to {@code bandSums}, at the index of the band in force when it was taken. Rollup
+     * buckets are charged at the band in force when they start.
+     */
+    void sumByBand(ReadingSnapshot snapshot, long fromEpochSecond, long toEpochSecond, long[] bandSums) {
+        Cursor cursor = new Cursor(bandSums);
+        for (Rollup rollup : new Rollup[]{snapshot.hours(), snapshot.minutes()}) {
+            int to = rollup.lowerBound(toEpochSecond);
+            for (int i = rollup.lowerBound(fromEpochSecond); i < to; i++) {
+                cursor.add(rollup.startAt(i), rollup.sumAt(i));
+            }
+        }
+        int from = snapshot.lowerBound(fromEpochSecond);
+        int to = snapshot.lowerBound(toEpochSecond);
+        ReadingCursor readings = snapshot.cursor(from);
+        for (int i = from; i < to; i++) {
+            readings.next();
+            cursor.add(readings.epochSecond(), readings.reading());
+        }
+    }
+
+    /**
+     * Tracks the segment the last reading fell in. Readings are expected in time order, so moving on is usually
+     * a step to the next segment; a jump of more than a week, or back in time, is found by binary search.
+     */
+    private final class Cursor {
+
+        private final long[] bandSums;
+        private long weekStart;
+        private int segment;
+        private long segmentStart = Long.MAX_VALUE;
+        private long segmentEnd = Long.MIN_VALUE;
+
+        Cursor(long[] bandSums) {
+            this.bandSums = bandSums;
+        }
+
+        void add(long epochSecond, long reading) {
+            if (epochSecond >= segmentEnd || epochSecond < segmentStart) {
+                if (epochSecond < segmentStart || epochSecond - segmentEnd >= SECONDS_PER_WEEK) {
+                    weekStart = weekStart(epochSecond);
+                    segment = segmentAt(epochSecond - weekStart);
+                } else {
+                    do {
+                        if (++segment == segmentStarts.length) {
+                            segment = 0;
+                            weekStart += SECONDS_PER_WEEK;
+                        }
+                    } while (epochSecond >= weekStart + segmentEnd(segment));
+                }
+                segmentStart = weekStart + segmentStarts[segment];
+                segmentEnd = weekStart + segmentEnd(segment);
+            }
+            bandSums[segmentBands[segment]] += reading;
+        }
+    }
+
+    private static long weekStart(long epochSecond) {
+        return epochSecond - Math.floorMod(epochSecond - FIRST_MONDAY, SECONDS_PER_WEEK);
+    }
+
+    private long segmentEnd(int segment) {
+        return segment + 1 < segmentStarts.length ? segmentStarts[segment + 1] : SECONDS_PER_WEEK;
+    }
+
+    private int segmentAt(long secondOfWeek) {
+        int index = Arrays.binarySearch(segmentStarts, secondOfWeek);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    private static int bandAt(PricePlan pricePlan, LocalDateTime dateTime) {
+        List<PricePlan.TimeOfUseRate> rates = pricePlan.getTimeOfUseRates();
+        for (int i = 0; i < rates.size(); i++) {
+            if (rates.get(i).appliesTo(dateTime)) {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,274 @@
+package uk.tw.energy.store;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A full, sealed chunk of readings packed into a bit stream in the style of Facebook's Gorilla: each epoch second is
+ * stored as the change in the gap since the previous reading (zero for a steady cadence, so one bit), and each
+ * reading as the XOR with the previous one, keeping only its meaningful bits. The first epoch second and reading
+ * seed the stream and are held as plain fields.
+ * <p>
+ * Timestamp delta-of-deltas, zig-zag encoded so that small negative changes stay small:
+ * <pre>
+ *   0                       unchanged
+ *   10   + 7 bits           below 2^7
+ *   110  + 12 bits          below 2^12
+ *   1110 + 20 bits          below 2^20
+ *   1111 + 64 bits          anything else
+ * </pre>
+ * Reading XORs: {@code 0} for an unchanged reading; {@code 10} and the meaningful bits when they fit inside the
+ * previous window of leading and trailing zeros; otherwise {@code 11}, six bits of leading zeros, six bits of
+ * meaningful length minus one, and the meaningful bits.
+ */
+final class CompressedChunk {
+
+    private static final int[] DELTA_OF_DELTA_BITS = {0, 7, 12, 20};
+
+    private final long[] words;
+    private final int size;
+    private final long firstEpochSecond;
+    private final long lastEpochSecond;
+    private final long firstReading;
+
+    private CompressedChunk(long[] words, int size, long firstEpochSecond, long lastEpochSecond, long firstReading) {
+        this.words = words;
+        this.size = size;
+        this.firstEpochSecond = firstEpochSecond;
+        this.lastEpochSecond = lastEpochSecond;
+        this.firstReading = firstReading;
+    }
+
+    static CompressedChunk encode(long[] epochSeconds, long[] readings, int count) {
+        BitWriter writer = new BitWriter(count);
+        long previousEpochSecond = epochSeconds[0];
+        long previousDelta = 0;
+        long previousReading = readings[0];
+        int leading = Long.SIZE;
+        int trailing = 0;
+        for (int i = 1; i < count; i++) {
+            long delta = epochSeconds[i] - previousEpochSecond;
+            long deltaOfDelta = zigZag(delta - previousDelta);
+            if (deltaOfDelta == 0) {
+                writer.write(0, 1);
+            } else if (deltaOfDelta < 1L << 7) {
+                writer.write(0b10, 2);
+                writer.write(deltaOfDelta, 7);
+            } else if (deltaOfDelta < 1L << 12) {
+                writer.write(0b110, 3);
+                writer.write(deltaOfDelta, 12);
+            } else if (deltaOfDelta < 1L << 20) {
+                writer.write(0b1110, 4);
+                writer.write(deltaOfDelta, 20);
+            } else {
+                writer.write(0b1111, 4);
+                writer.write(deltaOfDelta, 64);
+            }
+            previousEpochSecond = epochSeconds[i];
+            previousDelta = delta;
+
+            long xor = readings[i] ^ previousReading;
+            if (xor == 0) {
+                writer.write(0, 1);
+            } else {
+                int xorLeading = Long.numberOfLeadingZeros(xor);
+                int xorTrailing = Long.numberOfTrailingZeros(xor);
+                if (xorLeading >= leading && xorTrailing >= trailing) {
+                    writer.write(0b10, 2);
+                    writer.write(xor >>> trailing, Long.SIZE - leading - trailing);
+                } else {
+                    int meaningful = Long.SIZE - xorLeading - xorTrailing;
+                    writer.write(0b11, 2);
+                    writer.write(xorLeading, 6);
+                    writer.write(meaningful - 1, 6);
+                    writer.write(xor >>> xorTrailing, meaningful);
+                    leading = xorLeading;
+                    trailing = xorTrailing;
+                }
+            }
+            previousReading = readings[i];
+        }
+        return new CompressedChunk(writer.toWords(), count, epochSeconds[0], epochSeconds[count - 1], readings[0]);
+    }
+
+    int size() {
+        return size;
+    }
+
+    long firstEpochSecond() {
+        return firstEpochSecond;
+    }
+
+    long lastEpochSecond() {
+        return lastEpochSecond;
+    }
+
+    Decoder decoder() {
+        return new Decoder(this);
+    }
+
+    /**
+     * Decodes the first {@code count} readings into the given arrays.
+     */
+    void decode(long[] epochSeconds, long[] readings, int count) {
+        Decoder decoder = decoder();
+        for (int i = 0; i < count; i++) {
+            decoder.next();
+            epochSeconds[i] = decoder.epochSecond;
+            readings[i] = decoder.reading;
+        }
+    }
+
+    long estimatedBytes() {
+        return (long) Long.BYTES * words.length + 48;
+    }
+
+    int serializedBytes() {
+        return 2 * Integer.BYTES + 3 * Long.BYTES + Long.BYTES * words.length;
+    }
+
+    /**
+     * Writes the chunk as {@code [int size][long first epoch second][long last epoch second][long first reading]
+     * [int words][words]}.
+     */
+    void writeTo(ByteBuffer buffer) {
+        buffer.putInt(size).putLong(firstEpochSecond).putLong(lastEpochSecond).putLong(firstReading).putInt(words.length);
+        ReadingStoreFile.putLongs(buffer, words, 0, words.length);
+    }
+
+    static CompressedChunk readFrom(ByteBuffer buffer) {
+        int size = buffer.getInt();
+        long firstEpochSecond = buffer.getLong();
+        long lastEpochSecond = buffer.getLong();
+        long firstReading = buffer.getLong();
+        long[] words = ReadingStoreFile.getLongs(buffer, buffer.getInt());
+        return new CompressedChunk(words, size, firstEpochSecond, lastEpochSecond, firstReading);
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Streams a chunk's readings back out in order; call {@link #next()} before reading each one.
+     */
+    static final class Decoder {
+
+        private final CompressedChunk chunk;
+        private final long[] words;
+        private int bit;
+        private int index = -1;
+        private long delta;
+        private int leading;
+        private int trailing;
+        long epochSecond;
+        long reading;
+
+        private Decoder(CompressedChunk chunk) {
+            this.chunk = chunk;
+            this.words = chunk.words;
+        }
+
+        int index() {
+            return index;
+        }
+
+        void next() {
+            if (++index == 0) {
+                epochSecond = chunk.firstEpochSecond;
+                reading = chunk.firstReading;
+                return;
+            }
+            // both fields usually fit in one 64-bit window, so the stream is only fetched once per reading, and
+            // the rare cases are kept out of line so that this method stays small enough to inline
+            long window = window();
+            int used = 1;
+            int ones = Long.numberOfLeadingZeros(~window);
+            if (ones >= 4) {
+                window = readWideDeltaOfDelta();
+                used = 0;
+            } else if (ones > 0) {
+                int bits = DELTA_OF_DELTA_BITS[ones];
+                used = ones + 1 + bits;
+                delta += unZigZag(window << (ones + 1) >>> (Long.SIZE - bits));
+            }
+            epochSecond += delta;
+
+            window <<= used;
+            if (window >= 0) {
+                bit += used + 1;
+                return;
+            }
+            int header = 2;
+            if (window << 1 < 0) {
+                leading = (int) (window >>> 56) & 0x3f;
+                trailing = Long.SIZE - leading - (int) (window >>> 50 & 0x3f) - 1;
+                header = 14;
+            }
+            int meaningful = Long.SIZE - leading - trailing;
+            if (used + header + meaningful > Long.SIZE) {
+                bit += used + header;
+                reading ^= read(meaningful) << trailing;
+                return;
+            }
+            bit += used + header + meaningful;
+            reading ^= window << header >>> (Long.SIZE - meaningful) << trailing;
+        }
+
+        /**
+         * Consumes a {@code 1111} prefix and the 64-bit delta-of-delta after it, returning the window that follows.
+         */
+        private long readWideDeltaOfDelta() {
+            bit += 4;
+            delta += unZigZag(read(Long.SIZE));
+            return window();
+        }
+
+        /**
+         * The next 64 bits of the stream, without consuming them; the stream is padded with a spare word.
+         */
+        private long window() {
+            int word = bit >>> 6;
+            int offset = bit & 63;
+            return offset == 0 ? words[word] : words[word] << offset | words[word + 1] >>> (Long.SIZE - offset);
+        }
+
+        private long read(int bits) {
+            long value = window();
+            bit += bits;
+            return bits == Long.SIZE ? value : value >>> (Long.SIZE - bits);
+        }
+    }
+
+    private static final class BitWriter {
+
+        private long[] words;
+        private int bit;
+
+        BitWriter(int count) {
+            words = new long[Math.max(1, count / 16)];
+        }
+
+        void write(long value, int bits) {
+            int word = bit >>> 6;
+            int offset = bit & 63;
+            if (word + 1 >= words.length) {
+                words = Arrays.copyOf(words, words.length * 2 + 2);
+            }
+            long aligned = bits == Long.SIZE ? value : value << (Long.SIZE - bits);
+            words[word] |= aligned >>> offset;
+            if (offset + bits > Long.SIZE) {
+                words[word + 1] |= aligned << (Long.SIZE - offset);
+            }
+            bit += bits;
+        }
+
+        long[] toWords() {
+            return Arrays.copyOf(words, ((bit + 63) >>> 6) + 1);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package uk.tw.energy.store;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Readings are held as micro-kW in a plain {@code long} so that a sample costs eight bytes instead of a
+ * {@link BigDecimal} graph. The scale a reading was sent with is not kept: it is rounded half-up to six decimal places
+ * on the way in and comes back without trailing zeros, so {@code 15.0} reads back as {@code 15}. What a history keeps
+ * instead is {@link #scaleOf}: the fewest places that hold every reading it was given.
+ */
+public final class FixedPoint {
+
+    public static final int SCALE = 6;
+    public static final long ONE = 1_000_000L;
+
+    private static final long[] UNITS = {1_000_000L, 100_000L, 10_000L, 1_000L, 100L, 10L, 1L};
+
+    private FixedPoint() {
+    }
+
+    public static long toFixed(BigDecimal value) {
+        return value.setScale(SCALE, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    public static BigDecimal toBigDecimal(long fixed) {
+        BigDecimal value = BigDecimal.valueOf(fixed, SCALE).stripTrailingZeros();
+        return value.scale() < 0 ? value.setScale(0) : value;
+    }
+
+    /**
+     * The fewest decimal places, and at least {@code scale}, that hold {@code fixed} exactly.
+     */
+    public static int scaleOf(long fixed, int scale) {
+        while (scale < SCALE && fixed % UNITS[scale] != 0) {
+            scale++;
+        }
+        return scale;
+    }
+
+    /**
+     * One unit in the last of {@code scale} decimal places, in fixed point.
+     */
+    public static long unit(int scale) {
+        return UNITS[scale];
+    }
+}
@@ -0,0 +1,69 @@
+package uk.tw.energy.store;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns dense {@code int} ids, from 0 upwards, to strings such as smart meter and price plan ids, so that what is
+ * kept per meter can live in arrays indexed by id rather than in maps keyed by string. A string is looked up once
+ * where it enters the application and the id is used from then on; ids are never reused or forgotten.
+ * <p>
+ * Ids are only meaningful within one process: anything written to disk keeps the strings.
+ */
+public final class IdDictionary {
+
+    public static final int ABSENT = -1;
+
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] names = new String[1024];
+    private volatile int size;
+
+    /**
+     * The string's id, assigning the next one if it has none yet.
+     */
+    public int intern(String name) {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(name);
+            if (id != null) {
+                return id;
+            }
+            int next = size;
+            String[] current = names;
+            if (next == current.length) {
+                current = Arrays.copyOf(current, next * 2);
+            }
+            // the name is in place before the id can be seen, so any thread holding an id can name it
+            current[next] = name;
+            names = current;
+            size = next + 1;
+            ids.put(name, next);
+            return next;
+        }
+    }
+
+    /**
+     * The string's id, or {@link #ABSENT} if it has none; unlike {@link #intern} this never assigns one.
+     */
+    public int find(String name) {
+        Integer id = ids.get(name);
+        return id == null ? ABSENT : id;
+    }
+
+    public String name(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("No id " + id + " among " + size);
+        }
+        return names[id];
+    }
+
+    /**
+     * Ids assigned so far, which are exactly {@code [0, size())}.
+     */
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,322 @@
+package uk.tw.energy.store;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * {@link ReadingJournal} over fixed-size, memory-mapped segment files. Each record is
+ * {@code [int length][int crc32][payload]}, the payload holding the meter id followed by zig-zag varint deltas
+ * of the epoch seconds and readings, so a regular 10 second cadence costs a few bytes per reading. A zero
+ * length marks the end of a segment; a record that fails its checksum is treated as a torn write and ends the
+ * scan of that segment.
+ * <p>
+ * With a sync interval of zero every append waits until it is on disk, and appenders that arrive while a
+ * {@code force()} is in progress share the next one (group commit). With a positive interval a background
+ * thread forces the log on that schedule and appends return as soon as they are mapped.
+ */
+public class MappedSegmentJournal implements ReadingJournal {
+
+    private static final String SEGMENT_PREFIX = "readings-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int HEADER_BYTES = 2 * Integer.BYTES;
+    private static final int MAX_READINGS_PER_RECORD = 4096;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long syncIntervalMillis;
+    private final Object syncLock = new Object();
+    private final AtomicLong durableBytes = new AtomicLong();
+    private final ScheduledExecutorService syncScheduler;
+
+    private long nextSegmentIndex;
+    private MappedByteBuffer segment;
+    private long writtenBytes;
+
+    public MappedSegmentJournal(Path directory, int segmentSize, long syncIntervalMillis) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+        this.syncIntervalMillis = syncIntervalMillis;
+        List<Path> segments = segments();
+        this.nextSegmentIndex = segments.isEmpty() ? 0 : segmentIndex(segments.get(segments.size() - 1)) + 1;
+        if (syncIntervalMillis > 0) {
+            syncScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "reading-journal-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            syncScheduler.scheduleWithFixedDelay(this::syncQuietly, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            syncScheduler = null;
+        }
+    }
+
+    @Override
+    public void append(String smartMeterId, long[] epochSeconds, long[] readings, int count) {
+        for (int from = 0; from < count; from += MAX_READINGS_PER_RECORD) {
+            byte[] payload = encode(smartMeterId, epochSeconds, readings, from, Math.min(count, from + MAX_READINGS_PER_RECORD));
+            long position = write(payload);
+            if (syncIntervalMillis <= 0) {
+                sync(position);
+            }
+        }
+    }
+
+    /**
+     * Maps, checksums and decodes up to one segment per processor in parallel, but hands the decoded batches to
+     * {@code consumer} on the calling thread, segment by segment in the order they were written, so a batch that
+     * corrects a reading is always applied after the one it corrects. Only the segments being decoded are held in
+     * memory at once.
+     */
+    @Override
+    public long replay(BatchConsumer consumer) throws IOException {
+        List<Path> segments = segments();
+        int window = Runtime.getRuntime().availableProcessors();
+        Deque<CompletableFuture<List<Batch>>> decoding = new ArrayDeque<>();
+        long replayed = 0;
+        int next = 0;
+        while (next < segments.size() || !decoding.isEmpty()) {
+            while (next < segments.size() && decoding.size() < window) {
+                Path segment = segments.get(next++);
+                decoding.add(CompletableFuture.supplyAsync(() -> decodeSegment(segment)));
+            }
+            for (Batch batch : join(decoding.removeFirst())) {
+                consumer.accept(batch.smartMeterId, batch.epochSeconds, batch.readings, batch.count);
+                replayed += batch.count;
+            }
+        }
+        return replayed;
+    }
+
+    @Override
+    public void truncate() throws IOException {
+        synchronized (this) {
+            segment = null;
+            for (Path path : segments()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (syncScheduler != null) {
+            syncScheduler.shutdown();
+        }
+        syncQuietly();
+        synchronized (this) {
+            segment = null;
+        }
+    }
+
+    private synchronized long write(byte[] payload) {
+        int recordBytes = HEADER_BYTES + payload.length;
+        if (recordBytes > segmentSize) {
+            throw new IllegalArgumentException("Record of " + recordBytes + " bytes does not fit a segment of " + segmentSize);
+        }
+        if (segment == null || segment.remaining() < recordBytes) {
+            rollSegment();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        segment.putInt(payload.length);
+        segment.putInt((int) crc.getValue());
+        segment.put(payload);
+        writtenBytes += recordBytes;
+        return writtenBytes;
+    }
+
+    private void rollSegment() {
+        if (segment != null) {
+            segment.force();
+        }
+        Path path = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, nextSegmentIndex++, SEGMENT_SUFFIX));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create journal segment " + path, e);
+        }
+    }
+
+    private void sync(long position) {
+        if (durableBytes.get() >= position) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (durableBytes.get() >= position) {
+                return;
+            }
+            MappedByteBuffer current;
+            long upTo;
+            synchronized (this) {
+                current = segment;
+                upTo = writtenBytes;
+            }
+            if (current != null) {
+                current.force();
+            }
+            durableBytes.set(upTo);
+        }
+    }
+
+    private void syncQuietly() {
+        long position;
+        synchronized (this) {
+            position = writtenBytes;
+        }
+        sync(position);
+    }
+
+    private static List<Batch> join(CompletableFuture<List<Batch>> decoded) throws IOException {
+        try {
+            return decoded.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static List<Batch> decodeSegment(Path path) {
+        List<Batch> batches = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            CRC32 crc = new CRC32();
+            while (buffer.remaining() >= HEADER_BYTES) {
+                int length = buffer.getInt();
+                int checksum = buffer.getInt();
+                if (length <= 0 || length > buffer.remaining()) {
+                    break;
+                }
+                ByteBuffer payload = buffer.slice();
+                payload.limit(length);
+                crc.reset();
+                crc.update(payload.duplicate());
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                batches.add(decode(payload));
+                buffer.position(buffer.position() + length);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not replay journal segment " + path, e);
+        } catch (BufferUnderflowException e) {
+            // a corrupt record that slipped past its checksum ends the scan, just like a torn write
+        }
+        return batches;
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> {
+                String name = path.getFileName().toString();
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static long segmentIndex(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static byte[] encode(String smartMeterId, long[] epochSeconds, long[] readings, int from, int to) {
+        byte[] id = smartMeterId.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(2 * 10 + id.length + (to - from) * 20);
+        putVarLong(buffer, id.length);
+        buffer.put(id);
+        putVarLong(buffer, to - from);
+        long previousEpochSecond = 0;
+        long previousReading = 0;
+        for (int i = from; i < to; i++) {
+            putVarLong(buffer, zigZag(epochSeconds[i] - previousEpochSecond));
+            putVarLong(buffer, zigZag(readings[i] - previousReading));
+            previousEpochSecond = epochSeconds[i];
+            previousReading = readings[i];
+        }
+        byte[] payload = new byte[buffer.position()];
+        buffer.flip();
+        buffer.get(payload);
+        return payload;
+    }
+
+    private static Batch decode(ByteBuffer payload) {
+        byte[] id = new byte[(int) getVarLong(payload)];
+        payload.get(id);
+        int count = (int) getVarLong(payload);
+        long[] epochSeconds = new long[count];
+        long[] readings = new long[count];
+        long epochSecond = 0;
+        long reading = 0;
+        for (int i = 0; i < count; i++) {
+            epochSecond += unZigZag(getVarLong(payload));
+            reading += unZigZag(getVarLong(payload));
+            epochSeconds[i] = epochSecond;
+            readings[i] = reading;
+        }
+        return new Batch(new String(id, StandardCharsets.UTF_8), epochSeconds, readings, count);
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void putVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static long getVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    private static final class Batch {
+
+        private final String smartMeterId;
+        private final long[] epochSeconds;
+        private final long[] readings;
+        private final int count;
+
+        Batch(String smartMeterId, long[] epochSeconds, long[] readings, int count) {
+            this.smartMeterId = smartMeterId;
+            this.epochSeconds = epochSeconds;
+            this.readings = readings;
+            this.count = count;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package uk.tw.energy.store;
+
+/**
+ * Snapshot of the running totals a {@link ReadingHistory} keeps up to date on every append, so that cost
+ * calculations never have to walk the readings themselves.
+ */
+public class ReadingAggregates {
+
+    private final long count;
+    private final long sum;
+    private final long firstEpochSecond;
+    private final long lastEpochSecond;
+    private final int scale;
+
+    public ReadingAggregates(long count, long sum, long firstEpochSecond, long lastEpochSecond, int scale) {
+        this.count = count;
+        this.sum = sum;
+        this.firstEpochSecond = firstEpochSecond;
+        this.lastEpochSecond = lastEpochSecond;
+        this.scale = scale;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Sum of all readings in {@link FixedPoint} units.
+     */
+    public long getSum() {
+        return sum;
+    }
+
+    public long getFirstEpochSecond() {
+        return firstEpochSecond;
+    }
+
+    public long getLastEpochSecond() {
+        return lastEpochSecond;
+    }
+
+    /**
+     * The most decimal places any of the readings had, up to {@link FixedPoint#SCALE}; see {@link FixedPoint#scaleOf}.
+     */
+    public int getScale() {
+        return scale;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+}
@@ -0,0 +1,68 @@
+package uk.tw.energy.store;
+
+/**
+ * Walks the raw readings of a {@link ReadingSnapshot} forward in time order, decoding sealed chunks as a stream
+ * rather than one index at a time. Call {@link #next()} before reading each reading's values. A cursor is cheap
+ * to create but not safe to share between threads.
+ */
+public final class ReadingCursor {
+
+    private final CompressedChunk[] sealedChunks;
+    private final long[] headEpochSeconds;
+    private final long[] headReadings;
+    private final int end;
+    private int position;
+    private CompressedChunk.Decoder decoder;
+    private long epochSecond;
+    private long reading;
+
+    ReadingCursor(CompressedChunk[] sealedChunks, long[] headEpochSeconds, long[] headReadings, int position, int end) {
+        this.sealedChunks = sealedChunks;
+        this.headEpochSeconds = headEpochSeconds;
+        this.headReadings = headReadings;
+        this.position = position;
+        this.end = end;
+    }
+
+    public boolean hasNext() {
+        return position < end;
+    }
+
+    /**
+     * Moves on to the next reading.
+     */
+    public void next() {
+        if (position >= end) {
+            throw new IllegalStateException("No more readings");
+        }
+        int chunk = position >>> ReadingHistory.CHUNK_SHIFT;
+        int index = position & ReadingHistory.CHUNK_MASK;
+        if (chunk < sealedChunks.length) {
+            if (index == 0 || decoder == null) {
+                startDecoding(chunk, index);
+            }
+            decoder.next();
+            epochSecond = decoder.epochSecond;
+            reading = decoder.reading;
+        } else {
+            epochSecond = headEpochSeconds[index];
+            reading = headReadings[index];
+        }
+        position++;
+    }
+
+    private void startDecoding(int chunk, int index) {
+        decoder = sealedChunks[chunk].decoder();
+        while (decoder.index() < index - 1) {
+            decoder.next();
+        }
+    }
+
+    public long epochSecond() {
+        return epochSecond;
+    }
+
+    public long reading() {
+        return reading;
+    }
+}
@@ -0,0 +1,421 @@
+package uk.tw.energy.store;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Columnar reading history for a single meter, kept in time order in chunks of {@link #CHUNK_SIZE} readings.
+ * Every chunk but the last is full and sealed into a {@link CompressedChunk}; the last, the head, holds epoch
+ * seconds and fixed-point readings in parallel {@code long[]} arrays that take appends. An index still maps
+ * straight onto a chunk and an offset. The head starts small and doubles up to {@link #CHUNK_SIZE} so that meters
+ * with a short history do not pay for a whole block.
+ * <p>
+ * Appends are serialised per meter and publish a new {@link ReadingSnapshot} once per batch; readers only
+ * ever see published snapshots and never block a writer. An array reachable from a published snapshot is
+ * never modified below that snapshot's size: the sealed chunk array is copied rather than updated in place,
+ * and a late batch that lands inside the history is merged into a fresh head, decoding the sealed chunk it cuts.
+ * <p>
+ * Raw readings are unique by epoch second: a reading at a second already held replaces the one there, so a meter
+ * resending a batch does not count twice, and a batch that only repeats what is held changes nothing at all. Readings
+ * already rolled up have lost their timestamps, so a late reading for a rolled-up minute cannot be checked against
+ * them: it joins the raw readings like any other, and the next {@link #compact} rolls it up with the rest of its
+ * minute.
+ * <p>
+ * {@link #compact} ages the history down two rollup tiers: raw readings into one-minute buckets, one-minute buckets
+ * into one-hour buckets, and hourly buckets out of the history altogether. Raw readings are dropped from the front
+ * by moving an offset and releasing whole chunks, so the index arithmetic above is unchanged.
+ * <p>
+ * Snapshot versions are drawn from one counter shared by every history, so a meter's version keeps rising when its
+ * history is swapped for another, loaded from a snapshot or handed over by another node, and nothing keyed by
+ * version mistakes the new history for the old.
+ */
+public class ReadingHistory {
+
+    static final int CHUNK_SHIFT = 10;
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int INITIAL_CHUNK_CAPACITY = 16;
+    static final long MINUTE = 60;
+    static final long HOUR = 3600;
+    private static final AtomicLong VERSIONS = new AtomicLong();
+
+    private volatile ReadingSnapshot snapshot = ReadingSnapshot.EMPTY;
+
+    private CompressedChunk[] sealedChunks = new CompressedChunk[0];
+    private long[] headEpochSeconds = new long[0];
+    private long[] headReadings = new long[0];
+    private int offset;
+    private int size;
+    private final RollupTier minutes;
+    private final RollupTier hours;
+    private long totalCount;
+    private long sum;
+    private long firstEpochSecond = Long.MAX_VALUE;
+    private long lastEpochSecond = Long.MIN_VALUE;
+    private int scale;
+
+    public ReadingHistory() {
+        this(new RollupTier(MINUTE), new RollupTier(HOUR));
+    }
+
+    private ReadingHistory(RollupTier minutes, RollupTier hours) {
+        this.minutes = minutes;
+        this.hours = hours;
+    }
+
+    /**
+     * Rebuilds a history from what {@link ReadingSnapshot#writeTo} wrote, and publishes it. The sealed chunks are
+     * read back as they were written rather than re-encoded.
+     */
+    static ReadingHistory readFrom(ByteBuffer buffer) {
+        long totalCount = buffer.getLong();
+        long sum = buffer.getLong();
+        long firstEpochSecond = buffer.getLong();
+        long lastEpochSecond = buffer.getLong();
+        int scale = buffer.getInt();
+        int offset = buffer.getInt();
+        int size = offset + buffer.getInt();
+        CompressedChunk[] sealedChunks = new CompressedChunk[buffer.getInt()];
+        for (int i = 0; i < sealedChunks.length; i++) {
+            sealedChunks[i] = CompressedChunk.readFrom(buffer);
+        }
+        int headSize = size - (sealedChunks.length << CHUNK_SHIFT);
+        long[] headEpochSeconds = ReadingStoreFile.getLongs(buffer, headSize);
+        long[] headReadings = ReadingStoreFile.getLongs(buffer, headSize);
+
+        ReadingHistory history = new ReadingHistory(RollupTier.readFrom(MINUTE, buffer), RollupTier.readFrom(HOUR, buffer));
+        history.sealedChunks = sealedChunks;
+        history.headEpochSeconds = headEpochSeconds;
+        history.headReadings = headReadings;
+        history.offset = offset;
+        history.size = size;
+        history.totalCount = totalCount;
+        history.sum = sum;
+        history.firstEpochSecond = firstEpochSecond;
+        history.lastEpochSecond = lastEpochSecond;
+        history.scale = scale;
+        history.publish();
+        return history;
+    }
+
+    public synchronized void appendAll(long[] epochSeconds, long[] readings, int count) {
+        if (count == 0) {
+            publish();
+            return;
+        }
+        if (!isStrictlyIncreasing(epochSeconds, count)) {
+            epochSeconds = Arrays.copyOf(epochSeconds, count);
+            readings = Arrays.copyOf(readings, count);
+            sortByTime(epochSeconds, readings, count);
+            count = dropDuplicates(epochSeconds, readings, count);
+        }
+        if (size == offset || epochSeconds[0] > lastRawEpochSecond()) {
+            for (int i = 0; i < count; i++) {
+                write(epochSeconds[i], readings[i]);
+            }
+        } else if (!merge(epochSeconds, readings, count)) {
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            sum += readings[i];
+            scale = FixedPoint.scaleOf(readings[i], scale);
+        }
+        totalCount += count;
+        firstEpochSecond = Math.min(firstEpochSecond, epochSeconds[0]);
+        lastEpochSecond = Math.max(lastEpochSecond, epochSeconds[count - 1]);
+        publish();
+    }
+
+    /**
+     * Rolls raw readings taken before {@code rawBefore} up into minutes, minutes before {@code minutesBefore} up
+     * into hours, and drops hours before {@code hoursBefore}. The cut-offs should fall on minute and hour
+     * boundaries so that buckets are only ever appended; a bucket that already exists is merged at a copying cost.
+     */
+    public synchronized void compact(long rawBefore, long minutesBefore, long hoursBefore) {
+        int rolledUpReadings = rollUpReadings(offset + snapshot.lowerBound(rawBefore));
+        int rolledUpMinutes = rollUpMinutes(minutes.lowerBound(minutesBefore));
+        int droppedHours = hours.lowerBound(hoursBefore);
+        if (droppedHours > 0) {
+            totalCount -= hours.count();
+            sum -= hours.sum();
+            hours.dropFirst(droppedHours);
+            totalCount += hours.count();
+            sum += hours.sum();
+            firstEpochSecond = earliestEpochSecond();
+            if (totalCount == 0) {
+                lastEpochSecond = Long.MIN_VALUE;
+            }
+        }
+        if (rolledUpReadings > 0 || rolledUpMinutes > 0 || droppedHours > 0) {
+            publish();
+        }
+    }
+
+    public ReadingSnapshot snapshot() {
+        return snapshot;
+    }
+
+    private int rollUpReadings(int end) {
+        ReadingCursor cursor = cursor(offset);
+        long bucketStart = Long.MIN_VALUE;
+        long count = 0;
+        long bucketSum = 0;
+        long minimum = Long.MAX_VALUE;
+        long maximum = Long.MIN_VALUE;
+        for (int position = offset; position < end; position++) {
+            cursor.next();
+            long start = minutes.bucketStart(cursor.epochSecond());
+            if (count > 0 && start != bucketStart) {
+                minutes.add(bucketStart, count, bucketSum, minimum, maximum);
+                count = 0;
+                bucketSum = 0;
+                minimum = Long.MAX_VALUE;
+                maximum = Long.MIN_VALUE;
+            }
+            long reading = cursor.reading();
+            bucketStart = start;
+            count++;
+            bucketSum += reading;
+            minimum = Math.min(minimum, reading);
+            maximum = Math.max(maximum, reading);
+        }
+        if (count > 0) {
+            minutes.add(bucketStart, count, bucketSum, minimum, maximum);
+        }
+        int rolledUp = end - offset;
+        dropReadingsBefore(end);
+        return rolledUp;
+    }
+
+    private int rollUpMinutes(int end) {
+        int index = 0;
+        while (index < end) {
+            long bucketStart = hours.bucketStart(minutes.startAt(index));
+            long bucketEnd = bucketStart + HOUR;
+            long count = 0;
+            long bucketSum = 0;
+            long minimum = Long.MAX_VALUE;
+            long maximum = Long.MIN_VALUE;
+            for (; index < end && minutes.startAt(index) < bucketEnd; index++) {
+                count += minutes.countAt(index);
+                bucketSum += minutes.sumAt(index);
+                minimum = Math.min(minimum, minutes.minimumAt(index));
+                maximum = Math.max(maximum, minutes.maximumAt(index));
+            }
+            hours.add(bucketStart, count, bucketSum, minimum, maximum);
+        }
+        minutes.dropFirst(end);
+        return end;
+    }
+
+    /**
+     * Moves the start of the raw readings up to {@code position}, releasing chunks that are no longer needed.
+     */
+    private void dropReadingsBefore(int position) {
+        if (position == size) {
+            sealedChunks = new CompressedChunk[0];
+            headEpochSeconds = new long[0];
+            headReadings = new long[0];
+            offset = 0;
+            size = 0;
+            return;
+        }
+        int chunks = position >>> CHUNK_SHIFT;
+        if (chunks > 0) {
+            sealedChunks = Arrays.copyOfRange(sealedChunks, chunks, sealedChunks.length);
+            position -= chunks << CHUNK_SHIFT;
+            size -= chunks << CHUNK_SHIFT;
+        }
+        offset = position;
+    }
+
+    private long earliestEpochSecond() {
+        if (hours.size() > 0) {
+            return hours.startAt(0);
+        }
+        if (minutes.size() > 0) {
+            return minutes.startAt(0);
+        }
+        if (size == offset) {
+            return Long.MAX_VALUE;
+        }
+        ReadingCursor cursor = cursor(offset);
+        cursor.next();
+        return cursor.epochSecond();
+    }
+
+    /**
+     * Merges a batch that starts at or before the newest raw reading into the history; a reading at the same epoch
+     * second as one already held replaces it. Returns {@code false}, leaving the history untouched, if the batch
+     * only repeats readings already held.
+     */
+    private boolean merge(long[] epochSeconds, long[] readings, int count) {
+        int from = offset + snapshot.lowerBound(epochSeconds[0]);
+        int tail = size - from;
+        long[] tailEpochSeconds = new long[tail];
+        long[] tailReadings = new long[tail];
+        ReadingCursor cursor = cursor(from);
+        for (int i = 0; i < tail; i++) {
+            cursor.next();
+            tailEpochSeconds[i] = cursor.epochSecond();
+            tailReadings[i] = cursor.reading();
+        }
+        if (isResend(tailEpochSeconds, tailReadings, tail, epochSeconds, readings, count)) {
+            return false;
+        }
+        truncate(from);
+
+        int i = 0;
+        int j = 0;
+        while (i < tail || j < count) {
+            if (j == count || (i < tail && tailEpochSeconds[i] < epochSeconds[j])) {
+                write(tailEpochSeconds[i], tailReadings[i]);
+                i++;
+            } else {
+                if (i < tail && tailEpochSeconds[i] == epochSeconds[j]) {
+                    sum -= tailReadings[i];
+                    totalCount--;
+                    i++;
+                }
+                write(epochSeconds[j], readings[j]);
+                j++;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether every reading of the batch is already held, at the same epoch second and with the same value.
+     */
+    private static boolean isResend(long[] heldEpochSeconds, long[] heldReadings, int held,
+                                    long[] epochSeconds, long[] readings, int count) {
+        int i = 0;
+        for (int j = 0; j < count; j++) {
+            while (i < held && heldEpochSeconds[i] < epochSeconds[j]) {
+                i++;
+            }
+            if (i == held || heldEpochSeconds[i] != epochSeconds[j] || heldReadings[i] != readings[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void write(long epochSecond, long reading) {
+        int index = size & CHUNK_MASK;
+        if (index == headEpochSeconds.length) {
+            growHead();
+        }
+        headEpochSeconds[index] = epochSecond;
+        headReadings[index] = reading;
+        size++;
+        if ((size & CHUNK_MASK) == 0) {
+            seal();
+        }
+    }
+
+    /**
+     * Drops everything from {@code newSize} onwards. The chunk that is cut becomes a fresh head, decoded if it was
+     * sealed and copied if not, so that published snapshots keep their own version of it.
+     */
+    private void truncate(int newSize) {
+        int chunk = newSize >>> CHUNK_SHIFT;
+        int index = newSize & CHUNK_MASK;
+        if (chunk < sealedChunks.length) {
+            headEpochSeconds = new long[index == 0 ? 0 : CHUNK_SIZE];
+            headReadings = new long[headEpochSeconds.length];
+            sealedChunks[chunk].decode(headEpochSeconds, headReadings, index);
+            sealedChunks = Arrays.copyOf(sealedChunks, chunk);
+        } else {
+            headEpochSeconds = headEpochSeconds.clone();
+            headReadings = headReadings.clone();
+        }
+        size = newSize;
+    }
+
+    private ReadingCursor cursor(int position) {
+        return new ReadingCursor(sealedChunks, headEpochSeconds, headReadings, position, size);
+    }
+
+    private long lastRawEpochSecond() {
+        int index = size & CHUNK_MASK;
+        return index > 0 ? headEpochSeconds[index - 1] : sealedChunks[sealedChunks.length - 1].lastEpochSecond();
+    }
+
+    private void publish() {
+        ReadingAggregates aggregates = totalCount == 0
+                ? ReadingSnapshot.NO_READINGS
+                : new ReadingAggregates(totalCount, sum, firstEpochSecond, lastEpochSecond, scale);
+        snapshot = new ReadingSnapshot(sealedChunks, headEpochSeconds, headReadings, offset, size - offset,
+                minutes.snapshot(), hours.snapshot(), aggregates, VERSIONS.incrementAndGet());
+    }
+
+    private void growHead() {
+        int capacity = Math.min(Math.max(INITIAL_CHUNK_CAPACITY, headEpochSeconds.length * 2), CHUNK_SIZE);
+        headEpochSeconds = Arrays.copyOf(headEpochSeconds, capacity);
+        headReadings = Arrays.copyOf(headReadings, capacity);
+    }
+
+    /**
+     * Compresses the full head into a sealed chunk and starts an empty one.
+     */
+    private void seal() {
+        sealedChunks = Arrays.copyOf(sealedChunks, sealedChunks.length + 1);
+        sealedChunks[sealedChunks.length - 1] = CompressedChunk.encode(headEpochSeconds, headReadings, CHUNK_SIZE);
+        headEpochSeconds = new long[0];
+        headReadings = new long[0];
+    }
+
+    private static boolean isStrictlyIncreasing(long[] epochSeconds, int count) {
+        for (int i = 1; i < count; i++) {
+            if (epochSeconds[i] <= epochSeconds[i - 1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Keeps only the last of each run of readings at the same epoch second, returning how many are left.
+     */
+    private static int dropDuplicates(long[] epochSeconds, long[] readings, int count) {
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            if (i + 1 < count && epochSeconds[i + 1] == epochSeconds[i]) {
+                continue;
+            }
+            epochSeconds[kept] = epochSeconds[i];
+            readings[kept] = readings[i];
+            kept++;
+        }
+        return kept;
+    }
+
+    /**
+     * Stable merge sort of the first {@code count} pairs by epoch second.
+     */
+    private static void sortByTime(long[] epochSeconds, long[] readings, int count) {
+        long[] epochSecondsBuffer = new long[count];
+        long[] readingsBuffer = new long[count];
+        for (int width = 1; width < count; width *= 2) {
+            for (int low = 0; low < count; low += 2 * width) {
+                int middle = Math.min(low + width, count);
+                int high = Math.min(low + 2 * width, count);
+                int i = low;
+                int j = middle;
+                for (int k = low; k < high; k++) {
+                    if (j == high || (i < middle && epochSeconds[i] <= epochSeconds[j])) {
+                        epochSecondsBuffer[k] = epochSeconds[i];
+                        readingsBuffer[k] = readings[i++];
+                    } else {
+                        epochSecondsBuffer[k] = epochSeconds[j];
+                        readingsBuffer[k] = readings[j++];
+                    }
+                }
+            }
+            System.arraycopy(epochSecondsBuffer, 0, epochSeconds, 0, count);
+            System.arraycopy(readingsBuffer, 0, readings, 0, count);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package uk.tw.energy.store;
+
+import uk.tw.energy.domain.ElectricityReading;
+
+import java.time.Instant;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * Read-only {@code List} over a slice of a {@link ReadingSnapshot}; readings are materialised one at a time as
+ * they are requested, typically by Jackson while writing a response. Reading in order streams through a single
+ * {@link ReadingCursor}; any other access starts a new one at the requested index.
+ */
+class ReadingHistoryView extends AbstractList<ElectricityReading> implements RandomAccess {
+
+    private final ReadingSnapshot snapshot;
+    private final int fromIndex;
+    private final int size;
+    private ReadingCursor cursor;
+    private int nextIndex = -1;
+
+    ReadingHistoryView(ReadingSnapshot snapshot, int fromIndex, int toIndex) {
+        this.snapshot = snapshot;
+        this.fromIndex = fromIndex;
+        this.size = toIndex - fromIndex;
+    }
+
+    @Override
+    public synchronized ElectricityReading get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        if (index != nextIndex) {
+            cursor = snapshot.cursor(fromIndex + index);
+        }
+        cursor.next();
+        nextIndex = index + 1;
+        return new ElectricityReading(Instant.ofEpochSecond(cursor.epochSecond()), FixedPoint.toBigDecimal(cursor.reading()));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+}
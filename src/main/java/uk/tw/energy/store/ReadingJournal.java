@@ -0,0 +1,50 @@
+package uk.tw.energy.store;
+
+import java.io.IOException;
+
+/**
+ * Write-ahead log for readings: a batch is appended before it is applied to the in-memory store, and
+ * {@link #replay} feeds every logged batch back on startup.
+ */
+public interface ReadingJournal extends AutoCloseable {
+
+    ReadingJournal NONE = new ReadingJournal() {
+        @Override
+        public void append(String smartMeterId, long[] epochSeconds, long[] readings, int count) {
+        }
+
+        @Override
+        public long replay(BatchConsumer consumer) {
+            return 0;
+        }
+
+        @Override
+        public void truncate() {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    interface BatchConsumer {
+        void accept(String smartMeterId, long[] epochSeconds, long[] readings, int count);
+    }
+
+    void append(String smartMeterId, long[] epochSeconds, long[] readings, int count);
+
+    /**
+     * Hands every logged batch to {@code consumer}, on the calling thread and in the order they were appended.
+     *
+     * @return the number of readings replayed
+     */
+    long replay(BatchConsumer consumer) throws IOException;
+
+    /**
+     * Forgets every batch logged so far, once a snapshot of the store holds all of them.
+     */
+    void truncate() throws IOException;
+
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,227 @@
+package uk.tw.energy.store;
+
+import uk.tw.energy.domain.ElectricityReading;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Immutable view of a {@link ReadingHistory} at the moment it was taken, in time order. The sealed chunks are
+ * immutable and the head arrays may be shared with the live history, but the writer only ever touches head slots
+ * at or beyond {@link #size()}, so a snapshot stays consistent without holding any lock. Every published snapshot
+ * of a history carries a higher {@link #version()} than the one before it.
+ * <p>
+ * The indexed accessors cover the raw readings still held. Reaching into a sealed chunk by index decodes it from
+ * its start, so anything that walks a range should use a {@link #cursor(int) cursor} instead. Older readings live
+ * on only in the {@link #minutes()} and {@link #hours()} rollups; {@link #aggregates()} covers all three tiers.
+ */
+public final class ReadingSnapshot {
+
+    static final ReadingAggregates NO_READINGS = new ReadingAggregates(0, 0, Long.MAX_VALUE, Long.MIN_VALUE, 0);
+    static final ReadingSnapshot EMPTY = new ReadingSnapshot(new CompressedChunk[0], new long[0], new long[0], 0, 0,
+            new RollupTier(ReadingHistory.MINUTE).snapshot(), new RollupTier(ReadingHistory.HOUR).snapshot(), NO_READINGS, 0);
+
+    private final CompressedChunk[] sealedChunks;
+    private final long[] headEpochSeconds;
+    private final long[] headReadings;
+    private final int offset;
+    private final int size;
+    private final Rollup minutes;
+    private final Rollup hours;
+    private final ReadingAggregates aggregates;
+    private final long version;
+
+    ReadingSnapshot(CompressedChunk[] sealedChunks, long[] headEpochSeconds, long[] headReadings, int offset, int size,
+                    Rollup minutes, Rollup hours, ReadingAggregates aggregates, long version) {
+        this.sealedChunks = sealedChunks;
+        this.headEpochSeconds = headEpochSeconds;
+        this.headReadings = headReadings;
+        this.offset = offset;
+        this.size = size;
+        this.minutes = minutes;
+        this.hours = hours;
+        this.aggregates = aggregates;
+        this.version = version;
+    }
+
+    public long version() {
+        return version;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public ReadingAggregates aggregates() {
+        return aggregates;
+    }
+
+    /**
+     * Totals over every tier for readings taken at or after {@code fromEpochSecond} and strictly before
+     * {@code toEpochSecond}. A rollup bucket is included if it starts inside the period and counts as spanning its
+     * whole window.
+     */
+    public ReadingAggregates aggregates(long fromEpochSecond, long toEpochSecond) {
+        if (fromEpochSecond == Long.MIN_VALUE && toEpochSecond == Long.MAX_VALUE) {
+            return aggregates;
+        }
+        long count = 0;
+        long sum = 0;
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        for (Rollup rollup : new Rollup[]{hours, minutes}) {
+            int to = rollup.lowerBound(toEpochSecond);
+            for (int i = rollup.lowerBound(fromEpochSecond); i < to; i++) {
+                count += rollup.countAt(i);
+                sum += rollup.sumAt(i);
+                first = Math.min(first, rollup.startAt(i));
+                last = Math.max(last, rollup.startAt(i) + rollup.widthSeconds());
+            }
+        }
+        int from = lowerBound(fromEpochSecond);
+        int to = lowerBound(toEpochSecond);
+        ReadingCursor cursor = cursor(from);
+        for (int i = from; i < to; i++) {
+            cursor.next();
+            count++;
+            sum += cursor.reading();
+            first = Math.min(first, cursor.epochSecond());
+            last = Math.max(last, cursor.epochSecond());
+        }
+        return count == 0 ? NO_READINGS : new ReadingAggregates(count, sum, first, last, aggregates.getScale());
+    }
+
+    public Rollup minutes() {
+        return minutes;
+    }
+
+    public Rollup hours() {
+        return hours;
+    }
+
+    public long epochSecondAt(int index) {
+        return cursorAt(index).epochSecond();
+    }
+
+    public long readingAt(int index) {
+        return cursorAt(index).reading();
+    }
+
+    /**
+     * A cursor whose first {@link ReadingCursor#next()} moves to the reading at {@code index}.
+     */
+    public ReadingCursor cursor(int index) {
+        return new ReadingCursor(sealedChunks, headEpochSeconds, headReadings, offset + index, offset + size);
+    }
+
+    public ElectricityReading get(int index) {
+        ReadingCursor cursor = cursorAt(index);
+        return new ElectricityReading(Instant.ofEpochSecond(cursor.epochSecond()), FixedPoint.toBigDecimal(cursor.reading()));
+    }
+
+    public List<ElectricityReading> asList() {
+        return new ReadingHistoryView(this, 0, size);
+    }
+
+    /**
+     * Readings taken at or after {@code fromEpochSecond} and strictly before {@code toEpochSecond}.
+     */
+    public List<ElectricityReading> range(long fromEpochSecond, long toEpochSecond) {
+        int fromIndex = lowerBound(fromEpochSecond);
+        return new ReadingHistoryView(this, fromIndex, Math.max(fromIndex, lowerBound(toEpochSecond)));
+    }
+
+    /**
+     * Index of the first reading taken at or after {@code epochSecond}, or {@link #size()} if there is none.
+     */
+    public int lowerBound(long epochSecond) {
+        int low = offset >>> ReadingHistory.CHUNK_SHIFT;
+        int high = sealedChunks.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sealedChunks[middle].lastEpochSecond() < epochSecond) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        if (low < sealedChunks.length) {
+            int position = Math.max(offset, low << ReadingHistory.CHUNK_SHIFT);
+            ReadingCursor cursor = cursor(position - offset);
+            for (cursor.next(); cursor.epochSecond() < epochSecond; cursor.next()) {
+                position++;
+            }
+            return position - offset;
+        }
+        int head = sealedChunks.length << ReadingHistory.CHUNK_SHIFT;
+        int lowIndex = Math.max(offset, head) - head;
+        int highIndex = offset + size - head;
+        while (lowIndex < highIndex) {
+            int middle = (lowIndex + highIndex) >>> 1;
+            if (headEpochSeconds[middle] < epochSecond) {
+                lowIndex = middle + 1;
+            } else {
+                highIndex = middle;
+            }
+        }
+        return head + lowIndex - offset;
+    }
+
+    /**
+     * Index of the first reading taken strictly after {@code epochSecond}, or {@link #size()} if there is none.
+     */
+    public int upperBound(long epochSecond) {
+        return epochSecond == Long.MAX_VALUE ? size : lowerBound(epochSecond + 1);
+    }
+
+    public long estimatedBytes() {
+        long bytes = 2L * Long.BYTES * headEpochSeconds.length;
+        for (CompressedChunk chunk : sealedChunks) {
+            bytes += chunk.estimatedBytes();
+        }
+        return bytes + minutes.estimatedBytes() + hours.estimatedBytes();
+    }
+
+    int serializedBytes() {
+        int bytes = 4 * Long.BYTES + 4 * Integer.BYTES + 2 * Long.BYTES * headSize() + minutes.serializedBytes() + hours.serializedBytes();
+        for (CompressedChunk chunk : sealedChunks) {
+            bytes += chunk.serializedBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes the snapshot as {@code [long count][long sum][long first epoch second][long last epoch second][int scale]
+     * [int offset][int size][int sealed chunks][chunks][head epoch seconds][head readings][minutes][hours]}. The
+     * head's length follows from the offset, the size and the number of sealed chunks.
+     */
+    void writeTo(ByteBuffer buffer) {
+        buffer.putLong(aggregates.getCount())
+                .putLong(aggregates.getSum())
+                .putLong(aggregates.getFirstEpochSecond())
+                .putLong(aggregates.getLastEpochSecond())
+                .putInt(aggregates.getScale());
+        buffer.putInt(offset).putInt(size).putInt(sealedChunks.length);
+        for (CompressedChunk chunk : sealedChunks) {
+            chunk.writeTo(buffer);
+        }
+        ReadingStoreFile.putLongs(buffer, headEpochSeconds, 0, headSize());
+        ReadingStoreFile.putLongs(buffer, headReadings, 0, headSize());
+        minutes.writeTo(buffer);
+        hours.writeTo(buffer);
+    }
+
+    private int headSize() {
+        return offset + size - (sealedChunks.length << ReadingHistory.CHUNK_SHIFT);
+    }
+
+    private ReadingCursor cursorAt(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        ReadingCursor cursor = cursor(index);
+        cursor.next();
+        return cursor;
+    }
+}
@@ -0,0 +1,205 @@
+package uk.tw.energy.store;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Binary image of meters' reading histories, written when the application stops and memory-mapped back in when it
+ * starts. Sealed chunks are written as their compressed words and everything else as little-endian longs, so that
+ * loading a history is a handful of bulk copies out of the page cache rather than a replay of every reading.
+ * <p>
+ * A file is {@code [int magic][int format version][int meters]} followed by each meter as
+ * {@code [int id length][UTF-8 id][history]}; see {@link ReadingSnapshot#writeTo} for the history. A writer starts a
+ * new file once one reaches {@link #MAX_FILE_BYTES}, so that every file can be mapped in one piece, and files do not
+ * depend on each other, so they can be loaded in parallel.
+ */
+public final class ReadingStoreFile {
+
+    public static final String SUFFIX = ".readings";
+    static final int MAGIC = 0x4A4F4952;
+    static final int FORMAT_VERSION = 2;
+    static final long MAX_FILE_BYTES = 1L << 30;
+    private static final int HEADER_BYTES = 3 * Integer.BYTES;
+    private static final int BUFFER_BYTES = 1 << 22;
+
+    private ReadingStoreFile() {
+    }
+
+    /**
+     * Writes the current snapshot of histories {@code [0, count)} to {@code name-00000.readings},
+     * {@code name-00001.readings} and so on in {@code directory}, which must not hold files of those names already.
+     * A {@code null} history is skipped.
+     *
+     * @return the files written, none if there are no histories
+     */
+    public static List<Path> write(Path directory, String name, int count, IntFunction<String> smartMeterIds,
+                                   IntFunction<ReadingHistory> histories) throws IOException {
+        List<Path> files = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        FileChannel channel = null;
+        long fileBytes = 0;
+        int meters = 0;
+        try {
+            for (int index = 0; index < count; index++) {
+                ReadingHistory history = histories.apply(index);
+                if (history == null) {
+                    continue;
+                }
+                ReadingSnapshot snapshot = history.snapshot();
+                byte[] id = smartMeterIds.apply(index).getBytes(StandardCharsets.UTF_8);
+                int meterBytes = Integer.BYTES + id.length + snapshot.serializedBytes();
+                if (channel != null && fileBytes + meterBytes > MAX_FILE_BYTES) {
+                    finish(channel, buffer, meters);
+                    channel = null;
+                }
+                if (channel == null) {
+                    Path file = directory.resolve(String.format("%s-%05d%s", name, files.size(), SUFFIX));
+                    channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                    files.add(file);
+                    buffer.clear();
+                    buffer.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(0);
+                    fileBytes = HEADER_BYTES;
+                    meters = 0;
+                }
+                if (meterBytes > buffer.remaining()) {
+                    drain(channel, buffer);
+                    if (meterBytes > buffer.capacity()) {
+                        buffer = ByteBuffer.allocateDirect(meterBytes).order(ByteOrder.LITTLE_ENDIAN);
+                    }
+                }
+                buffer.putInt(id.length).put(id);
+                snapshot.writeTo(buffer);
+                fileBytes += meterBytes;
+                meters++;
+            }
+            if (channel != null) {
+                finish(channel, buffer, meters);
+                channel = null;
+            }
+        } finally {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Every reading store file in {@code directory}, in name order.
+     */
+    public static List<Path> files(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(SUFFIX))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Maps {@code file} and hands each meter's rebuilt history to {@code consumer}.
+     *
+     * @return the number of readings, raw and rolled up, in the file
+     */
+    public static long read(Path file, BiConsumer<String, ReadingHistory> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), file.toString(), consumer);
+        }
+    }
+
+    /**
+     * The current snapshots of {@code histories}, laid out just as a file would hold them but in memory, for a node
+     * handing meters over to another; {@link #read(byte[], BiConsumer)} rebuilds them.
+     */
+    public static byte[] image(List<String> smartMeterIds, List<ReadingSnapshot> snapshots) {
+        byte[][] ids = new byte[smartMeterIds.size()][];
+        long bytes = HEADER_BYTES;
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = smartMeterIds.get(i).getBytes(StandardCharsets.UTF_8);
+            bytes += Integer.BYTES + ids[i].length + snapshots.get(i).serializedBytes();
+        }
+        if (bytes > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Histories too big for one image: " + bytes + " bytes");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) bytes).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            buffer.putInt(ids[i].length).put(ids[i]);
+            snapshots.get(i).writeTo(buffer);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Rebuilds each meter's history from an {@link #image} and hands it to {@code consumer}.
+     *
+     * @return the number of readings, raw and rolled up, in the image
+     */
+    public static long read(byte[] image, BiConsumer<String, ReadingHistory> consumer) throws IOException {
+        return read(ByteBuffer.wrap(image), "Image", consumer);
+    }
+
+    private static long read(ByteBuffer buffer, String source, BiConsumer<String, ReadingHistory> consumer) throws IOException {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                throw new IOException(source + " is not a reading store file of version " + FORMAT_VERSION);
+            }
+            int meters = buffer.getInt();
+            long readings = 0;
+            for (int i = 0; i < meters; i++) {
+                byte[] id = new byte[buffer.getInt()];
+                buffer.get(id);
+                ReadingHistory history = ReadingHistory.readFrom(buffer);
+                readings += history.snapshot().aggregates().getCount();
+                consumer.accept(new String(id, StandardCharsets.UTF_8), history);
+            }
+            return readings;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+            throw new IOException(source + " is truncated or corrupt", e);
+        }
+    }
+
+    static void putLongs(ByteBuffer buffer, long[] values, int from, int count) {
+        buffer.asLongBuffer().put(values, from, count);
+        buffer.position(buffer.position() + Long.BYTES * count);
+    }
+
+    static long[] getLongs(ByteBuffer buffer, int count) {
+        long[] values = new long[count];
+        buffer.asLongBuffer().get(values);
+        buffer.position(buffer.position() + Long.BYTES * count);
+        return values;
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Flushes the file, fills in its meter count and forces it to disk.
+     */
+    private static void finish(FileChannel channel, ByteBuffer buffer, int meters) throws IOException {
+        drain(channel, buffer);
+        ByteBuffer count = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN).putInt(0, meters);
+        channel.write(count, 2 * Integer.BYTES);
+        channel.force(true);
+        channel.close();
+    }
+}
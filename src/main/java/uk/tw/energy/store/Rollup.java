@@ -0,0 +1,97 @@
+package uk.tw.energy.store;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Immutable view of one rollup tier of a {@link ReadingHistory}: fixed-width buckets in time order, each holding the
+ * count, sum, minimum and maximum of the readings taken inside it. A bucket is stamped with the epoch second its
+ * window starts at.
+ */
+public final class Rollup {
+
+    private final long widthSeconds;
+    private final long[] starts;
+    private final long[] counts;
+    private final long[] sums;
+    private final long[] minimums;
+    private final long[] maximums;
+    private final int from;
+    private final int size;
+
+    Rollup(long widthSeconds, long[] starts, long[] counts, long[] sums, long[] minimums, long[] maximums, int from, int to) {
+        this.widthSeconds = widthSeconds;
+        this.starts = starts;
+        this.counts = counts;
+        this.sums = sums;
+        this.minimums = minimums;
+        this.maximums = maximums;
+        this.from = from;
+        this.size = to - from;
+    }
+
+    public long widthSeconds() {
+        return widthSeconds;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long startAt(int index) {
+        return starts[from + index];
+    }
+
+    public long countAt(int index) {
+        return counts[from + index];
+    }
+
+    /**
+     * Sum of the bucket's readings in {@link FixedPoint} units.
+     */
+    public long sumAt(int index) {
+        return sums[from + index];
+    }
+
+    public long minimumAt(int index) {
+        return minimums[from + index];
+    }
+
+    public long maximumAt(int index) {
+        return maximums[from + index];
+    }
+
+    /**
+     * Index of the first bucket starting at or after {@code epochSecond}, or {@link #size()} if there is none.
+     */
+    public int lowerBound(long epochSecond) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (startAt(middle) < epochSecond) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    long estimatedBytes() {
+        return 5L * Long.BYTES * starts.length;
+    }
+
+    int serializedBytes() {
+        return Integer.BYTES + 5 * Long.BYTES * size;
+    }
+
+    /**
+     * Writes the buckets as {@code [int size]} and then each column in turn.
+     */
+    void writeTo(ByteBuffer buffer) {
+        buffer.putInt(size);
+        for (long[] column : new long[][]{starts, counts, sums, minimums, maximums}) {
+            ReadingStoreFile.putLongs(buffer, column, from, size);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package uk.tw.energy.store;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The writable side of a {@link Rollup}, owned and locked by its {@link ReadingHistory}. Buckets are appended in
+ * place beyond the published size and dropped from the front by moving an offset, so compaction rarely copies;
+ * the exception is a bucket that lands at or before the newest one (late readings), which is merged into fresh
+ * copies of the arrays so that published rollups never change.
+ */
+final class RollupTier {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final long widthSeconds;
+    private long[] starts = new long[0];
+    private long[] counts = new long[0];
+    private long[] sums = new long[0];
+    private long[] minimums = new long[0];
+    private long[] maximums = new long[0];
+    private int from;
+    private int to;
+    private long count;
+    private long sum;
+
+    RollupTier(long widthSeconds) {
+        this.widthSeconds = widthSeconds;
+    }
+
+    /**
+     * Reads back buckets written by {@link Rollup#writeTo}.
+     */
+    static RollupTier readFrom(long widthSeconds, ByteBuffer buffer) {
+        RollupTier tier = new RollupTier(widthSeconds);
+        int size = buffer.getInt();
+        if (size == 0) {
+            return tier;
+        }
+        tier.starts = ReadingStoreFile.getLongs(buffer, size);
+        tier.counts = ReadingStoreFile.getLongs(buffer, size);
+        tier.sums = ReadingStoreFile.getLongs(buffer, size);
+        tier.minimums = ReadingStoreFile.getLongs(buffer, size);
+        tier.maximums = ReadingStoreFile.getLongs(buffer, size);
+        tier.to = size;
+        for (int i = 0; i < size; i++) {
+            tier.count += tier.counts[i];
+            tier.sum += tier.sums[i];
+        }
+        return tier;
+    }
+
+    long bucketStart(long epochSecond) {
+        return Math.floorDiv(epochSecond, widthSeconds) * widthSeconds;
+    }
+
+    int size() {
+        return to - from;
+    }
+
+    long count() {
+        return count;
+    }
+
+    long sum() {
+        return sum;
+    }
+
+    long startAt(int index) {
+        return starts[from + index];
+    }
+
+    long countAt(int index) {
+        return counts[from + index];
+    }
+
+    long sumAt(int index) {
+        return sums[from + index];
+    }
+
+    long minimumAt(int index) {
+        return minimums[from + index];
+    }
+
+    long maximumAt(int index) {
+        return maximums[from + index];
+    }
+
+    int lowerBound(long epochSecond) {
+        return snapshot().lowerBound(epochSecond);
+    }
+
+    Rollup snapshot() {
+        return new Rollup(widthSeconds, starts, counts, sums, minimums, maximums, from, to);
+    }
+
+    /**
+     * Adds readings to the bucket starting at {@code bucketStart}, creating it if need be.
+     */
+    void add(long bucketStart, long bucketCount, long bucketSum, long minimum, long maximum) {
+        count += bucketCount;
+        sum += bucketSum;
+        if (to == from || bucketStart > starts[to - 1]) {
+            if (to == starts.length) {
+                resize(Math.max(INITIAL_CAPACITY, 2 * size()));
+            }
+            starts[to] = bucketStart;
+            counts[to] = bucketCount;
+            sums[to] = bucketSum;
+            minimums[to] = minimum;
+            maximums[to] = maximum;
+            to++;
+            return;
+        }
+        int index = lowerBound(bucketStart);
+        resize(Math.max(INITIAL_CAPACITY, size() + 1));
+        mergeAt(index, bucketStart, bucketCount, bucketSum, minimum, maximum);
+    }
+
+    /**
+     * Forgets the oldest {@code buckets} buckets, moving the rest into smaller arrays once they fill less than a
+     * quarter of the current ones.
+     */
+    void dropFirst(int buckets) {
+        for (int i = from; i < from + buckets; i++) {
+            count -= counts[i];
+            sum -= sums[i];
+        }
+        from += buckets;
+        if (from == to) {
+            starts = counts = sums = minimums = maximums = new long[0];
+            from = to = 0;
+        } else if (4 * size() < starts.length && starts.length > INITIAL_CAPACITY) {
+            resize(Math.max(INITIAL_CAPACITY, 2 * size()));
+        }
+    }
+
+    /**
+     * Folds a bucket into the freshly copied arrays, where {@code from} is 0 and there is room for one more.
+     */
+    private void mergeAt(int index, long bucketStart, long bucketCount, long bucketSum, long minimum, long maximum) {
+        if (index < to && starts[index] == bucketStart) {
+            counts[index] += bucketCount;
+            sums[index] += bucketSum;
+            minimums[index] = Math.min(minimums[index], minimum);
+            maximums[index] = Math.max(maximums[index], maximum);
+            return;
+        }
+        int tail = to - index;
+        System.arraycopy(starts, index, starts, index + 1, tail);
+        System.arraycopy(counts, index, counts, index + 1, tail);
+        System.arraycopy(sums, index, sums, index + 1, tail);
+        System.arraycopy(minimums, index, minimums, index + 1, tail);
+        System.arraycopy(maximums, index, maximums, index + 1, tail);
+        starts[index] = bucketStart;
+        counts[index] = bucketCount;
+        sums[index] = bucketSum;
+        minimums[index] = minimum;
+        maximums[index] = maximum;
+        to++;
+    }
+
+    /**
+     * Moves the live buckets to the front of fresh arrays with room for {@code capacity}.
+     */
+    private void resize(int capacity) {
+        int size = size();
+        starts = Arrays.copyOfRange(starts, from, from + capacity);
+        counts = Arrays.copyOfRange(counts, from, from + capacity);
+        sums = Arrays.copyOfRange(sums, from, from + capacity);
+        minimums = Arrays.copyOfRange(minimums, from, from + capacity);
+        maximums = Arrays.copyOfRange(maximums, from, from + capacity);
+        from = 0;
+        to = size;
+    }
+}
@@ -0,0 +1,60 @@
+package uk.tw.energy.configuration.generator;
+
+import org.junit.jupiter.api.Test;
+import uk.tw.energy.store.FixedPoint;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+
+public class FleetGeneratorTest {
+
+    private static final long MIDNIGHT = 1606694400L;
+
+    private final FleetGenerator generator = new FleetGenerator(42, MIDNIGHT, 60, 1440);
+
+    @Test
+    public void givenTheSameSeedShouldGenerateTheSameFleetWhateverTheParallelism() {
+        Map<String, long[]> serial = generateFleet(generator, 1);
+        Map<String, long[]> parallel = generateFleet(generator, 4);
+        Map<String, long[]> otherSeed = generateFleet(new FleetGenerator(43, MIDNIGHT, 60, 1440), 4);
+
+        assertThat(parallel.size(), is(100));
+        for (int meterIndex = 0; meterIndex < 100; meterIndex++) {
+            String smartMeterId = FleetGenerator.smartMeterId(meterIndex);
+            assertThat(Arrays.equals(parallel.get(smartMeterId), serial.get(smartMeterId)), is(true));
+            assertThat(Arrays.equals(otherSeed.get(smartMeterId), serial.get(smartMeterId)), is(false));
+        }
+    }
+
+    @Test
+    public void shouldGenerateADailyCycleOfPositiveReadings() {
+        long[] epochSeconds = new long[1440];
+        long night = 0;
+        long evening = 0;
+        for (int meterIndex = 0; meterIndex < 100; meterIndex++) {
+            long[] readings = new long[1440];
+            generator.generate(meterIndex, epochSeconds, readings);
+            for (int minute = 0; minute < 1440; minute++) {
+                assertThat(readings[minute], greaterThanOrEqualTo(FixedPoint.ONE / 100));
+                night += minute >= 120 && minute < 300 ? readings[minute] : 0;
+                evening += minute >= 1080 && minute < 1260 ? readings[minute] : 0;
+            }
+        }
+
+        assertThat(epochSeconds[0], is(MIDNIGHT));
+        assertThat(epochSeconds[1439], is(MIDNIGHT + 1439 * 60));
+        assertThat(evening, greaterThan(2 * night));
+    }
+
+    private static Map<String, long[]> generateFleet(FleetGenerator generator, int parallelism) {
+        Map<String, long[]> fleet = new ConcurrentHashMap<>();
+        generator.generate(100, parallelism, (smartMeterId, epochSeconds, readings, count) -> fleet.put(smartMeterId, readings));
+        return fleet;
+    }
+}
@@ -1,20 +1,43 @@
 package uk.tw.energy.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import uk.tw.energy.builders.MeterReadingsBuilder;
+import uk.tw.energy.domain.ElectricityReading;
 import uk.tw.energy.domain.Meter;
+import uk.tw.energy.controller.exceptions.IngestQueueFullException;
+import uk.tw.energy.controller.ingest.ReadingsWireFormat;
+import uk.tw.energy.service.ClusterService;
 import uk.tw.energy.service.MeterService;
+import uk.tw.energy.service.ReadingIngestQueue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -26,29 +49,42 @@ public class MeterReadingControllerTest {
     @Mock
     private MeterService meterService;
 
+    @Mock
+    private ReadingIngestQueue readingIngestQueue;
+
+    @Mock
+    private ClusterService clusterService;
+
+    @Mock
+    private HttpResponse<byte[]> forwardedResponse;
+
     @InjectMocks
     private MeterReadingController meterReadingController;
 
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json()
+            .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+            .build();
+
     @Test
-    public void givenNoMeterIdIsSuppliedWhenStoringShouldReturnErrorResponse() {
+    public void givenNoMeterIdIsSuppliedWhenStoringShouldReturnErrorResponse() throws IOException {
         Meter meter = new Meter(null, Collections.emptyList());
         assertThat(meterReadingController.storeReadings(meter).getStatusCode(), is(HttpStatus.INTERNAL_SERVER_ERROR));
     }
 
     @Test
-    public void givenEmptyMeterReadingShouldReturnErrorResponse() {
+    public void givenEmptyMeterReadingShouldReturnErrorResponse() throws IOException {
         Meter meter = new Meter(SMART_METER_ID, Collections.emptyList());
         assertThat(meterReadingController.storeReadings(meter).getStatusCode(), is(HttpStatus.INTERNAL_SERVER_ERROR));
     }
 
     @Test
-    public void givenNullReadingsAreSuppliedWhenStoringShouldReturnErrorResponse() {
+    public void givenNullReadingsAreSuppliedWhenStoringShouldReturnErrorResponse() throws IOException {
         Meter meter = new Meter(SMART_METER_ID, null);
         assertThat(meterReadingController.storeReadings(meter).getStatusCode(), is(HttpStatus.INTERNAL_SERVER_ERROR));
     }
 
     @Test
-    public void givenValidMeterReadingsShouldStore() {
+    public void givenValidMeterReadingsShouldStore() throws IOException {
         Meter meter = new MeterReadingsBuilder().setSmartMeterId(SMART_METER_ID)
                 .generateElectricityReadings()
                 .build();
@@ -59,21 +95,113 @@ public class MeterReadingControllerTest {
     }
 
     @Test
-    public void shouldReturnMeterReadingsForSmartMeterWithReadings() {
+    public void givenAsyncIngestionShouldQueueReadingsAndAccept() throws IOException {
+        Meter meter = new MeterReadingsBuilder().setSmartMeterId(SMART_METER_ID)
+                .generateElectricityReadings()
+                .build();
+        when(readingIngestQueue.isEnabled()).thenReturn(true);
+        when(readingIngestQueue.offer(SMART_METER_ID, meter.getElectricityReadings())).thenReturn(true);
+
+        assertThat(meterReadingController.storeReadings(meter).getStatusCode(), is(HttpStatus.ACCEPTED));
+        verify(meterService, never()).storeReadings(anyString(), any());
+    }
+
+    @Test
+    public void givenFullIngestQueueShouldRefuseReadings() {
         Meter meter = new MeterReadingsBuilder().setSmartMeterId(SMART_METER_ID)
                 .generateElectricityReadings()
                 .build();
+        when(readingIngestQueue.isEnabled()).thenReturn(true);
+        when(readingIngestQueue.offer(SMART_METER_ID, meter.getElectricityReadings())).thenReturn(false);
 
-        when(meterService.getReadings(SMART_METER_ID)).thenReturn(Optional.of(meter.getElectricityReadings()));
+        assertThrows(IngestQueueFullException.class, () -> meterReadingController.storeReadings(meter));
+    }
 
-        assertThat(meterReadingController.readReadings(SMART_METER_ID).getStatusCode(), is(HttpStatus.OK));
-        assertThat(meterReadingController.readReadings(SMART_METER_ID).getBody(), is(meter.getElectricityReadings()));
+    @Test
+    public void givenClusterAndAsyncIngestionShouldQueueReadingsOfAMeterOwnedHere() throws IOException {
+        Meter meter = new MeterReadingsBuilder().setSmartMeterId(SMART_METER_ID)
+                .generateElectricityReadings(3)
+                .build();
+        when(clusterService.isEnabled()).thenReturn(true);
+        when(clusterService.self()).thenReturn("http://localhost:8080");
+        when(clusterService.ownerOf(SMART_METER_ID)).thenReturn("http://localhost:8080");
+        when(readingIngestQueue.isEnabled()).thenReturn(true);
+        when(readingIngestQueue.offer(eq(SMART_METER_ID), any(long[].class), any(long[].class), eq(3))).thenReturn(true);
+
+        assertThat(meterReadingController.storeReadings(meter).getStatusCode(), is(HttpStatus.ACCEPTED));
+        verify(meterService, never()).storeReadings(anyString(), any(long[].class), any(long[].class), anyInt());
+    }
+
+    @Test
+    public void givenClusterShouldRefuseReadingsOfAMeterWhoseOwnerHasAFullIngestQueue() throws IOException {
+        Meter meter = new MeterReadingsBuilder().setSmartMeterId(SMART_METER_ID)
+                .generateElectricityReadings(3)
+                .build();
+        when(clusterService.isEnabled()).thenReturn(true);
+        when(clusterService.self()).thenReturn("http://localhost:8080");
+        when(clusterService.ownerOf(SMART_METER_ID)).thenReturn("http://localhost:8081");
+        when(clusterService.post(eq("http://localhost:8081"), eq("/readings/store-batch"), eq(ReadingsWireFormat.MEDIA_TYPE_VALUE), any()))
+                .thenReturn(forwardedResponse);
+        when(forwardedResponse.statusCode()).thenReturn(HttpStatus.SERVICE_UNAVAILABLE.value());
+        when(readingIngestQueue.isEnabled()).thenReturn(true);
+
+        assertThrows(IngestQueueFullException.class, () -> meterReadingController.storeReadings(meter));
+        verify(readingIngestQueue, never()).offer(anyString(), any(long[].class), any(long[].class), anyInt());
+    }
+
+    @Test
+    public void givenBinaryReadingsShouldStoreWithoutBuildingReadings() throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        ReadingsWireFormat.Encoder encoder = new ReadingsWireFormat.Encoder(payload);
+        encoder.meter(SMART_METER_ID, new long[]{1606636800, 1606636860}, new long[]{50300, 1000000}, 2);
+        encoder.flush();
+
+        assertThat(meterReadingController.storeBinaryReadings(new ByteArrayInputStream(payload.toByteArray())).getStatusCode(), is(HttpStatus.OK));
+        verify(meterService).storeReadings(eq(SMART_METER_ID), any(long[].class), any(long[].class), eq(2));
+    }
+
+    @Test
+    public void shouldReturnMeterReadingsForSmartMeterWithReadings() throws IOException {
+        Meter meter = new MeterReadingsBuilder().setSmartMeterId(SMART_METER_ID)
+                .generateElectricityReadings()
+                .build();
+        MeterService store = new MeterService(Map.of(SMART_METER_ID, meter.getElectricityReadings()));
+        MeterReadingController controller = new MeterReadingController(store, readingIngestQueue, clusterService);
+
+        ResponseEntity<StreamingResponseBody> response = controller.readReadings(SMART_METER_ID, null, null, null, null);
+
+        assertThat(response.getStatusCode(), is(HttpStatus.OK));
+        assertThat(body(response), is(objectMapper.writeValueAsString(store.getReadings(SMART_METER_ID).get())));
     }
 
     @Test
     public void givenMeterIdThatIsNotRecognisedShouldReturnNotFound() {
         String unknownSmartMeterId = "UNKNOWN";
-        when(meterService.getReadings(unknownSmartMeterId)).thenReturn(Optional.empty());
-        assertThat(meterReadingController.readReadings(SMART_METER_ID).getStatusCode(), is(HttpStatus.NOT_FOUND));
+        when(meterService.getSnapshot(unknownSmartMeterId)).thenReturn(Optional.empty());
+        assertThat(meterReadingController.readReadings(unknownSmartMeterId, null, null, null, null).getStatusCode(), is(HttpStatus.NOT_FOUND));
+    }
+
+    @Test
+    public void givenLimitSmallerThanWindowShouldReturnPageAndNextCursor() throws IOException {
+        Meter meter = new MeterReadingsBuilder().setSmartMeterId(SMART_METER_ID)
+                .generateElectricityReadings(5)
+                .build();
+        MeterService store = new MeterService(Map.of(SMART_METER_ID, meter.getElectricityReadings()));
+        MeterReadingController controller = new MeterReadingController(store, readingIngestQueue, clusterService);
+        List<ElectricityReading> stored = store.getReadings(SMART_METER_ID).get();
+        long from = stored.get(0).getTime().getEpochSecond();
+
+        ResponseEntity<StreamingResponseBody> response = controller.readReadings(SMART_METER_ID, from, null, 2, null);
+
+        assertThat(response.getStatusCode(), is(HttpStatus.OK));
+        assertThat(body(response), is(objectMapper.writeValueAsString(stored.subList(0, 2))));
+        assertThat(response.getHeaders().getFirst(MeterReadingController.NEXT_CURSOR_HEADER),
+                is(String.valueOf(stored.get(2).getTime().getEpochSecond())));
+    }
+
+    private static String body(ResponseEntity<StreamingResponseBody> response) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        response.getBody().writeTo(body);
+        return body.toString(StandardCharsets.UTF_8);
     }
 }
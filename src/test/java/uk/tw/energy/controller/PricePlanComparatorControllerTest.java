@@ -1,14 +1,23 @@
 package uk.tw.energy.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
+import uk.tw.energy.controller.exceptions.InvalidPricePlanException;
 import uk.tw.energy.controller.exceptions.NoConsumptionException;
+import uk.tw.energy.domain.PricePlan;
+import uk.tw.energy.domain.PricePlanSimulation;
+import uk.tw.energy.domain.PricePlanType;
 import uk.tw.energy.service.AccountService;
+import uk.tw.energy.service.ClusterService;
 import uk.tw.energy.service.PricePlanService;
+import uk.tw.energy.service.PricePlanSimulationService;
 
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.List;
 import java.util.Map;
@@ -18,6 +27,8 @@ import static java.util.Map.entry;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(SpringExtension.class)
@@ -37,6 +48,15 @@ public class PricePlanComparatorControllerTest {
     @Mock
     private AccountService accountService;
 
+    @Mock
+    private PricePlanSimulationService pricePlanSimulationService;
+
+    @Mock
+    private ClusterService clusterService;
+
+    @Spy
+    private ObjectMapper objectMapper = new ObjectMapper();
+
     @Test
     public void shouldCalculateCostForMeterReadingsForEveryPricePlan() {
 
@@ -44,11 +64,22 @@ public class PricePlanComparatorControllerTest {
         when(accountService.getPricePlanIdForSmartMeterId(SMART_METER_ID)).thenReturn(PRICE_PLAN_1_ID);
         when(pricePlanService.getAllPricePlanCostsForMeter(SMART_METER_ID)).thenReturn(Optional.of(pricePlanComparisons));
 
-        Map<String, Object> responseBody = controller.calculatedCostForEachPricePlan(SMART_METER_ID).getBody();
+        Map<String, Object> responseBody = controller.calculatedCostForEachPricePlan(SMART_METER_ID, null, null).getBody();
         assertThat(responseBody.get(PricePlanComparatorController.PRICE_PLAN_ID_KEY), is(PRICE_PLAN_1_ID));
         assertThat(responseBody.get(PricePlanComparatorController.PRICE_PLAN_COMPARISONS_KEY), is(pricePlanComparisons));
     }
 
+    @Test
+    public void givenPeriodShouldCalculateCostForReadingsInsideIt() {
+
+        Map<String, BigDecimal> pricePlanComparisons = createPricePlanCostComparisons();
+        when(accountService.getPricePlanIdForSmartMeterId(SMART_METER_ID)).thenReturn(PRICE_PLAN_1_ID);
+        when(pricePlanService.getAllPricePlanCostsForMeter(SMART_METER_ID, 1606694400L, Long.MAX_VALUE)).thenReturn(Optional.of(pricePlanComparisons));
+
+        Map<String, Object> responseBody = controller.calculatedCostForEachPricePlan(SMART_METER_ID, 1606694400L, null).getBody();
+        assertThat(responseBody.get(PricePlanComparatorController.PRICE_PLAN_COMPARISONS_KEY), is(pricePlanComparisons));
+    }
+
     @Test
     public void shouldRecommendCheapestPricePlansInOrderNoLimitForMeterUsage() {
 
@@ -101,7 +132,55 @@ public class PricePlanComparatorControllerTest {
     @Test
     public void givenNoMatchingMeterIdShouldReturnNotFound() {
         when(pricePlanService.getAllPricePlanCostsForMeter(SMART_METER_ID)).thenReturn(Optional.empty());
-        assertThrows(NoConsumptionException.class, () -> controller.calculatedCostForEachPricePlan("not-found"));
+        assertThrows(NoConsumptionException.class, () -> controller.calculatedCostForEachPricePlan("not-found", null, null));
+    }
+
+    @Test
+    public void givenMoreCandidatesThanAllowedShouldRejectSimulation() {
+        when(pricePlanSimulationService.getMaxCandidates()).thenReturn(1);
+        List<PricePlan> candidates = List.of(
+                new PricePlan("candidate-0", "supplier", BigDecimal.ONE, PricePlanType.STANDARD_PRICE_PLAN),
+                new PricePlan("candidate-1", "supplier", BigDecimal.ONE, PricePlanType.STANDARD_PRICE_PLAN));
+
+        assertThrows(InvalidPricePlanException.class, () -> controller.simulatePricePlans(candidates, null, null));
+    }
+
+    @Test
+    public void givenCandidatesSharingANameShouldRejectSimulation() {
+        when(pricePlanSimulationService.getMaxCandidates()).thenReturn(10);
+        List<PricePlan> candidates = List.of(
+                new PricePlan("candidate", "supplier", BigDecimal.ONE, PricePlanType.STANDARD_PRICE_PLAN),
+                new PricePlan("candidate", "supplier", BigDecimal.TEN, PricePlanType.STANDARD_PRICE_PLAN));
+
+        assertThrows(InvalidPricePlanException.class, () -> controller.simulatePricePlans(candidates, null, null));
+    }
+
+    @Test
+    public void givenClusterShouldAddUpEveryMembersSimulation() throws IOException {
+        when(pricePlanSimulationService.getMaxCandidates()).thenReturn(10);
+        List<PricePlan> candidates = List.of(new PricePlan("candidate", "supplier", BigDecimal.ONE, PricePlanType.STANDARD_PRICE_PLAN));
+        when(pricePlanSimulationService.simulate(candidates, 1606694400L, Long.MAX_VALUE)).thenReturn(new PricePlanSimulation(2, 0, BigDecimal.valueOf(4),
+                List.of(new PricePlanSimulation.Candidate("candidate", BigDecimal.valueOf(3), new BigDecimal("1.5"), Map.of("min", BigDecimal.ONE),
+                        BigDecimal.valueOf(-1), Map.of("min", BigDecimal.valueOf(-1)), 1, 0, 1))));
+        PricePlanSimulation otherMember = new PricePlanSimulation(1, 1, BigDecimal.ZERO,
+                List.of(new PricePlanSimulation.Candidate("candidate", BigDecimal.valueOf(2), BigDecimal.valueOf(2), Map.of("min", BigDecimal.valueOf(2)),
+                        BigDecimal.ZERO, Map.of(), 0, 0, 0)));
+        when(clusterService.isEnabled()).thenReturn(true);
+        when(clusterService.gather(eq("/price-plans/simulate?from=1606694400&to=" + Long.MAX_VALUE), eq("application/json"), any()))
+                .thenReturn(List.of(objectMapper.writeValueAsBytes(otherMember)));
+
+        PricePlanSimulation simulation = controller.simulatePricePlans(candidates, 1606694400L, null).getBody();
+
+        assertThat(simulation.getMeters(), is(3L));
+        assertThat(simulation.getMetersWithoutCurrentPlan(), is(1L));
+        assertThat(simulation.getCurrentTotalCost(), is(BigDecimal.valueOf(4)));
+        PricePlanSimulation.Candidate candidate = simulation.getPricePlans().get(0);
+        assertThat(candidate.getTotalCost(), is(BigDecimal.valueOf(5)));
+        assertThat(candidate.getAverageCost(), is(new BigDecimal("1.666667")));
+        assertThat(candidate.getTotalChange(), is(BigDecimal.valueOf(-1)));
+        assertThat(candidate.getWinners(), is(1L));
+        assertThat(candidate.getUnchanged(), is(1L));
+        assertThat(candidate.getCostPercentiles().isEmpty(), is(true));
     }
 
     private Map<String, BigDecimal> createPricePlanCostComparisons() {
@@ -0,0 +1,77 @@
+package uk.tw.energy.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.junit.jupiter.api.Test;
+import uk.tw.energy.domain.ElectricityReading;
+import uk.tw.energy.service.MeterService;
+import uk.tw.energy.store.FixedPoint;
+import uk.tw.energy.store.ReadingSnapshot;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ReadingsJsonWriterTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
+
+    @Test
+    public void shouldWriteWhatJacksonWritesForTheSameReadings() throws IOException {
+        long[] epochSeconds = {-62167219200L, -1, 0, 951782400, 1606636800, 253402300799L};
+        long[] readings = {0, 1, -500_000, 50_300, 12_000_000, Long.MAX_VALUE};
+        ReadingSnapshot snapshot = store(epochSeconds, readings);
+
+        assertThat(write(snapshot), is(objectMapper.writeValueAsString(snapshot.asList())));
+    }
+
+    @Test
+    public void givenReadingsSentWithTrailingZerosShouldWriteThemWithout() throws IOException {
+        ReadingSnapshot snapshot = store(new long[]{1606636800, 1606636860},
+                new long[]{FixedPoint.toFixed(new BigDecimal("15.0")), FixedPoint.toFixed(new BigDecimal("0.0500"))});
+
+        assertThat(write(snapshot), is("[{\"time\":\"2020-11-29T08:00:00Z\",\"reading\":15},"
+                + "{\"time\":\"2020-11-29T08:01:00Z\",\"reading\":0.05}]"));
+    }
+
+    @Test
+    public void givenHistoryLongerThanTheBufferShouldWriteItAll() throws IOException {
+        int count = ReadingsJsonWriter.BUFFER_BYTES;
+        long[] epochSeconds = new long[count];
+        long[] readings = new long[count];
+        Random random = new Random(3);
+        for (int i = 0; i < count; i++) {
+            epochSeconds[i] = 1606636800L + i * 61;
+            readings[i] = random.nextInt(10_000_000);
+        }
+        ReadingSnapshot snapshot = store(epochSeconds, readings);
+
+        String json = write(snapshot);
+
+        assertThat(json, is(objectMapper.writeValueAsString(snapshot.asList())));
+        List<ElectricityReading> last = snapshot.range(epochSeconds[count - 1], Long.MAX_VALUE);
+        assertThat(FixedPoint.toFixed(last.get(0).getReadingInKW()), is(readings[count - 1]));
+    }
+
+    private static ReadingSnapshot store(long[] epochSeconds, long[] readings) {
+        MeterService meterService = new MeterService(new HashMap<>());
+        meterService.storeReadings("smart-meter-0", epochSeconds, readings, epochSeconds.length);
+        return meterService.getSnapshot("smart-meter-0").get();
+    }
+
+    private static String write(ReadingSnapshot snapshot) throws IOException {
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        ReadingsJsonWriter.write(json, snapshot.cursor(0), snapshot.size());
+        return json.toString(StandardCharsets.UTF_8);
+    }
+}
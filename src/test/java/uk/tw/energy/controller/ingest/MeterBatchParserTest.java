@@ -0,0 +1,89 @@
+package uk.tw.energy.controller.ingest;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.tw.energy.controller.exceptions.InvalidReadingsException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class MeterBatchParserTest {
+
+    private MeterBatchParser parser;
+    private List<String> batches;
+
+    @BeforeEach
+    public void setUp() {
+        parser = new MeterBatchParser();
+        batches = new ArrayList<>();
+    }
+
+    @Test
+    public void shouldReadAJsonArrayOfMeters() throws IOException {
+        String json = "[{\"smartMeterId\":\"meter-0\",\"electricityReadings\":[{\"time\":1606636800,\"reading\":0.0503},"
+                + "{\"time\":\"2020-11-29T08:01:00Z\",\"reading\":1}]},"
+                + "{\"smartMeterId\":\"meter-1\",\"electricityReadings\":[{\"time\":1606636920,\"reading\":0.0222}]}]";
+
+        int meters = parser.parse(stream(json), this::record);
+
+        assertThat(meters, is(2));
+        assertThat(batches, is(List.of("meter-0:1606636800=50300,1606636860=1000000", "meter-1:1606636920=22200")));
+    }
+
+    @Test
+    public void shouldReadNewlineDelimitedMeters() throws IOException {
+        String ndjson = "{\"smartMeterId\":\"meter-0\",\"electricityReadings\":[{\"time\":1606636800,\"reading\":0.0503}]}\n"
+                + "{\"electricityReadings\":[{\"time\":1606636860,\"reading\":0.0621}],\"smartMeterId\":\"meter-1\"}\n";
+
+        int meters = parser.parse(stream(ndjson), this::record);
+
+        assertThat(meters, is(2));
+        assertThat(batches, is(List.of("meter-0:1606636800=50300", "meter-1:1606636860=62100")));
+    }
+
+    @Test
+    public void shouldHandOnLongHistoriesInBatches() throws IOException {
+        StringBuilder json = new StringBuilder("{\"smartMeterId\":\"meter-0\",\"electricityReadings\":[");
+        int readings = MeterBatchParser.BATCH_SIZE * 2 + 1;
+        for (int i = 0; i < readings; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"time\":").append(1606636800 + i * 10).append(",\"reading\":1}");
+        }
+        json.append("]}");
+        List<Integer> batchSizes = new ArrayList<>();
+
+        parser.parse(stream(json.toString()), (smartMeterId, epochSeconds, values, count) -> batchSizes.add(count));
+
+        assertThat(batchSizes, is(List.of(MeterBatchParser.BATCH_SIZE, MeterBatchParser.BATCH_SIZE, 1)));
+    }
+
+    @Test
+    public void givenMeterWithoutIdShouldRejectBatch() {
+        String json = "[{\"electricityReadings\":[{\"time\":1606636800,\"reading\":0.0503}]}]";
+        assertThrows(InvalidReadingsException.class, () -> parser.parse(stream(json), this::record));
+    }
+
+    @Test
+    public void givenMalformedJsonShouldRejectBatch() {
+        assertThrows(InvalidReadingsException.class, () -> parser.parse(stream("[{\"smartMeterId\":"), this::record));
+    }
+
+    private void record(String smartMeterId, long[] epochSeconds, long[] readings, int count) {
+        StringBuilder batch = new StringBuilder(smartMeterId).append(':');
+        for (int i = 0; i < count; i++) {
+            batch.append(i == 0 ? "" : ",").append(epochSeconds[i]).append('=').append(readings[i]);
+        }
+        batches.add(batch.toString());
+    }
+
+    private static InputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
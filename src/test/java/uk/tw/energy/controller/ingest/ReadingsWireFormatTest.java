@@ -0,0 +1,95 @@
+package uk.tw.energy.controller.ingest;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.tw.energy.controller.exceptions.InvalidReadingsException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ReadingsWireFormatTest {
+
+    private ReadingsWireFormat wireFormat;
+    private List<String> batches;
+
+    @BeforeEach
+    public void setUp() {
+        wireFormat = new ReadingsWireFormat();
+        batches = new ArrayList<>();
+    }
+
+    @Test
+    public void shouldReadBackWhatWasEncoded() throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        ReadingsWireFormat.Encoder encoder = new ReadingsWireFormat.Encoder(payload);
+        encoder.meter("meter-0", new long[]{1606636800, 1606636860, 1606636800}, new long[]{50300, 1000000, -7}, 3);
+        encoder.meter("m\u00e9t\u00e9r-1", new long[]{Long.MIN_VALUE, Long.MAX_VALUE}, new long[]{Long.MAX_VALUE, 0}, 2);
+        encoder.flush();
+
+        int meters = wireFormat.parse(new ByteArrayInputStream(payload.toByteArray()), this::record);
+
+        assertThat(meters, is(2));
+        assertThat(batches, is(List.of("meter-0:1606636800=50300,1606636860=1000000,1606636800=-7",
+                "m\u00e9t\u00e9r-1:" + Long.MIN_VALUE + "=" + Long.MAX_VALUE + "," + Long.MAX_VALUE + "=0")));
+    }
+
+    @Test
+    public void shouldHandOnLongHistoriesInBatches() throws IOException {
+        int readings = MeterBatchParser.BATCH_SIZE * 2 + 1;
+        long[] epochSeconds = new long[readings];
+        long[] values = new long[readings];
+        for (int i = 0; i < readings; i++) {
+            epochSeconds[i] = 1606636800 + i * 10;
+            values[i] = 1_000_000 + i % 7;
+        }
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        ReadingsWireFormat.Encoder encoder = new ReadingsWireFormat.Encoder(payload);
+        encoder.meter("meter-0", epochSeconds, values, readings);
+        encoder.flush();
+        List<Integer> batchSizes = new ArrayList<>();
+        List<Long> lastEpochSeconds = new ArrayList<>();
+
+        wireFormat.parse(new ByteArrayInputStream(payload.toByteArray()), (smartMeterId, batchEpochSeconds, batchValues, count) -> {
+            batchSizes.add(count);
+            lastEpochSeconds.add(batchEpochSeconds[count - 1]);
+        });
+
+        assertThat(batchSizes, is(List.of(MeterBatchParser.BATCH_SIZE, MeterBatchParser.BATCH_SIZE, 1)));
+        assertThat(lastEpochSeconds.get(2), is(epochSeconds[readings - 1]));
+        // steady ten second cadence with small changes: three bytes a reading
+        assertThat(payload.size() < readings * 3 + 20, is(true));
+    }
+
+    @Test
+    public void givenOtherPayloadShouldReject() {
+        byte[] json = "[{\"smartMeterId\":\"meter-0\"}]".getBytes();
+        assertThrows(InvalidReadingsException.class, () -> wireFormat.parse(new ByteArrayInputStream(json), this::record));
+    }
+
+    @Test
+    public void givenTruncatedPayloadShouldReject() throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        ReadingsWireFormat.Encoder encoder = new ReadingsWireFormat.Encoder(payload);
+        encoder.meter("meter-0", new long[]{1606636800, 1606636860}, new long[]{50300, 1000000}, 2);
+        encoder.flush();
+        byte[] truncated = Arrays.copyOf(payload.toByteArray(), payload.size() - 1);
+
+        assertThrows(InvalidReadingsException.class, () -> wireFormat.parse(new ByteArrayInputStream(truncated), this::record));
+    }
+
+    private void record(String smartMeterId, long[] epochSeconds, long[] readings, int count) {
+        StringBuilder batch = new StringBuilder(smartMeterId).append(':');
+        for (int i = 0; i < count; i++) {
+            batch.append(i == 0 ? "" : ",").append(epochSeconds[i]).append('=').append(readings[i]);
+        }
+        batches.add(batch.toString());
+    }
+}
@@ -0,0 +1,137 @@
+package uk.tw.energy.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Hands meters over to an owner served by a bare HTTP server in the same JVM.
+ */
+public class ClusterServiceTest {
+
+    private static final long FIRST_SECOND = 1606636800;
+
+    private final MeterService held = new MeterService(new HashMap<>());
+    private final MeterService owned = new MeterService(new HashMap<>());
+    private final AtomicInteger handoffs = new AtomicInteger();
+    private volatile Runnable duringFirstHandoff = () -> {
+    };
+    private HttpServer ownerServer;
+    private String owner;
+    private ClusterService node;
+    private String smartMeterId;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        ownerServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        owner = "http://localhost:" + ownerServer.getAddress().getPort();
+        ClusterService ownerNode = new ClusterService(false, owner, new String[0], 128, 5_000, 1_000, owned, new ObjectMapper());
+        ownerServer.createContext("/cluster/handoff", exchange -> {
+            try (InputStream body = exchange.getRequestBody(); OutputStream response = exchange.getResponseBody()) {
+                ownerNode.adopt(body.readAllBytes());
+                if (handoffs.getAndIncrement() == 0) {
+                    duringFirstHandoff.run();
+                }
+                exchange.sendResponseHeaders(200, -1);
+            }
+        });
+        ownerServer.start();
+
+        node = new ClusterService(false, "http://localhost:1", new String[0], 128, 5_000, 1_000, held, new ObjectMapper());
+        node.join(owner, true);
+        for (int i = 0; smartMeterId == null; i++) {
+            if (node.ownerOf("smart-meter-" + i).equals(owner)) {
+                smartMeterId = "smart-meter-" + i;
+            }
+        }
+        held.storeReadings(smartMeterId, new long[]{FIRST_SECOND, FIRST_SECOND + 10}, new long[]{1, 1}, 2);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        ownerServer.stop(0);
+        node.shutdown();
+    }
+
+    @Test
+    public void givenReadingsStoredWhileHandingOverShouldSendThemAgainBeforeDroppingTheMeter() {
+        storeReadingWhileHandingOver();
+
+        assertThat(node.handOff(), is(1));
+
+        assertThat(handoffs.get(), is(2));
+        assertThat(held.getSnapshot(smartMeterId), is(Optional.empty()));
+        assertThat(owned.getAggregates(smartMeterId).get().getCount(), is(3L));
+    }
+
+    @Test
+    public void givenNodeLeavingShouldHandOverReadingsStoredWhileItLeft() {
+        storeReadingWhileHandingOver();
+
+        node.leave(node.self(), true);
+
+        assertThat(node.members().contains(node.self()), is(false));
+        assertThat(held.getSnapshot(smartMeterId), is(Optional.empty()));
+        assertThat(owned.getAggregates(smartMeterId).get().getCount(), is(3L));
+    }
+
+    @Test
+    public void givenReadingsForwardedForAMeterOwnedElsewhereShouldHandThemOnToTheOwner() throws InterruptedException {
+        MeterService forwardedTo = new MeterService(new HashMap<>());
+        ClusterService rebalancing = new ClusterService(true, node.self(), new String[0], 128, 5_000, 10, forwardedTo, new ObjectMapper());
+        try {
+            rebalancing.join(owner, true);
+            // let the rebalance for the join find nothing to hand over
+            Thread.sleep(100);
+            forwardedTo.storeReadings(smartMeterId, new long[]{FIRST_SECOND}, new long[]{1}, 1);
+
+            for (int waited = 0; forwardedTo.getSnapshot(smartMeterId).isPresent() && waited < 5_000; waited += 10) {
+                Thread.sleep(10);
+            }
+            assertThat(forwardedTo.getSnapshot(smartMeterId), is(Optional.empty()));
+            assertThat(owned.getAggregates(smartMeterId).get().getCount(), is(1L));
+        } finally {
+            rebalancing.shutdown();
+        }
+    }
+
+    @Test
+    public void givenBodyToGatherShouldPostItToEveryOtherMember() throws IOException {
+        ownerServer.createContext("/echo", exchange -> {
+            try (InputStream body = exchange.getRequestBody(); OutputStream response = exchange.getResponseBody()) {
+                byte[] echo = (exchange.getRequestMethod() + " " + new String(body.readAllBytes(), StandardCharsets.UTF_8))
+                        .getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, echo.length);
+                response.write(echo);
+            }
+        });
+
+        List<byte[]> bodies = node.gather("/echo", "application/json", "[]".getBytes(StandardCharsets.UTF_8));
+
+        assertThat(bodies.size(), is(1));
+        assertThat(new String(bodies.get(0), StandardCharsets.UTF_8), is("POST []"));
+    }
+
+    /**
+     * Has the owner store a reading here for the meter while it takes the first image, as a request already in
+     * flight would.
+     */
+    private void storeReadingWhileHandingOver() {
+        duringFirstHandoff = () -> held.storeReadings(smartMeterId, new long[]{FIRST_SECOND + 400}, new long[]{1}, 1);
+    }
+}
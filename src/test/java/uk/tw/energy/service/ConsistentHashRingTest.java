@@ -0,0 +1,53 @@
+package uk.tw.energy.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+
+public class ConsistentHashRingTest {
+
+    private static final int METERS = 30_000;
+    private static final List<String> NODES = List.of("http://localhost:8080", "http://localhost:8081", "http://localhost:8082");
+
+    @Test
+    public void shouldSpreadMetersEvenlyAndAgreeWhateverTheOrderOfMembers() {
+        ConsistentHashRing ring = new ConsistentHashRing(NODES, 128);
+        ConsistentHashRing reversed = new ConsistentHashRing(List.of(NODES.get(2), NODES.get(1), NODES.get(0)), 128);
+        Map<String, Integer> meters = new HashMap<>();
+
+        for (int i = 0; i < METERS; i++) {
+            String owner = ring.owner("smart-meter-" + i);
+            assertThat(reversed.owner("smart-meter-" + i), is(owner));
+            meters.merge(owner, 1, Integer::sum);
+        }
+
+        for (String node : NODES) {
+            assertThat((double) meters.get(node), closeTo(METERS / 3.0, METERS * 0.05));
+        }
+    }
+
+    @Test
+    public void givenNodeJoiningShouldOnlyMoveMetersToIt() {
+        ConsistentHashRing ring = new ConsistentHashRing(NODES, 128);
+        ConsistentHashRing grown = ring.with("http://localhost:8083");
+        int moved = 0;
+
+        for (int i = 0; i < METERS; i++) {
+            String before = ring.owner("smart-meter-" + i);
+            String after = grown.owner("smart-meter-" + i);
+            if (!after.equals(before)) {
+                assertThat(after, is("http://localhost:8083"));
+                moved++;
+            }
+        }
+
+        assertThat((double) moved, closeTo(METERS / 4.0, METERS * 0.05));
+        assertThat(grown.without("http://localhost:8083").owner("smart-meter-1"), is(ring.owner("smart-meter-1")));
+    }
+}
@@ -0,0 +1,130 @@
+package uk.tw.energy.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.tw.energy.domain.ConsumptionDistribution;
+import uk.tw.energy.domain.MeterConsumption;
+import uk.tw.energy.domain.PricePlan;
+import uk.tw.energy.domain.PricePlanTotals;
+import uk.tw.energy.domain.PricePlanType;
+import uk.tw.energy.store.IdDictionary;
+import uk.tw.energy.store.ReadingJournal;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.comparesEqualTo;
+
+public class FleetAnalyticsServiceTest {
+
+    private static final long MIDNIGHT = 1606694400L;
+
+    private MeterService meterService;
+    private FleetAnalyticsService fleetAnalyticsService;
+
+    @BeforeEach
+    public void setUp() {
+        IdDictionary smartMeterIds = new IdDictionary();
+        Map<String, String> accounts = new HashMap<>();
+        for (int i = 0; i < 10; i++) {
+            accounts.put("smart-meter-" + i, i < 6 ? "standard" : "withdrawn");
+        }
+        AccountService accountService = new AccountService(accounts, smartMeterIds);
+        meterService = new MeterService(new HashMap<>(), smartMeterIds, ReadingJournal.NONE,
+                new SimpleMeterRegistry(), 4, "");
+        // meters 0 to 4 are stored before the analytics start, 5 to 9 after
+        for (int i = 0; i < 5; i++) {
+            storeHourAt(i, i + 1);
+        }
+        fleetAnalyticsService = new FleetAnalyticsService(
+                List.of(new PricePlan("standard", "supplier", BigDecimal.valueOf(2), PricePlanType.STANDARD_PRICE_PLAN)),
+                meterService, accountService, 3, 0.01);
+        for (int i = 5; i < 10; i++) {
+            storeHourAt(i, i + 1);
+        }
+    }
+
+    @Test
+    public void shouldKeepTheBiggestConsumersAsReadingsChange() {
+        List<MeterConsumption> topConsumers = fleetAnalyticsService.topConsumers(3);
+
+        assertThat(topConsumers.get(0).getSmartMeterId(), is("smart-meter-9"));
+        assertThat(topConsumers.get(0).getConsumption(), comparesEqualTo(new BigDecimal("5.5")));
+        assertThat(topConsumers.get(0).getDailyConsumption(), comparesEqualTo(BigDecimal.valueOf(132)));
+        assertThat(topConsumers.get(2).getSmartMeterId(), is("smart-meter-7"));
+
+        // a reading of nothing a second later cuts meter 9's average to a third, dropping it below meters 5 to 8
+        meterService.storeReadings("smart-meter-9", new long[]{MIDNIGHT + 3601}, new long[]{0}, 1);
+        meterService.storeReadings("smart-meter-1", new long[]{MIDNIGHT + 7200, MIDNIGHT + 10800},
+                new long[]{100_000_000, 100_000_000}, 2);
+
+        topConsumers = fleetAnalyticsService.topConsumers(3);
+        assertThat(topConsumers.get(0).getSmartMeterId(), is("smart-meter-1"));
+        assertThat(topConsumers.get(1).getSmartMeterId(), is("smart-meter-8"));
+        assertThat(topConsumers.get(2).getSmartMeterId(), is("smart-meter-7"));
+    }
+
+    @Test
+    public void shouldSketchDailyConsumptionAcrossShards() {
+        ConsumptionDistribution distribution = fleetAnalyticsService.dailyConsumption(new double[]{50, 100});
+
+        assertThat(distribution.getMeters(), is(10L));
+        assertThat(distribution.getPercentiles().get("p50").doubleValue(), closeTo(72, 0.72));
+        assertThat(distribution.getPercentiles().get("p100").doubleValue(), closeTo(132, 1.32));
+    }
+
+    @Test
+    public void shouldTotalEachAccountPricePlan() {
+        List<PricePlanTotals> totals = fleetAnalyticsService.pricePlanTotals();
+
+        PricePlanTotals standard = totals.stream().filter(plan -> plan.getPricePlanId().equals("standard")).findFirst().get();
+        assertThat(standard.getMeters(), is(6L));
+        assertThat(standard.getConsumption(), comparesEqualTo(new BigDecimal("13.5")));
+        assertThat(standard.getCost(), comparesEqualTo(BigDecimal.valueOf(27)));
+        PricePlanTotals withdrawn = totals.stream().filter(plan -> plan.getPricePlanId().equals("withdrawn")).findFirst().get();
+        assertThat(withdrawn.getMeters(), is(4L));
+        assertThat(withdrawn.getCost(), is(nullValue()));
+    }
+
+    @Test
+    public void givenMetersHandedToAnotherNodeShouldLeaveThemOut() {
+        handOver(9);
+        handOver(5);
+
+        assertThat(fleetAnalyticsService.topConsumers(3).get(0).getSmartMeterId(), is("smart-meter-8"));
+        assertThat(fleetAnalyticsService.topConsumers(3).get(2).getSmartMeterId(), is("smart-meter-6"));
+        PricePlanTotals standard = fleetAnalyticsService.pricePlanTotals().stream()
+                .filter(plan -> plan.getPricePlanId().equals("standard")).findFirst().get();
+        assertThat(standard.getMeters(), is(5L));
+        assertThat(standard.getConsumption(), comparesEqualTo(BigDecimal.TEN));
+        // the other node's share merges back in through its sketch
+        ConsumptionDistribution distribution = fleetAnalyticsService.dailyConsumption(new double[]{100},
+                List.of(fleetAnalyticsService.dailyConsumptionSketch()));
+        assertThat(distribution.getMeters(), is(16L));
+        assertThat(distribution.getPercentiles().get("p100").doubleValue(), closeTo(120, 1.2));
+
+        storeHourAt(9, 10);
+        assertThat(fleetAnalyticsService.topConsumers(3).get(0).getSmartMeterId(), is("smart-meter-9"));
+    }
+
+    private void handOver(int i) {
+        int meterId = meterService.smartMeterIds().find("smart-meter-" + i);
+        assertThat(meterService.removeHistory(meterId, meterService.getSnapshot(meterId).get().version()), is(true));
+    }
+
+    /**
+     * Meter {@code i} reads 0.9 kW at midnight and {@code kW + 0.1} an hour later, so consumes {@code (kW + 1) / 2}
+     * kWh; the tenths keep the average to one decimal place.
+     */
+    private void storeHourAt(int i, long kW) {
+        meterService.storeReadings("smart-meter-" + i, new long[]{MIDNIGHT, MIDNIGHT + 3600},
+                new long[]{900_000, kW * 1_000_000 + 100_000}, 2);
+    }
+}
@@ -0,0 +1,73 @@
+package uk.tw.energy.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.tw.energy.domain.ElectricityReading;
+import uk.tw.energy.domain.MeterRecommendation;
+import uk.tw.energy.domain.PricePlan;
+import uk.tw.energy.domain.PricePlanType;
+import uk.tw.energy.store.IdDictionary;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class FleetRecommendationServiceTest {
+
+    private static final int METERS = 2_000;
+
+    private FleetRecommendationService fleetRecommendationService;
+
+    @BeforeEach
+    public void setUp() {
+        IdDictionary smartMeterIds = new IdDictionary();
+        MeterService meterService = new MeterService(new HashMap<>(), smartMeterIds);
+        Map<String, String> accounts = new HashMap<>();
+        Instant time = Instant.ofEpochSecond(1606636800);
+        for (int i = 0; i < METERS; i++) {
+            meterService.storeReadings("smart-meter-" + i, List.of(
+                    new ElectricityReading(time, BigDecimal.ONE),
+                    new ElectricityReading(time.plusSeconds(3600), BigDecimal.valueOf(i + 1))));
+            accounts.put("smart-meter-" + i, "cheap");
+        }
+        accounts.put("smart-meter-without-readings", "cheap");
+        List<PricePlan> pricePlans = List.of(
+                new PricePlan("expensive", "supplier", BigDecimal.TEN, PricePlanType.STANDARD_PRICE_PLAN),
+                new PricePlan("cheap", "supplier", BigDecimal.ONE, PricePlanType.STANDARD_PRICE_PLAN));
+        fleetRecommendationService = new FleetRecommendationService(new PricePlanService(pricePlans, meterService),
+                meterService, new AccountService(accounts, smartMeterIds), 4);
+    }
+
+    @Test
+    public void shouldRecommendCheapestPlansForEveryMeterWithReadings() {
+        Map<String, MeterRecommendation> recommendations = new ConcurrentHashMap<>();
+
+        fleetRecommendationService.recommendAll(1, recommendation -> recommendations.put(recommendation.getSmartMeterId(), recommendation));
+
+        assertThat(recommendations.size(), is(METERS));
+        MeterRecommendation recommendation = recommendations.get("smart-meter-9");
+        assertThat(recommendation.getPricePlanId(), is("cheap"));
+        assertThat(recommendation.getRecommendations().size(), is(1));
+        assertThat(recommendation.getRecommendations().get(0).getKey(), is("cheap"));
+    }
+
+    @Test
+    public void givenConsumerFailsShouldReleaseWorkersForTheNextRun() {
+        assertThrows(IllegalStateException.class, () -> fleetRecommendationService.recommendAll(null, recommendation -> {
+            throw new IllegalStateException("client went away");
+        }));
+
+        Set<String> smartMeterIds = ConcurrentHashMap.newKeySet();
+        fleetRecommendationService.recommendAll(null, recommendation -> smartMeterIds.add(recommendation.getSmartMeterId()));
+
+        assertThat(smartMeterIds.size(), is(METERS));
+    }
+}
@@ -2,13 +2,33 @@ package uk.tw.energy.service;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import uk.tw.energy.domain.ElectricityReading;
+import uk.tw.energy.store.FixedPoint;
+import uk.tw.energy.store.ReadingHistory;
+import uk.tw.energy.store.ReadingSnapshot;
+import uk.tw.energy.store.ReadingStoreFile;
 
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.comparesEqualTo;
 
 public class MeterReadingServiceTest {
 
@@ -29,4 +49,196 @@ public class MeterReadingServiceTest {
         meterService.storeReadings("random-id", new ArrayList<>());
         assertThat(meterService.getReadings("random-id"), is(Optional.of(new ArrayList<>())));
     }
+
+    @Test
+    public void givenStoredReadingsShouldReturnTheSameTimesAndValues() {
+        Instant time = Instant.ofEpochSecond(1606636800);
+        meterService.storeReadings("random-id", List.of(
+                new ElectricityReading(time, new BigDecimal("0.0503")),
+                new ElectricityReading(time.plusSeconds(60), new BigDecimal("15.0"))));
+
+        List<ElectricityReading> readings = meterService.getReadings("random-id").get();
+
+        assertThat(readings.size(), is(2));
+        assertThat(readings.get(0).getTime(), is(time));
+        assertThat(readings.get(0).getReadingInKW(), is(new BigDecimal("0.0503")));
+        assertThat(readings.get(1).getTime(), is(time.plusSeconds(60)));
+        assertThat(readings.get(1).getReadingInKW(), comparesEqualTo(BigDecimal.valueOf(15)));
+    }
+
+    @Test
+    public void givenReadingsWithTrailingZerosOrMoreThanSixDecimalsShouldReturnThemNormalised() {
+        Instant time = Instant.ofEpochSecond(1606636800);
+        meterService.storeReadings("random-id", List.of(
+                new ElectricityReading(time, new BigDecimal("15.0")),
+                new ElectricityReading(time.plusSeconds(60), new BigDecimal("0.50")),
+                new ElectricityReading(time.plusSeconds(120), new BigDecimal("0.12345650"))));
+
+        List<BigDecimal> readings = meterService.getReadings("random-id").get().stream()
+                .map(ElectricityReading::getReadingInKW)
+                .collect(Collectors.toList());
+
+        assertThat(readings, is(List.of(new BigDecimal("15"), new BigDecimal("0.5"), new BigDecimal("0.123457"))));
+    }
+
+    @Test
+    public void givenReadingsOutOfOrderShouldReturnThemInTimeOrder() {
+        Instant time = Instant.ofEpochSecond(1606636800);
+        meterService.storeReadings("random-id", List.of(
+                new ElectricityReading(time.plusSeconds(20), BigDecimal.ONE),
+                new ElectricityReading(time.plusSeconds(40), BigDecimal.ONE)));
+        meterService.storeReadings("random-id", List.of(
+                new ElectricityReading(time.plusSeconds(30), BigDecimal.ONE),
+                new ElectricityReading(time, BigDecimal.ONE)));
+
+        List<Instant> times = meterService.getReadings("random-id").get().stream()
+                .map(ElectricityReading::getTime)
+                .collect(Collectors.toList());
+
+        assertThat(times, is(List.of(time, time.plusSeconds(20), time.plusSeconds(30), time.plusSeconds(40))));
+    }
+
+    @Test
+    public void givenTimeRangeShouldReturnOnlyReadingsInsideIt() {
+        meterService.storeReadings("random-id", readings(3_000));
+        long start = 1606636800;
+
+        List<ElectricityReading> readings = meterService.getReadings("random-id", start + 10_000, start + 10_100).get();
+
+        assertThat(readings.size(), is(10));
+        assertThat(readings.get(0).getTime(), is(Instant.ofEpochSecond(start + 10_000)));
+        assertThat(readings.get(9).getTime(), is(Instant.ofEpochSecond(start + 10_090)));
+    }
+
+    @Test
+    public void givenConcurrentWritersAndReadersShouldNotLoseAnyReading() throws Exception {
+        int writers = 8;
+        int batchesPerWriter = 500;
+        int readingsPerBatch = 20;
+        List<String> smartMeterIds = List.of("meter-0", "meter-1", "meter-2");
+        ExecutorService executor = Executors.newFixedThreadPool(writers + 2);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int writer = 0; writer < writers; writer++) {
+                int writerIndex = writer;
+                tasks.add(executor.submit(() -> {
+                    start.await();
+                    for (int batch = 0; batch < batchesPerWriter; batch++) {
+                        String smartMeterId = smartMeterIds.get((writerIndex + batch) % smartMeterIds.size());
+                        long firstEpochSecond = 1606636800L + 10L * readingsPerBatch * (writerIndex * batchesPerWriter + batch);
+                        meterService.storeReadings(smartMeterId, readings(readingsPerBatch, firstEpochSecond));
+                    }
+                    return null;
+                }));
+            }
+            for (int reader = 0; reader < 2; reader++) {
+                tasks.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < 2_000; i++) {
+                        for (String smartMeterId : smartMeterIds) {
+                            meterService.getReadings(smartMeterId).ifPresent(readings -> readings.forEach(ElectricityReading::getTime));
+                            meterService.getAggregates(smartMeterId);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        int storedReadings = smartMeterIds.stream()
+                .mapToInt(smartMeterId -> meterService.getReadings(smartMeterId).get().size())
+                .sum();
+        long aggregatedReadings = smartMeterIds.stream()
+                .mapToLong(smartMeterId -> meterService.getAggregates(smartMeterId).get().getCount())
+                .sum();
+        assertThat(storedReadings, is(writers * batchesPerWriter * readingsPerBatch));
+        assertThat(aggregatedReadings, is((long) writers * batchesPerWriter * readingsPerBatch));
+    }
+
+    @Test
+    public void givenResentReadingsShouldCountEachSecondOnce() {
+        meterService.storeReadings("random-id", readings(30));
+        meterService.storeReadings("random-id", readings(30).subList(10, 20));
+        meterService.storeReadings("random-id", readings(40));
+
+        assertThat(meterService.getReadings("random-id").get().size(), is(40));
+        assertThat(meterService.getAggregates("random-id").get().getCount(), is(40L));
+        assertThat(meterService.getAggregates("random-id").get().getSum(), is(40L * FixedPoint.ONE));
+    }
+
+    @Test
+    public void givenHistoryHandedOverShouldKeepReadingsStoredOnEitherSide() throws IOException {
+        MeterService owner = new MeterService(new HashMap<>());
+        meterService.storeReadings("moving", readings(30));
+        ReadingSnapshot handedOver = meterService.getSnapshot("moving").get();
+        owner.storeReadings("moving", readings(5, 1606636800 + 300));
+        meterService.storeReadings("moving", readings(1, 1606636800 + 400));
+
+        ReadingStoreFile.read(ReadingStoreFile.image(List.of("moving"), List.of(handedOver)), owner::adoptHistory);
+        int meterId = meterService.smartMeterIds().find("moving");
+
+        assertThat(owner.getAggregates("moving").get().getCount(), is(35L));
+        assertThat(meterService.removeHistory(meterId, handedOver.version()), is(false));
+
+        ReadingSnapshot handedOverAgain = meterService.getSnapshot(meterId).get();
+        ReadingStoreFile.read(ReadingStoreFile.image(List.of("moving"), List.of(handedOverAgain)), owner::adoptHistory);
+
+        assertThat(meterService.removeHistory(meterId, handedOverAgain.version()), is(true));
+        assertThat(meterService.getReadings("moving"), is(Optional.empty()));
+        assertThat(owner.getAggregates("moving").get().getCount(), is(36L));
+        assertThat(owner.getAggregates("moving").get().getSum(), is(36L * FixedPoint.ONE));
+    }
+
+    @Test
+    public void givenReadingStoredWhileTheMeterIsHandedOverShouldKeepIt() throws Exception {
+        AtomicReference<Thread> handingOver = new AtomicReference<>();
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        meterService.adoptHistory("moving", new ReadingHistory() {
+            @Override
+            public ReadingSnapshot snapshot() {
+                ReadingSnapshot snapshot = super.snapshot();
+                if (handingOver.compareAndSet(Thread.currentThread(), null)) {
+                    // a reading stored between the check of the version handed over and the history being dropped
+                    Future<?> stored = writer.submit(() -> meterService.storeReadings("moving", readings(1, 1606636800 + 400)));
+                    try {
+                        stored.get(200, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException | ExecutionException | TimeoutException e) {
+                        // held back until the history has been dropped
+                    }
+                }
+                return snapshot;
+            }
+        });
+        meterService.storeReadings("moving", readings(30));
+        ReadingSnapshot handedOver = meterService.getSnapshot("moving").get();
+        try {
+            handingOver.set(Thread.currentThread());
+
+            assertThat(meterService.removeHistory(meterService.smartMeterIds().find("moving"), handedOver.version()), is(true));
+        } finally {
+            writer.shutdown();
+            writer.awaitTermination(5, TimeUnit.SECONDS);
+        }
+
+        assertThat(meterService.getReadings("moving").get().size(), is(1));
+        assertThat(meterService.getReadings("moving").get().get(0).getTime(), is(Instant.ofEpochSecond(1606636800 + 400)));
+    }
+
+    private static List<ElectricityReading> readings(int number) {
+        return readings(number, 1606636800);
+    }
+
+    private static List<ElectricityReading> readings(int number, long firstEpochSecond) {
+        Instant time = Instant.ofEpochSecond(firstEpochSecond);
+        return IntStream.range(0, number)
+                .mapToObj(i -> new ElectricityReading(time.plusSeconds(i * 10L), BigDecimal.ONE))
+                .collect(Collectors.toList());
+    }
 }
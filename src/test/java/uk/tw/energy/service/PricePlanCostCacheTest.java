@@ -0,0 +1,82 @@
+package uk.tw.energy.service;
+
+import org.junit.jupiter.api.Test;
+import uk.tw.energy.domain.CacheStats;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class PricePlanCostCacheTest {
+
+    private static final PricePlanCosts COSTS = new PricePlanCosts(new String[]{"price-plan-0"}, new long[]{10_000_000});
+
+    @Test
+    public void givenNewerVersionShouldMissAndCountIt() {
+        PricePlanCostCache cache = new PricePlanCostCache(10);
+        cache.put(0, 1, COSTS);
+
+        assertThat(cache.get(0, 2), is(nullValue()));
+        assertThat(cache.get(0, 1), is(COSTS));
+        assertThat(cache.getStats().getHits(), is(1L));
+        assertThat(cache.getStats().getMisses(), is(1L));
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedMeterWhenFull() {
+        PricePlanCostCache cache = new PricePlanCostCache(2);
+        cache.put(0, 1, COSTS);
+        cache.put(1, 1, COSTS);
+        cache.get(0, 1);
+
+        cache.put(2, 1, COSTS);
+
+        assertThat(cache.get(1, 1), is(nullValue()));
+        assertThat(cache.get(0, 1), is(COSTS));
+        assertThat(cache.getStats().getEvictions(), is(1L));
+        assertThat(cache.getStats().getSize(), is(2));
+    }
+
+    @Test
+    public void givenConcurrentLookupsAndStoresShouldStayBoundedAndOnlyServeCurrentVersions() throws Exception {
+        int threads = 8;
+        PricePlanCostCache cache = new PricePlanCostCache(1000);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Boolean>> results = new ArrayList<>();
+
+        for (int thread = 0; thread < threads; thread++) {
+            int seed = thread;
+            results.add(executor.submit(() -> {
+                Random random = new Random(seed);
+                boolean servedOnlyCurrentVersions = true;
+                for (int i = 0; i < 100_000; i++) {
+                    int meterId = random.nextInt(10_000);
+                    PricePlanCosts versioned = new PricePlanCosts(new String[]{"price-plan-0"}, new long[]{meterId});
+                    PricePlanCosts cached = cache.get(meterId, meterId);
+                    if (cached == null) {
+                        cache.put(meterId, meterId, versioned);
+                    } else {
+                        servedOnlyCurrentVersions &= cached.cost(0) == meterId;
+                    }
+                }
+                return servedOnlyCurrentVersions;
+            }));
+        }
+        for (Future<Boolean> result : results) {
+            assertThat(result.get(), is(true));
+        }
+        executor.shutdown();
+
+        CacheStats stats = cache.getStats();
+        assertThat(stats.getHits() + stats.getMisses(), is(threads * 100_000L));
+        assertThat(stats.getSize() <= 1000 + threads, is(true));
+        assertThat(stats.getEvictions() > 0, is(true));
+    }
+}
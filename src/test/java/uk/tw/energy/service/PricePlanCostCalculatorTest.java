@@ -0,0 +1,218 @@
+package uk.tw.energy.service;
+
+import org.junit.jupiter.api.Test;
+import uk.tw.energy.domain.ElectricityReading;
+import uk.tw.energy.domain.PricePlan;
+import uk.tw.energy.domain.PricePlanType;
+import uk.tw.energy.store.FixedPoint;
+import uk.tw.energy.store.ReadingAggregates;
+import uk.tw.energy.store.ReadingSnapshot;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.comparesEqualTo;
+
+public class PricePlanCostCalculatorTest {
+
+    private static final int TRIALS = 20_000;
+    private static final PricePlanType[] TYPES = PricePlanType.values();
+
+    private final Random random = new Random(20201129L);
+
+    @Test
+    public void givenRandomReadingsAndTariffsShouldReportExactlyWhatTheBigDecimalFormulaDid() {
+        MeterService meterService = new MeterService(new HashMap<>());
+        for (int trial = 0; trial < 2_000; trial++) {
+            List<PricePlan> pricePlans = randomPricePlans();
+            PricePlanService pricePlanService = new PricePlanService(pricePlans, meterService);
+            String smartMeterId = "meter-" + trial;
+            int count = 1 + random.nextInt(random.nextBoolean() ? 10 : 1000);
+            List<ElectricityReading> readings = new ArrayList<>();
+            Instant time = Instant.ofEpochSecond(1_600_000_000L + random.nextInt(1_000_000));
+            for (int i = 0; i < count; i++) {
+                readings.add(new ElectricityReading(time, randomReading()));
+                time = time.plusSeconds(1 + (random.nextBoolean() ? random.nextInt(60) : random.nextInt(86_400)));
+            }
+            meterService.storeReadings(smartMeterId, readings);
+
+            Map<String, BigDecimal> costs = pricePlanService.getAllPricePlanCostsForMeter(smartMeterId).get();
+
+            for (PricePlan pricePlan : pricePlans) {
+                assertThat(pricePlan.getUnitPricePerKWh() + " " + pricePlan.getPricePlanType() + " " + readings,
+                        costs.get(pricePlan.getPlanName()), is(bigDecimalCost(readings, pricePlan)));
+            }
+        }
+    }
+
+    @Test
+    public void givenRandomReadingsAndTariffsShouldMatchExactDecimalArithmetic() {
+        for (int trial = 0; trial < TRIALS; trial++) {
+            List<PricePlan> pricePlans = randomPricePlans();
+            ReadingAggregates aggregates = randomAggregates();
+            PricePlanCostCalculator calculator = new PricePlanCostCalculator(pricePlans);
+
+            long averageReading = PricePlanCostCalculator.averageReading(aggregates);
+            long elapsedSeconds = PricePlanCostCalculator.elapsedSeconds(aggregates);
+            BigDecimal average = BigDecimal.valueOf(aggregates.getSum(), FixedPoint.SCALE)
+                    .setScale(aggregates.getScale())
+                    .divide(BigDecimal.valueOf(aggregates.getCount()), RoundingMode.HALF_UP);
+            assertThat(BigDecimal.valueOf(averageReading, FixedPoint.SCALE), comparesEqualTo(average));
+
+            for (int i = 0; i < pricePlans.size(); i++) {
+                PricePlan pricePlan = pricePlans.get(i);
+                long cost = calculator.cost(i, averageReading, elapsedSeconds);
+
+                assertThat(describe(pricePlan, aggregates.getCount(), aggregates.getSum(), elapsedSeconds),
+                        BigDecimal.valueOf(cost, FixedPoint.SCALE), is(exactCost(average, elapsedSeconds, pricePlan)));
+                assertThat(calculator.reportedCost(i, averageReading, aggregates.getScale(), PricePlanCostCalculator.hours(elapsedSeconds)),
+                        is(decimalCost(average, elapsedSeconds, pricePlan)));
+            }
+        }
+    }
+
+    @Test
+    public void givenTimeOfUsePlansShouldMatchExactDecimalArithmeticPerReading() {
+        for (int trial = 0; trial < 500; trial++) {
+            List<PricePlan.TimeOfUseRate> rates = List.of(
+                    new PricePlan.TimeOfUseRate(EnumSet.range(DayOfWeek.MONDAY, DayOfWeek.FRIDAY), LocalTime.of(16, 0), LocalTime.of(19, 0), randomPrice()),
+                    new PricePlan.TimeOfUseRate(EnumSet.allOf(DayOfWeek.class), LocalTime.of(23, 0), LocalTime.of(7, 0), randomPrice()));
+            PricePlan pricePlan = new PricePlan("time-of-use", "supplier", randomPrice(), TYPES[random.nextInt(TYPES.length)], rates);
+            MeterService meterService = new MeterService(new HashMap<>());
+            int count = 1 + random.nextInt(200);
+            long[] epochSeconds = new long[count];
+            long[] readings = new long[count];
+            for (int i = 0; i < count; i++) {
+                epochSeconds[i] = 1_606_694_400L + random.nextInt(30 * 86_400);
+                readings[i] = random.nextInt(20_000_000);
+            }
+            meterService.storeReadings("meter", epochSeconds, readings, count);
+            ReadingSnapshot snapshot = meterService.getSnapshot("meter").get();
+
+            long cost = new PricePlanCostCalculator(List.of(pricePlan)).cost(0, snapshot, snapshot.aggregates(), Long.MIN_VALUE, Long.MAX_VALUE);
+
+            BigDecimal weightedSum = BigDecimal.ZERO;
+            for (int i = 0; i < snapshot.size(); i++) {
+                LocalDateTime dateTime = LocalDateTime.ofEpochSecond(snapshot.epochSecondAt(i), 0, ZoneOffset.UTC);
+                weightedSum = weightedSum.add(BigDecimal.valueOf(snapshot.readingAt(i), FixedPoint.SCALE).multiply(pricePlan.getUnitPrice(dateTime)));
+            }
+            BigDecimal expected = weightedSum
+                    .multiply(BigDecimal.valueOf(PricePlanCostCalculator.elapsedSeconds(snapshot.aggregates())))
+                    .multiply(multiplier(pricePlan.getPricePlanType()))
+                    .divide(BigDecimal.valueOf(3600L * snapshot.size()), FixedPoint.SCALE, RoundingMode.HALF_UP);
+            assertThat("trial " + trial, BigDecimal.valueOf(cost, FixedPoint.SCALE), is(expected));
+        }
+    }
+
+    @Test
+    public void shouldRoundHalfAwayFromZeroLikeBigDecimal() {
+        for (long dividend = -50; dividend <= 50; dividend++) {
+            for (long divisor = 1; divisor <= 12; divisor++) {
+                long expected = BigDecimal.valueOf(dividend).divide(BigDecimal.valueOf(divisor), 0, RoundingMode.HALF_UP).longValueExact();
+                assertThat(dividend + "/" + divisor, PricePlanCostCalculator.divideHalfUp(dividend, divisor), is(expected));
+            }
+        }
+    }
+
+    /**
+     * The rational cost rounded once, which the calculator's fixed point cost must reproduce digit for digit.
+     */
+    private static BigDecimal exactCost(BigDecimal average, long elapsedSeconds, PricePlan pricePlan) {
+        return average.multiply(BigDecimal.valueOf(elapsedSeconds))
+                .multiply(pricePlan.getUnitPricePerKWh())
+                .multiply(multiplier(pricePlan.getPricePlanType()))
+                .divide(BigDecimal.valueOf(3600), FixedPoint.SCALE, RoundingMode.HALF_UP);
+    }
+
+    /**
+     * What compare-all and recommend reported before the fixed point calculator, worked out the way they did: the
+     * readings summed as sent, averaged at the sum's scale, and costed by {@link #decimalCost}.
+     */
+    private static BigDecimal bigDecimalCost(List<ElectricityReading> readings, PricePlan pricePlan) {
+        BigDecimal summedReadings = readings.stream()
+                .map(ElectricityReading::getReadingInKW)
+                .reduce(BigDecimal.ZERO, BigDecimal::add);
+        BigDecimal average = summedReadings.divide(BigDecimal.valueOf(readings.size()), RoundingMode.HALF_UP);
+        long elapsedSeconds = Duration.between(readings.get(0).getTime(), readings.get(readings.size() - 1).getTime()).getSeconds();
+        return decimalCost(average, elapsedSeconds, pricePlan);
+    }
+
+    /**
+     * The {@code BigDecimal} formula compare-all and recommend used before the fixed point calculator, which they must
+     * still report value for value and scale for scale.
+     */
+    private static BigDecimal decimalCost(BigDecimal average, long elapsedSeconds, PricePlan pricePlan) {
+        BigDecimal unitsUsedInPeriod = average.multiply(BigDecimal.valueOf(elapsedSeconds / 3600.0));
+        return unitsUsedInPeriod.multiply(pricePlan.getUnitPricePerKWh().multiply(multiplier(pricePlan.getPricePlanType())));
+    }
+
+    private static BigDecimal multiplier(PricePlanType pricePlanType) {
+        switch (pricePlanType) {
+            case ECO_PRICE_PLAN: return BigDecimal.valueOf(0.5);
+            case PREMIUM_PRICE_PLAN: return BigDecimal.valueOf(2);
+            default: return BigDecimal.ONE;
+        }
+    }
+
+    private List<PricePlan> randomPricePlans() {
+        List<PricePlan> pricePlans = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            pricePlans.add(new PricePlan("price-plan-" + i, "supplier", randomPrice(), TYPES[random.nextInt(TYPES.length)]));
+        }
+        return pricePlans;
+    }
+
+    private BigDecimal randomPrice() {
+        switch (random.nextInt(4)) {
+            case 0: return BigDecimal.valueOf(random.nextInt(1000));
+            case 1: return BigDecimal.valueOf(random.nextInt(100_000), random.nextInt(6));
+            case 2: return BigDecimal.valueOf(random.nextLong() >>> 20, 12);
+            default: return BigDecimal.valueOf(random.nextInt(10), -random.nextInt(3));
+        }
+    }
+
+    /**
+     * A reading of up to 20 kW sent with one to four decimal places, the last of them not a zero.
+     */
+    private BigDecimal randomReading() {
+        int scale = 1 + random.nextInt(4);
+        long unscaled = random.nextInt(20 * (int) Math.pow(10, scale - 1)) * 10L + 1 + random.nextInt(9);
+        return BigDecimal.valueOf(unscaled, scale);
+    }
+
+    /**
+     * Totals for readings sent with up to six decimal places, whose sum is a whole number of units in the last.
+     */
+    private ReadingAggregates randomAggregates() {
+        int count = 1 + random.nextInt(random.nextBoolean() ? 10 : 100_000);
+        int scale = random.nextInt(FixedPoint.SCALE + 1);
+        long sum = 0;
+        for (int i = 0; i < Math.min(count, 100); i++) {
+            sum += (long) (random.nextDouble() * 20 * FixedPoint.ONE);
+        }
+        sum = sum * count / Math.min(count, 100) + random.nextInt(count);
+        sum -= sum % FixedPoint.unit(scale);
+        long first = 1_600_000_000L + random.nextInt(1_000_000);
+        long elapsed = random.nextBoolean() ? random.nextInt(7200) : (long) (random.nextDouble() * 5 * 365 * 86_400);
+        return new ReadingAggregates(count, sum, first, first + elapsed, scale);
+    }
+
+    private static String describe(PricePlan pricePlan, long count, long sum, long elapsedSeconds) {
+        return pricePlan.getUnitPricePerKWh() + " " + pricePlan.getPricePlanType() + " count=" + count
+                + " sum=" + sum + " seconds=" + elapsedSeconds;
+    }
+}
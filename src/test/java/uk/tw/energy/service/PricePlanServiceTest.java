@@ -1,17 +1,20 @@
 package uk.tw.energy.service;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
-import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.Mock;
-import org.springframework.test.context.junit.jupiter.SpringExtension;
 import uk.tw.energy.domain.ElectricityReading;
 import uk.tw.energy.domain.PricePlan;
 import uk.tw.energy.domain.PricePlanType;
 
 import java.math.BigDecimal;
+import java.time.DayOfWeek;
 import java.time.Duration;
 import java.time.Instant;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -19,9 +22,7 @@ import java.util.Optional;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.comparesEqualTo;
-import static org.mockito.Mockito.when;
 
-@ExtendWith(SpringExtension.class)
 class PricePlanServiceTest {
 
     private static final String ENERGY_SUPPLIER_1 = "JOI";
@@ -30,12 +31,11 @@ class PricePlanServiceTest {
     private static final String SMART_METER_ID = "meterID";
 
     private PricePlanService pricePlanService;
-
-    @Mock
     private MeterService meterService;
 
     @BeforeEach
     public void setUp() {
+        meterService = new MeterService(new HashMap<>());
         PricePlan pricePlan1 = new PricePlan(ENERGY_SUPPLIER_1, ENERGY_SUPPLIER_1, BigDecimal.valueOf(100), PricePlanType.STANDARD_PRICE_PLAN);
         PricePlan pricePlan2 = new PricePlan(ENERGY_SUPPLIER_2, ENERGY_SUPPLIER_2, BigDecimal.valueOf(100), PricePlanType.ECO_PRICE_PLAN);
         PricePlan pricePlan3 = new PricePlan(ENERGY_SUPPLIER_3, ENERGY_SUPPLIER_3, BigDecimal.valueOf(100), PricePlanType.PREMIUM_PRICE_PLAN);
@@ -45,9 +45,10 @@ class PricePlanServiceTest {
     @Test
     public void shouldGetAllStandardPricePlanCostsGivenMeterReadingsForAMeterId() {
 
-        when(meterService.getReadings(SMART_METER_ID)).thenReturn(Optional.of(List.of(
-                new ElectricityReading(Instant.now().minus(Duration.ofHours(2)), BigDecimal.valueOf(15.0)),
-                new ElectricityReading(Instant.now(), BigDecimal.valueOf(5.0)))));
+        Instant now = Instant.now();
+        meterService.storeReadings(SMART_METER_ID, List.of(
+                new ElectricityReading(now.minus(Duration.ofHours(2)), BigDecimal.valueOf(15.0)),
+                new ElectricityReading(now, BigDecimal.valueOf(5.0))));
 
         Map<String, BigDecimal> pricePlanCostsForReadings = pricePlanService.getAllPricePlanCostsForMeter(SMART_METER_ID).get();
 
@@ -57,9 +58,97 @@ class PricePlanServiceTest {
         assertThat(pricePlanCostsForReadings.get(ENERGY_SUPPLIER_3), comparesEqualTo(BigDecimal.valueOf(4000.0)));
     }
 
+    @Test
+    public void shouldAverageReadingsToTheScaleTheyWereSentWith() {
+        Instant now = Instant.now();
+        meterService.storeReadings(SMART_METER_ID, List.of(
+                new ElectricityReading(now.minus(Duration.ofHours(1)), new BigDecimal("0.1")),
+                new ElectricityReading(now.minus(Duration.ofMinutes(30)), new BigDecimal("0.1")),
+                new ElectricityReading(now, new BigDecimal("0.2"))));
+
+        Map<String, BigDecimal> pricePlanCostsForReadings = pricePlanService.getAllPricePlanCostsForMeter(SMART_METER_ID).get();
+
+        // an average of 0.1 kW, to the readings' one decimal place, for an hour
+        assertThat(pricePlanCostsForReadings.get(ENERGY_SUPPLIER_1), is(new BigDecimal("10.00")));
+    }
+
     @Test
     public void shouldReturnEmptyWhenNoReadingsForMeterId() {
-        when(meterService.getReadings(SMART_METER_ID)).thenReturn(Optional.empty());
         assertThat(pricePlanService.getAllPricePlanCostsForMeter(SMART_METER_ID), is(Optional.empty()));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldReflectReadingsStoredAfterAnEarlierComparison() {
+        Instant now = Instant.now();
+        meterService.storeReadings(SMART_METER_ID, List.of(
+                new ElectricityReading(now.minus(Duration.ofHours(1)), BigDecimal.valueOf(10.0)),
+                new ElectricityReading(now, BigDecimal.valueOf(10.0))));
+        pricePlanService.getAllPricePlanCostsForMeter(SMART_METER_ID);
+
+        meterService.storeReadings(SMART_METER_ID, List.of(
+                new ElectricityReading(now.plus(Duration.ofHours(1)), BigDecimal.valueOf(40.0))));
+
+        Map<String, BigDecimal> pricePlanCostsForReadings = pricePlanService.getAllPricePlanCostsForMeter(SMART_METER_ID).get();
+        assertThat(pricePlanCostsForReadings.get(ENERGY_SUPPLIER_1), comparesEqualTo(BigDecimal.valueOf(4000.0)));
+    }
+
+    @Test
+    public void shouldServeCachedCostsUntilNewReadingsAreStored() {
+        PricePlanCostCache cache = new PricePlanCostCache(10);
+        PricePlanService cachingPricePlanService = new PricePlanService(
+                List.of(new PricePlan(ENERGY_SUPPLIER_1, ENERGY_SUPPLIER_1, BigDecimal.valueOf(100), PricePlanType.STANDARD_PRICE_PLAN)),
+                meterService, cache, new SimpleMeterRegistry());
+        Instant now = Instant.now();
+        meterService.storeReadings(SMART_METER_ID, List.of(
+                new ElectricityReading(now.minus(Duration.ofHours(1)), BigDecimal.valueOf(10.0)),
+                new ElectricityReading(now, BigDecimal.valueOf(10.0))));
+
+        Map<String, BigDecimal> first = cachingPricePlanService.getAllPricePlanCostsForMeter(SMART_METER_ID).get();
+        Map<String, BigDecimal> second = cachingPricePlanService.getAllPricePlanCostsForMeter(SMART_METER_ID).get();
+        meterService.storeReadings(SMART_METER_ID, List.of(
+                new ElectricityReading(now.plus(Duration.ofHours(1)), BigDecimal.valueOf(40.0))));
+        Map<String, BigDecimal> third = cachingPricePlanService.getAllPricePlanCostsForMeter(SMART_METER_ID).get();
+
+        assertThat(second == first, is(true));
+        assertThat(third.get(ENERGY_SUPPLIER_1), comparesEqualTo(BigDecimal.valueOf(4000.0)));
+        assertThat(cache.getStats().getHits(), is(1L));
+        assertThat(cache.getStats().getMisses(), is(2L));
+    }
+
+    @Test
+    public void shouldChargePeakReadingsAtThePeakRate() {
+        PricePlan timeOfUse = new PricePlan(ENERGY_SUPPLIER_1, ENERGY_SUPPLIER_1, BigDecimal.ONE, PricePlanType.STANDARD_PRICE_PLAN,
+                List.of(new PricePlan.TimeOfUseRate(EnumSet.range(DayOfWeek.MONDAY, DayOfWeek.FRIDAY),
+                        LocalTime.of(16, 0), LocalTime.of(19, 0), BigDecimal.valueOf(3))));
+        PricePlanService timeOfUsePricePlanService = new PricePlanService(List.of(timeOfUse), meterService);
+        Instant mondayAfternoon = Instant.parse("2020-11-30T15:00:00Z");
+        meterService.storeReadings(SMART_METER_ID, List.of(
+                new ElectricityReading(mondayAfternoon, BigDecimal.valueOf(10.0)),
+                new ElectricityReading(mondayAfternoon.plus(Duration.ofHours(2)), BigDecimal.valueOf(20.0))));
+
+        Map<String, BigDecimal> pricePlanCostsForReadings = timeOfUsePricePlanService.getAllPricePlanCostsForMeter(SMART_METER_ID).get();
+
+        assertThat(pricePlanCostsForReadings.get(ENERGY_SUPPLIER_1), comparesEqualTo(BigDecimal.valueOf(70)));
+    }
+
+    @Test
+    public void shouldCostTheSameOnceOldReadingsAreRolledUp() {
+        Instant start = Instant.parse("2020-11-30T00:00:00Z");
+        List<ElectricityReading> readings = new ArrayList<>();
+        for (int i = 0; i < 3 * 360; i++) {
+            readings.add(new ElectricityReading(start.plusSeconds(10L * i), BigDecimal.valueOf(i % 17, 1)));
+        }
+        meterService.storeReadings(SMART_METER_ID, readings);
+        Map<String, BigDecimal> beforeRollup = pricePlanService.getAllPricePlanCostsForMeter(SMART_METER_ID).get();
+        Map<String, BigDecimal> lastHourBeforeRollup = pricePlanService.getAllPricePlanCostsForMeter(
+                SMART_METER_ID, start.getEpochSecond() + 7200, Long.MAX_VALUE).get();
+
+        meterService.compact(start.getEpochSecond() + 7200, start.getEpochSecond() + 3600, Long.MIN_VALUE);
+
+        assertThat(pricePlanService.getAllPricePlanCostsForMeter(SMART_METER_ID).get(), is(beforeRollup));
+        assertThat(pricePlanService.getAllPricePlanCostsForMeter(SMART_METER_ID, start.getEpochSecond() + 7200, Long.MAX_VALUE).get(),
+                is(lastHourBeforeRollup));
+        assertThat(pricePlanService.getAllPricePlanCostsForMeter(SMART_METER_ID, start.getEpochSecond(), start.getEpochSecond() + 3600)
+                .get().get(ENERGY_SUPPLIER_1), comparesEqualTo(BigDecimal.valueOf(80)));
+    }
+}
@@ -0,0 +1,83 @@
+package uk.tw.energy.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.tw.energy.domain.PricePlan;
+import uk.tw.energy.domain.PricePlanSimulation;
+import uk.tw.energy.domain.PricePlanType;
+import uk.tw.energy.store.IdDictionary;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.comparesEqualTo;
+
+public class PricePlanSimulationServiceTest {
+
+    private static final long MIDNIGHT = 1606694400L;
+    private static final int METERS = 10;
+
+    private PricePlanSimulationService pricePlanSimulationService;
+
+    @BeforeEach
+    public void setUp() {
+        IdDictionary smartMeterIds = new IdDictionary();
+        MeterService meterService = new MeterService(new HashMap<>(), smartMeterIds);
+        Map<String, String> accounts = new HashMap<>();
+        // meter i averages (i + 2) / 2 kW over an hour, to one decimal place, so costs (i + 2) / 2 on the standard plan
+        for (int i = 0; i < METERS; i++) {
+            meterService.storeReadings("smart-meter-" + i, new long[]{MIDNIGHT, MIDNIGHT + 3600},
+                    new long[]{900_000, (i + 1) * 1_000_000L + 100_000}, 2);
+            if (i < 8) {
+                accounts.put("smart-meter-" + i, "standard");
+            }
+        }
+        accounts.put("smart-meter-8", "withdrawn");
+        accounts.put("smart-meter-without-readings", "standard");
+        pricePlanSimulationService = new PricePlanSimulationService(
+                List.of(new PricePlan("standard", "supplier", BigDecimal.ONE, PricePlanType.STANDARD_PRICE_PLAN)),
+                meterService, new AccountService(accounts, smartMeterIds), 10, 2);
+    }
+
+    @Test
+    public void shouldCompareEachCandidateWithTheMetersCurrentPlans() {
+        PricePlanSimulation simulation = pricePlanSimulationService.simulate(List.of(
+                new PricePlan("half-price", "supplier", BigDecimal.valueOf(0.5), PricePlanType.STANDARD_PRICE_PLAN),
+                new PricePlan("double-price", "supplier", BigDecimal.valueOf(2), PricePlanType.STANDARD_PRICE_PLAN)),
+                Long.MIN_VALUE, Long.MAX_VALUE);
+
+        assertThat(simulation.getMeters(), is(10L));
+        assertThat(simulation.getMetersWithoutCurrentPlan(), is(2L));
+        assertThat(simulation.getCurrentTotalCost(), comparesEqualTo(BigDecimal.valueOf(22)));
+        PricePlanSimulation.Candidate halfPrice = simulation.getPricePlans().get(0);
+        assertThat(halfPrice.getPricePlanId(), is("half-price"));
+        assertThat(halfPrice.getTotalCost(), comparesEqualTo(new BigDecimal("16.25")));
+        assertThat(halfPrice.getAverageCost(), comparesEqualTo(new BigDecimal("1.625")));
+        assertThat(halfPrice.getCostPercentiles().get("min"), comparesEqualTo(new BigDecimal("0.5")));
+        assertThat(halfPrice.getCostPercentiles().get("p50"), comparesEqualTo(new BigDecimal("1.5")));
+        assertThat(halfPrice.getCostPercentiles().get("max"), comparesEqualTo(new BigDecimal("2.75")));
+        assertThat(halfPrice.getTotalChange(), comparesEqualTo(BigDecimal.valueOf(-11)));
+        assertThat(halfPrice.getChangePercentiles().get("min"), comparesEqualTo(new BigDecimal("-2.25")));
+        assertThat(halfPrice.getWinners(), is(8L));
+        assertThat(halfPrice.getLosers(), is(0L));
+        PricePlanSimulation.Candidate doublePrice = simulation.getPricePlans().get(1);
+        assertThat(doublePrice.getTotalChange(), comparesEqualTo(BigDecimal.valueOf(22)));
+        assertThat(doublePrice.getWinners(), is(0L));
+        assertThat(doublePrice.getLosers(), is(8L));
+    }
+
+    @Test
+    public void givenPeriodWithoutReadingsShouldCostNoMeters() {
+        PricePlanSimulation simulation = pricePlanSimulationService.simulate(List.of(
+                new PricePlan("half-price", "supplier", BigDecimal.valueOf(0.5), PricePlanType.STANDARD_PRICE_PLAN)),
+                MIDNIGHT + 7200, Long.MAX_VALUE);
+
+        assertThat(simulation.getMeters(), is(0L));
+        assertThat(simulation.getPricePlans().get(0).getTotalCost(), comparesEqualTo(BigDecimal.ZERO));
+        assertThat(simulation.getPricePlans().get(0).getCostPercentiles().isEmpty(), is(true));
+    }
+}
@@ -0,0 +1,45 @@
+package uk.tw.energy.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.CoreMatchers.is;
+
+public class QuantileSketchTest {
+
+    @Test
+    public void givenSpreadOutValuesShouldReadQuantilesWithinTheRelativeAccuracy() {
+        QuantileSketch sketch = new QuantileSketch(0.01);
+        long[] values = new Random(7).longs(100_000, 1, 10_000_000_000L).toArray();
+        for (long value : values) {
+            sketch.add(value);
+        }
+        Arrays.sort(values);
+
+        for (double percentile : new double[]{1, 25, 50, 90, 99, 99.9, 100}) {
+            long exact = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+            assertThat((double) sketch.valueAt(percentile), closeTo(exact, exact * 0.01));
+        }
+    }
+
+    @Test
+    public void shouldMergeAndForgetRemovedValues() {
+        QuantileSketch first = new QuantileSketch(0.01);
+        QuantileSketch second = new QuantileSketch(0.01);
+        first.add(0);
+        first.add(1_000_000);
+        second.add(5_000_000);
+        second.add(9_000_000);
+        second.remove(9_000_000);
+
+        first.merge(second);
+
+        assertThat(first.count(), is(3L));
+        assertThat(first.valueAt(0), is(0L));
+        assertThat((double) first.valueAt(100), closeTo(5_000_000, 50_000));
+    }
+}
@@ -0,0 +1,127 @@
+package uk.tw.energy.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import uk.tw.energy.store.ReadingJournal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ReadingIngestQueueTest {
+
+    private final CountDownLatch firstStoreStarted = new CountDownLatch(1);
+    private final CountDownLatch releaseWriter = new CountDownLatch(1);
+    private final List<Integer> storedCounts = new ArrayList<>();
+    private final MeterService meterService = new MeterService(new HashMap<>(), ReadingJournal.NONE, new SimpleMeterRegistry(), 1) {
+        @Override
+        public void storeReadings(String smartMeterId, long[] epochSeconds, long[] readings, int count) {
+            firstStoreStarted.countDown();
+            try {
+                releaseWriter.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (storedCounts) {
+                storedCounts.add(count);
+            }
+            super.storeReadings(smartMeterId, epochSeconds, readings, count);
+        }
+    };
+
+    @Test
+    public void shouldJoinBatchesQueuedForAMeterWhileTheWriterWasBusy() throws InterruptedException {
+        ReadingIngestQueue queue = new ReadingIngestQueue(meterService, true, 1_000, new SimpleMeterRegistry());
+
+        queue.offer("meter-0", new long[]{1, 2}, new long[]{10, 20}, 2);
+        firstStoreStarted.await(5, TimeUnit.SECONDS);
+        queue.offer("meter-0", new long[]{3}, new long[]{30}, 1);
+        queue.offer("meter-0", new long[]{4, 5, 6}, new long[]{40, 50, 60}, 3);
+        releaseWriter.countDown();
+        queue.shutdown();
+
+        assertThat(storedCounts, is(List.of(2, 4)));
+        assertThat(meterService.getAggregates("meter-0").get().getCount(), is(6L));
+        assertThat(meterService.getAggregates("meter-0").get().getSum(), is(210L));
+    }
+
+    @Test
+    public void givenQueueFullOfUnstoredReadingsShouldRefuseMore() throws InterruptedException {
+        ReadingIngestQueue queue = new ReadingIngestQueue(meterService, true, 5, new SimpleMeterRegistry());
+
+        assertThat(queue.offer("meter-0", new long[]{1, 2, 3}, new long[]{1, 1, 1}, 3), is(true));
+        firstStoreStarted.await(5, TimeUnit.SECONDS);
+        assertThat(queue.offer("meter-1", new long[]{1, 2}, new long[]{1, 1}, 2), is(true));
+        assertThat(queue.offer("meter-1", new long[]{3}, new long[]{1}, 1), is(false));
+        releaseWriter.countDown();
+        queue.shutdown();
+
+        assertThat(queue.offer("meter-1", new long[]{3}, new long[]{1}, 1), is(false));
+        assertThat(meterService.getAggregates("meter-1").get().getCount(), is(2L));
+    }
+
+    @Test
+    public void shouldStoreEveryMeterFromTheWriterOfItsPartition() throws InterruptedException {
+        Map<String, Set<String>> writerThreads = new ConcurrentHashMap<>();
+        MeterService partitioned = new MeterService(new HashMap<>(), ReadingJournal.NONE, new SimpleMeterRegistry(), 4) {
+            @Override
+            public void storeReadings(String smartMeterId, long[] epochSeconds, long[] readings, int count) {
+                writerThreads.computeIfAbsent(smartMeterId, id -> ConcurrentHashMap.newKeySet()).add(Thread.currentThread().getName());
+                super.storeReadings(smartMeterId, epochSeconds, readings, count);
+            }
+        };
+        ReadingIngestQueue queue = new ReadingIngestQueue(partitioned, true, 1_000_000, new SimpleMeterRegistry());
+
+        for (int i = 0; i < 1_000; i++) {
+            queue.offer("meter-" + i % 40, new long[]{i}, new long[]{1}, 1);
+        }
+        queue.shutdown();
+
+        for (int meter = 0; meter < 40; meter++) {
+            String smartMeterId = "meter-" + meter;
+            assertThat(writerThreads.get(smartMeterId), is(Set.of("reading-writer-" + partitioned.partitionOf(smartMeterId))));
+            assertThat(partitioned.getAggregates(smartMeterId).get().getCount(), is(25L));
+        }
+    }
+
+    @Test
+    public void givenOffersRacingShutdownShouldStoreEveryReadingThatWasAccepted() throws InterruptedException {
+        for (int round = 0; round < 20; round++) {
+            MeterService store = new MeterService(new HashMap<>(), ReadingJournal.NONE, new SimpleMeterRegistry(), 2);
+            ReadingIngestQueue queue = new ReadingIngestQueue(store, true, 1_000_000, new SimpleMeterRegistry());
+            AtomicLong accepted = new AtomicLong();
+            List<Thread> producers = new ArrayList<>();
+            for (int producer = 0; producer < 4; producer++) {
+                String smartMeterId = "meter-" + producer;
+                Thread thread = new Thread(() -> {
+                    for (long second = 0; queue.offer(smartMeterId, new long[]{second}, new long[]{1}, 1); second++) {
+                        accepted.incrementAndGet();
+                    }
+                });
+                producers.add(thread);
+                thread.start();
+            }
+            Thread.sleep(5);
+            queue.shutdown();
+            for (Thread thread : producers) {
+                thread.join();
+            }
+
+            long stored = 0;
+            for (int producer = 0; producer < 4; producer++) {
+                stored += store.getAggregates("meter-" + producer).map(aggregates -> aggregates.getCount()).orElse(0L);
+            }
+            assertThat(stored, is(accepted.get()));
+            assertThat(queue.queuedReadings(), is(0L));
+        }
+    }
+}
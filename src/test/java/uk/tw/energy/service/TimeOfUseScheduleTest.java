@@ -0,0 +1,101 @@
+package uk.tw.energy.service;
+
+import org.junit.jupiter.api.Test;
+import uk.tw.energy.domain.PricePlan;
+import uk.tw.energy.domain.PricePlanType;
+import uk.tw.energy.store.ReadingSnapshot;
+
+import java.math.BigDecimal;
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class TimeOfUseScheduleTest {
+
+    private final Random random = new Random(1606694400L);
+
+    @Test
+    public void shouldAssignReadingsToTheSameBandsAsACalendarLookup() {
+        for (int trial = 0; trial < 200; trial++) {
+            PricePlan pricePlan = randomTimeOfUsePlan();
+            ReadingSnapshot snapshot = randomSnapshot();
+            TimeOfUseSchedule schedule = new TimeOfUseSchedule(pricePlan);
+
+            long[] bandSums = new long[schedule.bandCount()];
+            schedule.sumByBand(snapshot, Long.MIN_VALUE, Long.MAX_VALUE, bandSums);
+
+            long[] expected = new long[schedule.bandCount()];
+            for (int i = 0; i < snapshot.size(); i++) {
+                LocalDateTime dateTime = LocalDateTime.ofEpochSecond(snapshot.epochSecondAt(i), 0, ZoneOffset.UTC);
+                expected[bandOf(pricePlan, dateTime)] += snapshot.readingAt(i);
+            }
+            for (int band = 0; band < expected.length; band++) {
+                assertThat("trial " + trial + " band " + band, bandSums[band], is(expected[band]));
+            }
+        }
+    }
+
+    @Test
+    public void givenBandRunningPastMidnightShouldCoverTheEarlyHoursOfTheNextDay() {
+        PricePlan.TimeOfUseRate overnight = new PricePlan.TimeOfUseRate(
+                EnumSet.of(DayOfWeek.SUNDAY), LocalTime.of(23, 0), LocalTime.of(7, 0), BigDecimal.ONE);
+
+        assertThat(overnight.appliesTo(LocalDateTime.of(2020, 11, 29, 23, 30)), is(true));
+        assertThat(overnight.appliesTo(LocalDateTime.of(2020, 11, 30, 6, 59)), is(true));
+        assertThat(overnight.appliesTo(LocalDateTime.of(2020, 11, 30, 7, 0)), is(false));
+        assertThat(overnight.appliesTo(LocalDateTime.of(2020, 11, 29, 6, 0)), is(false));
+    }
+
+    private static int bandOf(PricePlan pricePlan, LocalDateTime dateTime) {
+        List<PricePlan.TimeOfUseRate> rates = pricePlan.getTimeOfUseRates();
+        for (int i = 0; i < rates.size(); i++) {
+            if (rates.get(i).appliesTo(dateTime)) {
+                assertThat(pricePlan.getUnitPrice(dateTime), is(rates.get(i).getUnitRate()));
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    private PricePlan randomTimeOfUsePlan() {
+        List<PricePlan.TimeOfUseRate> rates = new ArrayList<>();
+        int bands = 1 + random.nextInt(4);
+        for (int i = 0; i < bands; i++) {
+            Set<DayOfWeek> days = EnumSet.noneOf(DayOfWeek.class);
+            for (DayOfWeek day : DayOfWeek.values()) {
+                if (random.nextBoolean()) {
+                    days.add(day);
+                }
+            }
+            LocalTime from = LocalTime.ofSecondOfDay(random.nextInt(24) * 3600L);
+            LocalTime to = LocalTime.ofSecondOfDay(random.nextInt(48) * 1800L);
+            rates.add(new PricePlan.TimeOfUseRate(days, from, to, BigDecimal.valueOf(i + 2)));
+        }
+        return new PricePlan("time-of-use", "supplier", BigDecimal.ONE, PricePlanType.STANDARD_PRICE_PLAN, rates);
+    }
+
+    private ReadingSnapshot randomSnapshot() {
+        MeterService meterService = new MeterService(new HashMap<>());
+        int count = random.nextInt(500);
+        long[] epochSeconds = new long[count];
+        long[] readings = new long[count];
+        long epochSecond = 1_600_000_000L + random.nextInt(1_000_000);
+        for (int i = 0; i < count; i++) {
+            epochSecond += random.nextInt(10) == 0 ? random.nextInt(30 * 86_400) : random.nextInt(3600);
+            epochSeconds[i] = epochSecond;
+            readings[i] = 1 + random.nextInt(20_000_000);
+        }
+        meterService.storeReadings("meter", epochSeconds, readings, count);
+        return meterService.getSnapshot("meter").get();
+    }
+}
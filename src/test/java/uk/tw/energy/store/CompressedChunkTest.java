@@ -0,0 +1,84 @@
+package uk.tw.energy.store;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+public class CompressedChunkTest {
+
+    private final Random random = new Random(1606694400L);
+
+    @Test
+    public void shouldDecodeWhatWasEncoded() {
+        for (int trial = 0; trial < 500; trial++) {
+            int count = 1 + random.nextInt(ReadingHistory.CHUNK_SIZE);
+            long[] epochSeconds = new long[count];
+            long[] readings = new long[count];
+            long epochSecond = random.nextLong() >> 2;
+            for (int i = 0; i < count; i++) {
+                epochSecond += randomGap();
+                epochSeconds[i] = epochSecond;
+                readings[i] = randomReading(i == 0 ? 0 : readings[i - 1]);
+            }
+
+            CompressedChunk chunk = CompressedChunk.encode(epochSeconds, readings, count);
+            long[] decodedEpochSeconds = new long[count];
+            long[] decodedReadings = new long[count];
+            chunk.decode(decodedEpochSeconds, decodedReadings, count);
+
+            assertThat(chunk.size(), is(count));
+            assertThat(chunk.firstEpochSecond(), is(epochSeconds[0]));
+            assertThat(chunk.lastEpochSecond(), is(epochSeconds[count - 1]));
+            for (int i = 0; i < count; i++) {
+                assertThat("trial " + trial + " epoch second " + i, decodedEpochSeconds[i], is(epochSeconds[i]));
+                assertThat("trial " + trial + " reading " + i, decodedReadings[i], is(readings[i]));
+            }
+        }
+    }
+
+    @Test
+    public void givenSteadyCadenceShouldStoreEachTimestampInABit() {
+        int count = ReadingHistory.CHUNK_SIZE;
+        long[] epochSeconds = new long[count];
+        long[] readings = new long[count];
+        for (int i = 0; i < count; i++) {
+            epochSeconds[i] = 1606694400L + 10L * i;
+            readings[i] = 450_000;
+        }
+
+        CompressedChunk chunk = CompressedChunk.encode(epochSeconds, readings, count);
+
+        // one bit for the timestamp and one for the unchanged reading, bar the first gap
+        assertThat(chunk.estimatedBytes(), lessThanOrEqualTo(48L + 2 * count / 8 + 2 * Long.BYTES));
+    }
+
+    private long randomGap() {
+        switch (random.nextInt(4)) {
+            case 0:
+                return 10;
+            case 1:
+                return random.nextInt(60);
+            case 2:
+                return random.nextInt(1 << 20);
+            default:
+                return random.nextLong() >>> 8;
+        }
+    }
+
+    private long randomReading(long previous) {
+        switch (random.nextInt(4)) {
+            case 0:
+                return previous;
+            case 1:
+                return previous + random.nextInt(1_000) - 500;
+            case 2:
+                return random.nextInt(20_000_000);
+            default:
+                return random.nextLong();
+        }
+    }
+}
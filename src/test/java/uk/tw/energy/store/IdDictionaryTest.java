@@ -0,0 +1,61 @@
+package uk.tw.energy.store;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class IdDictionaryTest {
+
+    @Test
+    public void shouldOnlyAssignIdsWhenInterning() {
+        IdDictionary dictionary = new IdDictionary();
+
+        assertThat(dictionary.find("meter-0"), is(IdDictionary.ABSENT));
+        assertThat(dictionary.intern("meter-0"), is(0));
+        assertThat(dictionary.intern("meter-1"), is(1));
+        assertThat(dictionary.intern("meter-0"), is(0));
+        assertThat(dictionary.find("meter-1"), is(1));
+        assertThat(dictionary.name(1), is("meter-1"));
+        assertThat(dictionary.size(), is(2));
+    }
+
+    @Test
+    public void givenConcurrentInterningShouldAssignEveryStringOneDenseId() throws Exception {
+        IdDictionary dictionary = new IdDictionary();
+        int strings = 20_000;
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Future<?>[] futures = new Future<?>[4];
+            for (int thread = 0; thread < futures.length; thread++) {
+                int offset = thread * 1_000;
+                futures[thread] = executor.submit(() -> {
+                    for (int i = 0; i < strings; i++) {
+                        int id = dictionary.intern("meter-" + (i + offset) % strings);
+                        assertThat(dictionary.name(id), is("meter-" + (i + offset) % strings));
+                    }
+                });
+            }
+            for (Future<?> future : futures) {
+                future.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        Set<String> names = new HashSet<>();
+        for (int id = 0; id < dictionary.size(); id++) {
+            names.add(dictionary.name(id));
+            assertThat(dictionary.find(dictionary.name(id)), is(id));
+        }
+        assertThat(dictionary.size(), is(strings));
+        assertThat(names.size(), is(strings));
+    }
+}
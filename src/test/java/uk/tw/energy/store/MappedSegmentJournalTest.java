@@ -0,0 +1,132 @@
+package uk.tw.energy.store;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class MappedSegmentJournalTest {
+
+    private static final int SEGMENT_SIZE = 4096;
+
+    private Path directory;
+    private List<String> replayed;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("reading-journal");
+        replayed = Collections.synchronizedList(new ArrayList<>());
+    }
+
+    @Test
+    public void shouldReplayEveryBatchAcrossSegmentsAfterReopening() throws IOException {
+        try (MappedSegmentJournal journal = new MappedSegmentJournal(directory, SEGMENT_SIZE, 0)) {
+            for (int batch = 0; batch < 200; batch++) {
+                journal.append("meter-" + batch, new long[]{1606636800L + batch, 1606636810L + batch}, new long[]{batch, -batch}, 2);
+            }
+        }
+
+        long readings;
+        try (MappedSegmentJournal journal = new MappedSegmentJournal(directory, SEGMENT_SIZE, 0)) {
+            readings = journal.replay(this::record);
+        }
+
+        assertThat(readings, is(400L));
+        assertThat(segmentFiles().size() > 1, is(true));
+        assertThat(replayed.contains("meter-199:1606636999=199,1606637009=-199"), is(true));
+    }
+
+    @Test
+    public void shouldReplayBatchesInTheOrderTheyWereAppended() throws IOException {
+        List<String> appended = new ArrayList<>();
+        try (MappedSegmentJournal journal = new MappedSegmentJournal(directory, SEGMENT_SIZE, 0)) {
+            for (int batch = 0; batch < 200; batch++) {
+                journal.append("meter-0", new long[]{1606636800L}, new long[]{batch}, 1);
+                appended.add("meter-0:1606636800=" + batch);
+            }
+        }
+
+        try (MappedSegmentJournal journal = new MappedSegmentJournal(directory, SEGMENT_SIZE, 0)) {
+            journal.replay(this::record);
+        }
+
+        assertThat(segmentFiles().size() > 1, is(true));
+        assertThat(replayed, is(appended));
+    }
+
+    @Test
+    public void shouldStopAtATornRecordAndKeepWritingToANewSegment() throws IOException {
+        try (MappedSegmentJournal journal = new MappedSegmentJournal(directory, SEGMENT_SIZE, 0)) {
+            journal.append("meter-0", new long[]{1606636800L}, new long[]{50300}, 1);
+            journal.append("meter-1", new long[]{1606636800L}, new long[]{62100}, 1);
+        }
+        corruptLastByteOfSecondRecord();
+
+        try (MappedSegmentJournal journal = new MappedSegmentJournal(directory, SEGMENT_SIZE, 0)) {
+            journal.replay(this::record);
+            journal.append("meter-2", new long[]{1606636800L}, new long[]{22200}, 1);
+        }
+        replayed.clear();
+        try (MappedSegmentJournal journal = new MappedSegmentJournal(directory, SEGMENT_SIZE, 0)) {
+            journal.replay(this::record);
+        }
+
+        Collections.sort(replayed);
+        assertThat(replayed, is(List.of("meter-0:1606636800=50300", "meter-2:1606636800=22200")));
+    }
+
+    @Test
+    public void shouldReplayOnlyBatchesAppendedAfterATruncate() throws IOException {
+        try (MappedSegmentJournal journal = new MappedSegmentJournal(directory, SEGMENT_SIZE, 0)) {
+            journal.append("meter-0", new long[]{1606636800L}, new long[]{50300}, 1);
+            journal.truncate();
+            journal.append("meter-1", new long[]{1606636800L}, new long[]{62100}, 1);
+        }
+
+        try (MappedSegmentJournal journal = new MappedSegmentJournal(directory, SEGMENT_SIZE, 0)) {
+            journal.replay(this::record);
+        }
+
+        assertThat(replayed, is(List.of("meter-1:1606636800=62100")));
+        assertThat(segmentFiles().size(), is(1));
+    }
+
+    private void corruptLastByteOfSecondRecord() throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentFiles().get(0), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+            channel.read(header, 0);
+            int secondRecord = 2 * Integer.BYTES + header.flip().getInt();
+            header.clear();
+            channel.read(header, secondRecord);
+            int lastByte = secondRecord + 2 * Integer.BYTES + header.flip().getInt() - 1;
+            channel.write(ByteBuffer.wrap(new byte[]{(byte) 0xFF}), lastByte);
+        }
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().collect(Collectors.toList());
+        }
+    }
+
+    private void record(String smartMeterId, long[] epochSeconds, long[] readings, int count) {
+        StringBuilder batch = new StringBuilder(smartMeterId).append(':');
+        for (int i = 0; i < count; i++) {
+            batch.append(i == 0 ? "" : ",").append(epochSeconds[i]).append('=').append(readings[i]);
+        }
+        replayed.add(batch.toString());
+    }
+}
@@ -0,0 +1,177 @@
+package uk.tw.energy.store;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ReadingHistoryTest {
+
+    private static final long MIDNIGHT = 1606694400L;
+
+    private ReadingHistory history;
+
+    @BeforeEach
+    public void setUp() {
+        history = new ReadingHistory();
+        // a reading every 10 seconds for three hours, 1..1080 micro-kW
+        int count = 3 * 360;
+        long[] epochSeconds = new long[count];
+        long[] readings = new long[count];
+        for (int i = 0; i < count; i++) {
+            epochSeconds[i] = MIDNIGHT + 10L * i;
+            readings[i] = i + 1;
+        }
+        history.appendAll(epochSeconds, readings, count);
+    }
+
+    @Test
+    public void shouldKeepTotalsWhenRollingReadingsUpIntoMinutesAndHours() {
+        ReadingAggregates before = history.snapshot().aggregates();
+
+        history.compact(MIDNIGHT + 7200, MIDNIGHT + 3600, Long.MIN_VALUE);
+        ReadingSnapshot snapshot = history.snapshot();
+
+        assertThat(snapshot.size(), is(360));
+        assertThat(snapshot.epochSecondAt(0), is(MIDNIGHT + 7200));
+        assertThat(snapshot.minutes().size(), is(60));
+        assertThat(snapshot.minutes().startAt(0), is(MIDNIGHT + 3600));
+        assertThat(snapshot.minutes().countAt(0), is(6L));
+        assertThat(snapshot.minutes().sumAt(0), is(361L + 362 + 363 + 364 + 365 + 366));
+        assertThat(snapshot.minutes().minimumAt(0), is(361L));
+        assertThat(snapshot.minutes().maximumAt(0), is(366L));
+        assertThat(snapshot.hours().size(), is(1));
+        assertThat(snapshot.hours().countAt(0), is(360L));
+        assertThat(snapshot.hours().sumAt(0), is(360L * 361 / 2));
+        assertThat(snapshot.hours().maximumAt(0), is(360L));
+        assertThat(snapshot.aggregates().getCount(), is(before.getCount()));
+        assertThat(snapshot.aggregates().getSum(), is(before.getSum()));
+        assertThat(snapshot.aggregates().getFirstEpochSecond(), is(before.getFirstEpochSecond()));
+        assertThat(snapshot.aggregates().getLastEpochSecond(), is(before.getLastEpochSecond()));
+    }
+
+    @Test
+    public void shouldAnswerPeriodTotalsFromEveryTier() {
+        history.compact(MIDNIGHT + 7200, MIDNIGHT + 3600, Long.MIN_VALUE);
+
+        ReadingAggregates firstHour = history.snapshot().aggregates(MIDNIGHT, MIDNIGHT + 3600);
+        ReadingAggregates acrossTiers = history.snapshot().aggregates(MIDNIGHT + 3600, MIDNIGHT + 7260);
+
+        assertThat(firstHour.getCount(), is(360L));
+        assertThat(firstHour.getSum(), is(360L * 361 / 2));
+        assertThat(firstHour.getLastEpochSecond(), is(MIDNIGHT + 3600));
+        assertThat(acrossTiers.getCount(), is(366L));
+        assertThat(acrossTiers.getFirstEpochSecond(), is(MIDNIGHT + 3600));
+        assertThat(acrossTiers.getLastEpochSecond(), is(MIDNIGHT + 7250));
+    }
+
+    @Test
+    public void shouldDropHoursOlderThanTheRetention() {
+        history.compact(MIDNIGHT + 10800, MIDNIGHT + 10800, MIDNIGHT + 3600);
+        ReadingSnapshot snapshot = history.snapshot();
+
+        assertThat(snapshot.size(), is(0));
+        assertThat(snapshot.minutes().size(), is(0));
+        assertThat(snapshot.hours().size(), is(2));
+        assertThat(snapshot.aggregates().getCount(), is(720L));
+        assertThat(snapshot.aggregates().getSum(), is(1080L * 1081 / 2 - 360L * 361 / 2));
+        assertThat(snapshot.aggregates().getFirstEpochSecond(), is(MIDNIGHT + 3600));
+    }
+
+    @Test
+    public void shouldMergeLateReadingsIntoExistingBuckets() {
+        history.compact(MIDNIGHT + 7200, MIDNIGHT + 3600, Long.MIN_VALUE);
+        ReadingSnapshot beforeLateReading = history.snapshot();
+
+        history.appendAll(new long[]{MIDNIGHT + 3605}, new long[]{1_000}, 1);
+        history.compact(MIDNIGHT + 7200, MIDNIGHT + 3600, Long.MIN_VALUE);
+
+        assertThat(history.snapshot().minutes().countAt(0), is(7L));
+        assertThat(history.snapshot().minutes().maximumAt(0), is(1_000L));
+        assertThat(beforeLateReading.minutes().countAt(0), is(6L));
+        assertThat(beforeLateReading.minutes().maximumAt(0), is(366L));
+    }
+
+    @Test
+    public void shouldNotChangeSnapshotsTakenBeforeCompaction() {
+        ReadingSnapshot before = history.snapshot();
+
+        history.compact(MIDNIGHT + 7200, MIDNIGHT + 3600, Long.MIN_VALUE);
+        history.appendAll(new long[]{MIDNIGHT + 20_000}, new long[]{5}, 1);
+
+        assertThat(before.size(), is(1080));
+        assertThat(before.epochSecondAt(0), is(MIDNIGHT));
+        assertThat(before.readingAt(1079), is(1080L));
+        assertThat(history.snapshot().size(), is(361));
+        assertThat(history.snapshot().readingAt(360), is(5L));
+    }
+
+    @Test
+    public void shouldMergeLateReadingsIntoASealedChunk() {
+        ReadingSnapshot before = history.snapshot();
+
+        history.appendAll(new long[]{MIDNIGHT + 5}, new long[]{7}, 1);
+        ReadingSnapshot snapshot = history.snapshot();
+
+        assertThat(snapshot.size(), is(1081));
+        assertThat(snapshot.readingAt(0), is(1L));
+        assertThat(snapshot.readingAt(1), is(7L));
+        assertThat(snapshot.readingAt(2), is(2L));
+        assertThat(snapshot.readingAt(1080), is(1080L));
+        assertThat(snapshot.lowerBound(MIDNIGHT + 10_000), is(1001));
+        assertThat(before.readingAt(1), is(2L));
+        assertThat(before.aggregates(MIDNIGHT, MIDNIGHT + 20).getSum(), is(3L));
+    }
+
+    @Test
+    public void givenResentReadingsShouldKeepOneReadingPerSecond() {
+        long version = history.snapshot().version();
+
+        history.appendAll(new long[]{MIDNIGHT + 10, MIDNIGHT + 10_790}, new long[]{2, 1080}, 2);
+
+        assertThat(history.snapshot().version(), is(version));
+        assertThat(history.snapshot().aggregates().getCount(), is(1080L));
+
+        history.appendAll(new long[]{MIDNIGHT + 10_790, MIDNIGHT + 10, MIDNIGHT + 10, MIDNIGHT + 15}, new long[]{1080, 9, 50, 7}, 4);
+        ReadingSnapshot snapshot = history.snapshot();
+
+        assertThat(snapshot.size(), is(1081));
+        assertThat(snapshot.readingAt(1), is(50L));
+        assertThat(snapshot.readingAt(2), is(7L));
+        assertThat(snapshot.aggregates().getCount(), is(1081L));
+        assertThat(snapshot.aggregates().getSum(), is(1080L * 1081 / 2 - 2 + 50 + 7));
+        assertThat(snapshot.aggregates().getLastEpochSecond(), is(MIDNIGHT + 10_790));
+    }
+
+    @Test
+    public void givenWholeChunksRolledUpShouldStillReadTheRemainingReadings() {
+        history.compact(MIDNIGHT + 10_300, MIDNIGHT, Long.MIN_VALUE);
+        history.appendAll(new long[]{MIDNIGHT + 20_000}, new long[]{5}, 1);
+        ReadingSnapshot snapshot = history.snapshot();
+
+        assertThat(snapshot.size(), is(51));
+        assertThat(snapshot.epochSecondAt(0), is(MIDNIGHT + 10_300));
+        assertThat(snapshot.readingAt(0), is(1031L));
+        assertThat(snapshot.readingAt(50), is(5L));
+        assertThat(snapshot.lowerBound(MIDNIGHT + 10_790), is(49));
+    }
+
+    @Test
+    public void givenLateReadingForARolledUpMinuteShouldHoldItRawUntilTheNextCompaction() {
+        history.compact(MIDNIGHT + 7200, MIDNIGHT, Long.MIN_VALUE);
+
+        history.appendAll(new long[]{MIDNIGHT + 3605}, new long[]{1000}, 1);
+        ReadingSnapshot late = history.snapshot();
+        history.compact(MIDNIGHT + 7200, MIDNIGHT, Long.MIN_VALUE);
+        ReadingSnapshot compacted = history.snapshot();
+
+        assertThat(late.epochSecondAt(0), is(MIDNIGHT + 3605));
+        assertThat(late.minutes().countAt(60), is(6L));
+        assertThat(compacted.epochSecondAt(0), is(MIDNIGHT + 7200));
+        assertThat(compacted.minutes().size(), is(120));
+        assertThat(compacted.minutes().startAt(60), is(MIDNIGHT + 3600));
+        assertThat(compacted.minutes().countAt(60), is(7L));
+        assertThat(compacted.aggregates().getSum(), is(late.aggregates().getSum()));
+    }
+}
@@ -0,0 +1,116 @@
+package uk.tw.energy.store;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ReadingStoreFileTest {
+
+    private static final long MIDNIGHT = 1606694400L;
+
+    private Path directory;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("reading-store");
+    }
+
+    @Test
+    public void shouldReadBackEveryTierOfEveryMeter() throws IOException {
+        Map<String, ReadingHistory> histories = new HashMap<>();
+        Random random = new Random(19);
+        for (int meter = 0; meter < 20; meter++) {
+            ReadingHistory history = new ReadingHistory();
+            int count = random.nextInt(5_000);
+            long[] epochSeconds = new long[count];
+            long[] readings = new long[count];
+            for (int i = 0; i < count; i++) {
+                epochSeconds[i] = MIDNIGHT + 10L * i + random.nextInt(3);
+                readings[i] = random.nextInt(3_000_000);
+            }
+            history.appendAll(epochSeconds, readings, count);
+            history.compact(MIDNIGHT + 10L * random.nextInt(count + 1), MIDNIGHT + 10L * random.nextInt(count / 2 + 1), Long.MIN_VALUE);
+            histories.put("meter-" + meter, history);
+        }
+        histories.put("empty", new ReadingHistory());
+
+        List<String> smartMeterIds = new ArrayList<>(histories.keySet());
+        smartMeterIds.add(1, "skipped");
+        List<Path> files = ReadingStoreFile.write(directory, "partition-0", smartMeterIds.size(), smartMeterIds::get,
+                index -> histories.get(smartMeterIds.get(index)));
+        Map<String, ReadingHistory> loaded = new HashMap<>();
+        long readings = ReadingStoreFile.read(files.get(0), loaded::put);
+
+        assertThat(files.size(), is(1));
+        assertThat(ReadingStoreFile.files(directory), is(files));
+        assertThat(loaded.keySet(), is(histories.keySet()));
+        long expectedCount = 0;
+        for (Map.Entry<String, ReadingHistory> entry : histories.entrySet()) {
+            ReadingSnapshot expected = entry.getValue().snapshot();
+            ReadingSnapshot actual = loaded.get(entry.getKey()).snapshot();
+            expectedCount += expected.aggregates().getCount();
+            assertThat(actual.aggregates().getCount(), is(expected.aggregates().getCount()));
+            assertThat(actual.aggregates().getSum(), is(expected.aggregates().getSum()));
+            assertThat(actual.aggregates().getFirstEpochSecond(), is(expected.aggregates().getFirstEpochSecond()));
+            assertThat(actual.aggregates().getLastEpochSecond(), is(expected.aggregates().getLastEpochSecond()));
+            assertThat(actual.size(), is(expected.size()));
+            ReadingCursor expectedReadings = expected.cursor(0);
+            ReadingCursor actualReadings = actual.cursor(0);
+            while (expectedReadings.hasNext()) {
+                expectedReadings.next();
+                actualReadings.next();
+                assertThat(actualReadings.epochSecond(), is(expectedReadings.epochSecond()));
+                assertThat(actualReadings.reading(), is(expectedReadings.reading()));
+            }
+            for (Rollup[] tiers : new Rollup[][]{{expected.minutes(), actual.minutes()}, {expected.hours(), actual.hours()}}) {
+                assertThat(tiers[1].size(), is(tiers[0].size()));
+                for (int i = 0; i < tiers[0].size(); i++) {
+                    assertThat(tiers[1].startAt(i), is(tiers[0].startAt(i)));
+                    assertThat(tiers[1].countAt(i), is(tiers[0].countAt(i)));
+                    assertThat(tiers[1].sumAt(i), is(tiers[0].sumAt(i)));
+                    assertThat(tiers[1].minimumAt(i), is(tiers[0].minimumAt(i)));
+                    assertThat(tiers[1].maximumAt(i), is(tiers[0].maximumAt(i)));
+                }
+            }
+        }
+        assertThat(readings, is(expectedCount));
+    }
+
+    @Test
+    public void shouldKeepAppendingToALoadedHistory() throws IOException {
+        ReadingHistory history = new ReadingHistory();
+        long[] epochSeconds = new long[1_500];
+        long[] readings = new long[1_500];
+        for (int i = 0; i < 1_500; i++) {
+            epochSeconds[i] = MIDNIGHT + 10L * i;
+            readings[i] = i;
+        }
+        history.appendAll(epochSeconds, readings, 1_000);
+
+        List<Path> files = ReadingStoreFile.write(directory, "partition-0", 1, index -> "meter-0", index -> history);
+        Map<String, ReadingHistory> loaded = new HashMap<>();
+        ReadingStoreFile.read(files.get(0), loaded::put);
+        ReadingHistory restored = loaded.get("meter-0");
+        restored.appendAll(Arrays.copyOfRange(epochSeconds, 1_000, 1_500), Arrays.copyOfRange(readings, 1_000, 1_500), 500);
+        restored.appendAll(new long[]{MIDNIGHT + 5}, new long[]{7}, 1);
+        ReadingSnapshot snapshot = restored.snapshot();
+
+        assertThat(snapshot.size(), is(1_501));
+        assertThat(snapshot.readingAt(1), is(7L));
+        assertThat(snapshot.readingAt(1_500), is(1_499L));
+        assertThat(snapshot.aggregates().getSum(), is(1_499L * 1_500 / 2 + 7));
+        assertThat(history.snapshot().size(), is(1_000));
+    }
+}